@@ -0,0 +1,133 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * BaselineComparator compares a results file of JMH in CSV format against a stored baseline in the same format.
+ * Results are matched by the benchmark name and its parameters. A result is a regression when it is worse than the
+ * baseline by more than the threshold: slower in the time modes, lower in the throughput mode, or allocating more
+ * bytes per operation when both files were profiled with the gc profiler. The rest of the profiler rows are ignored.
+ * Usage: BaselineComparator baseline.csv results.csv [threshold percent, default 10]
+ * The exit code is the number of regressions, capped at 100.
+ */
+public final class BaselineComparator {
+    private static final String ALLOCATION_SUFFIX = "gc.alloc.rate.norm"; //Secondary result of the bytes allocated per operation.
+
+    private BaselineComparator(){
+    }
+
+
+    /**
+     * Compares the files given in the arguments, printing a line for every result.
+     * @param args Path of the baseline, path of the results, and optionally the threshold in percents.
+     * @throws IOException Whenever a file can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2){
+            System.err.println("Usage: BaselineComparator baseline.csv results.csv [threshold percent]");
+            System.exit(-1);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        int regressions = compare(Paths.get(args[0]), Paths.get(args[1]), threshold, System.out);
+        System.exit(Math.min(regressions, 100));
+    }
+
+
+    /**
+     * Compares a results file against a baseline.
+     * @param baseline Path of the baseline.
+     * @param results Path of the results.
+     * @param thresholdPercent Largest change for the worse which isn't a regression, in percents.
+     * @param out Stream the comparison is printed to.
+     * @return Number of regressions.
+     * @throws IOException Whenever a file can't be read.
+     */
+    public static int compare(Path baseline, Path results, double thresholdPercent, PrintStream out) throws IOException {
+        Map<String, String[]> baselineRows = readResults(baseline);
+        Map<String, String[]> resultRows = readResults(results);
+        int regressions = 0;
+        out.printf("%-70s %14s %14s %9s%n", "benchmark", "baseline", "result", "change");
+        for(Map.Entry<String, String[]> entry : resultRows.entrySet()){
+            String[] result = entry.getValue();
+            String[] base = baselineRows.get(entry.getKey());
+            if(base == null){
+                out.printf("%-70s %14s %14.3f %9s%n", entry.getKey(), "-", Double.parseDouble(result[4]), "new");
+                continue;
+            }
+            double baseScore = Double.parseDouble(base[4]), resultScore = Double.parseDouble(result[4]);
+            double change = baseScore == 0.0 ? 0.0 : 100.0 * (resultScore - baseScore) / baseScore;
+            boolean higherIsBetter = result[1].equals("thrpt") && !result[0].endsWith(ALLOCATION_SUFFIX);
+            double worsening = higherIsBetter ? -change : change;
+            boolean regression = worsening > thresholdPercent;
+            if(regression)
+                regressions++;
+            out.printf("%-70s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), baseScore, resultScore, change, regression ? "  REGRESSION" : "");
+        }
+        out.println(regressions + " regression(s) over " + thresholdPercent + "%");
+        return regressions;
+    }
+
+
+    /**
+     * Reads the rows of a JMH CSV file, keyed by the benchmark name and the values of its parameters.
+     * Rows of secondary results of the profilers are kept only for the allocation per operation.
+     * @param file Path of the file.
+     * @return Columns of each row, keyed in the order of the file.
+     * @throws IOException Whenever the file can't be read.
+     */
+    private static Map<String, String[]> readResults(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        Map<String, String[]> rows = new LinkedHashMap<>();
+        if(lines.isEmpty())
+            return rows;
+        String[] header = splitCsv(lines.get(0));
+        for(String line : lines.subList(1, lines.size())){
+            if(line.isEmpty())
+                continue;
+            String[] columns = splitCsv(line);
+            if(columns[0].contains(":") && !columns[0].endsWith(ALLOCATION_SUFFIX))
+                continue;
+            //The columns after the unit are the parameters of the benchmark.
+            List<String> params = new ArrayList<>();
+            for(int i = 7; i < columns.length && i < header.length; i++){
+                params.add(header[i].replace("Param: ", "") + "=" + columns[i]);
+            }
+            rows.put(params.isEmpty() ? columns[0] : columns[0] + " (" + String.join(", ", params) + ")", columns);
+        }
+        return rows;
+    }
+
+
+    /**
+     * Splits a CSV line into its columns, removing the quotes around quoted columns.
+     * @param line Line of the file.
+     * @return Columns of the line.
+     */
+    private static String[] splitCsv(String line){
+        List<String> columns = new ArrayList<>();
+        StringBuilder column = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0; i < line.length(); i++){
+            char c = line.charAt(i);
+            if(c == '"')
+                quoted = !quoted;
+            else if(c == ',' && !quoted){
+                columns.add(column.toString());
+                column.setLength(0);
+            }
+            else
+                column.append(c);
+        }
+        columns.add(column.toString());
+        return columns.toArray(new String[0]);
+    }
+}
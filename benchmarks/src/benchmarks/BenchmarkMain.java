@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+
+/**
+ * Runs the benchmarks and writes their results to a CSV file, which can be compared against a stored baseline.
+ * Usage: BenchmarkMain [-gc] [-results file] [-baseline file] [-threshold percent] [benchmark regex]
+ * -gc adds the gc profiler, which reports the bytes allocated per operation.
+ * -results is the CSV file of the results, benchmarks/results.csv by default.
+ * -baseline compares the results against the given CSV file, see BaselineComparator. The exit code is then
+ * the number of regressions. A results file is turned into the baseline by copying it.
+ * The regex picks the benchmarks to run, all of them by default.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain(){
+    }
+
+
+    /**
+     * Runs the benchmarks.
+     * @param args Options, see the class documentation.
+     * @throws RunnerException Whenever JMH fails to run the benchmarks.
+     * @throws IOException Whenever the baseline can't be read.
+     */
+    public static void main(String[] args) throws RunnerException, IOException {
+        String results = "benchmarks/results.csv", baseline = null, include = "benchmarks\\..*Benchmark.*";
+        double threshold = 10.0;
+        boolean gc = false;
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "-gc":
+                    gc = true;
+                    break;
+                case "-results":
+                    results = args[++i];
+                    break;
+                case "-baseline":
+                    baseline = args[++i];
+                    break;
+                case "-threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    include = args[i];
+                    break;
+            }
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.CSV)
+                .result(results);
+        if(gc)
+            options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+
+        if(baseline != null)
+            System.exit(Math.min(BaselineComparator.compare(Paths.get(baseline), Paths.get(results), threshold, System.out), 100));
+    }
+}
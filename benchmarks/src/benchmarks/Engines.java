@@ -0,0 +1,219 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * Engines gives the benchmarks access to the classes of the project. JMH refuses benchmarks in the default package,
+ * and classes of a named package can't import the default package, therefore the project's classes are reached
+ * through method handles. The handles are constants, so the JIT inlines them like direct calls.
+ */
+final class Engines {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final MethodHandle NEW_NETWORK; //new BayesianNetwork(String)
+
+    private static final MethodHandle ANSWER; //BayesianNetwork.answer(String[], String[], int)
+
+    private static final MethodHandle PROBABILITY; //QueryAnswer.getProbability()
+
+    private static final MethodHandle DEFAULT_KERNELS; //FactorKernels.getDefault()
+
+    private static final MethodHandle PRODUCT; //FactorKernels.product(...), the kernel of join.
+
+    private static final MethodHandle SUM_OUT; //FactorKernels.sumOut(...), the kernel of eliminate.
+
+    private static final MethodHandle SLICE; //FactorKernels.slice(...), the kernel of instantiate.
+
+    private static final MethodHandle NORMALIZE; //FactorKernels.normalize(...), the kernel of the normalization.
+
+    static {
+        try {
+            Class<?> network = Class.forName("BayesianNetwork");
+            Class<?> answer = Class.forName("QueryAnswer");
+            Class<?> kernels = Class.forName("FactorKernels");
+            NEW_NETWORK = LOOKUP.findConstructor(network, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            ANSWER = LOOKUP.findVirtual(network, "answer", MethodType.methodType(answer, String[].class, String[].class, int.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, String[].class, String[].class, int.class));
+            PROBABILITY = LOOKUP.findVirtual(answer, "getProbability", MethodType.methodType(double.class))
+                    .asType(MethodType.methodType(double.class, Object.class));
+            DEFAULT_KERNELS = LOOKUP.findStatic(kernels, "getDefault", MethodType.methodType(kernels))
+                    .asType(MethodType.methodType(Object.class));
+            PRODUCT = LOOKUP.findVirtual(kernels, "product", MethodType.methodType(void.class, double[].class, int.class, int.class,
+                            double[].class, int.class, int.class, double[].class, int.class, int.class, boolean.class))
+                    .asType(MethodType.methodType(void.class, Object.class, double[].class, int.class, int.class,
+                            double[].class, int.class, int.class, double[].class, int.class, int.class, boolean.class));
+            SUM_OUT = LOOKUP.findVirtual(kernels, "sumOut", MethodType.methodType(void.class, double[].class, int.class, int.class,
+                            int.class, int.class, double[].class, int.class, int.class))
+                    .asType(MethodType.methodType(void.class, Object.class, double[].class, int.class, int.class,
+                            int.class, int.class, double[].class, int.class, int.class));
+            SLICE = LOOKUP.findVirtual(kernels, "slice", MethodType.methodType(void.class, double[].class, int.class, int.class,
+                            double[].class, int.class, int.class))
+                    .asType(MethodType.methodType(void.class, Object.class, double[].class, int.class, int.class,
+                            double[].class, int.class, int.class));
+            NORMALIZE = LOOKUP.findVirtual(kernels, "normalize", MethodType.methodType(double.class, double[].class, int.class, int.class))
+                    .asType(MethodType.methodType(double.class, Object.class, double[].class, int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Engines(){
+    }
+
+
+    /**
+     * Loads a network bundled with the benchmarks. The parser reads files, therefore the resource is copied to a
+     * temporary file first.
+     * @param resource Name of the resource, such as alarm_net.xml.
+     * @return The network, as a BayesianNetwork.
+     */
+    static Object loadNetwork(String resource){
+        try (InputStream in = Engines.class.getResourceAsStream("/" + resource)) {
+            if(in == null)
+                throw new IllegalArgumentException("Missing bundled network " + resource);
+            Path file = Files.createTempFile("bench", ".xml");
+            file.toFile().deleteOnExit();
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            return (Object) NEW_NETWORK.invokeExact(file.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * Answers a query, see BayesianNetwork.answer().
+     * @param network The network.
+     * @param names Names of the query, the query variable first and then the evidence.
+     * @param values The values given with the names in the same order.
+     * @param algorithm Number of the engine.
+     * @return Probability of the query.
+     */
+    static double answer(Object network, String[] names, String[] values, int algorithm){
+        try {
+            Object answer = (Object) ANSWER.invokeExact(network, names, values, algorithm);
+            return (double) PROBABILITY.invokeExact(answer);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * Returns the kernels the factor operations use, see FactorKernels.getDefault().
+     * @return The kernels, as a FactorKernels.
+     */
+    static Object defaultKernels(){
+        try {
+            return (Object) DEFAULT_KERNELS.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * Runs FactorKernels.product().
+     * @param kernels The kernels.
+     * @param a Cells of the first table.
+     * @param aOffset Cell of the first table where the run starts.
+     * @param aStride Stride of the run in the first table.
+     * @param b Cells of the second table.
+     * @param bOffset Cell of the second table where the run starts.
+     * @param bStride Stride of the run in the second table.
+     * @param out Cells of the output table.
+     * @param outOffset Cell of the output table where the run starts.
+     * @param length Number of cells in the run.
+     */
+    static void product(Object kernels, double[] a, int aOffset, int aStride, double[] b, int bOffset, int bStride,
+                        double[] out, int outOffset, int length){
+        try {
+            PRODUCT.invokeExact(kernels, a, aOffset, aStride, b, bOffset, bStride, out, outOffset, length, false);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * Runs FactorKernels.sumOut().
+     * @param kernels The kernels.
+     * @param source Cells of the source table.
+     * @param sourceOffset Cell of the first outcome of the first output cell.
+     * @param sourceStride Stride of the run in the source table.
+     * @param hiddenStride Stride of the summed variable in the source table.
+     * @param hiddenCount Number of outcomes of the summed variable.
+     * @param out Cells of the output table.
+     * @param outOffset Cell of the output table where the run starts.
+     * @param length Number of output cells in the run.
+     */
+    static void sumOut(Object kernels, double[] source, int sourceOffset, int sourceStride, int hiddenStride, int hiddenCount,
+                       double[] out, int outOffset, int length){
+        try {
+            SUM_OUT.invokeExact(kernels, source, sourceOffset, sourceStride, hiddenStride, hiddenCount, out, outOffset, length);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * Runs FactorKernels.slice().
+     * @param kernels The kernels.
+     * @param source Cells of the source table.
+     * @param sourceOffset Cell of the source table where the run starts.
+     * @param sourceStride Stride of the run in the source table.
+     * @param out Cells of the output table.
+     * @param outOffset Cell of the output table where the run starts.
+     * @param length Number of cells in the run.
+     */
+    static void slice(Object kernels, double[] source, int sourceOffset, int sourceStride, double[] out, int outOffset, int length){
+        try {
+            SLICE.invokeExact(kernels, source, sourceOffset, sourceStride, out, outOffset, length);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * Runs FactorKernels.normalize().
+     * @param kernels The kernels.
+     * @param values Cells of the table.
+     * @param offset Cell where the run starts.
+     * @param length Number of cells in the run.
+     * @return The sum the cells were divided by.
+     */
+    static double normalize(Object kernels, double[] values, int offset, int length){
+        try {
+            return (double) NORMALIZE.invokeExact(kernels, values, offset, length);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * Rethrows a failure of a method handle unchanged when it is unchecked, and wrapped otherwise.
+     * @param e The failure.
+     * @return Never returns, declared so the callers can throw it.
+     */
+    private static RuntimeException rethrow(Throwable e){
+        if(e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if(e instanceof Error)
+            throw (Error) e;
+        throw new RuntimeException(e);
+    }
+}
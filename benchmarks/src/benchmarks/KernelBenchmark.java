@@ -0,0 +1,122 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The factor kernels on tables of a given number of output cells: product is the inner loop of join, sumOut of
+ * eliminate, slice of instantiate, and normalize of the final normalization. Each benchmark runs the kernel over
+ * the whole table as a single run, with the strides of the common cases of the factor operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    public int cells; //Number of output cells.
+
+    private Object kernels; //Kernels the factor operations use.
+
+    private double[] a, b; //Cells of the input tables, twice the output size so binary variables can be summed out or sliced.
+
+    private double[] out; //Cells of the output table.
+
+
+    /**
+     * Fills the tables with random probabilities.
+     */
+    @Setup
+    public void setup(){
+        kernels = Engines.defaultKernels();
+        Random random = new Random(42);
+        a = new double[2 * cells];
+        b = new double[2 * cells];
+        out = new double[cells];
+        for(int i = 0; i < a.length; i++){
+            a[i] = random.nextDouble();
+            b[i] = random.nextDouble();
+        }
+        System.arraycopy(a, 0, out, 0, cells); //The normalization runs on the output table in place.
+    }
+
+
+    /**
+     * Join of two tables over the same variables.
+     * @return The output table, consumed by JMH.
+     */
+    @Benchmark
+    public double[] join(){
+        Engines.product(kernels, a, 0, 1, b, 0, 1, out, 0, cells);
+        return out;
+    }
+
+
+    /**
+     * Join where the second table doesn't change along the run, such as a table of a parent joined with its child.
+     * @return The output table, consumed by JMH.
+     */
+    @Benchmark
+    public double[] joinBroadcast(){
+        Engines.product(kernels, a, 0, 1, b, 0, 0, out, 0, cells);
+        return out;
+    }
+
+
+    /**
+     * Elimination of a binary variable which is the innermost variable of the table.
+     * @return The output table, consumed by JMH.
+     */
+    @Benchmark
+    public double[] eliminateInner(){
+        Engines.sumOut(kernels, a, 0, 2, 1, 2, out, 0, cells);
+        return out;
+    }
+
+
+    /**
+     * Elimination of a binary variable which is the outermost variable of the table.
+     * @return The output table, consumed by JMH.
+     */
+    @Benchmark
+    public double[] eliminateOuter(){
+        Engines.sumOut(kernels, a, 0, 1, cells, 2, out, 0, cells);
+        return out;
+    }
+
+
+    /**
+     * Instantiation of a binary variable which is the innermost variable of the table.
+     * @return The output table, consumed by JMH.
+     */
+    @Benchmark
+    public double[] instantiate(){
+        Engines.slice(kernels, a, 1, 2, out, 0, cells);
+        return out;
+    }
+
+
+    /**
+     * Normalization of the output table.
+     * @return The sum of the table, consumed by JMH.
+     */
+    @Benchmark
+    public double normalize(){
+        return Engines.normalize(kernels, out, 0, cells);
+    }
+}
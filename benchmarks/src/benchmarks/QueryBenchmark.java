@@ -0,0 +1,79 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * End to end queries on the bundled networks, answered by func1(), func2() and func3().
+ * The query types range from a direct CPT lookup, through a query with a few hidden variables, to a deep chain
+ * where every variable between the query and the evidence is hidden:
+ * direct - P(A=T|E=T,B=T) on the alarm network, answered from the CPT of A.
+ * evidence - P(B=T|J=T,M=T) on the alarm network, with the hidden variables E and A.
+ * chain - P(X0=T|X15=T) on a chain of 16 variables, with 14 hidden variables in a row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    @Param({"direct", "evidence", "chain"})
+    public String query; //Type of the query.
+
+    @Param({"1", "2", "3"})
+    public int algorithm; //Number of the func.
+
+    private Object network; //Network of the query.
+
+    private String[] names, values; //Names and values of the query.
+
+
+    /**
+     * Loads the network of the query.
+     */
+    @Setup
+    public void setup(){
+        switch (query){
+            case "direct":
+                network = Engines.loadNetwork("alarm_net.xml");
+                names = new String[]{"A", "E", "B"};
+                values = new String[]{"T", "T", "T"};
+                break;
+            case "evidence":
+                network = Engines.loadNetwork("alarm_net.xml");
+                names = new String[]{"B", "J", "M"};
+                values = new String[]{"T", "T", "T"};
+                break;
+            case "chain":
+                network = Engines.loadNetwork("chain_net.xml");
+                names = new String[]{"X0", "X15"};
+                values = new String[]{"T", "T"};
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown query type " + query);
+        }
+    }
+
+
+    /**
+     * Answers the query.
+     * @return Probability of the query, consumed by JMH.
+     */
+    @Benchmark
+    public double answer(){
+        return Engines.answer(network, names, values, algorithm);
+    }
+}
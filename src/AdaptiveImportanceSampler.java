@@ -0,0 +1,262 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * AdaptiveImportanceSampler answers queries with rare evidence, in the style of AIS-BN. Instead of drawing each
+ * variable from its CPT, it draws it from an importance table of the same shape as the CPT, which is learned so that
+ * the samples concentrate where the evidence is likely.
+ * The tables start as the CPTs, with uniform rows for the parents of the evidence and with small probabilities raised
+ * to a threshold, so no outcome is starved. Then, in each stage, a batch of samples is drawn from the tables,
+ * and every row moves towards the weighted frequencies of its outcomes in the batch, at a learning rate which decays
+ * over the stages.
+ * The final estimate is drawn from the learned tables by the likelihood weighting sampler's parallel batches,
+ * with every sample weighted by its CPT cells over its importance cells.
+ * Every learning stage, and every batch of the final estimate, checks the limits of the query's context first.
+ */
+public class AdaptiveImportanceSampler {
+    private static final double RATE_START = 0.4, RATE_END = 0.14; //Learning rate of the first and the last stage.
+
+    private static final double THRESHOLD = 0.08; //Smallest importance probability, over the number of outcomes.
+
+    private final BayesianNetwork network; //Network the queries are asked on.
+
+    private final ForkJoinPool pool; //Pool which draws the final estimate.
+
+    private final int stages; //Learning stages.
+
+    private final int stageSamples; //Samples of a single learning stage.
+
+    private final long maxSamples; //Samples of the final estimate to stop after.
+
+    private final double targetWidth; //Width of the confidence interval to stop the final estimate at.
+
+    private final double zScore; //Number of standard errors on each side of the confidence interval.
+
+    private final long seed; //Seed of the root random stream.
+
+
+    /**
+     * Builds a sampler which draws on the network's fork/join pool, whose settings are given by the system properties
+     * bn.ais.stages(default 10), bn.ais.stageSamples(default 2500), bn.ais.maxSamples(default 1000000),
+     * bn.ais.ciWidth(default 0.01), bn.ais.z(default 1.96) and bn.ais.seed(default 1).
+     * @param network Network the queries are asked on.
+     */
+    public AdaptiveImportanceSampler(BayesianNetwork network){
+        this(network, network.getForkJoinPool(), Integer.getInteger("bn.ais.stages", 10), Integer.getInteger("bn.ais.stageSamples", 2500),
+                Long.getLong("bn.ais.maxSamples", 1000000), Double.parseDouble(System.getProperty("bn.ais.ciWidth", "0.01")),
+                Double.parseDouble(System.getProperty("bn.ais.z", "1.96")), Long.getLong("bn.ais.seed", 1));
+    }
+
+
+    /**
+     * Builds a sampler with the given settings.
+     * @param network Network the queries are asked on.
+     * @param pool Pool which draws the final estimate.
+     * @param stages Learning stages.
+     * @param stageSamples Samples of a single learning stage.
+     * @param maxSamples Samples of the final estimate to stop after.
+     * @param targetWidth Width of the confidence interval to stop the final estimate at.
+     * @param zScore Number of standard errors on each side of the confidence interval.
+     * @param seed Seed of the root random stream.
+     */
+    public AdaptiveImportanceSampler(BayesianNetwork network, ForkJoinPool pool, int stages, int stageSamples, long maxSamples,
+                                     double targetWidth, double zScore, long seed){
+        this.network = network;
+        this.pool = pool;
+        this.stages = stages;
+        this.stageSamples = stageSamples;
+        this.maxSamples = maxSamples;
+        this.targetWidth = targetWidth;
+        this.zScore = zScore;
+        this.seed = seed;
+    }
+
+
+    /**
+     * Answers a query approximately, with the estimate as the probability.
+     * The counts of the answer are the operations of weighting the final samples.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query approximately, within the limits of a context.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, checked before every learning stage and every batch of the final estimate.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        //If query can be obtainable directly, same as func2() and func3().
+        if(network.IsProbabilityValueDirect(names))
+            return new QueryAnswer(network.getDirectProbability(names, truthValsArr), 0, 0);
+        return sample(names, truthValsArr, false, context).toQueryAnswer();
+    }
+
+
+    /**
+     * Estimates the posterior of a query by adaptive importance sampling.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param compare Whenever to also run likelihood weighting with the same number of samples, for the variance reduction.
+     * @param context Limits of the query, checked before every learning stage and every batch of samples.
+     * @return The estimate with its standard error, effective sample size and variance reduction(NaN when not compared).
+     */
+    public ImportanceSamplingResult sample(String[] names, String[] truthValsArr, boolean compare, QueryContext context){
+        SamplingModel model = new SamplingModel(network, names);
+        int[] evidence = new int[model.getVarCount()];
+        Arrays.fill(evidence, -1);
+        for(int i = 1; i < names.length; i++){
+            int var = model.getVarId(names[i]);
+            evidence[var] = model.getOutcomeId(var, truthValsArr[i]);
+        }
+        int queryVar = model.getVarId(names[0]);
+        int queryOutcome = model.getOutcomeId(queryVar, truthValsArr[0]);
+
+        SplittableRandom root = new SplittableRandom(seed);
+        double[][] proposals = learnProposals(model, evidence, root.split(), context);
+        SamplingResult result = new LikelihoodWeightingSampler(network, pool, maxSamples, targetWidth, zScore, root.nextLong())
+                .estimate(model, evidence, queryVar, queryOutcome, proposals, context);
+        if(!compare)
+            return new ImportanceSamplingResult(result, Double.NaN);
+
+        SamplingResult baseline = new LikelihoodWeightingSampler(network, pool, result.getSamples(), 0.0, zScore, root.nextLong())
+                .estimate(model, evidence, queryVar, queryOutcome, null, context);
+        double variance = result.getStandardError() * result.getStandardError();
+        double baselineVariance = baseline.getStandardError() * baseline.getStandardError();
+        return new ImportanceSamplingResult(result, baselineVariance / variance);
+    }
+
+
+    /**
+     * Learns the importance tables over the stages.
+     * @param model Model of the query.
+     * @param evidence Outcome index of each evidence variable, -1 for the rest.
+     * @param random Random stream of the learning stages.
+     * @param context Limits of the query, checked before every stage and before the frequency table of each variable is allocated.
+     * @return Importance table of each variable, null for the evidence variables.
+     */
+    private double[][] learnProposals(SamplingModel model, int[] evidence, SplittableRandom random, QueryContext context){
+        int varCount = model.getVarCount();
+        double[][] proposals = initialProposals(model, evidence);
+        double[][] frequencies = new double[varCount][];
+        for(int var = 0; var < varCount; var++){
+            if(proposals[var] != null){
+                context.checkCells(proposals[var].length);
+                frequencies[var] = new double[proposals[var].length];
+            }
+        }
+
+        int[] sample = new int[varCount];
+        int[] rowOffsets = new int[varCount];
+        for(int stage = 0; stage < stages; stage++){
+            context.checkpoint();
+            for(double[] frequency : frequencies){
+                if(frequency != null)
+                    Arrays.fill(frequency, 0.0);
+            }
+
+            //Weighted frequencies of the outcomes of each row.
+            for(int i = 0; i < stageSamples; i++){
+                double weight = 1.0;
+                for(int var = 0; var < varCount; var++){
+                    rowOffsets[var] = model.getRowOffset(var, sample);
+                    double[] cpt = model.getCpt(var);
+                    if(evidence[var] != -1){
+                        sample[var] = evidence[var];
+                        weight *= cpt[rowOffsets[var] + evidence[var]];
+                    }
+                    else {
+                        sample[var] = model.drawOutcome(var, proposals[var], rowOffsets[var], random.nextDouble());
+                        weight *= cpt[rowOffsets[var] + sample[var]] / proposals[var][rowOffsets[var] + sample[var]];
+                    }
+                }
+                for(int var = 0; var < varCount; var++){
+                    if(frequencies[var] != null)
+                        frequencies[var][rowOffsets[var] + sample[var]] += weight;
+                }
+            }
+
+            //Every row which was sampled moves towards its frequencies.
+            double rate = RATE_START * Math.pow(RATE_END / RATE_START, (double) stage / Math.max(stages - 1, 1));
+            for(int var = 0; var < varCount; var++){
+                if(proposals[var] == null)
+                    continue;
+                int outcomeCount = model.getOutcomeCount(var);
+                for(int rowOffset = 0; rowOffset < proposals[var].length; rowOffset += outcomeCount){
+                    double total = 0.0;
+                    for(int outcome = 0; outcome < outcomeCount; outcome++){
+                        total += frequencies[var][rowOffset + outcome];
+                    }
+                    if(total == 0.0)
+                        continue;
+                    for(int outcome = 0; outcome < outcomeCount; outcome++){
+                        double target = frequencies[var][rowOffset + outcome] / total;
+                        proposals[var][rowOffset + outcome] += rate * (target - proposals[var][rowOffset + outcome]);
+                    }
+                    applyThreshold(proposals[var], rowOffset, outcomeCount);
+                }
+            }
+        }
+        return proposals;
+    }
+
+
+    /**
+     * Builds the initial importance tables: the CPTs, with uniform rows for the parents of the evidence,
+     * and with every probability raised to the threshold.
+     * @param model Model of the query.
+     * @param evidence Outcome index of each evidence variable, -1 for the rest.
+     * @return Importance table of each variable, null for the evidence variables.
+     */
+    private static double[][] initialProposals(SamplingModel model, int[] evidence){
+        int varCount = model.getVarCount();
+        boolean[] evidenceParent = new boolean[varCount];
+        for(int var = 0; var < varCount; var++){
+            if(evidence[var] != -1){
+                for(int parent : model.getParents(var)){
+                    evidenceParent[parent] = true;
+                }
+            }
+        }
+
+        double[][] proposals = new double[varCount][];
+        for(int var = 0; var < varCount; var++){
+            if(evidence[var] != -1)
+                continue;
+            int outcomeCount = model.getOutcomeCount(var);
+            proposals[var] = model.getCpt(var).clone();
+            for(int rowOffset = 0; rowOffset < proposals[var].length; rowOffset += outcomeCount){
+                if(evidenceParent[var])
+                    Arrays.fill(proposals[var], rowOffset, rowOffset + outcomeCount, 1.0 / outcomeCount);
+                applyThreshold(proposals[var], rowOffset, outcomeCount);
+            }
+        }
+        return proposals;
+    }
+
+
+    /**
+     * Raises the probabilities of a row to the threshold, and normalizes the row.
+     * @param table CPT shaped table.
+     * @param rowOffset Index of the first cell of the row.
+     * @param outcomeCount Number of outcomes of the row.
+     */
+    private static void applyThreshold(double[] table, int rowOffset, int outcomeCount){
+        double threshold = THRESHOLD / outcomeCount, total = 0.0;
+        for(int outcome = 0; outcome < outcomeCount; outcome++){
+            table[rowOffset + outcome] = Math.max(table[rowOffset + outcome], threshold);
+            total += table[rowOffset + outcome];
+        }
+        for(int outcome = 0; outcome < outcomeCount; outcome++){
+            table[rowOffset + outcome] /= total;
+        }
+    }
+}
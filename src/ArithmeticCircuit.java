@@ -0,0 +1,923 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * ArithmeticCircuit is a compiled form of a network: a circuit of sums and products over the network's parameters and
+ * evidence indicators, which calculates the network polynomial. Every variable outcome has an indicator, which is 1
+ * when the outcome agrees with the evidence and 0 otherwise, so the circuit's value is the probability of the evidence.
+ * The circuit is compiled by recording the trace of a variable elimination of all the variables, where every cell of
+ * every factor is a circuit node: joins record products, and eliminations record sums.
+ * The nodes are kept in flat arrays, in an order where children come before their parents. A single upward pass
+ * calculates the probability of the evidence, and a single downward pass calculates the derivative of the circuit
+ * by each indicator, which gives the posterior of every outcome of every variable. Both passes take time linear
+ * in the size of the circuit, for any evidence.
+ * Compiling checks the limits of the query's context before every eliminated variable, with the size the circuit
+ * would grow to, and evaluating checks them every CHECKPOINT_NODES nodes of each pass.
+ */
+public class ArithmeticCircuit {
+    private static final int MAGIC = 0x42414331; //Start of a serialized circuit.
+
+    static final byte PARAMETER = 0, INDICATOR = 1, SUM = 2, PRODUCT = 3; //Types of nodes.
+
+    private static final int CHECKPOINT_NODES = 1 << 16; //Nodes of a pass between checks of the query's limits.
+
+    private final String[] varNames; //Names of the variables.
+
+    private final String[][] varOutcomes; //Outcomes of each variable.
+
+    private final int[] indicatorOffsets; //Index of the first indicator of each variable.
+
+    private final byte[] types; //Type of each node.
+
+    private final int[] childStarts; //Children of node i are children[childStarts[i]] to children[childStarts[i + 1] - 1].
+
+    private final int[] children; //Children of all the nodes, node after node.
+
+    private final int[] leafData; //Parameter index of parameter nodes, indicator index of indicator nodes.
+
+    private final double[] parameters; //Distinct parameter values.
+
+    private final int[] indicatorNodes; //Node of each indicator.
+
+    private final int[] indicatorVars; //Variable of each indicator.
+
+    private final int root; //Node of the circuit's value.
+
+    private final HashMap<String, Integer> varIds = new HashMap<>(); //Index of each variable by its name.
+
+
+    /**
+     * Builds a circuit over its flat arrays.
+     * @param varNames Names of the variables.
+     * @param varOutcomes Outcomes of each variable.
+     * @param types Type of each node.
+     * @param childStarts Start of the children of each node, and the end of the last one.
+     * @param children Children of all the nodes.
+     * @param leafData Parameter or indicator index of each leaf.
+     * @param parameters Distinct parameter values.
+     * @param root Node of the circuit's value.
+     */
+    private ArithmeticCircuit(String[] varNames, String[][] varOutcomes, byte[] types, int[] childStarts, int[] children,
+                              int[] leafData, double[] parameters, int root){
+        this.varNames = varNames;
+        this.varOutcomes = varOutcomes;
+        this.types = types;
+        this.childStarts = childStarts;
+        this.children = children;
+        this.leafData = leafData;
+        this.parameters = parameters;
+        this.root = root;
+
+        this.indicatorOffsets = new int[varNames.length + 1];
+        for(int var = 0; var < varNames.length; var++){
+            varIds.put(varNames[var], var);
+            indicatorOffsets[var + 1] = indicatorOffsets[var] + varOutcomes[var].length;
+        }
+        this.indicatorNodes = new int[indicatorOffsets[varNames.length]];
+        this.indicatorVars = new int[indicatorNodes.length];
+        for(int var = 0; var < varNames.length; var++){
+            Arrays.fill(indicatorVars, indicatorOffsets[var], indicatorOffsets[var + 1], var);
+        }
+        for(int node = 0; node < types.length; node++){
+            if(types[node] == INDICATOR)
+                indicatorNodes[leafData[node]] = node;
+        }
+    }
+
+
+    /**
+     * Compiles a network into a circuit. Every variable is eliminated in a min-degree order of the moral graph,
+     * and the joins and eliminations are recorded as circuit nodes instead of being calculated.
+     * The size of the circuit is the total size of the tables such an elimination builds.
+     * @param network Network to compile.
+     * @return The compiled circuit.
+     */
+    public static ArithmeticCircuit compile(BayesianNetwork network){
+        return compile(network, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Compiles a network into a circuit, within the limits of a context.
+     * @param network Network to compile.
+     * @param context Limits of the compilation, see compile(BayesianNetwork, List, QueryContext).
+     * @return The compiled circuit.
+     */
+    public static ArithmeticCircuit compile(BayesianNetwork network, QueryContext context){
+        List<String> variables = new ArrayList<>();
+        for(int var = 0; var < network.getNodeCount(); var++){
+            variables.add(network.getNodeByIndex(var).getVariableNodeName());
+        }
+        return compile(network, variables, context);
+    }
+
+
+    /**
+     * Compiles part of a network into a circuit, the same as compile(network) does for the entire network.
+     * The variables must include the parents of every variable, as the circuit only has their CPTs.
+     * @param network Network to compile.
+     * @param variables Names of the variables to compile, closed under taking parents.
+     * @param context Limits of the compilation, checked before every eliminated variable. Its table limit applies to
+     *                the number of nodes of the circuit, together with the joined table of the variable.
+     * @return The compiled circuit, whose variables are in the given order.
+     */
+    static ArithmeticCircuit compile(BayesianNetwork network, List<String> variables, QueryContext context){
+        int varCount = variables.size();
+        String[] varNames = new String[varCount];
+        String[][] varOutcomes = new String[varCount][];
+        HashMap<String, Integer> ids = new HashMap<>();
+        for(int var = 0; var < varCount; var++){
+            VariableNode node = network.getNodeByName(variables.get(var));
+            varNames[var] = node.getVariableNodeName();
+            varOutcomes[var] = node.getPossibleOutcomes();
+            ids.put(varNames[var], var);
+        }
+        Builder builder = new Builder();
+        int[] indicatorOffsets = new int[varCount + 1];
+        for(int var = 0; var < varCount; var++){
+            indicatorOffsets[var + 1] = indicatorOffsets[var] + varOutcomes[var].length;
+        }
+
+        //Each CPT cell is the product of its parameter and the indicator of the CPT's own variable.
+        List<SymbolicFactor> factors = new ArrayList<>();
+        List<Set<Integer>> neighbors = new ArrayList<>();
+        for(int var = 0; var < varCount; var++){
+            neighbors.add(new LinkedHashSet<>());
+        }
+        for(int var = 0; var < varCount; var++){
+            Factor cpt = network.getFactorByName(varNames[var]);
+            int[] vars = new int[cpt.getFactorVars().length];
+            int[] cards = new int[vars.length];
+            for(int i = 0; i < vars.length; i++){
+                vars[i] = ids.get(cpt.getFactorVars()[i]);
+                cards[i] = cpt.getVarOutcomes()[i].length;
+            }
+            SymbolicFactor factor = new SymbolicFactor(vars, cards);
+            int ownIndex = Arrays.asList(cpt.getFactorVars()).indexOf(varNames[var]);
+            int[] indexArr = new int[vars.length];
+            for(int row = 0; row < factor.cells.length; row++){
+                long cell = 0;
+                for(int i = 0; i < vars.length; i++){
+                    cell += indexArr[i] * cpt.getStrides()[i];
+                }
+                int parameter = builder.parameter(cpt.getValues().get(cell));
+                int indicator = builder.indicator(indicatorOffsets[var] + indexArr[ownIndex]);
+                factor.cells[row] = builder.node(PRODUCT, parameter, indicator);
+                for(int i = 0; i < indexArr.length; i++){
+                    if(++indexArr[i] < cards[i])
+                        break;
+                    indexArr[i] = 0;
+                }
+            }
+            factors.add(factor);
+            for(int a : vars){
+                for(int b : vars){
+                    if(a != b)
+                        neighbors.get(a).add(b);
+                }
+            }
+        }
+
+        //Eliminate every variable, recording the operations.
+        for(int var : getEliminationOrder(neighbors)){
+            //The join records a node for every cell of the joined table, and the sum a node for every cell of the result.
+            context.checkpoint();
+            long joinedCells = 1;
+            Set<Integer> joinedVars = new HashSet<>();
+            for(SymbolicFactor factor : factors){
+                if(factor.indexOf(var) == -1)
+                    continue;
+                for(int i = 0; i < factor.vars.length; i++){
+                    if(joinedVars.add(factor.vars[i]))
+                        joinedCells = Math.multiplyExact(joinedCells, factor.cards[i]);
+                }
+            }
+            context.checkCells(builder.getNodeCount() + 2 * joinedCells);
+
+            SymbolicFactor joined = null;
+            for(int i = factors.size() - 1; i >= 0; i--){
+                if(factors.get(i).indexOf(var) != -1){
+                    SymbolicFactor factor = factors.remove(i);
+                    joined = joined == null ? factor : joined.join(factor, builder);
+                }
+            }
+            if(joined != null)
+                factors.add(joined.sumOut(var, builder));
+        }
+
+        //Only variable free factors are left, their product is the circuit's value.
+        int root = -1;
+        for(SymbolicFactor factor : factors){
+            root = root == -1 ? factor.cells[0] : builder.node(PRODUCT, root, factor.cells[0]);
+        }
+        return builder.build(varNames, varOutcomes, root);
+    }
+
+
+    /**
+     * Returns an upper bound of the number of nodes compile(network, variables) builds, by a dry run of the same
+     * elimination over the variables of the tables only: a product for every CPT cell, every parameter and every
+     * indicator, a product for every cell of every join, and a sum for every cell of every elimination.
+     * Nodes of a single child and repeated parameters are shared by the circuit, therefore it is usually smaller.
+     * @param network Network to compile.
+     * @param variables Names of the variables to compile, closed under taking parents.
+     * @param limit Number of nodes to stop counting at.
+     * @return Upper bound of the number of nodes, or a number larger than the limit once the bound passes it.
+     */
+    static long estimateNodeCount(BayesianNetwork network, List<String> variables, long limit){
+        int varCount = variables.size();
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] cards = new int[varCount];
+        for(int var = 0; var < varCount; var++){
+            VariableNode node = network.getNodeByName(variables.get(var));
+            ids.put(node.getVariableNodeName(), var);
+            cards[var] = node.getOutcomeCount();
+        }
+
+        long nodes = 0;
+        List<Set<Integer>> scopes = new ArrayList<>();
+        List<Set<Integer>> neighbors = new ArrayList<>();
+        for(int var = 0; var < varCount; var++){
+            neighbors.add(new LinkedHashSet<>());
+        }
+        for(int var = 0; var < varCount; var++){
+            Set<Integer> scope = new LinkedHashSet<>();
+            for(String cptVar : network.getFactorByName(variables.get(var)).getFactorVars()){
+                scope.add(ids.get(cptVar));
+            }
+            for(int a : scope){
+                for(int b : scope){
+                    if(a != b)
+                        neighbors.get(a).add(b);
+                }
+            }
+            scopes.add(scope);
+            nodes += 2 * getCells(scope, cards, limit) + cards[var]; //Products and parameters, and the indicators.
+        }
+
+        for(int var : getEliminationOrder(neighbors)){
+            if(nodes > limit)
+                return nodes;
+            Set<Integer> joined = null;
+            for(int i = scopes.size() - 1; i >= 0; i--){
+                if(!scopes.get(i).contains(var))
+                    continue;
+                Set<Integer> scope = scopes.remove(i);
+                if(joined == null)
+                    joined = scope;
+                else {
+                    joined.addAll(scope);
+                    nodes += getCells(joined, cards, limit);
+                }
+            }
+            if(joined != null){
+                joined.remove(var);
+                nodes += getCells(joined, cards, limit);
+                scopes.add(joined);
+            }
+        }
+        return nodes + scopes.size(); //The products of the variable free factors.
+    }
+
+
+    /**
+     * Returns the number of cells of a table of the given variables.
+     * @param scope Variables of the table.
+     * @param cards Number of outcomes of each variable.
+     * @param limit Number of cells to stop counting at.
+     * @return Number of cells, or limit + 1 once it passes the limit.
+     */
+    private static long getCells(Set<Integer> scope, int[] cards, long limit){
+        long cells = 1;
+        for(int var : scope){
+            cells *= cards[var];
+            if(cells > limit)
+                return limit + 1;
+        }
+        return cells;
+    }
+
+
+    /**
+     * Returns a min-degree elimination order of a moral graph: the variable with the fewest neighbors is eliminated
+     * first, and its neighbors are connected to each other. Ties are broken by the order of the variables.
+     * @param neighbors Neighbors of each variable, changed in place.
+     * @return Variables in elimination order.
+     */
+    private static int[] getEliminationOrder(List<Set<Integer>> neighbors){
+        int varCount = neighbors.size();
+        int[] order = new int[varCount];
+        boolean[] eliminated = new boolean[varCount];
+        for(int step = 0; step < varCount; step++){
+            int var = -1;
+            for(int id = 0; id < varCount; id++){
+                if(!eliminated[id] && (var == -1 || neighbors.get(id).size() < neighbors.get(var).size()))
+                    var = id;
+            }
+            eliminated[var] = true;
+            order[step] = var;
+            for(int a : neighbors.get(var)){
+                neighbors.get(a).remove(var);
+                for(int b : neighbors.get(var)){
+                    if(a != b)
+                        neighbors.get(a).add(b);
+                }
+            }
+        }
+        return order;
+    }
+
+
+    /**
+     * Evaluates the circuit for the given evidence, and calculates the posteriors of all the variables.
+     * @param names Names of the evidence variables.
+     * @param values Values of the evidence variables, in the same order.
+     * @return The probability of the evidence and the posteriors.
+     * @throws IllegalArgumentException Whenever the circuit has no such variable or outcome.
+     */
+    public CircuitPosteriors evaluate(String[] names, String[] values){
+        return evaluate(names, values, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Evaluates the circuit for the given evidence within the limits of a context, and calculates the posteriors of
+     * all the variables.
+     * @param names Names of the evidence variables.
+     * @param values Values of the evidence variables, in the same order.
+     * @param context Limits of the query, see evaluate(int[], QueryContext).
+     * @return The probability of the evidence and the posteriors.
+     * @throws IllegalArgumentException Whenever the circuit has no such variable or outcome.
+     */
+    public CircuitPosteriors evaluate(String[] names, String[] values, QueryContext context){
+        int[] evidence = new int[varNames.length];
+        Arrays.fill(evidence, -1);
+        for(int i = 0; i < names.length; i++){
+            int var = getVarId(names[i]);
+            evidence[var] = Arrays.asList(varOutcomes[var]).indexOf(values[i]);
+            if(evidence[var] == -1)
+                throw new IllegalArgumentException("Unknown outcome " + values[i] + " of " + names[i]);
+        }
+        return evaluate(evidence, context);
+    }
+
+
+    /**
+     * Evaluates the circuit for the given evidence with an upward pass, and differentiates it with a downward pass.
+     * The posterior of an outcome is its indicator times the derivative by its indicator, divided by the probability
+     * of the evidence.
+     * @param evidence Outcome index of each variable, in the order of the network, or -1 for variables without evidence.
+     * @return The probability of the evidence and the posteriors.
+     */
+    public CircuitPosteriors evaluate(int[] evidence){
+        return evaluate(evidence, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Evaluates the circuit for the given evidence within the limits of a context, the same as evaluate(int[]).
+     * @param evidence Outcome index of each variable, in the order of the network, or -1 for variables without evidence.
+     * @param context Limits of the query. Its table limit applies to the values of the nodes, and both passes check it
+     *                every CHECKPOINT_NODES nodes.
+     * @return The probability of the evidence and the posteriors.
+     */
+    public CircuitPosteriors evaluate(int[] evidence, QueryContext context){
+        context.checkCells(types.length);
+        double[] values = new double[types.length];
+        double[] derivatives = new double[types.length];
+        long additions = 0, multiplications = 0;
+
+        //Upward pass, children before parents.
+        for(int node = 0; node < types.length; node++){
+            if(node % CHECKPOINT_NODES == 0)
+                context.checkpoint();
+            switch (types[node]){
+                case PARAMETER:
+                    values[node] = parameters[leafData[node]];
+                    break;
+                case INDICATOR:
+                    values[node] = indicatorValue(leafData[node], evidence);
+                    break;
+                case SUM:
+                    double sum = 0.0;
+                    for(int i = childStarts[node]; i < childStarts[node + 1]; i++){
+                        sum += values[children[i]];
+                    }
+                    values[node] = sum;
+                    additions += childStarts[node + 1] - childStarts[node] - 1;
+                    break;
+                default:
+                    double product = 1.0;
+                    for(int i = childStarts[node]; i < childStarts[node + 1]; i++){
+                        product *= values[children[i]];
+                    }
+                    values[node] = product;
+                    multiplications += childStarts[node + 1] - childStarts[node] - 1;
+                    break;
+            }
+        }
+
+        //Downward pass, parents before children.
+        derivatives[root] = 1.0;
+        for(int node = root; node >= 0; node--){
+            if(node % CHECKPOINT_NODES == 0)
+                context.checkpoint();
+            if(derivatives[node] == 0.0 || types[node] == PARAMETER || types[node] == INDICATOR)
+                continue;
+            for(int i = childStarts[node]; i < childStarts[node + 1]; i++){
+                double partial = derivatives[node];
+                if(types[node] == PRODUCT){
+                    for(int j = childStarts[node]; j < childStarts[node + 1]; j++){
+                        if(j != i){
+                            partial *= values[children[j]];
+                            multiplications++;
+                        }
+                    }
+                }
+                derivatives[children[i]] += partial;
+                additions++;
+            }
+        }
+
+        double probabilityOfEvidence = values[root];
+        double[][] posteriors = new double[varNames.length][];
+        for(int var = 0; var < varNames.length; var++){
+            posteriors[var] = new double[varOutcomes[var].length];
+            for(int outcome = 0; outcome < posteriors[var].length; outcome++){
+                int indicator = indicatorOffsets[var] + outcome;
+                posteriors[var][outcome] = indicatorValue(indicator, evidence) * derivatives[indicatorNodes[indicator]] / probabilityOfEvidence;
+            }
+        }
+        return new CircuitPosteriors(this, probabilityOfEvidence, posteriors, additions, multiplications);
+    }
+
+
+    /**
+     * Returns the value of an indicator under the evidence.
+     * @param indicator Index of the indicator.
+     * @param evidence Outcome index of each variable, or -1 for variables without evidence.
+     * @return 1 when the outcome agrees with the evidence, 0 otherwise.
+     */
+    private double indicatorValue(int indicator, int[] evidence){
+        int var = indicatorVars[indicator];
+        int outcome = indicator - indicatorOffsets[var];
+        return evidence[var] == -1 || evidence[var] == outcome ? 1.0 : 0.0;
+    }
+
+
+    /**
+     * Writes the circuit to a file.
+     * @param file File to write.
+     * @throws IOException Whenever the file can't be written.
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(varNames.length);
+            for(int var = 0; var < varNames.length; var++){
+                out.writeUTF(varNames[var]);
+                out.writeInt(varOutcomes[var].length);
+                for(String outcome : varOutcomes[var]){
+                    out.writeUTF(outcome);
+                }
+            }
+            out.writeInt(types.length);
+            out.write(types);
+            for(int node = 0; node <= types.length; node++){
+                out.writeInt(childStarts[node]);
+            }
+            for(int i = 0; i < childStarts[types.length]; i++){
+                out.writeInt(children[i]);
+            }
+            for(int node = 0; node < types.length; node++){
+                out.writeInt(leafData[node]);
+            }
+            out.writeInt(parameters.length);
+            for(double parameter : parameters){
+                out.writeDouble(parameter);
+            }
+            out.writeInt(root);
+        }
+    }
+
+
+    /**
+     * Reads a circuit written by save().
+     * @param file File to read.
+     * @return The circuit.
+     * @throws IOException Whenever the file can't be read, or isn't a circuit.
+     */
+    public static ArithmeticCircuit load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC)
+                throw new IOException(file + " is not an arithmetic circuit");
+            String[] varNames = new String[in.readInt()];
+            String[][] varOutcomes = new String[varNames.length][];
+            for(int var = 0; var < varNames.length; var++){
+                varNames[var] = in.readUTF();
+                varOutcomes[var] = new String[in.readInt()];
+                for(int outcome = 0; outcome < varOutcomes[var].length; outcome++){
+                    varOutcomes[var][outcome] = in.readUTF();
+                }
+            }
+            byte[] types = new byte[in.readInt()];
+            in.readFully(types);
+            int[] childStarts = new int[types.length + 1];
+            for(int node = 0; node <= types.length; node++){
+                childStarts[node] = in.readInt();
+            }
+            int[] children = new int[childStarts[types.length]];
+            for(int i = 0; i < children.length; i++){
+                children[i] = in.readInt();
+            }
+            int[] leafData = new int[types.length];
+            for(int node = 0; node < types.length; node++){
+                leafData[node] = in.readInt();
+            }
+            double[] parameters = new double[in.readInt()];
+            for(int i = 0; i < parameters.length; i++){
+                parameters[i] = in.readDouble();
+            }
+            return new ArithmeticCircuit(varNames, varOutcomes, types, childStarts, children, leafData, parameters, in.readInt());
+        }
+    }
+
+
+    /**
+     * Returns the index of a variable.
+     * @param name Name of the variable.
+     * @return Index of the variable, in the order of the network.
+     * @throws IllegalArgumentException Whenever the circuit has no such variable.
+     */
+    int getVarId(String name){
+        Integer var = varIds.get(name);
+        if(var == null)
+            throw new IllegalArgumentException("Unknown variable " + name);
+        return var;
+    }
+
+
+    /*
+     * Getters of ArithmeticCircuit class
+     * */
+
+    /**
+     * Returns the type of a node.
+     * @param node The node.
+     * @return PARAMETER, INDICATOR, SUM or PRODUCT.
+     */
+    byte getNodeType(int node){
+        return types[node];
+    }
+
+    /**
+     * Returns the children of a sum or product node.
+     * @param node The node.
+     * @return Children of the node(a copy), all of them before the node.
+     */
+    int[] getNodeChildren(int node){
+        return Arrays.copyOfRange(children, childStarts[node], childStarts[node + 1]);
+    }
+
+    /**
+     * Returns the value of a parameter node.
+     * @param node The parameter node.
+     * @return Value of the parameter.
+     */
+    double getParameterValue(int node){
+        return parameters[leafData[node]];
+    }
+
+    /**
+     * Returns the variable of an indicator node.
+     * @param node The indicator node.
+     * @return Index of the variable.
+     */
+    int getIndicatorVar(int node){
+        return indicatorVars[leafData[node]];
+    }
+
+    /**
+     * Returns the outcome of an indicator node.
+     * @param node The indicator node.
+     * @return Index of the outcome, among the outcomes of its variable.
+     */
+    int getIndicatorOutcome(int node){
+        return leafData[node] - indicatorOffsets[indicatorVars[leafData[node]]];
+    }
+
+    /**
+     * Returns the node of the circuit's value.
+     * @return The root node.
+     */
+    int getRoot(){
+        return root;
+    }
+
+    /**
+     * Returns the number of nodes in the circuit.
+     * @return Number of nodes.
+     */
+    public int getNodeCount(){
+        return types.length;
+    }
+
+    /**
+     * Returns the number of edges in the circuit.
+     * @return Number of edges.
+     */
+    public int getEdgeCount(){
+        return childStarts[types.length];
+    }
+
+    /**
+     * Returns the estimated heap size of the circuit's arrays.
+     * @return Estimated number of bytes.
+     */
+    public long getEstimatedBytes(){
+        return (long) types.length * (1 + 2 * Integer.BYTES) + (long) getEdgeCount() * Integer.BYTES
+                + (long) parameters.length * Double.BYTES + 2L * indicatorNodes.length * Integer.BYTES;
+    }
+
+    /**
+     * Returns the names of the variables.
+     * @return Names of the variables, in the order of the network.
+     */
+    public String[] getVarNames(){
+        return varNames;
+    }
+
+    /**
+     * Returns the outcomes of a variable.
+     * @param var Index of the variable.
+     * @return Outcomes of the variable.
+     */
+    public String[] getVarOutcomes(int var){
+        return varOutcomes[var];
+    }
+
+
+    /**
+     * Builds the flat node arrays of a circuit, node after node.
+     */
+    private static class Builder {
+        private byte[] types = new byte[1024];
+
+        private int[] childStarts = new int[1025], children = new int[2048], leafData = new int[1024];
+
+        private int nodes, edges; //Number of nodes and edges so far.
+
+        private final HashMap<Long, Integer> parameterNodes = new HashMap<>(); //Node of each distinct parameter value.
+
+        private final HashMap<Integer, Integer> indicatorNodes = new HashMap<>(); //Node of each indicator.
+
+        private double[] parameters = new double[64];
+
+        private int parameterCount;
+
+        /**
+         * Returns the node of a parameter value, adding it on its first use.
+         * @param value Parameter value.
+         * @return Node of the parameter.
+         */
+        int parameter(double value){
+            Integer node = parameterNodes.get(Double.doubleToLongBits(value));
+            if(node != null)
+                return node;
+            if(parameterCount == parameters.length)
+                parameters = Arrays.copyOf(parameters, parameterCount * 2);
+            parameters[parameterCount] = value;
+            int newNode = leaf(PARAMETER, parameterCount++);
+            parameterNodes.put(Double.doubleToLongBits(value), newNode);
+            return newNode;
+        }
+
+        /**
+         * Returns the node of an indicator, adding it on its first use.
+         * @param indicator Index of the indicator.
+         * @return Node of the indicator.
+         */
+        int indicator(int indicator){
+            Integer node = indicatorNodes.get(indicator);
+            if(node != null)
+                return node;
+            int newNode = leaf(INDICATOR, indicator);
+            indicatorNodes.put(indicator, newNode);
+            return newNode;
+        }
+
+        /**
+         * Adds a leaf node.
+         * @param type Type of the leaf.
+         * @param data Parameter or indicator index.
+         * @return The new node.
+         */
+        private int leaf(byte type, int data){
+            return add(type, data, new int[0]);
+        }
+
+        /**
+         * Adds a sum or product node.
+         * @param type SUM or PRODUCT.
+         * @param nodeChildren Children of the node, all of them added before.
+         * @return The new node.
+         */
+        int node(byte type, int... nodeChildren){
+            if(nodeChildren.length == 1)
+                return nodeChildren[0]; //A single child operation is the child itself.
+            return add(type, -1, nodeChildren);
+        }
+
+        /**
+         * Adds a node to the arrays.
+         * @param type Type of the node.
+         * @param data Parameter or indicator index.
+         * @param nodeChildren Children of the node.
+         * @return The new node.
+         */
+        private int add(byte type, int data, int[] nodeChildren){
+            if(nodes == types.length){
+                types = Arrays.copyOf(types, nodes * 2);
+                leafData = Arrays.copyOf(leafData, nodes * 2);
+                childStarts = Arrays.copyOf(childStarts, nodes * 2 + 1);
+            }
+            while(edges + nodeChildren.length > children.length){
+                children = Arrays.copyOf(children, children.length * 2);
+            }
+            types[nodes] = type;
+            leafData[nodes] = data;
+            childStarts[nodes] = edges;
+            System.arraycopy(nodeChildren, 0, children, edges, nodeChildren.length);
+            edges += nodeChildren.length;
+            childStarts[nodes + 1] = edges;
+            return nodes++;
+        }
+
+        /**
+         * Returns the number of nodes added so far.
+         * @return Number of nodes.
+         */
+        int getNodeCount(){
+            return nodes;
+        }
+
+        /**
+         * Builds the circuit.
+         * @param varNames Names of the variables.
+         * @param varOutcomes Outcomes of each variable.
+         * @param root Node of the circuit's value.
+         * @return The circuit.
+         */
+        ArithmeticCircuit build(String[] varNames, String[][] varOutcomes, int root){
+            return new ArithmeticCircuit(varNames, varOutcomes, Arrays.copyOf(types, nodes), Arrays.copyOf(childStarts, nodes + 1),
+                    Arrays.copyOf(children, edges), Arrays.copyOf(leafData, nodes), Arrays.copyOf(parameters, parameterCount), root);
+        }
+    }
+
+
+    /**
+     * Factor whose cells are circuit nodes. The first variable changes the fastest.
+     */
+    private static class SymbolicFactor {
+        private final int[] vars, cards; //Variables of the factor and their number of outcomes.
+
+        private final int[] cells; //Node of each cell.
+
+        /**
+         * Builds a factor with no cells set.
+         * @param vars Variables of the factor.
+         * @param cards Number of outcomes of each variable.
+         */
+        SymbolicFactor(int[] vars, int[] cards){
+            this.vars = vars;
+            this.cards = cards;
+            int rows = 1;
+            for(int card : cards){
+                rows = Math.multiplyExact(rows, card);
+            }
+            this.cells = new int[rows];
+        }
+
+        /**
+         * Returns the position of a variable in the factor.
+         * @param var Variable.
+         * @return Position of the variable, or -1 when the factor doesn't have it.
+         */
+        int indexOf(int var){
+            for(int i = 0; i < vars.length; i++){
+                if(vars[i] == var)
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Records the join of this factor with another factor.
+         * @param other Other factor.
+         * @param builder Builder of the circuit.
+         * @return Joined factor, whose cells are product nodes.
+         */
+        SymbolicFactor join(SymbolicFactor other, Builder builder){
+            int[] joinedVars = Arrays.copyOf(vars, vars.length + other.vars.length);
+            int[] joinedCards = Arrays.copyOf(cards, joinedVars.length);
+            int count = vars.length;
+            for(int i = 0; i < other.vars.length; i++){
+                if(indexOf(other.vars[i]) == -1){
+                    joinedVars[count] = other.vars[i];
+                    joinedCards[count++] = other.cards[i];
+                }
+            }
+            SymbolicFactor joined = new SymbolicFactor(Arrays.copyOf(joinedVars, count), Arrays.copyOf(joinedCards, count));
+            int[] thisStrides = joined.getStrides(this), otherStrides = joined.getStrides(other);
+            int[] indexArr = new int[count];
+            int thisCell = 0, otherCell = 0;
+            for(int row = 0; row < joined.cells.length; row++){
+                joined.cells[row] = builder.node(PRODUCT, cells[thisCell], other.cells[otherCell]);
+                for(int i = 0; i < count; i++){
+                    indexArr[i]++;
+                    thisCell += thisStrides[i];
+                    otherCell += otherStrides[i];
+                    if(indexArr[i] < joined.cards[i])
+                        break;
+                    thisCell -= thisStrides[i] * joined.cards[i];
+                    otherCell -= otherStrides[i] * joined.cards[i];
+                    indexArr[i] = 0;
+                }
+            }
+            return joined;
+        }
+
+        /**
+         * Records summing a variable out of this factor.
+         * @param var Variable to sum out.
+         * @param builder Builder of the circuit.
+         * @return Factor without the variable, whose cells are sum nodes.
+         */
+        SymbolicFactor sumOut(int var, Builder builder){
+            int position = indexOf(var);
+            int[] keptVars = new int[vars.length - 1], keptCards = new int[vars.length - 1];
+            for(int i = 0, j = 0; i < vars.length; i++){
+                if(i != position){
+                    keptVars[j] = vars[i];
+                    keptCards[j++] = cards[i];
+                }
+            }
+            SymbolicFactor result = new SymbolicFactor(keptVars, keptCards);
+            int[] sourceStrides = new int[keptVars.length];
+            int varStride = 0;
+            for(int i = 0, j = 0, stride = 1; i < vars.length; stride *= cards[i++]){
+                if(i == position)
+                    varStride = stride;
+                else
+                    sourceStrides[j++] = stride;
+            }
+            int[] indexArr = new int[keptVars.length];
+            int sourceCell = 0;
+            int[] terms = new int[cards[position]];
+            for(int row = 0; row < result.cells.length; row++){
+                for(int outcome = 0; outcome < terms.length; outcome++){
+                    terms[outcome] = cells[sourceCell + outcome * varStride];
+                }
+                result.cells[row] = builder.node(SUM, terms.clone());
+                for(int i = 0; i < keptVars.length; i++){
+                    indexArr[i]++;
+                    sourceCell += sourceStrides[i];
+                    if(indexArr[i] < keptCards[i])
+                        break;
+                    sourceCell -= sourceStrides[i] * keptCards[i];
+                    indexArr[i] = 0;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the strides of another factor, for each variable of this factor. 0 for variables it doesn't have.
+         * @param other Other factor, whose variables are all in this factor.
+         * @return Strides of the other factor.
+         */
+        private int[] getStrides(SymbolicFactor other){
+            int[] strides = new int[vars.length];
+            int stride = 1;
+            for(int i = 0; i < other.vars.length; i++){
+                strides[indexOf(other.vars[i])] = stride;
+                stride *= other.cards[i];
+            }
+            return strides;
+        }
+    }
+}
@@ -9,8 +9,10 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
-import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -27,20 +29,96 @@ public class BayesianNetwork {
     //Modified variables, containing a full factor table
     private final ArrayList<Factor> factorNodes;
 
+    //Variable nodes and factors by their names, for constant time lookups.
+    private final HashMap<String, VariableNode> variableNodesByName;
+    private final HashMap<String, Factor> factorNodesByName;
+
     //Amount of nodes in the Bayesian network.
     private final int count;
 
+    //Decides where and in which precision the values of factors are stored(heap, off-heap or memory mapped files).
+    private FactorStorageFactory storageFactory;
+
+    //Whenever the algorithms calculate in log space, which prevents products of many probabilities from underflowing to 0.
+    private boolean logSpace = Boolean.parseBoolean(System.getProperty("bn.logSpace", "false"));
+
+    private FactorKernels kernels = FactorKernels.getDefault(); //Inner loops of the factor operations on heap tables.
+
+    private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool(); //Pool which joins and eliminates large tables.
+
+    //Least number of rows of a table which is joined or eliminated in parallel.
+    private long parallelThreshold = Long.getLong("bn.parallelThreshold", 1L << 20);
+
+    //Whenever each bucket is summed out by a single fused sum-product, instead of pairwise joins and an elimination.
+    private boolean fusedElimination = Boolean.parseBoolean(System.getProperty("bn.fusedElimination", "false"));
+
+    private ArithmeticCircuit arithmeticCircuit; //Compiled circuit of the network. null until it is first used.
+
+    private QueryCompiler queryCompiler; //Generated routines of the query shapes. null until it is first used.
+
+    private long circuitNodeEstimate = -1; //Estimated node count of the network's circuit, -1 until it is first requested.
+
+    private long circuitNodeEstimateLimit; //Limit the node count was estimated with.
+
+    private GibbsSampler gibbsSampler; //Gibbs sampler with the network's Markov blankets. null until it is first used.
+
+    private LoopyBeliefPropagation beliefPropagation; //Belief propagation over the network's factor graph. null until it is first used.
+
+    //Rough heap sizes (in bytes) of the objects the network is made of. Used for footprint estimations only.
+    private static final long OBJECT_HEADER_BYTES = 16; //Header of a single object or array.
+    private static final long REFERENCE_BYTES = 4; //A single (compressed) reference.
+    private static final long TABLE_ROW_BYTES = 48; //A Hashtable entry together with its boxed Double value.
+
+    private static final int CHECKPOINT_PERMUTATIONS = 1 << 12; //Permutations of func1() between checks of the query's limits.
+
+    private static final QueryMetrics METRICS = QueryMetrics.getInstance(); //Timings of the phases of the queries.
+
+    private static final int LAST_ALGORITHM = 12; //Largest algorithm number answer() knows, see answer(String[], String[], int).
+
 
     /**
      * The bayesian network constructor builds the simplistic variable nodes, which act as simple data containers.
      * And then it constructs the Factor nodes, which are the advanced VariableNode nodes, represented with a full
      * factor table.
+     * The factors are stored as configured by the system properties, see FactorStorageFactory.
      * @param xmlFileName Name of the xml file we wish to construct a bayesian network with.
      */
     public BayesianNetwork(String xmlFileName){
-        variableNodes = addVariableNodesToNetwork(parseXML(xmlFileName));
+        this(xmlFileName, FactorStorageFactory.fromSystemProperties());
+    }
+
+
+    /**
+     * Builds the bayesian network like the single parameter constructor, while storing the factors with the given storage factory.
+     * The probabilities of the variable nodes are compacted to the precision of the storage factory.
+     * @param xmlFileName Name of the xml file we wish to construct a bayesian network with.
+     * @param storageFactory Factory which decides where and in which precision factors are stored.
+     */
+    public BayesianNetwork(String xmlFileName, FactorStorageFactory storageFactory){
+        this(addVariableNodesToNetwork(parseXML(xmlFileName)), storageFactory);
+    }
+
+
+    /**
+     * Builds the bayesian network of variable nodes which were already built, such as nodes with learned probabilities.
+     * The nodes must be in the order of the xml file, every definition matching its variable.
+     * @param variableNodes Variable nodes of the network.
+     * @param storageFactory Factory which decides where and in which precision factors are stored.
+     */
+    public BayesianNetwork(ArrayList<VariableNode> variableNodes, FactorStorageFactory storageFactory){
+        this.storageFactory = storageFactory;
+        this.variableNodes = variableNodes;
         count = variableNodes.size();
+        variableNodesByName = new HashMap<>();
+        for(VariableNode variableNode: variableNodes){
+            variableNode.compactProbabilities(storageFactory);
+            variableNodesByName.put(variableNode.getVariableNodeName(), variableNode);
+        }
         factorNodes = addFactorNodesToNetwork();
+        factorNodesByName = new HashMap<>();
+        for(Factor factor: factorNodes){
+            factorNodesByName.put(factor.getFactorName(), factor);
+        }
     }
 
 
@@ -50,13 +128,76 @@ public class BayesianNetwork {
     }
 
 
+    /**
+     * Estimates the amount of heap memory the network holds, based on the sizes of its probability arrays
+     * and factor tables. The estimation is rough, and is meant for comparing networks against a memory budget.
+     * @return Estimated number of bytes held by the network.
+     */
+    public long getEstimatedFootprintBytes(){
+        long bytes = 0;
+
+        //Variable nodes hold their probability values as a primitive array(or a compacted form of it).
+        for(VariableNode variableNode: variableNodes){
+            bytes += variableNode.getProbabilityStorage().getHeapBytes();
+        }
+
+        //Only materialized factors hold a table. Lazy factors share the probability arrays of the variable nodes.
+        for(Factor factor: factorNodes){
+            if(factor.isMaterialized())
+                bytes += getEstimatedTableBytes(factor, factor.getFactorSize());
+            bytes += factor.getLogValuesBytes(); //Cached by the first log space query.
+        }
+
+        ArithmeticCircuit circuit = arithmeticCircuit;
+        if(circuit != null)
+            bytes += circuit.getEstimatedBytes();
+        return bytes;
+    }
+
+
+    /**
+     * Releases data which is derived from the variable nodes and can be rebuilt on demand.
+     * Meaning, the factor tables which were materialized since the network was built, the compiled circuit,
+     * and the generated query routines(which aren't counted).
+     * @return Estimated number of bytes released.
+     */
+    public long releaseCaches(){
+        long bytes = 0;
+        for(Factor factor: factorNodes){
+            bytes += getEstimatedTableBytes(factor, factor.releaseTable());
+            bytes += factor.releaseLogValues();
+        }
+        synchronized (this){
+            if(arithmeticCircuit != null){
+                bytes += arithmeticCircuit.getEstimatedBytes();
+                arithmeticCircuit = null;
+            }
+            if(queryCompiler != null)
+                queryCompiler.clear();
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Estimates the heap size of a factor table. Each row holds a table entry, a TableKey and a String array of the row's values.
+     * @param factor Factor the table belongs to.
+     * @param rows Number of rows of the table.
+     * @return Estimated number of bytes held by the table.
+     */
+    private long getEstimatedTableBytes(Factor factor, long rows){
+        long keyBytes = 2 * OBJECT_HEADER_BYTES + factor.getFactorVars().length * REFERENCE_BYTES;
+        return rows * (TABLE_ROW_BYTES + keyBytes);
+    }
+
+
     /**
      * This functions acts as a builder of the document class, which will be able to read through
      * the xml file given as a parameter.
      * @param xmlName Name of a xml file we wish to get data from.
      * @return Document object, capable of reading through a xml file.
      */
-    private Document parseXML(String xmlName){
+    private static Document parseXML(String xmlName){
         File xmlFile = new File(xmlName);
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         DocumentBuilder builder;
@@ -81,7 +222,7 @@ public class BayesianNetwork {
      * @param doc Document object which allows parsing of the xml file it was assigned to parse in the constructor.
      * @return Array list of generated primitive variable nodes.
      */
-    private ArrayList<VariableNode> addVariableNodesToNetwork(Document doc) {
+    private static ArrayList<VariableNode> addVariableNodesToNetwork(Document doc) {
         NodeList definitionTags = doc.getElementsByTagName("DEFINITION"); //Get all DEFINITION tags.
         NodeList variableTags = doc.getElementsByTagName("VARIABLE"); //Get all VARIABLE tags.
         ArrayList<VariableNode> networkList = new ArrayList<>();
@@ -122,104 +263,34 @@ public class BayesianNetwork {
 
 
     /**
-     * This complex function adds for each variable node, a new object in the form of Factor, which is
+     * This function adds for each variable node, a new object in the form of Factor, which is
      * almost the same as variable node. The main difference is the full factor table we wish to generate
      * for every variable in the bayesian network.
-     * This function works by iterating on an array of indices, representing the values(in order) of the vars
-     * of the current node in the iteration.
-     * The iteration over the indices happens in the helper function permutateByOneFromLeft().
-     * Each array of indices is then translated in the helper function fromIndexToValues().
-     * The helper functions work for each row of the table.
-     * After all rows were inserted properly, iterate to the next variable and repeat the process.
-     * @return Array list of Factor objects, containing mainly a full factor table.
+     * The factors are lazy, meaning the tables are only built from the variable nodes' probabilities on first use,
+     * so building the network only costs as much as parsing it.
+     * @return Array list of Factor objects, each one able to build a full factor table.
      */
     private ArrayList<Factor> addFactorNodesToNetwork() {
         ArrayList<Factor> factorNodes = new ArrayList<>();
-        for(int i = 0; i < count; i++){
-            //Preparing important variables for building the table.
-            Hashtable<TableKey, Double> factorTable= new Hashtable<>();
-            VariableNode currVariable = variableNodes.get(i);
-
-            int colCount = currVariable.getVarCount(); //Each var is a column
-            String[] vars = currVariable.getVars(); //Should equal to column count.
-            double[] probabilities = currVariable.getProbabilities(); //Probabilities to be inserted according to variable.
-            //int rowCount = probabilities.length; //Amount of possible permutations. Depends on product of each column's outcome count.
+        for (VariableNode currVariable : variableNodes) {
+            String[] vars = currVariable.getVars();
+            String[][] varOutcomes = new String[vars.length][]; //Outcomes of each column of the factor table in order.
 
-
-            int[] indexArr = new int[colCount]; //Arr representing vars value indices.
-            int[] outcomeCountArr = new int[colCount]; //Each var outcome count in order. Used for permutation calculations.
-
-            //Build outcome counts array of the factor table.
-            for(int j = 0; j < outcomeCountArr.length; j++){
-                int currOutcomeCount = getNodeByName(vars[j]).getOutcomeCount();
-                outcomeCountArr[j] = currOutcomeCount;
-            }
-
-            for (double probability : probabilities) {
-                factorTable.put(fromIndexToValues(indexArr, vars), probability); //Table insertion.(Local factor)
-                permutateByOneFromLeft(indexArr, outcomeCountArr); //Index permutation added by 1.
+            for (int j = 0; j < vars.length; j++) {
+                varOutcomes[j] = getNodeByName(vars[j]).getPossibleOutcomes();
             }
-            factorNodes.add(new Factor(currVariable.getVariableNodeName(), currVariable.getParents(), factorTable));
+            factorNodes.add(new Factor(currVariable, varOutcomes));
         }
         return factorNodes;
     }
 
 
-    /**
-     * This function iterates over all available options it can iterate through, given each
-     * var's count of outcomes. The arrays are aligned in a matching order, since order of elements
-     * is constant throughout the functions.
-     * This function fits the logic of building the factor tables, therefore it only works for building the factors.
-     * The function works for a single permutation given. It doesn't iterate through all possibilities.
-     * @param indexArr Array of indices representing pointers to vars values in order.
-     * @param outcomeCounts Array of the count of outcomes for each var in order(needed for modulu calculations).
-     */
-    private void permutateByOneFromLeft(int[] indexArr, int[] outcomeCounts){
-
-        //Index array splitting.
-        int[] nameArrHelperString  = Arrays.copyOfRange(indexArr, 0, 1);
-        int[] parentHelperArr = Arrays.copyOfRange(indexArr, 1, indexArr.length);
-
-        if(parentHelperArr.length == 0){
-            indexArr[0]++;
-        }
-        else{
-            int prevVal = nameArrHelperString[0];
-            nameArrHelperString[0] += 1;
-            nameArrHelperString[0] %= outcomeCounts[0];
-
-            if(prevVal != 0 && prevVal == outcomeCounts[0] - 1){
-                permutateByOne(parentHelperArr, Arrays.copyOfRange(outcomeCounts, 1, outcomeCounts.length)); //Use regular logic when necessary.
-            }
-            indexArr[0] = nameArrHelperString[0];
-            System.arraycopy(parentHelperArr, 0, indexArr, 1, indexArr.length - 1); //Save permutation changes.
-        }
-    }
-
-
-    /**
-     * Numbers won't work for us when we wish to locate probabilities given queries.
-     * Therefore, this function helps in creating the proper value array given the index array.
-     * @param indexArr Array of indices representing pointers to vars values in order.
-     * @param vars The variables of a given variable node.
-     * @return TableKey object representing array of truth values(which represents columns in theory).
-     */
-    private TableKey fromIndexToValues(int[] indexArr, String[] vars){
-        String[] values = new String[vars.length];
-        for(int i = 0; i < values.length; i++){
-            VariableNode currVar = getNodeByName(vars[i]);
-            values[i] = currVar.getPossibleOutcomes()[indexArr[i]]; //Index correspondence
-        }
-        return new TableKey(values);
-    }
-
-
     /**
      * Returns whenever the names given from a permutation allow fetching the probability value directly.
      * @param names String array of vars from a given permutation.
      * @return true whenever a probability value can be fetched directly(without calculations) from the given names.
      */
-    private boolean IsProbabilityValueDirect(String[] names){
+    boolean IsProbabilityValueDirect(String[] names){
         Factor factor = getFactorByName(names[0]);
         String[] factorParents = factor.getFactorParents();
         ArrayList<String> parentList = new ArrayList<>();
@@ -245,9 +316,8 @@ public class BayesianNetwork {
      * @param truthValsArr Truth values of given query.
      * @return Probability value of query directly from the factor table.
      */
-    private double getDirectProbability(String[] names, String[] truthValsArr){
+    double getDirectProbability(String[] names, String[] truthValsArr){
         Factor factor = getFactorByName(names[0]);
-        Hashtable<TableKey, Double> factorTable = getFactorByName(names[0]).getFactorTable();
 
         String[] factorVars = factor.getFactorVars();
         String[] newVals = new String[truthValsArr.length];
@@ -259,7 +329,7 @@ public class BayesianNetwork {
                 }
             }
         }
-        return factorTable.get(new TableKey(newVals));
+        return factor.getProbability(newVals);
     }
 
 
@@ -282,14 +352,25 @@ public class BayesianNetwork {
      * @return A string of the answer.
      */
     public String func1(String[] names, String[] truthValsArr) {
-        //Decimal format for correct answer printing.
-        DecimalFormat decimalFormat = new DecimalFormat("#.#####");
+        return answer(names, truthValsArr, 1).toString();
+    }
 
+
+    /**
+     * Performs the simple deduction of func1(). The limits of the query are checked every CHECKPOINT_PERMUTATIONS permutations,
+     * and each permutation counts as a table of a cell per variable.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query.
+     * @return The answer of the query.
+     */
+    private QueryAnswer simpleDeduction(String[] names, String[] truthValsArr, QueryContext context) {
         //If query can be obtainable directly
         if (IsProbabilityValueDirect(names)) {
             double probability = getDirectProbability(names, truthValsArr);
-            return decimalFormat.format(probability) + ",0,0";
+            return new QueryAnswer(probability, 0, 0);
         } else {
+            context.checkCells(count); //Every permutation holds a value of each variable.
             List<String> nameList = Arrays.asList(names);
             String[] nonVars = new String[count - names.length]; //Non-vars array.
             int additionPermutationCount = 1;
@@ -305,8 +386,9 @@ public class BayesianNetwork {
             }
 
 
-            double numerator = 0;
-            double secondaryOptions = 0;
+            //In log space, the sums start from the log space 0(negative infinity).
+            double numerator = logSpace ? Double.NEGATIVE_INFINITY : 0;
+            double secondaryOptions = logSpace ? Double.NEGATIVE_INFINITY : 0;
             int additionCount = 0, multiCount = 0;
             /*
              Storing all outcomes of the query main name which allows iterating through all possible probabilities
@@ -344,24 +426,34 @@ public class BayesianNetwork {
 
                 //Iterate through all permutations
                 for (int i = 0; i < additionPermutationCount; i++) {
+                    if (i % CHECKPOINT_PERMUTATIONS == 0)
+                        context.checkpoint();
                     Hashtable<String, String> nonEvidenceTable = new Hashtable<>();
                     for (int j = 0; j < nonVars.length; j++) {
                         VariableNode currNode = getNodeByName(nonVars[j]);
                         nonEvidenceTable.put(currNode.getVariableNodeName(), currNode.getPossibleOutcomes()[outcomeIndices[j]]); //Insert respective outcome value.
                     }
+                    double permutationValue = getValueFromGivenPermutation(tableUnion(evidenceTable, nonEvidenceTable));
                     if (numeratorFlag)
-                        numerator += getValueFromGivenPermutation(tableUnion(evidenceTable, nonEvidenceTable));
+                        numerator = logSpace ? LogSpace.add(numerator, permutationValue) : numerator + permutationValue;
                     else
-                        secondaryOptions += getValueFromGivenPermutation(tableUnion(evidenceTable, nonEvidenceTable));
+                        secondaryOptions = logSpace ? LogSpace.add(secondaryOptions, permutationValue) : secondaryOptions + permutationValue;
 
                     permutateByOne(outcomeIndices, outcomeCount);//After each iteration, permutate the outcome index array by 1.
                     multiCount += (count - 1);
                     additionCount++;
                 }
             }
-            double normalizationAlpha = numerator + secondaryOptions;
-            double answer = numerator / normalizationAlpha;
-            return decimalFormat.format(answer) + "," + (additionCount - 1)+ "," + multiCount;
+            long normalizationStart = METRICS.start();
+            double answer;
+            if (logSpace) {
+                answer = Math.exp(numerator - LogSpace.add(numerator, secondaryOptions));
+            } else {
+                double normalizationAlpha = numerator + secondaryOptions;
+                answer = numerator / normalizationAlpha;
+            }
+            METRICS.record(QueryMetrics.Phase.NORMALIZATION, normalizationStart);
+            return new QueryAnswer(answer, additionCount - 1, multiCount);
         }
     }
 
@@ -385,11 +477,12 @@ public class BayesianNetwork {
 
     /**
      * This function Calculates the probability value of the given permutation, represented by a Hash-table.
+     * In log space, the logarithms of the probabilities are summed instead of multiplying the probabilities.
      * @param permutationTable Hash-table representing a permutation.
-     * @return probability value of the given permutation.
+     * @return probability value of the given permutation(its logarithm in log space).
      */
     private double getValueFromGivenPermutation(Hashtable<String, String> permutationTable){
-        double result = 1;
+        double result = logSpace ? 0 : 1;
         Enumeration<String> keySet = permutationTable.keys();
         for(int i = 0; i < permutationTable.size(); i++){
             String variable = keySet.nextElement();
@@ -408,7 +501,11 @@ public class BayesianNetwork {
                 for(int m = 0; m < vars.length; m++){
                     varsTruthTable[m] = permutationTable.get(vars[m]);
                 }
-                result *= getFactorByName(variable).getFactorTable().get(new TableKey(varsTruthTable));//Multiply probability.
+                double probability = getFactorByName(variable).getProbability(varsTruthTable);
+                if(logSpace)
+                    result += LogSpace.toLog(probability); //Add log probability.
+                else
+                    result *= probability;//Multiply probability.
             }
         }
         return result;
@@ -419,36 +516,116 @@ public class BayesianNetwork {
      * func2() calculates the probability of a given query, and its values by performing variable elimination on the factors,
      * which greatly reduces the number of calculations required to reach the answer.
      * The orders of eliminations of the hiddens is sorted in alphabetical order.
-     * This functions uses the helper functions:
-     * getAncestorsOfNode(), findRelevantFactorsOfFunc2(), discardOneValued(), join(), eliminate(), getProductOfJoinedTable(),
-     * fromIndexToValuesTable(), getOutcomesFromGivenFactorColumn(), permutateByOne()
+     * The elimination itself is performed in variableElimination(), which uses the helper functions:
+     * getAncestorsOfNode(), findRelevantFactorsOfFunc2(), discardOneValued(), join(), eliminate()
      * Some of those functions are helpers of other helper functions.
      * @param names Names of the given query.
      * @param truthValsArr The values given with the names in the same order.
      * @return A string of the answer.
      */
     public String func2(String[] names, String[] truthValsArr){
-        //Decimal format for correct answer printing(5 digits after the dot).
-        DecimalFormat decimalFormat = new DecimalFormat("#.#####");
+        return answer(names, truthValsArr, 2).toString();
+    }
+
+
+    /**
+     * func3() calculates the probability of a given query the same way func2() does, with the difference being
+     * the order of eliminations of the hiddens, which is decided by the min-neighbors heuristic.
+     * See hiddenVariablesEliminationSorting().
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return A string of the answer.
+     */
+    public String func3(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, 3).toString();
+    }
+
+
+    /**
+     * Performs variable elimination for func2() and func3().
+     * The relevant factors are copied, instantiated with the evidence, and then each hidden variable is eliminated
+     * by joining all factors that contain it and summing it out. The remaining factors of the query variable are joined
+     * and normalized.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param heuristicOrder true to order the hiddens by the min-neighbors heuristic(func3), false for alphabetical order(func2).
+     * @param context Limits of the query.
+     * @return The answer of the query.
+     */
+    private QueryAnswer variableElimination(String[] names, String[] truthValsArr, boolean heuristicOrder, QueryContext context){
         //If query can be obtainable directly
         if (IsProbabilityValueDirect(names)) {
             double probability = getDirectProbability(names, truthValsArr);
-            return decimalFormat.format(probability) + ",0,0";
+            return new QueryAnswer(probability, 0, 0);
+        }
+
+        long[] counts = new long[2]; //Additions and multiplications, respectively.
+        double[] queryTable = eliminateToQueryTable(names, truthValsArr, heuristicOrder, false, counts, context);
+        int queryValueIndex = Arrays.asList(getNodeByName(names[0]).getPossibleOutcomes()).indexOf(truthValsArr[0]); //Row of the desired query value.
+        double answer; //Answer according to query value.
+        long normalizationStart = METRICS.start();
+
+        if(logSpace){
+            double normalizationSum = Double.NEGATIVE_INFINITY;
+
+            //Normalization of the final table.
+            for(double value : queryTable){
+                normalizationSum = LogSpace.add(normalizationSum, value);
+                counts[0]++;
+            }
+            answer = Math.exp(queryTable[queryValueIndex] - normalizationSum);
         }
         else{
-            ArrayList<String> relevantFactors = findRelevantFactorsOfFunc2(names); //Stores only relevant factors which will be found by BFS algorithm.
-
-            //Relevant data gathering.
-            ArrayList<Factor> tempFactors = new ArrayList<>(); //A copy of relevant factors. Makes sure original data is not modified.
-            for(Factor factor: factorNodes){
-                try {
-                    if(relevantFactors.contains(factor.getFactorName()))
-                        tempFactors.add((Factor) factor.clone()); //Factor will be added to our tempFactor list if it was found to be relevant.
-                } catch (CloneNotSupportedException e) {
-                    throw new RuntimeException(e);
-                }
+            //The kernels normalize the entire final table, dividing every row by the sum.
+            kernels.normalize(queryTable, 0, queryTable.length);
+            counts[0] += queryTable.length;
+            answer = queryTable[queryValueIndex];
+        }
+        METRICS.record(QueryMetrics.Phase.NORMALIZATION, normalizationStart);
+        return new QueryAnswer(answer, counts[0] - 1, counts[1]);
+    }
+
+
+    /**
+     * Runs variable elimination up to the final table of the query variable, without normalizing it.
+     * The table holds the joint probability of each outcome of the query variable with the evidence, in log space
+     * when the network calculates in log space. The relevant factors are copied, instantiated with the evidence,
+     * and the hidden variables are eliminated bucket by bucket. The remaining factors of the query variable are joined.
+     * One valued factors are constants which the normalization cancels, therefore they are normally discarded.
+     * Callers which sum the tables of several eliminations need the exact joint, where the constants are multiplied in.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order. The value of the query variable is ignored.
+     * @param heuristicOrder true to order the hiddens by the min-neighbors heuristic(func3), false for alphabetical order(func2).
+     * @param exactJoint true to multiply the discarded constants into the table.
+     * @param counts Array the additions and multiplications of the elimination are added to, respectively.
+     * @param context Limits of the query. The largest table of the plan is checked before the elimination starts.
+     * @return Unnormalized table of the query variable, in the order of its outcomes.
+     */
+    double[] eliminateToQueryTable(String[] names, String[] truthValsArr, boolean heuristicOrder, boolean exactJoint, long[] counts,
+                                   QueryContext context){
+        //Product of the discarded constants, in log space when the network calculates in log space.
+        double[] constant = exactJoint ? new double[]{logSpace ? 0.0 : 1.0} : null;
+
+        long phaseStart = METRICS.start();
+        ArrayList<String> relevantFactors = findRelevantFactorsOfFunc2(names); //Stores only relevant factors which will be found by BFS algorithm.
+
+        //Relevant data gathering.
+        ArrayList<Factor> tempFactors = new ArrayList<>(); //A copy of relevant factors. Makes sure original data is not modified.
+        for(Factor factor: factorNodes){
+            try {
+                //Factor will be added to our tempFactor list if it was found to be relevant.
+                //In log space the clone holds the cached logarithms of the factor, so joins add log values
+                //and eliminations sum them with log-sum-exp.
+                if(relevantFactors.contains(factor.getFactorName()))
+                    tempFactors.add(logSpace ? factor.cloneInLogSpace() : (Factor) factor.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
             }
+        }
+        METRICS.record(QueryMetrics.Phase.RELEVANCE, phaseStart);
 
+        long arenaBudget = -1; //Budget of the thread's arena before this query raised it, -1 when it wasn't raised.
+        try {
             List<String> nameList = Arrays.asList(names);
             String[] hidden = new String[relevantFactors.size() - names.length]; //Non-vars array.
             int insertionTemp = 0;
@@ -469,49 +646,42 @@ public class BayesianNetwork {
             query[0] = names[0];
 
             //Loop of instantiations.
+            phaseStart = METRICS.start();
             for(int temp = 0; temp < evidence.length; temp++){
                 String checkedVar = evidence[temp]; //Variable we wish to instantiate in tables
                 String checkedVarValue = truthValsArr[temp + 1]; //Value of the variable we wish to keep.
                 //Iterate through all factors of given evidence to filter.
                 for (Factor currFactor : tempFactors) {
                     if (currFactor.varInFactor(checkedVar))
-                        currFactor.instantiate(checkedVar, checkedVarValue);
+                        currFactor.instantiate(checkedVar, checkedVarValue, storageFactory, kernels);
                 }
             }
-            discardOneValued(tempFactors); //One valued factors after instantiation can be removed from the algorithm entirely.
-
-            Arrays.sort(hidden); //Sort hidden variables(For variable elimination alphabetical order)
-
-            int additionCounter = 0;
-            int multCount = 0;
-
-            //In every iteration, perform joins and elimination on the hidden variable in the iteration.
-            for(String hiddenString: hidden) {
-                ArrayList<Factor> hiddenFactors = new ArrayList<>(); //List of all factors that contain the hidden value.
-
-                //Find all factors that contain the hidden evidence that will be eliminated
-                for (Factor currFactor : tempFactors) {
-                    if (currFactor.varInFactor(hiddenString))
-                        hiddenFactors.add(currFactor);
-                }
-
-                if(hiddenFactors.size() == 0) //If there are no factors left for the hidden array, skip it.
-                    continue;
-
-                hiddenFactors.sort(Factor.factorComparator); //Sort by table size and variable ASCII sum when necessary(ascending)
-
-                if(hiddenFactors.size() > 1){
-                    //Joining loop
-                    for(int i = 1; i < hiddenFactors.size(); i++){
-                        multCount += join(hiddenFactors.get(i -1), hiddenFactors.get(i)); //Perform join on two tables in the order.
-                        tempFactors.remove(hiddenFactors.get(i - 1)); //Remove previous table from entire data, to replicate table joining.
+            discardOneValued(tempFactors, constant); //One valued factors after instantiation can be removed from the algorithm entirely.
+            METRICS.record(QueryMetrics.Phase.INSTANTIATION, phaseStart);
+
+            phaseStart = METRICS.start();
+            if(heuristicOrder)
+                hiddenVariablesEliminationSorting(hidden); //Sort hidden variables by the min-neighbors heuristic.
+            else
+                Arrays.sort(hidden); //Sort hidden variables(For variable elimination alphabetical order)
+
+            //Buckets of the hidden variables, in order. Independent buckets are eliminated at the same time.
+            EliminationPlan plan = new EliminationPlan(tempFactors, hidden);
+            METRICS.record(QueryMetrics.Phase.ORDERING, phaseStart);
+            context.checkCells(plan.getLargestTableRows()); //Fails before any table of the plan is allocated.
+            arenaBudget = storageFactory.prepareArena(plan.getLargestTableRows()); //Room for the buffers of this query.
+            long[] bucketCounts = eliminateBuckets(plan, context);
+            counts[0] += bucketCounts[0];
+            counts[1] += bucketCounts[1];
+            tempFactors.clear();
+            tempFactors.addAll(plan.getRemainingFactors());
+            if(constant != null){
+                for(EliminationPlan.Bucket bucket : plan.getBuckets()){
+                    if(bucket.isDiscardingResult()){
+                        constant[0] = logSpace ? constant[0] + bucket.getDiscardedValue() : constant[0] * bucket.getDiscardedValue();
+                        counts[1]++;
                     }
                 }
-
-                Factor eliminationFactor = hiddenFactors.get(hiddenFactors.size() - 1); //Last factor in the hidden factors is the one we remove the hidden column from.
-
-                additionCounter += eliminate(eliminationFactor, hiddenString); //Eliminate the hidden variable from the factor.
-                discardOneValued(tempFactors); //One valued factors left after joining can be discarded.
             }
 
             ArrayList<Factor> queryFactors = new ArrayList<>(); //Factors containing the query variable.
@@ -524,34 +694,423 @@ public class BayesianNetwork {
 
             //Joining loop
             for(int i = 1; i < queryFactors.size(); i++){
-                multCount += join(queryFactors.get(i -1), queryFactors.get(i)); //Last joins on query tables.
+                counts[1] += join(queryFactors.get(i -1), queryFactors.get(i), context); //Last joins on query tables.
             }
 
-            Factor finalFactor = queryFactors.get(queryFactors.size() - 1); //Last factor in the hidden factors is the one we remove the hidden column from.
-            Hashtable<TableKey, Double> finalTable = finalFactor.getFactorTable();
-            double normalizationSum = 0.0;
+            Factor finalFactor = queryFactors.get(queryFactors.size() - 1); //Only the query variable is left in the final factor.
+            FactorStorage finalValues = finalFactor.getValues();
+            double[] queryTable = new double[(int) finalValues.size()];
+            for(int row = 0; row < queryTable.length; row++){
+                queryTable[row] = finalValues.get(row);
+                if(constant != null){
+                    queryTable[row] = logSpace ? queryTable[row] + constant[0] : queryTable[row] * constant[0];
+                    counts[1]++;
+                }
+            }
+            return queryTable;
+        } finally {
+            //Intermediate tables may be held outside the heap, therefore they are released explicitly.
+            for(Factor tempFactor: tempFactors){
+                tempFactor.close();
+            }
+            storageFactory.restoreArena(arenaBudget); //After the buffers returned, so the extra ones are dropped.
+        }
+    }
 
-            Enumeration<TableKey> keySetOfFinalFactor = finalFactor.getFactorTable().keys();
 
-            //Normalization of the final table.
-            while(keySetOfFinalFactor.hasMoreElements()){
-                normalizationSum += finalTable.get(keySetOfFinalFactor.nextElement());
-                additionCounter++;
+    /**
+     * Returns the hidden variables of a query in the elimination order of func3(), the min-neighbors order.
+     * @param names Names of the given query.
+     * @return Names of the relevant variables which aren't in the query, in elimination order.
+     */
+    String[] getHeuristicEliminationOrder(String[] names){
+        List<String> nameList = Arrays.asList(names);
+        List<String> hidden = new ArrayList<>();
+        for(String relevant : findRelevantFactorsOfFunc2(names)){
+            if(!nameList.contains(relevant))
+                hidden.add(relevant);
+        }
+        String[] hiddenArr = hidden.toArray(new String[0]);
+        hiddenVariablesEliminationSorting(hiddenArr);
+        return hiddenArr;
+    }
+
+
+    /**
+     * Eliminates all the buckets of a plan. Plans which are predicted to build fewer rows than the parallel threshold
+     * are eliminated in order by the calling thread. Otherwise, each bucket is a task which starts once the buckets it
+     * depends on are done, on the fork/join pool. Either way, each bucket performs exactly the same operations.
+     * @param plan Plan of the elimination.
+     * @param context Limits of the query.
+     * @return Array of the number of additions and the number of multiplications, respectively.
+     */
+    private long[] eliminateBuckets(EliminationPlan plan, QueryContext context){
+        List<EliminationPlan.Bucket> buckets = plan.getBuckets();
+        long[][] counts = new long[buckets.size()][]; //Counts of each bucket, summed in order at the end.
+
+        if(plan.getPredictedRows() < parallelThreshold || forkJoinPool.getParallelism() == 1){
+            for(int i = 0; i < buckets.size(); i++){
+                counts[i] = eliminateBucket(buckets.get(i), context);
+            }
+        }
+        else{
+            IdentityHashMap<EliminationPlan.Bucket, CompletableFuture<Void>> tasks = new IdentityHashMap<>();
+            for(int i = 0; i < buckets.size(); i++){
+                EliminationPlan.Bucket bucket = buckets.get(i);
+                int bucketIndex = i;
+                CompletableFuture<?>[] dependencies = new CompletableFuture<?>[bucket.getDependencies().size()];
+                for(int j = 0; j < dependencies.length; j++){
+                    dependencies[j] = tasks.get(bucket.getDependencies().get(j));
+                }
+                tasks.put(bucket, CompletableFuture.allOf(dependencies)
+                        .thenRunAsync(() -> counts[bucketIndex] = eliminateBucket(bucket, context), forkJoinPool));
             }
 
+            //allOf completes only once every task is done, even after a failure, since the factors are released right after.
+            try {
+                CompletableFuture.allOf(tasks.values().toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                if(e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if(e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw e;
+            }
+        }
+
+        long[] totals = new long[2];
+        for(long[] bucketCounts : counts){
+            totals[0] += bucketCounts[0];
+            totals[1] += bucketCounts[1];
+        }
+        return totals;
+    }
+
 
-            Enumeration<TableKey> keySetOfFinalFactorNormalization = finalFactor.getFactorTable().keys();
-            //Apply normalization on the probabilities.
-            while(keySetOfFinalFactorNormalization.hasMoreElements()){
-                TableKey currKey = keySetOfFinalFactorNormalization.nextElement();
-                double rowValue = finalTable.get(currKey);
-                finalTable.put(currKey, rowValue / normalizationSum);
+    /**
+     * Eliminates a single bucket: joins its factors in order, and sums the hidden variable out of the last factor.
+     * @param bucket Bucket to eliminate.
+     * @param context Limits of the query.
+     * @return Array of the number of additions and the number of multiplications, respectively.
+     */
+    private long[] eliminateBucket(EliminationPlan.Bucket bucket, QueryContext context){
+        List<Factor> hiddenFactors = bucket.getFactors();
+        long multCount = 0;
+
+        if(fusedElimination){
+            long[] counts = fusedEliminate(hiddenFactors, bucket.getHiddenVariable(), context);
+            if(bucket.isDiscardingResult()){
+                bucket.setDiscardedValue(hiddenFactors.get(hiddenFactors.size() - 1).getValues().get(0));
+                hiddenFactors.get(hiddenFactors.size() - 1).close(); //One valued factors left after joining are discarded.
             }
-            String[] queryValue = new String[1];
-            queryValue[0] = truthValsArr[0]; //The desired query value.
-            double answer = finalTable.get(new TableKey(queryValue)); //Answer according to query value.
-            return decimalFormat.format(answer)+","+(additionCounter - 1)+","+multCount;
+            return counts;
+        }
+
+        //Joining loop
+        for(int i = 1; i < hiddenFactors.size(); i++){
+            multCount += join(hiddenFactors.get(i - 1), hiddenFactors.get(i), context); //Perform join on two tables in the order.
+            hiddenFactors.get(i - 1).close(); //The previous table is a part of the joined table now.
+        }
+
+        Factor eliminationFactor = hiddenFactors.get(hiddenFactors.size() - 1); //Last factor in the hidden factors is the one we remove the hidden column from.
+        long additionCount = eliminate(eliminationFactor, bucket.getHiddenVariable(), context); //Eliminate the hidden variable from the factor.
+        if(bucket.isDiscardingResult()){
+            bucket.setDiscardedValue(eliminationFactor.getValues().get(0));
+            eliminationFactor.close(); //One valued factors left after joining are discarded.
         }
+        return new long[]{additionCount, multCount};
+    }
+
+
+    /**
+     * Sums a hidden variable out of the product of all the factors of its bucket, without building the joint table.
+     * Each row of the new table multiplies the matching cells of all the factors for every outcome of the hidden
+     * variable, and sums the products. Before that, a cost model pre-joins pairs of factors whose joined table is
+     * smaller than the joint table, since each such join saves a multiplication in every cell of the joint table.
+     * Pre-joined tables are never larger than the new table or the largest factor, therefore the peak memory of the
+     * bucket is the size of its output instead of the size of its joint.
+     * The result is kept in the last factor, and the rest of the factors are released.
+     * @param bucketFactors Factors of the bucket, all of them containing the hidden variable.
+     * @param hiddenString Variable we wish to eliminate.
+     * @param context Limits of the query.
+     * @return Array of the number of additions and the number of multiplications, respectively.
+     */
+    private long[] fusedEliminate(List<Factor> bucketFactors, String hiddenString, QueryContext context){
+        long start = METRICS.start();
+        ArrayList<Factor> factors = new ArrayList<>(bucketFactors);
+        LinkedHashMap<String, String[]> newVarOutcomes = new LinkedHashMap<>(); //Outcomes of the new vars, in join order.
+        int hiddenOutcomeCount = 0;
+        long largestFactorRows = 0;
+        for(Factor factor : factors){
+            for(int i = 0; i < factor.getFactorVars().length; i++){
+                if(factor.getFactorVars()[i].equals(hiddenString))
+                    hiddenOutcomeCount = factor.getVarOutcomes()[i].length;
+                else
+                    newVarOutcomes.putIfAbsent(factor.getFactorVars()[i], factor.getVarOutcomes()[i]);
+            }
+            largestFactorRows = Math.max(largestFactorRows, factor.getValues().size());
+        }
+        long rows = 1;
+        for(String[] outcomes : newVarOutcomes.values()){
+            rows = Math.multiplyExact(rows, outcomes.length);
+        }
+        long jointRows = Math.multiplyExact(rows, hiddenOutcomeCount);
+        long memoryBound = Math.max(rows, largestFactorRows);
+        long multCount = 0;
+
+        //Cost model: pre-join the pair with the smallest joined table, as long as it is cheaper than the joint table.
+        while(factors.size() > 1){
+            int bestPrev = -1, bestCurr = -1;
+            long bestRows = Long.MAX_VALUE;
+            for(int i = 0; i < factors.size(); i++){
+                for(int j = i + 1; j < factors.size(); j++){
+                    long unionRows = getJoinedRows(factors.get(i), factors.get(j));
+                    if(unionRows < bestRows){
+                        bestRows = unionRows;
+                        bestPrev = i;
+                        bestCurr = j;
+                    }
+                }
+            }
+            if(bestRows >= jointRows || bestRows > memoryBound)
+                break;
+            multCount += join(factors.get(bestPrev), factors.get(bestCurr), context);
+            factors.remove(bestPrev).close(); //The previous table is a part of the joined table now.
+        }
+
+        String[] newVars = newVarOutcomes.keySet().toArray(new String[0]);
+        int[] outcomeCounts = new int[newVars.length];
+        for(int i = 0; i < newVars.length; i++){
+            outcomeCounts[i] = newVarOutcomes.get(newVars[i]).length;
+        }
+        FactorStorage[] sources = new FactorStorage[factors.size()];
+        long[][] sourceStrides = new long[factors.size()][]; //Strides of each factor, for each new var. 0 for vars it doesn't have.
+        long[] hiddenStrides = new long[factors.size()]; //Stride of the hidden variable in each factor.
+        for(int f = 0; f < sources.length; f++){
+            Factor factor = factors.get(f);
+            List<String> factorVars = Arrays.asList(factor.getFactorVars());
+            sources[f] = factor.getValues();
+            sourceStrides[f] = new long[newVars.length];
+            for(int i = 0; i < newVars.length; i++){
+                int index = factorVars.indexOf(newVars[i]);
+                sourceStrides[f][i] = index == -1 ? 0 : factor.getStrides()[index];
+            }
+            hiddenStrides[f] = factor.getStrides()[factorVars.indexOf(hiddenString)];
+        }
+
+        context.checkCells(rows);
+        FactorStorage eliminatedValues = storageFactory.allocate(rows); //New table after elimination.
+        long runLength = new RunCursor(outcomeCounts, sourceStrides).getRunLength();
+        int outcomes = hiddenOutcomeCount;
+        ParallelBlocks.forEachBlock(forkJoinPool, parallelThreshold, rows, runLength, (fromRow, toRow) ->
+                fusedRows(sources, sourceStrides, hiddenStrides, outcomes, eliminatedValues, outcomeCounts, fromRow, toRow, context));
+
+        Factor resultFactor = factors.get(factors.size() - 1);
+        resultFactor.setValues(newVars, newVarOutcomes.values().toArray(new String[0][]), eliminatedValues);
+        for(int f = 0; f < factors.size() - 1; f++){
+            factors.get(f).close(); //The rest of the tables are a part of the new table now.
+        }
+        multCount += jointRows * (factors.size() - 1); //Each cell of the joint is a product of all the factors.
+        METRICS.record(QueryMetrics.Phase.ELIMINATE, start);
+        return new long[]{rows * (hiddenOutcomeCount - 1), multCount}; //Summing n outcomes takes n - 1 additions.
+    }
+
+
+    /**
+     * Builds a range of rows of a fused sum-product, run by run. Each row multiplies the matching cells of all the
+     * factors for every outcome of the hidden variable, and sums the products in the order of the outcomes.
+     * In log space the cells are added, and the products are summed with log-sum-exp.
+     * @param sources Cells of the factors.
+     * @param sourceStrides Strides of each factor, for each variable of the new table.
+     * @param hiddenStrides Stride of the hidden variable in each factor.
+     * @param hiddenOutcomeCount Number of outcomes of the hidden variable.
+     * @param eliminatedValues Cells of the new table.
+     * @param outcomeCounts Number of outcomes of each variable of the new table.
+     * @param fromRow First row of the range. Must be the first row of a run.
+     * @param toRow Row after the last row of the range.
+     * @param context Limits of the query, checked every BLOCK_ROWS cells read.
+     */
+    private void fusedRows(FactorStorage[] sources, long[][] sourceStrides, long[] hiddenStrides, int hiddenOutcomeCount,
+                           FactorStorage eliminatedValues, int[] outcomeCounts, long fromRow, long toRow, QueryContext context){
+        RunCursor cursor = new RunCursor(outcomeCounts, sourceStrides);
+        cursor.seek(fromRow);
+        int runLength = (int) cursor.getRunLength();
+        long[] runStrides = new long[sources.length];
+        double[][] heapArrays = new double[sources.length][]; //Arrays of the heap factors, read directly.
+        for(int f = 0; f < sources.length; f++){
+            runStrides[f] = cursor.getRunStride(f);
+            if(sources[f] instanceof HeapFactorStorage)
+                heapArrays[f] = ((HeapFactorStorage) sources[f]).getValues();
+        }
+        boolean logSpace = this.logSpace;
+        double[] terms = new double[hiddenOutcomeCount]; //Products of each outcome of the current row, in log space.
+        long rowCells = (long) hiddenOutcomeCount * sources.length; //Cells read for a single row.
+        long cellsToCheckpoint = 0; //Cells left to read until the next check of the query's limits.
+
+        for(long row = fromRow; row < toRow; row += runLength){
+            for(int i = 0; i < runLength; i++){
+                if(cellsToCheckpoint <= 0){
+                    context.checkpoint();
+                    cellsToCheckpoint = ParallelBlocks.BLOCK_ROWS;
+                }
+                cellsToCheckpoint -= rowCells;
+                double sum = 0.0;
+                for(int outcome = 0; outcome < hiddenOutcomeCount; outcome++){
+                    double product = 0.0;
+                    for(int f = 0; f < sources.length; f++){
+                        long cell = cursor.getCell(f) + i * runStrides[f] + outcome * hiddenStrides[f];
+                        double value = heapArrays[f] != null ? heapArrays[f][(int) cell] : sources[f].get(cell);
+                        if(f == 0)
+                            product = value;
+                        else
+                            product = logSpace ? product + value : product * value;
+                    }
+                    if(logSpace)
+                        terms[outcome] = product;
+                    else
+                        sum += product;
+                }
+                eliminatedValues.set(row + i, logSpace ? LogSpace.sum(terms, hiddenOutcomeCount) : sum);
+            }
+            cursor.next();
+        }
+    }
+
+
+    /**
+     * Returns the number of rows of the table joining two factors.
+     * @param prevFactor First factor.
+     * @param currFactor Second factor.
+     * @return Number of rows of the joined table.
+     */
+    private static long getJoinedRows(Factor prevFactor, Factor currFactor){
+        long rows = prevFactor.getValues().size();
+        List<String> prevVars = Arrays.asList(prevFactor.getFactorVars());
+        for(int i = 0; i < currFactor.getFactorVars().length; i++){
+            if(!prevVars.contains(currFactor.getFactorVars()[i]))
+                rows = Math.multiplyExact(rows, currFactor.getVarOutcomes()[i].length);
+        }
+        return rows;
+    }
+
+
+    /**
+     * Returns whenever answer() knows the algorithm of the given number.
+     * @param algorithm Number of the algorithm, same as the number at the end of an input line.
+     * @return true if the number is between 0 and the last algorithm number.
+     */
+    public static boolean isKnownAlgorithm(int algorithm){
+        return algorithm >= 0 && algorithm <= LAST_ALGORITHM;
+    }
+
+
+    /**
+     * Answers a query with the given algorithm, returning the answer itself instead of its output line.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param algorithm Number of the algorithm, same as the number at the end of an input line.
+     *                  0 lets the query planner pick, 1, 2 and 3 are func1(), func2() and func3(), 4 is cutset conditioning, 5 is recursive conditioning,
+     *                  6 is evaluating the compiled arithmetic circuit, 7 is a generated routine of the query's shape,
+     *                  8 is an approximation by likelihood weighting, 9 is an approximation by Gibbs sampling,
+     *                  10 is an approximation by adaptive importance sampling, 11 is an approximation by loopy belief propagation,
+     *                  12 is the estimate of mini-bucket elimination.
+     * @return The answer of the query.
+     * @throws IllegalArgumentException Whenever the algorithm number is unknown.
+     * @throws QueryAbortedException Whenever a limit of the query, given by the bn.query system properties, was hit.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, int algorithm){
+        return answer(names, truthValsArr, algorithm, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query with the given algorithm, within the limits of a context. Queries which run out of time or
+     * memory are answered by the fallback engine of the context, when it has one, and abort otherwise.
+     * Every engine checks the limits inside its loops: per block of rows or instantiations for the exact engines,
+     * per circuit layer or node batch for the circuits, and per batch, sweep, iteration or bucket for the approximations.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param algorithm Number of the algorithm, see answer(String[], String[], int).
+     * @param context Limits of the query.
+     * @return The answer of the query.
+     * @throws IllegalArgumentException Whenever the algorithm number is unknown.
+     * @throws QueryAbortedException Whenever a limit of the query was hit, and there is no fallback.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, int algorithm, QueryContext context){
+        long start = METRICS.start();
+        try {
+            context.checkpoint();
+            return dispatch(names, truthValsArr, algorithm, context);
+        } catch (QueryDeadlineException | QueryMemoryException e) {
+            if(context.getFallbackAlgorithm() == -1)
+                throw e;
+            return answer(names, truthValsArr, context.getFallbackAlgorithm(), context.forFallback());
+        } finally {
+            if(algorithm != 0) //The planner's query is recorded by the engine it picked.
+                METRICS.record(QueryMetrics.Phase.QUERY, start);
+        }
+    }
+
+
+    /**
+     * Runs the engine of the given algorithm.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param algorithm Number of the algorithm, see answer(String[], String[], int).
+     * @param context Limits of the query.
+     * @return The answer of the query.
+     * @throws IllegalArgumentException Whenever the algorithm number is unknown.
+     */
+    private QueryAnswer dispatch(String[] names, String[] truthValsArr, int algorithm, QueryContext context){
+        switch (algorithm){
+            case 0:
+                return new QueryPlanner(this).answer(names, truthValsArr, context);
+            case 1:
+                return simpleDeduction(names, truthValsArr, context);
+            case 2:
+                return variableElimination(names, truthValsArr, false, context);
+            case 3:
+                return variableElimination(names, truthValsArr, true, context);
+            case 4:
+                return new CutsetConditioningEngine(this).answer(names, truthValsArr, context);
+            case 5:
+                return new RecursiveConditioningEngine(this).answer(names, truthValsArr, context);
+            case 6:
+                return circuitAnswer(names, truthValsArr, context);
+            case 7:
+                return getQueryCompiler().answer(names, truthValsArr, context);
+            case 8:
+                return new LikelihoodWeightingSampler(this).answer(names, truthValsArr, context);
+            case 9:
+                return getGibbsSampler().answer(names, truthValsArr, context);
+            case 10:
+                return new AdaptiveImportanceSampler(this).answer(names, truthValsArr, context);
+            case 11:
+                return getBeliefPropagation().answer(names, truthValsArr, context);
+            case 12:
+                return new MiniBucketEngine(this).answer(names, truthValsArr, context);
+            default:
+                throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+        }
+    }
+
+
+    /**
+     * Answers a query by evaluating the compiled arithmetic circuit of the network, with the query's evidence.
+     * The counters are the operations of both passes over the circuit, which calculate the posteriors of every variable.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, which also apply to compiling the circuit on the first query.
+     * @return The answer of the query.
+     */
+    private QueryAnswer circuitAnswer(String[] names, String[] truthValsArr, QueryContext context){
+        //If query can be obtainable directly, same as func2() and func3().
+        if(IsProbabilityValueDirect(names))
+            return new QueryAnswer(getDirectProbability(names, truthValsArr), 0, 0);
+
+        CircuitPosteriors posteriors = getArithmeticCircuit(context).evaluate(Arrays.copyOfRange(names, 1, names.length),
+                Arrays.copyOfRange(truthValsArr, 1, truthValsArr.length), context);
+        return new QueryAnswer(posteriors.getPosterior(names[0], truthValsArr[0]), posteriors.getAdditions(), posteriors.getMultiplications());
     }
 
 
@@ -597,83 +1156,157 @@ public class BayesianNetwork {
 
     /**
      * Deletes any factor which has 1 value, they can be discarded.
+     * In log space the values of the factors are already logarithms.
      * @param tempFactors Arraylist of the factors of algorithm 2.
+     * @param constant Single cell the values of the discarded factors are multiplied into(added as logs in log space),
+     *                 or null when the values aren't needed.
      */
-    private void discardOneValued(ArrayList<Factor> tempFactors){
-        tempFactors.removeIf(factor -> factor.getFactorSize() == 1);
+    private void discardOneValued(ArrayList<Factor> tempFactors, double[] constant){
+        tempFactors.removeIf(factor -> {
+            if(factor.getFactorSize() != 1)
+                return false;
+            if(constant != null){
+                double value = factor.getValues().get(0);
+                constant[0] = logSpace ? constant[0] + value : constant[0] * value;
+            }
+            factor.close();
+            return true;
+        });
     }
 
 
     /**
      * Performs a single join between 2 factors, while changing the second factor with the new factor.
+     * The joined table holds the variables of the first factor followed by the new variables of the second factor.
+     * Its rows are iterated in order, while keeping track of the matching cell of each of the factors by their strides.
+     * In log space the matching cells are added instead of multiplied.
+     * Large tables are split into blocks of rows which are joined in parallel.
      * @param prevFactor First factor in multiplication to be joined.
      * @param currFactor Second factor in multiplication to be joined.
+     * @param context Limits of the query. The size of the joined table is checked before it is allocated.
      * @return The number of multiplications the join had.
      */
-    private int join(Factor prevFactor, Factor currFactor){
+    private long join(Factor prevFactor, Factor currFactor, QueryContext context){
+        long start = METRICS.start();
         String[] currVars = currFactor.getFactorVars(); //Variables of the second factor.
         String[] prevVars = prevFactor.getFactorVars(); //Variables of the first factor.
-        Hashtable<String, String[]> varOutComes = new Hashtable<>(); //HashTable containing each var's possible outcomes.
         ArrayList<String> newTableVars = new ArrayList<>(); //Keeps the order of insertions in check.
+        ArrayList<String[]> newVarOutcomes = new ArrayList<>(); //Outcomes of each var of the joined table, in order.
 
         //Updates relevant vars of joined table from the prev factor.
-        for(String var: prevVars){
-            if(!varOutComes.containsKey(var)){
-                newTableVars.add(var);
-                varOutComes.put(var, getOutcomesFromGivenFactorColumn(prevFactor,prevVars,var));
-            }
-        }
-
-        //Updates relevant vars of joined table from the prev factor. Makes sure duplicates aren't added twice.
-        for(String var: currVars){
-            if(!varOutComes.containsKey(var)){
-                newTableVars.add(var);
-                varOutComes.put(var, getOutcomesFromGivenFactorColumn(currFactor,currVars,var));
+        Collections.addAll(newTableVars, prevVars);
+        Collections.addAll(newVarOutcomes, prevFactor.getVarOutcomes());
+
+        //Updates relevant vars of joined table from the curr factor. Makes sure duplicates aren't added twice.
+        for(int i = 0; i < currVars.length; i++){
+            if(!newTableVars.contains(currVars[i])){
+                newTableVars.add(currVars[i]);
+                newVarOutcomes.add(currFactor.getVarOutcomes()[i]);
             }
         }
 
         int[] outcomeCounts = new int[newTableVars.size()]; //Array of outcomes of the new table variables.
-
-        //Build the outcomeCounts array.
-        for(int i = 0; i < varOutComes.size(); i++){
-            outcomeCounts[i] = varOutComes.get(newTableVars.get(i)).length;
+        long[] prevStrides = new long[outcomeCounts.length]; //Strides of the first factor, 0 for vars it doesn't have.
+        long[] currStrides = new long[outcomeCounts.length]; //Strides of the second factor, 0 for vars it doesn't have.
+        long rows = 1;
+
+        //Build the outcomeCounts and strides arrays, and get new joined table's number of rows.
+        for(int i = 0; i < outcomeCounts.length; i++){
+            outcomeCounts[i] = newVarOutcomes.get(i).length;
+            rows = Math.multiplyExact(rows, outcomeCounts[i]);
+            int prevIndex = Arrays.asList(prevVars).indexOf(newTableVars.get(i));
+            int currIndex = Arrays.asList(currVars).indexOf(newTableVars.get(i));
+            prevStrides[i] = prevIndex == -1 ? 0 : prevFactor.getStrides()[prevIndex];
+            currStrides[i] = currIndex == -1 ? 0 : currFactor.getStrides()[currIndex];
         }
 
-        int[] indexArr = new int[outcomeCounts.length]; //Array of indices which represents values of keys.
+        FactorStorage prevValues = prevFactor.getValues();
+        FactorStorage currValues = currFactor.getValues();
+        context.checkCells(rows);
+        FactorStorage joinedValues = storageFactory.allocate(rows); //New joined table.
+        long runLength = new RunCursor(outcomeCounts, prevStrides, currStrides).getRunLength();
 
-        //Iterate through outcomeCounts array to get new joined table's number of rows.
-        int rows = 1;
-        for (int outcomeCount : outcomeCounts) {
-            rows *= outcomeCount;
-        }
+        ParallelBlocks.forEachBlock(forkJoinPool, parallelThreshold, rows, runLength, (fromRow, toRow) ->
+                joinRows(prevValues, prevStrides, currValues, currStrides, joinedValues, outcomeCounts, fromRow, toRow, context));
 
-        Hashtable<TableKey, Double> joinedTable = new Hashtable<>(); //New joined table.
-        //Iterate to build joined table(Key wise)
-        for(int i = 0; i < rows; i++){
-            TableKey newKey = fromIndexToValuesTable(indexArr, newTableVars, varOutComes);
-            joinedTable.put(newKey, 1.0);
-            permutateByOne(indexArr, outcomeCounts);
-        }
+        //Set the second factor's table and variables in the table.
+        currFactor.setValues(newTableVars.toArray(new String[0]), newVarOutcomes.toArray(new String[0][]), joinedValues);
+        METRICS.record(QueryMetrics.Phase.JOIN, start);
+        return rows; //Each row of the joined table is a single multiplication.
+    }
 
-        int mults = getProductOfJoinedTable(prevFactor, currFactor, joinedTable, newTableVars); //Applies the multiplication of the tables.
 
-        //Set the second factor's table and variables in the table.
-        currFactor.setFactorTable(joinedTable);
-        currFactor.setVars(newTableVars.toArray(new String[0]));
-        return mults;
+    /**
+     * Builds a range of rows of a joined table, run by run, multiplying the matching cells of both factors.
+     * Heap tables are handed to the kernels, other tables are calculated cell by cell.
+     * @param prevValues Cells of the first factor.
+     * @param prevStrides Strides of the first factor, for each variable of the joined table.
+     * @param currValues Cells of the second factor.
+     * @param currStrides Strides of the second factor, for each variable of the joined table.
+     * @param joinedValues Cells of the joined table.
+     * @param outcomeCounts Number of outcomes of each variable of the joined table.
+     * @param fromRow First row of the range. Must be the first row of a run.
+     * @param toRow Row after the last row of the range.
+     * @param context Limits of the query, checked every BLOCK_ROWS cells built.
+     */
+    private void joinRows(FactorStorage prevValues, long[] prevStrides, FactorStorage currValues, long[] currStrides,
+                          FactorStorage joinedValues, int[] outcomeCounts, long fromRow, long toRow, QueryContext context){
+        RunCursor cursor = new RunCursor(outcomeCounts, prevStrides, currStrides);
+        cursor.seek(fromRow);
+        int runLength = (int) cursor.getRunLength();
+        long prevRunStride = cursor.getRunStride(0), currRunStride = cursor.getRunStride(1);
+        boolean logSpace = this.logSpace;
+        boolean onHeap = prevValues instanceof HeapFactorStorage && currValues instanceof HeapFactorStorage
+                && joinedValues instanceof HeapFactorStorage;
+        long cellsToCheckpoint = 0; //Cells left to build until the next check of the query's limits.
+
+        for(long row = fromRow; row < toRow; row += runLength){
+            long prevCell = cursor.getCell(0), currCell = cursor.getCell(1);
+            if(onHeap){
+                if(cellsToCheckpoint <= 0){ //A whole run at a time, runs are at most BLOCK_ROWS rows.
+                    context.checkpoint();
+                    cellsToCheckpoint = ParallelBlocks.BLOCK_ROWS;
+                }
+                cellsToCheckpoint -= runLength;
+                kernels.product(((HeapFactorStorage) prevValues).getValues(), (int) prevCell, (int) prevRunStride,
+                        ((HeapFactorStorage) currValues).getValues(), (int) currCell, (int) currRunStride,
+                        ((HeapFactorStorage) joinedValues).getValues(), (int) row, runLength, logSpace);
+            }
+            else{
+                for(int i = 0; i < runLength; i++){
+                    if(cellsToCheckpoint <= 0){
+                        context.checkpoint();
+                        cellsToCheckpoint = ParallelBlocks.BLOCK_ROWS;
+                    }
+                    cellsToCheckpoint--;
+                    double prevValue = prevValues.get(prevCell + i * prevRunStride);
+                    double currValue = currValues.get(currCell + i * currRunStride);
+                    joinedValues.set(row + i, logSpace ? prevValue + currValue : prevValue * currValue);
+                }
+            }
+            cursor.next();
+        }
     }
 
 
     /**
      * Performs the variable elimination of a given factor, eliminating the given hiddenString.
+     * Each row of the new table sums the cells of all outcomes of the hidden variable, in the order of the outcomes.
+     * In log space the cells are summed with log-sum-exp.
+     * Large tables are split into blocks of rows which are eliminated in parallel.
      * @param factor Factor we with to eliminate variable from.
      * @param hiddenString Variable we wish to eliminate from the factor given.
+     * @param context Limits of the query.
      * @return Number of additions performed in the elimination.
      */
-    private int eliminate(Factor factor, String hiddenString){
+    private long eliminate(Factor factor, String hiddenString, QueryContext context){
+        long start = METRICS.start();
         int varIndex = 0; //Index of the variable we wish to eliminate.
         String[] factorVars = factor.getFactorVars(); //The variables of the factor.
         String[] newFactorVars = new String[factorVars.length - 1]; //The new vars after elimination.
+        String[][] newVarOutcomes = new String[factorVars.length - 1][]; //The outcomes of the new vars.
+        int[] outcomeCounts = new int[factorVars.length - 1]; //Number of outcomes of the new vars.
+        long[] sourceStrides = new long[factorVars.length - 1]; //Strides of the new vars in the current table.
         int insertionTemp = 0;
 
         //Iterate through the variables to find the index of the variable we wish to eliminate.
@@ -682,308 +1315,87 @@ public class BayesianNetwork {
             if(factorVars[i].equals(hiddenString)){
                 varIndex = i;
             }else{
-                newFactorVars[insertionTemp++] = factorVars[i];
+                newFactorVars[insertionTemp] = factorVars[i];
+                newVarOutcomes[insertionTemp] = factor.getVarOutcomes()[i];
+                outcomeCounts[insertionTemp] = newVarOutcomes[insertionTemp].length;
+                sourceStrides[insertionTemp++] = factor.getStrides()[i];
             }
         }
 
-        Hashtable<TableKey, Double> currTable = factor.getFactorTable(); //Table we eliminate from.
-        Hashtable<TableKey, Double> newEliminatedTable = new Hashtable<>(); //New table after elimination.
-        int additionCounter = 0;
-        Enumeration<TableKey> keySet = currTable.keys();
-
-        //Iterate through the keys of the table.
-        while(keySet.hasMoreElements()){
-            TableKey currTableKey = keySet.nextElement();
-            String[] currKeyArr = currTableKey.getKeys();
-            String[] newVals = new String[newFactorVars.length];
-            int insertNewValsTemp = 0;
-
-            //Iterate to build the values of the relevant variables.
-            for(int i = 0; i < currKeyArr.length; i++){
-                if(i != varIndex)
-                    newVals[insertNewValsTemp++] = currKeyArr[i];
-            }
+        FactorStorage currValues = factor.getValues(); //Table we eliminate from.
+        int hiddenOutcomeCount = factor.getVarOutcomes()[varIndex].length;
+        long hiddenStride = factor.getStrides()[varIndex];
+        long rows = currValues.size() / hiddenOutcomeCount;
+        context.checkCells(rows);
+        FactorStorage eliminatedValues = storageFactory.allocate(rows); //New table after elimination.
+        long runLength = new RunCursor(outcomeCounts, sourceStrides).getRunLength();
 
-            //If the new vals is not in the joined table in the first place, skip it in the loop.
-            if(newEliminatedTable.containsKey(new TableKey(newVals))){
-                continue;
-            }
+        ParallelBlocks.forEachBlock(forkJoinPool, parallelThreshold, rows, runLength, (fromRow, toRow) ->
+                eliminateRows(currValues, sourceStrides, hiddenStride, hiddenOutcomeCount, eliminatedValues, outcomeCounts, fromRow, toRow, context));
 
-            Enumeration<TableKey> keySetTemp = currTable.keys(); //Will iterate through the current table again. It is a sub iteration.
-            double sum = 0.0;
-            int additions = 0; //Local additions of the given key.
-            while(keySetTemp.hasMoreElements()){
-                TableKey currTableKeyTemp = keySetTemp.nextElement();
-                String[] currKeyArrTemp = currTableKeyTemp.getKeys();
-                String[] newValsTemp = new String[newFactorVars.length];
-                int insertNewValsTemp2 = 0;
-
-                for(int i = 0; i < currKeyArrTemp.length; i++){
-                    if(i != varIndex)
-                        newValsTemp[insertNewValsTemp2++] = currKeyArrTemp[i];
-                }
-
-                //If the new array of values matches the relevant array of values in the beginning, it fits the addition.
-                if(Arrays.equals(newValsTemp, newVals)){
-                    sum += currTable.get(currTableKeyTemp);
-                    additions += 1;
-                }
-            }
-            //Add new row to eliminated table.
-            newEliminatedTable.put(new TableKey(newVals), sum);
-            additionCounter += additions - 1;
-        }
         //Set the factor's table to the new eliminated factor. Both table and vars like.
-        factor.setVars(newFactorVars);
-        factor.setFactorTable(newEliminatedTable);
-        return additionCounter;
-    }
-
-
-    /**
-     * Performs the after joining multiplication.
-     * @param prevFactor First factor of joining.
-     * @param currFactor Second factor of joining.
-     * @param joinedTable The new simple joined table.
-     * @param newTableVars The new variables of the new joined table.
-     * @return The amount of multiplications done by the joining.
-     */
-    private int getProductOfJoinedTable(Factor prevFactor, Factor currFactor, Hashtable<TableKey, Double> joinedTable, ArrayList<String> newTableVars) {
-        String[] prevFactorVars = prevFactor.getFactorVars();
-        String[] currFactorVars = currFactor.getFactorVars();
-        String[] joinedTableVars = newTableVars.toArray(new String[0]);
-
-        Hashtable<TableKey, Double> prevFactorTable = prevFactor.getFactorTable();
-        Hashtable<TableKey, Double> currFactorTable = currFactor.getFactorTable();
-        int subArrayEndIndex = prevFactorVars.length;
-
-        Enumeration<TableKey> prevKeys = prevFactorTable.keys();
-        Enumeration<TableKey> currKeys = currFactorTable.keys();
-
-        int multiCount = 0;
-        //Iteration through the first table in the multiplication.
-        //Multiply the values of the first table to the values of the
-        while(prevKeys.hasMoreElements()){
-            TableKey key = prevKeys.nextElement();
-            String[] keyArr = key.getKeys();
-            double prob = prevFactorTable.get(key);
-            Enumeration<TableKey> joinedKeys = joinedTable.keys();
-            while(joinedKeys.hasMoreElements()){
-                TableKey joinedKey = joinedKeys.nextElement();
-                double joinedTableProb = joinedTable.get(joinedKey);
-                String[] joinedKeysSubArray = Arrays.copyOfRange(joinedKey.getKeys(),0, subArrayEndIndex);
-                if(Arrays.equals(keyArr, joinedKeysSubArray)){
-                    joinedTable.put(joinedKey, joinedTableProb * prob);
-                }
-            }
-        }
-
-        //Iterate through second table keys.
-        //Multiply the second table's values to the joined table.
-        while(currKeys.hasMoreElements()){
-            TableKey currKey = currKeys.nextElement();
-            String[] currKeyArr = currKey.getKeys();
-            double prob = currFactorTable.get(currKey);
-
-            Enumeration<TableKey> joinedKeys = joinedTable.keys();
-            //Iterate through joined table keys.
-            while(joinedKeys.hasMoreElements()){
-                TableKey joinedKey = joinedKeys.nextElement();
-                double joinedTableProb = joinedTable.get(joinedKey);
-                String[] joinedKeyVals = joinedKey.getKeys();
-                String[] newOrderedVals = new String[currFactorVars.length]; //New String array to compare with array from second table.
-                int tempCounter = 0;
-
-                //Build the newOrderedVals for each iteration of joinedTable keys.
-                //Order of keys int the second table won't fit order of keys in the joined table. reorganize values to match arrays.
-                for (String currFactorVar : currFactorVars) {
-                    for (int joinedColumn = 0; joinedColumn < joinedTableVars.length; joinedColumn++) {
-                        if (currFactorVar.equals(joinedTableVars[joinedColumn])) {
-                            newOrderedVals[tempCounter++] = joinedKeyVals[joinedColumn];
-                        }
-                    }
-                }
-                if(Arrays.equals(newOrderedVals, currKeyArr)){
-                    joinedTable.put(joinedKey, joinedTableProb * prob);
-                    multiCount++;
-                }
-            }
-        }
-        return multiCount;
-    }
-
-
-    /**
-     * Converts an array of indices representing keys, to actual array of keys, which will then transform it to
-     * a TableKey instance which is valid as a key of a factor table.
-     * @param indexArr Array of indices representing key values.
-     * @param varList List of variables.
-     * @param varTable A table of variables and their possible outcomes.
-     * @return A new TableKey of relevant key values, which will be used as a key in a factor table.
-     */
-    private TableKey fromIndexToValuesTable(int[] indexArr, ArrayList<String> varList, Hashtable<String, String[]> varTable){
-        String[] values = new String[indexArr.length];
-        for(int i = 0; i < varList.size(); i++){
-            values[i] = varTable.get(varList.get(i))[indexArr[i]];
-        }
-        return new TableKey(values);
+        factor.setValues(newFactorVars, newVarOutcomes, eliminatedValues);
+        METRICS.record(QueryMetrics.Phase.ELIMINATE, start);
+        return rows * (hiddenOutcomeCount - 1); //Summing n outcomes takes n - 1 additions.
     }
 
 
     /**
-     * Fetches the outcomes of a given column in a factor table.
-     * @param factor Factor instance.
-     * @param vars Variables of the factor.
-     * @param var Variable we wish to get its outcomes
-     * @return An array of outcomes of a variable from a given factor.
+     * Builds a range of rows of an eliminated table, run by run. Each row sums the cells of all outcomes of the hidden
+     * variable, in the order of the outcomes. Heap tables are handed to the kernels, other tables and log space tables
+     * are calculated cell by cell.
+     * @param sourceValues Cells of the table we eliminate from.
+     * @param sourceStrides Strides of the kept variables in the source table.
+     * @param hiddenStride Stride of the eliminated variable in the source table.
+     * @param hiddenOutcomeCount Number of outcomes of the eliminated variable.
+     * @param eliminatedValues Cells of the new table.
+     * @param outcomeCounts Number of outcomes of each kept variable.
+     * @param fromRow First row of the range. Must be the first row of a run.
+     * @param toRow Row after the last row of the range.
+     * @param context Limits of the query, checked every BLOCK_ROWS cells read.
      */
-    private String[] getOutcomesFromGivenFactorColumn(Factor factor, String[] vars, String var){
-        int varIndex = -1;
-        //Find the index of the variable we wish to find its values.
-        for(int i = 0; i < vars.length; i++){
-            if(vars[i].equals(var)){
-                varIndex = i;
-                break;
-            }
-        }
-
-        ArrayList<String> uniqueValuesOfColumn = new ArrayList<>(); //List of found values.
-        Enumeration<TableKey> keySet = factor.getFactorTable().keys();
-        while(keySet.hasMoreElements()){
-            TableKey currKey = keySet.nextElement();
-            String value = currKey.getKeys()[varIndex];
-            if(!uniqueValuesOfColumn.contains(value))
-                uniqueValuesOfColumn.add(value);
-        }
-        return uniqueValuesOfColumn.toArray(new String[0]);
-    }
-
-
-
-    public String func3(String[] names, String[] truthValsArr){
-        //Decimal format for correct answer printing(5 digits after the dot).
-        DecimalFormat decimalFormat = new DecimalFormat("#.#####");
-        //If query can be obtainable directly
-        if (IsProbabilityValueDirect(names)) {
-            double probability = getDirectProbability(names, truthValsArr);
-            return decimalFormat.format(probability) + ",0,0";
-        }
-        else{
-            ArrayList<String> relevantFactors = findRelevantFactorsOfFunc2(names); //Stores only relevant factors which will be found by BFS algorithm.
-
-            //Relevant data gathering.
-            ArrayList<Factor> tempFactors = new ArrayList<>(); //A copy of relevant factors. Makes sure original data is not modified.
-            for(Factor factor: factorNodes){
-                try {
-                    if(relevantFactors.contains(factor.getFactorName()))
-                        tempFactors.add((Factor) factor.clone()); //Factor will be added to our tempFactor list if it was found to be relevant.
-                } catch (CloneNotSupportedException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            List<String> nameList = Arrays.asList(names);
-            String[] hidden = new String[relevantFactors.size() - names.length]; //Non-vars array.
-            int insertionTemp = 0;
-
-            //Loop iterates through all variable nodes. If a node isn't in the list, it is considered hidden.
-            //This loop builds the hidden array.
-            for (Factor currFactor : tempFactors) {
-                if (!nameList.contains(currFactor.getFactorName())) {
-                    hidden[insertionTemp++] = currFactor.getFactorName();
+    private void eliminateRows(FactorStorage sourceValues, long[] sourceStrides, long hiddenStride, int hiddenOutcomeCount,
+                               FactorStorage eliminatedValues, int[] outcomeCounts, long fromRow, long toRow, QueryContext context){
+        RunCursor cursor = new RunCursor(outcomeCounts, sourceStrides);
+        cursor.seek(fromRow);
+        int runLength = (int) cursor.getRunLength();
+        long runStride = cursor.getRunStride(0);
+        boolean logSpace = this.logSpace;
+        boolean onHeap = !logSpace && sourceValues instanceof HeapFactorStorage && eliminatedValues instanceof HeapFactorStorage;
+        long cellsToCheckpoint = 0; //Cells left to read until the next check of the query's limits.
+
+        for(long row = fromRow; row < toRow; row += runLength){
+            long runCell = cursor.getCell(0); //Cell of the first outcome of the hidden variable where the run starts.
+            if(onHeap){
+                if(cellsToCheckpoint <= 0){ //A whole run at a time, runs are at most BLOCK_ROWS rows.
+                    context.checkpoint();
+                    cellsToCheckpoint = ParallelBlocks.BLOCK_ROWS;
                 }
-                if(insertionTemp == hidden.length)
-                    break;
+                cellsToCheckpoint -= (long) runLength * hiddenOutcomeCount;
+                kernels.sumOut(((HeapFactorStorage) sourceValues).getValues(), (int) runCell, (int) runStride,
+                        (int) hiddenStride, hiddenOutcomeCount, ((HeapFactorStorage) eliminatedValues).getValues(), (int) row, runLength);
             }
-
-            String[] evidence = new String[names.length - 1];
-            System.arraycopy(names, 1, evidence, 0, evidence.length);
-            String[] query = new String[1];
-            query[0] = names[0];
-
-            //Loop of instantiations.
-            for(int temp = 0; temp < evidence.length; temp++){
-                String checkedVar = evidence[temp]; //Variable we wish to instantiate in tables
-                String checkedVarValue = truthValsArr[temp + 1]; //Value of the variable we wish to keep.
-                //Iterate through all factors of given evidence to filter.
-                for (Factor currFactor : tempFactors) {
-                    if (currFactor.varInFactor(checkedVar))
-                        currFactor.instantiate(checkedVar, checkedVarValue);
-                }
-            }
-            discardOneValued(tempFactors); //One valued factors after instantiation can be removed from the algorithm entirely.
-
-            hiddenVariablesEliminationSorting(hidden);//Sort hidden variables(For variable elimination alphabetical order)
-
-            int additionCounter = 0;
-            int multCount = 0;
-
-            //In every iteration, perform joins and elimination on the hidden variable in the iteration.
-            for(String hiddenString: hidden) {
-                ArrayList<Factor> hiddenFactors = new ArrayList<>(); //List of all factors that contain the hidden value.
-
-                //Find all factors that contain the hidden evidence that will be eliminated
-                for (Factor currFactor : tempFactors) {
-                    if (currFactor.varInFactor(hiddenString))
-                        hiddenFactors.add(currFactor);
-                }
-
-                if(hiddenFactors.size() == 0) //If there are no factors left for the hidden array, skip it.
-                    continue;
-
-                hiddenFactors.sort(Factor.factorComparator); //Sort by table size and variable ASCII sum when necessary(ascending)
-
-                if(hiddenFactors.size() > 1){
-                    //Joining loop
-                    for(int i = 1; i < hiddenFactors.size(); i++){
-                        multCount += join(hiddenFactors.get(i -1), hiddenFactors.get(i)); //Perform join on two tables in the order.
-                        tempFactors.remove(hiddenFactors.get(i - 1)); //Remove previous table from entire data, to replicate table joining.
+            else{
+                for(int i = 0; i < runLength; i++){
+                    if(cellsToCheckpoint <= 0){
+                        context.checkpoint();
+                        cellsToCheckpoint = ParallelBlocks.BLOCK_ROWS;
+                    }
+                    cellsToCheckpoint -= hiddenOutcomeCount;
+                    long sourceCell = runCell + i * runStride;
+                    if(logSpace){
+                        eliminatedValues.set(row + i, LogSpace.sum(sourceValues, sourceCell, hiddenStride, hiddenOutcomeCount));
+                    }
+                    else{
+                        double sum = 0.0;
+                        for(int outcome = 0; outcome < hiddenOutcomeCount; outcome++){
+                            sum += sourceValues.get(sourceCell + outcome * hiddenStride);
+                        }
+                        eliminatedValues.set(row + i, sum);
                     }
                 }
-
-                Factor eliminationFactor = hiddenFactors.get(hiddenFactors.size() - 1); //Last factor in the hidden factors is the one we remove the hidden column from.
-
-                additionCounter += eliminate(eliminationFactor, hiddenString); //Eliminate the hidden variable from the factor.
-                discardOneValued(tempFactors); //One valued factors left after joining can be discarded.
-            }
-
-            ArrayList<Factor> queryFactors = new ArrayList<>(); //Factors containing the query variable.
-            //Loop to add all factors which contain the query variable (should be 2)
-            for(Factor tempFactor: tempFactors){
-                if(tempFactor.varInFactor(query[0]))
-                    queryFactors.add(tempFactor);
-            }
-            queryFactors.sort(Factor.factorComparator); //Sort by table size and variable ASCII sum(ascending)
-
-            //Joining loop
-            for(int i = 1; i < queryFactors.size(); i++){
-                multCount += join(queryFactors.get(i -1), queryFactors.get(i)); //Last joins on query tables.
-            }
-
-            Factor finalFactor = queryFactors.get(queryFactors.size() - 1); //Last factor in the hidden factors is the one we remove the hidden column from.
-            Hashtable<TableKey, Double> finalTable = finalFactor.getFactorTable();
-            double normalizationSum = 0.0;
-
-            Enumeration<TableKey> keySetOfFinalFactor = finalFactor.getFactorTable().keys();
-
-            //Normalization of the final table.
-            while(keySetOfFinalFactor.hasMoreElements()){
-                normalizationSum += finalTable.get(keySetOfFinalFactor.nextElement());
-                additionCounter++;
-            }
-
-
-            Enumeration<TableKey> keySetOfFinalFactorNormalization = finalFactor.getFactorTable().keys();
-            //Apply normalization on the probabilities.
-            while(keySetOfFinalFactorNormalization.hasMoreElements()){
-                TableKey currKey = keySetOfFinalFactorNormalization.nextElement();
-                double rowValue = finalTable.get(currKey);
-                finalTable.put(currKey, rowValue / normalizationSum);
             }
-            String[] queryValue = new String[1];
-            queryValue[0] = truthValsArr[0]; //The desired query value.
-            double answer = finalTable.get(new TableKey(queryValue)); //Answer according to query value.
-            return decimalFormat.format(answer)+","+(additionCounter - 1)+","+multCount;
+            cursor.next();
         }
     }
 
@@ -1052,6 +1464,140 @@ public class BayesianNetwork {
     * Getters of BayesianNetwork class
     * */
 
+    /**
+     * Returns the factory which allocates the storage of the factors built during the algorithms.
+     * @return The storage factory of the network.
+     */
+    public FactorStorageFactory getStorageFactory(){
+        return storageFactory;
+    }
+
+    /**
+     * Checks whenever the algorithms calculate in log space.
+     * @return true whenever the algorithms calculate in log space.
+     */
+    public boolean isLogSpace(){
+        return logSpace;
+    }
+
+    /**
+     * Returns the kernels which run the inner loops of the factor operations on heap tables.
+     * @return Factor kernels.
+     */
+    public FactorKernels getKernels(){
+        return kernels;
+    }
+
+    /**
+     * Returns the pool which joins and eliminates large tables.
+     * @return Fork/join pool.
+     */
+    public ForkJoinPool getForkJoinPool(){
+        return forkJoinPool;
+    }
+
+    /**
+     * Returns the least number of rows of a table which is joined or eliminated in parallel.
+     * @return Number of rows.
+     */
+    public long getParallelThreshold(){
+        return parallelThreshold;
+    }
+
+    /**
+     * Checks whenever each bucket is summed out by a single fused sum-product.
+     * @return true whenever the buckets are fused.
+     */
+    public boolean isFusedElimination(){
+        return fusedElimination;
+    }
+
+    /**
+     * Returns the compiled arithmetic circuit of the network, compiling it on the first call.
+     * The circuit is dropped by releaseCaches(), and compiled again when it is needed.
+     * @return The arithmetic circuit.
+     */
+    public ArithmeticCircuit getArithmeticCircuit(){
+        return getArithmeticCircuit(QueryContext.fromProperties());
+    }
+
+    /**
+     * Returns the compiled arithmetic circuit of the network, compiling it within the limits of a context on the first call.
+     * A compilation which hits a limit leaves no circuit behind, and the next call compiles again.
+     * @param context Limits of the compilation.
+     * @return The arithmetic circuit.
+     */
+    public synchronized ArithmeticCircuit getArithmeticCircuit(QueryContext context){
+        if(arithmeticCircuit == null)
+            arithmeticCircuit = ArithmeticCircuit.compile(this, context);
+        return arithmeticCircuit;
+    }
+
+    /**
+     * Returns the compiled arithmetic circuit of the network when it was already compiled, without compiling it.
+     * @return The arithmetic circuit, or null when it isn't compiled.
+     */
+    public synchronized ArithmeticCircuit getCompiledArithmeticCircuit(){
+        return arithmeticCircuit;
+    }
+
+    /**
+     * Returns the estimated node count of the network's arithmetic circuit, see ArithmeticCircuit.estimateNodeCount().
+     * The estimate only depends on the structure of the network, therefore it is calculated once, and again only
+     * when it stopped at its limit and a higher limit is requested.
+     * @param limit Number of nodes to stop counting at.
+     * @return Upper bound of the number of nodes, or a number larger than the limit once the bound passes it.
+     */
+    public synchronized long getEstimatedCircuitNodes(long limit){
+        if(circuitNodeEstimate < 0 || (circuitNodeEstimate > circuitNodeEstimateLimit && limit > circuitNodeEstimateLimit)){
+            List<String> variables = new ArrayList<>();
+            for(VariableNode variableNode : variableNodes){
+                variables.add(variableNode.getVariableNodeName());
+            }
+            circuitNodeEstimate = ArithmeticCircuit.estimateNodeCount(this, variables, limit);
+            circuitNodeEstimateLimit = limit;
+        }
+        return circuitNodeEstimate;
+    }
+
+    /**
+     * Returns the compiler of the network's query routines, creating it on the first call.
+     * @return The query compiler.
+     */
+    public synchronized QueryCompiler getQueryCompiler(){
+        if(queryCompiler == null)
+            queryCompiler = new QueryCompiler(this);
+        return queryCompiler;
+    }
+
+    /**
+     * Returns the compiler of the network's query routines when it was already created, without creating it.
+     * @return The query compiler, or null when no routine was requested yet.
+     */
+    public synchronized QueryCompiler getExistingQueryCompiler(){
+        return queryCompiler;
+    }
+
+    /**
+     * Returns the Gibbs sampler of the network, building its Markov blankets on the first call.
+     * @return The Gibbs sampler.
+     */
+    public synchronized GibbsSampler getGibbsSampler(){
+        if(gibbsSampler == null)
+            gibbsSampler = new GibbsSampler(this);
+        return gibbsSampler;
+    }
+
+    /**
+     * Returns the loopy belief propagation engine of the network, building its factor graph on the first call.
+     * @return The belief propagation engine.
+     */
+    public synchronized LoopyBeliefPropagation getBeliefPropagation(){
+        if(beliefPropagation == null)
+            beliefPropagation = new LoopyBeliefPropagation(this);
+        return beliefPropagation;
+    }
+
     /**
      * Returns a variable node by specifying its index on the list.
      * @param index Index of the list to fetch the variable node.
@@ -1068,17 +1614,21 @@ public class BayesianNetwork {
 
 
     /**
-     * Returns a variable node by specifying its name by iterating through
-     * the entire list until we find a matching name.
+     * Returns a variable node by specifying its name.
      * @param name Name of the variable we wish to find on the list.
      * @return The variable node we wanted to find.
      */
     public VariableNode getNodeByName(String name){
-        for(int i = 0; i < count; i++){
-            if(getNodeByIndex(i).getVariableNodeName().equals(name))
-                return getNodeByIndex(i);
-        }
-        return null;
+        return variableNodesByName.get(name);
+    }
+
+
+    /**
+     * Returns the number of variable nodes in the network.
+     * @return Number of variables.
+     */
+    public int getNodeCount(){
+        return count;
     }
 
 
@@ -1100,16 +1650,70 @@ public class BayesianNetwork {
     /**
      * Returns the factor object corresponding to the name that was asked.
      * @param name Name of the factor object we wish to find in the array list.
-     * @return Returns the factor object when it was found by name comparisons in iteration. Returns null otherwise.
+     * @return Returns the factor object when it was found by its name. Returns null otherwise.
      */
     public Factor getFactorByName(String name) {
-        name = name.replace(" ", "");
-        for (int i = 0; i < factorNodes.size(); i++) {
-            if (name.equals(factorNodes.get(i).getFactorName()))
-                return getFactorByIndex(i);
-        }
-        return null;
+        return factorNodesByName.get(name.replace(" ", ""));
+    }
+
+
+    /*
+     * Setters of BayesianNetwork class
+     * */
+
+    /**
+     * Sets whenever the algorithms calculate in log space. Log space is slightly slower, but doesn't underflow on
+     * networks with hundreds of variables. The default is taken from the bn.logSpace system property.
+     * @param logSpace true to calculate in log space, false to calculate with plain probabilities.
+     */
+    public void setLogSpace(boolean logSpace){
+        this.logSpace = logSpace;
     }
 
+    /**
+     * Sets the kernels which run the inner loops of the factor operations on heap tables.
+     * @param kernels Factor kernels. Every implementation gives the same answers.
+     */
+    public void setKernels(FactorKernels kernels){
+        this.kernels = kernels;
+    }
 
+    /**
+     * Sets the pool which joins and eliminates large tables. A pool of parallelism 1 keeps every operation sequential.
+     * @param forkJoinPool Fork/join pool. The common pool is the default.
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool){
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Sets the least number of rows of a table which is joined or eliminated in parallel. Smaller tables are
+     * processed by the calling thread, since splitting them costs more than it saves.
+     * The default is taken from the bn.parallelThreshold system property, or 2^20 rows.
+     * @param parallelThreshold Number of rows.
+     */
+    public void setParallelThreshold(long parallelThreshold){
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Sets whenever each bucket of algorithms 2 and 3 is summed out by a single fused sum-product, which never builds
+     * the joint table of the bucket. The answers are the same, but the reported counts are the operations of the fused
+     * sum-product, which differ from the counts of pairwise joins. The default is taken from the bn.fusedElimination
+     * system property, or false.
+     * @param fusedElimination true to fuse the joins and the elimination of every bucket.
+     */
+    public void setFusedElimination(boolean fusedElimination){
+        this.fusedElimination = fusedElimination;
+    }
+
+    /**
+     * Sets the factory which allocates the storage of the factors built during the algorithms.
+     * Allows configuring the thresholds from which factors are stored off-heap or spilled to memory mapped files.
+     * The precision of the variable nodes' tables was decided when the network was built, and is not changed.
+     * @param storageFactory New storage factory.
+     */
+    public void setStorageFactory(FactorStorageFactory storageFactory){
+        this.storageFactory = storageFactory;
+    }
 }
@@ -0,0 +1,121 @@
+import java.text.DecimalFormat;
+
+
+/**
+ * BeliefPropagationResult holds the answer of loopy belief propagation: the belief of the query variable,
+ * whenever the messages converged, and the largest message residual of every iteration, for monitoring convergence.
+ */
+public class BeliefPropagationResult {
+    private final double[] beliefs; //Normalized belief of each outcome of the query variable.
+
+    private final int queryOutcome; //Index of the outcome the query asked for.
+
+    private final double[] residuals; //Largest change of a message in each iteration.
+
+    private final boolean converged; //Whenever the last residual is below the convergence threshold.
+
+    private final long additions, multiplications; //Counters of additions and multiplications, respectively.
+
+
+    /**
+     * Builds the result of belief propagation.
+     * @param beliefs Normalized belief of each outcome of the query variable.
+     * @param queryOutcome Index of the outcome the query asked for.
+     * @param residuals Largest change of a message in each iteration.
+     * @param converged Whenever the messages converged.
+     * @param additions Number of additions performed.
+     * @param multiplications Number of multiplications performed.
+     */
+    public BeliefPropagationResult(double[] beliefs, int queryOutcome, double[] residuals, boolean converged,
+                                   long additions, long multiplications){
+        this.beliefs = beliefs;
+        this.queryOutcome = queryOutcome;
+        this.residuals = residuals;
+        this.converged = converged;
+        this.additions = additions;
+        this.multiplications = multiplications;
+    }
+
+
+    /**
+     * Returns the belief as a query answer, the same as exact algorithms return.
+     * @return The answer of the query.
+     */
+    public QueryAnswer toQueryAnswer(){
+        return new QueryAnswer(getBelief(), additions, multiplications);
+    }
+
+
+    /**
+     * Formats the belief with the number of iterations and the last residual.
+     * @return A string of the result.
+     */
+    @Override
+    public String toString() {
+        DecimalFormat decimalFormat = new DecimalFormat("#.#####");
+        return decimalFormat.format(getBelief()) + " (" + residuals.length + " iterations, "
+                + (converged ? "converged" : "not converged") + ", residual "
+                + (residuals.length == 0 ? 0 : residuals[residuals.length - 1]) + ")";
+    }
+
+
+    /*
+     * Getters of BeliefPropagationResult class
+     * */
+
+    /**
+     * Returns the belief of the requested outcome.
+     * @return The belief.
+     */
+    public double getBelief(){
+        return beliefs[queryOutcome];
+    }
+
+    /**
+     * Returns the beliefs of all the outcomes of the query variable.
+     * @return Beliefs, in the order of the outcomes.
+     */
+    public double[] getBeliefs(){
+        return beliefs.clone();
+    }
+
+    /**
+     * Returns the largest message residual of each iteration.
+     * @return Residuals, in the order of the iterations.
+     */
+    public double[] getResiduals(){
+        return residuals.clone();
+    }
+
+    /**
+     * Returns the number of iterations performed.
+     * @return Number of iterations.
+     */
+    public int getIterations(){
+        return residuals.length;
+    }
+
+    /**
+     * Checks whenever the messages converged.
+     * @return true whenever the last residual is below the convergence threshold.
+     */
+    public boolean isConverged(){
+        return converged;
+    }
+
+    /**
+     * Returns the number of additions performed.
+     * @return Number of additions.
+     */
+    public long getAdditions(){
+        return additions;
+    }
+
+    /**
+     * Returns the number of multiplications performed.
+     * @return Number of multiplications.
+     */
+    public long getMultiplications(){
+        return multiplications;
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Factor storage which keeps its values outside the java heap, either in direct(off-heap) memory
+ * or in a memory mapped temporary file. The latter lets a factor grow beyond the size of the heap and of the physical memory,
+ * since the operating system pages the file in and out as needed.
+ * A single buffer can't hold more than 2GB, therefore the values are split into chunks of a fixed number of cells.
+ * Cells are either doubles or floats, according to the precision the storage was allocated with.
+ */
+public class ByteBufferFactorStorage implements FactorStorage {
+    private static final int CHUNK_SHIFT = 27; //Each chunk holds 2^27 cells(1GB of doubles).
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final long BOOKKEEPING_BYTES = 64; //Rough heap size of the storage object and its buffer objects.
+
+    private ByteBuffer[] chunks; //Chunks of cells in order. null once the storage was closed.
+
+    private final long cells; //Number of cells in the storage.
+
+    private final int cellBytes; //Size of a single cell, 8 for double cells and 4 for float cells.
+
+    private final File mappedFile; //Temporary file the chunks are mapped from. null for direct memory storages.
+
+
+    /**
+     * Builds the storage over already allocated chunks.
+     * @param chunks Chunks of cells in order.
+     * @param cells Number of cells in the storage.
+     * @param cellBytes Size of a single cell.
+     * @param mappedFile Temporary file the chunks are mapped from, or null when the chunks are direct memory.
+     */
+    private ByteBufferFactorStorage(ByteBuffer[] chunks, long cells, int cellBytes, File mappedFile){
+        this.chunks = chunks;
+        this.cells = cells;
+        this.cellBytes = cellBytes;
+        this.mappedFile = mappedFile;
+    }
+
+
+    /**
+     * Allocates a storage in direct(off-heap) memory, with all cells set to 0.
+     * Direct memory is limited by the -XX:MaxDirectMemorySize flag of the JVM, and is only freed by the garbage collector,
+     * see close().
+     * @param cells Number of cells.
+     * @param precision Precision of the cells.
+     * @return New off-heap storage.
+     */
+    public static ByteBufferFactorStorage allocateDirect(long cells, FactorPrecision precision){
+        int cellBytes = precision.getCellBytes();
+        ByteBuffer[] chunks = new ByteBuffer[getChunkCount(cells)];
+        for(int i = 0; i < chunks.length; i++){
+            int chunkCells = getChunkCells(cells, i);
+            chunks[i] = ByteBuffer.allocateDirect(chunkCells * cellBytes).order(ByteOrder.nativeOrder());
+        }
+        return new ByteBufferFactorStorage(chunks, cells, cellBytes, null);
+    }
+
+
+    /**
+     * Allocates a storage in a memory mapped temporary file, with all cells set to 0.
+     * The file is deleted when the storage is closed, or when the JVM exits.
+     * @param cells Number of cells.
+     * @param precision Precision of the cells.
+     * @param directory Directory to create the temporary file in.
+     * @return New memory mapped storage.
+     * @throws RuntimeException Whenever the temporary file couldn't be created or mapped.
+     */
+    public static ByteBufferFactorStorage map(long cells, FactorPrecision precision, File directory){
+        int cellBytes = precision.getCellBytes();
+        File file = null;
+        try {
+            if(!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Can't create the spill directory " + directory);
+            file = File.createTempFile("factor", ".bin", directory);
+            file.deleteOnExit();
+            ByteBuffer[] chunks = new ByteBuffer[getChunkCount(cells)];
+
+            //The mapping stays valid after the channel is closed.
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                 FileChannel channel = randomAccessFile.getChannel()) {
+                randomAccessFile.setLength(cells * cellBytes);
+                for(int i = 0; i < chunks.length; i++){
+                    long position = ((long) i << CHUNK_SHIFT) * cellBytes;
+                    long chunkBytes = (long) getChunkCells(cells, i) * cellBytes;
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, chunkBytes).order(ByteOrder.nativeOrder());
+                }
+            }
+            return new ByteBufferFactorStorage(chunks, cells, cellBytes, file);
+        } catch (IOException e) {
+            if(file != null && !file.delete())
+                file.deleteOnExit();
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    @Override
+    public long size() {
+        return cells;
+    }
+
+
+    @Override
+    public double get(long index) {
+        ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+        int offset = (int) (index & CHUNK_MASK) * cellBytes;
+        return cellBytes == Double.BYTES ? chunk.getDouble(offset) : chunk.getFloat(offset);
+    }
+
+
+    @Override
+    public void set(long index, double value) {
+        ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+        int offset = (int) (index & CHUNK_MASK) * cellBytes;
+        if(cellBytes == Double.BYTES)
+            chunk.putDouble(offset, value);
+        else
+            chunk.putFloat(offset, (float) value);
+    }
+
+
+    /**
+     * Drops the chunks, and deletes the mapped file if there is one.
+     * Closing doesn't free the direct memory or unmap the file. Java has no supported way of doing so while another
+     * thread may still hold a chunk, therefore both are only released once the garbage collector collects the buffers.
+     * Until then the direct memory still counts against -XX:MaxDirectMemorySize, and a deleted mapped file
+     * still takes its disk space.
+     */
+    @Override
+    public void close() {
+        if(chunks == null)
+            return;
+        chunks = null;
+        if(mappedFile != null && !mappedFile.delete())
+            mappedFile.deleteOnExit(); //Some systems refuse deleting a file which is still mapped.
+    }
+
+
+    @Override
+    public long getHeapBytes() {
+        return BOOKKEEPING_BYTES;
+    }
+
+
+    /**
+     * Checks whenever the storage is backed by a memory mapped file.
+     * @return true whenever the storage is memory mapped. false when it is direct memory.
+     */
+    public boolean isMapped(){
+        return mappedFile != null;
+    }
+
+
+    /**
+     * Returns the number of chunks required for the given number of cells.
+     * @param cells Number of cells.
+     * @return Number of chunks.
+     */
+    private static int getChunkCount(long cells){
+        return (int) ((cells + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+
+    /**
+     * Returns the number of cells of a single chunk. Every chunk is full, except possibly the last one.
+     * @param cells Number of cells in the entire storage.
+     * @param chunk Index of the chunk.
+     * @return Number of cells in the chunk.
+     */
+    private static int getChunkCells(long cells, int chunk){
+        return (int) Math.min(1L << CHUNK_SHIFT, cells - ((long) chunk << CHUNK_SHIFT));
+    }
+}
@@ -0,0 +1,109 @@
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+
+/**
+ * CircuitPosteriors holds the result of a single evaluation of an arithmetic circuit: the probability of the evidence,
+ * and the posterior of every outcome of every variable given the evidence.
+ * It also holds the number of additions and multiplications both passes over the circuit performed.
+ */
+public class CircuitPosteriors {
+    private final ArithmeticCircuit circuit; //Circuit which was evaluated.
+
+    private final double probabilityOfEvidence; //Value of the circuit.
+
+    private final double[][] posteriors; //Posterior of each outcome of each variable, in the order of the network.
+
+    private final long additions, multiplications; //Counters of additions and multiplications, respectively.
+
+
+    /**
+     * Builds the result of an evaluation.
+     * @param circuit Circuit which was evaluated.
+     * @param probabilityOfEvidence Probability of the evidence.
+     * @param posteriors Posterior of each outcome of each variable.
+     * @param additions Number of additions performed by the evaluation.
+     * @param multiplications Number of multiplications performed by the evaluation.
+     */
+    CircuitPosteriors(ArithmeticCircuit circuit, double probabilityOfEvidence, double[][] posteriors, long additions, long multiplications){
+        this.circuit = circuit;
+        this.probabilityOfEvidence = probabilityOfEvidence;
+        this.posteriors = posteriors;
+        this.additions = additions;
+        this.multiplications = multiplications;
+    }
+
+
+    /**
+     * Formats the posteriors, a line for each variable with its outcomes and their probabilities.
+     * @return A string of the posteriors.
+     */
+    @Override
+    public String toString() {
+        DecimalFormat decimalFormat = new DecimalFormat("#.#####");
+        StringBuilder builder = new StringBuilder("P(e)=").append(decimalFormat.format(probabilityOfEvidence));
+        String[] varNames = circuit.getVarNames();
+        for(int var = 0; var < varNames.length; var++){
+            builder.append('\n').append(varNames[var]).append(':');
+            String[] outcomes = circuit.getVarOutcomes(var);
+            for(int outcome = 0; outcome < outcomes.length; outcome++){
+                builder.append(' ').append(outcomes[outcome]).append('=').append(decimalFormat.format(posteriors[var][outcome]));
+            }
+        }
+        return builder.toString();
+    }
+
+
+    /*
+     * Getters of CircuitPosteriors class
+     * */
+
+    /**
+     * Returns the probability of the evidence.
+     * @return The probability of the evidence.
+     */
+    public double getProbabilityOfEvidence(){
+        return probabilityOfEvidence;
+    }
+
+    /**
+     * Returns the posteriors of a variable.
+     * @param var Name of the variable.
+     * @return Posterior of each outcome of the variable, in the order of its outcomes.
+     * @throws IllegalArgumentException Whenever the circuit has no such variable.
+     */
+    public double[] getPosteriors(String var){
+        return posteriors[circuit.getVarId(var)].clone();
+    }
+
+    /**
+     * Returns the posterior of a single outcome.
+     * @param var Name of the variable.
+     * @param outcome The outcome.
+     * @return The posterior of the outcome.
+     * @throws IllegalArgumentException Whenever the circuit has no such variable or outcome.
+     */
+    public double getPosterior(String var, String outcome){
+        int id = circuit.getVarId(var);
+        int index = Arrays.asList(circuit.getVarOutcomes(id)).indexOf(outcome);
+        if(index == -1)
+            throw new IllegalArgumentException("Unknown outcome " + outcome + " of " + var);
+        return posteriors[id][index];
+    }
+
+    /**
+     * Returns the number of additions performed by the evaluation.
+     * @return Number of additions.
+     */
+    public long getAdditions(){
+        return additions;
+    }
+
+    /**
+     * Returns the number of multiplications performed by the evaluation.
+     * @return Number of multiplications.
+     */
+    public long getMultiplications(){
+        return multiplications;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+
+/**
+ * CompiledQuery is a query routine generated at runtime for a single query shape: a query variable together with a set
+ * of evidence variables. The routine is straight-line code which evaluates the arithmetic circuit of the query's
+ * relevant variables, where the indicators of the query and the evidence are its inputs and everything else is folded in.
+ * Any values of the query and the evidence are answered by the same routine, once for each outcome of the query variable.
+ */
+public class CompiledQuery {
+    private final ToDoubleFunction<double[]> routine; //Generated routine, from the indicators to the probability.
+
+    private final String queryVar; //Name of the query variable.
+
+    private final String[] queryOutcomes; //Outcomes of the query variable, their indicators are the first inputs.
+
+    private final String[] evidenceVars; //Names of the evidence variables, in the order of their inputs.
+
+    private final String[][] evidenceOutcomes; //Outcomes of each evidence variable.
+
+    private final int[] evidenceOffsets; //Index of the first input of each evidence variable.
+
+    private final int inputCount; //Number of inputs of the routine.
+
+    private final long additions, multiplications; //Operations of a single run of the routine.
+
+
+    /**
+     * Builds a compiled query over its generated routine.
+     * @param routine Generated routine.
+     * @param queryVar Name of the query variable.
+     * @param queryOutcomes Outcomes of the query variable.
+     * @param evidenceVars Names of the evidence variables, in the order of their inputs.
+     * @param evidenceOutcomes Outcomes of each evidence variable.
+     * @param additions Number of additions a single run of the routine performs.
+     * @param multiplications Number of multiplications a single run of the routine performs.
+     */
+    CompiledQuery(ToDoubleFunction<double[]> routine, String queryVar, String[] queryOutcomes, String[] evidenceVars,
+                  String[][] evidenceOutcomes, long additions, long multiplications){
+        this.routine = routine;
+        this.queryVar = queryVar;
+        this.queryOutcomes = queryOutcomes;
+        this.evidenceVars = evidenceVars;
+        this.evidenceOutcomes = evidenceOutcomes;
+        this.additions = additions;
+        this.multiplications = multiplications;
+
+        this.evidenceOffsets = new int[evidenceVars.length];
+        int offset = queryOutcomes.length;
+        for(int i = 0; i < evidenceVars.length; i++){
+            evidenceOffsets[i] = offset;
+            offset += evidenceOutcomes[i].length;
+        }
+        this.inputCount = offset;
+    }
+
+
+    /**
+     * Answers a query of this shape. The evidence may be given in any order.
+     * @param names Names of the given query, the query variable first.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     * @throws IllegalArgumentException Whenever the query isn't of this shape, or has unknown outcomes.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        if(!names[0].equals(queryVar) || names.length != evidenceVars.length + 1)
+            throw new IllegalArgumentException("Query doesn't match the compiled shape");
+        double[] inputs = new double[inputCount];
+        for(int i = 1; i < names.length; i++){
+            int var = Arrays.asList(evidenceVars).indexOf(names[i]);
+            int outcome = var == -1 ? -1 : Arrays.asList(evidenceOutcomes[var]).indexOf(truthValsArr[i]);
+            if(outcome == -1)
+                throw new IllegalArgumentException("Query doesn't match the compiled shape");
+            inputs[evidenceOffsets[var] + outcome] = 1.0;
+        }
+        int queryOutcome = Arrays.asList(queryOutcomes).indexOf(truthValsArr[0]);
+        if(queryOutcome == -1)
+            throw new IllegalArgumentException("Unknown outcome " + truthValsArr[0] + " of " + queryVar);
+
+        //P(query=outcome, evidence) for each outcome, then normalized.
+        double sum = 0.0, answer = 0.0;
+        for(int outcome = 0; outcome < queryOutcomes.length; outcome++){
+            Arrays.fill(inputs, 0, queryOutcomes.length, 0.0);
+            inputs[outcome] = 1.0;
+            double joint = routine.applyAsDouble(inputs);
+            sum += joint;
+            if(outcome == queryOutcome)
+                answer = joint;
+        }
+        return new QueryAnswer(answer / sum, additions * queryOutcomes.length + queryOutcomes.length - 1,
+                multiplications * queryOutcomes.length);
+    }
+
+
+    /*
+     * Getters of CompiledQuery class
+     * */
+
+    /**
+     * Returns the name of the query variable.
+     * @return Name of the query variable.
+     */
+    public String getQueryVar(){
+        return queryVar;
+    }
+
+    /**
+     * Returns the names of the evidence variables.
+     * @return Names of the evidence variables.
+     */
+    public String[] getEvidenceVars(){
+        return evidenceVars.clone();
+    }
+
+    /**
+     * Returns the number of additions a single run of the routine performs.
+     * @return Number of additions.
+     */
+    public long getAdditions(){
+        return additions;
+    }
+
+    /**
+     * Returns the number of multiplications a single run of the routine performs.
+     * @return Number of multiplications.
+     */
+    public long getMultiplications(){
+        return multiplications;
+    }
+}
@@ -0,0 +1,274 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * CutsetConditioningEngine answers queries on networks whose treewidth is too high for variable elimination,
+ * but which have a small loop cutset.
+ * A loop cutset is a set of variables, which once instantiated, leaves no undirected cycles among the rest of the
+ * relevant variables, meaning the rest of the network is a polytree. The engine picks a cutset greedily, and runs
+ * variable elimination(in the min-neighbors order of func3) once for every instantiation of the cutset, with the
+ * cutset added to the evidence. The unnormalized tables of the query variable are summed over all the instantiations
+ * and normalized, which gives the exact answer, while the memory stays the memory of a single polytree elimination.
+ * The instantiations are split into blocks which are eliminated in parallel, on the network's fork/join pool.
+ * Every block keeps its own partial table, and the blocks are summed in order, so the answers are reproducible.
+ * Cutsets with more instantiations than the bn.cutset.maxInstantiations system property(default 2^20) abort the query
+ * with a QueryMemoryException, so the fallback engine of the query answers it instead.
+ */
+public class CutsetConditioningEngine {
+    private static final long BLOCK_INSTANTIATIONS = 16; //Instantiations of a single block.
+
+    private static final long MAX_INSTANTIATIONS = Long.getLong("bn.cutset.maxInstantiations", 1L << 20); //Most instantiations of a cutset.
+
+    private final BayesianNetwork network; //Network the queries are asked on.
+
+    private final ForkJoinPool pool; //Pool which eliminates the blocks of instantiations.
+
+
+    /**
+     * Builds an engine which eliminates on the network's fork/join pool.
+     * @param network Network the queries are asked on.
+     */
+    public CutsetConditioningEngine(BayesianNetwork network){
+        this(network, network.getForkJoinPool());
+    }
+
+
+    /**
+     * Builds an engine which eliminates on the given pool.
+     * @param network Network the queries are asked on.
+     * @param pool Pool which eliminates the blocks of instantiations.
+     */
+    public CutsetConditioningEngine(BayesianNetwork network, ForkJoinPool pool){
+        this.network = network;
+        this.pool = pool;
+    }
+
+
+    /**
+     * Answers a query by conditioning on a loop cutset.
+     * The counts of the answer are the operations of all the eliminations, of summing their tables and of the normalization.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query by conditioning on a loop cutset, within the limits of a context.
+     * Every elimination checks the limits, see BayesianNetwork.eliminateToQueryTable().
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query.
+     * @return The answer of the query.
+     * @throws QueryMemoryException Whenever the cutset has more instantiations than the limit, or its partial tables
+     *                              hold more cells than the context allows.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        //If query can be obtainable directly, same as func2() and func3().
+        if(network.IsProbabilityValueDirect(names))
+            return new QueryAnswer(network.getDirectProbability(names, truthValsArr), 0, 0);
+
+        List<String> cutset = selectCutset(names);
+        String[][] cutsetOutcomes = new String[cutset.size()][];
+        long instantiations = 1;
+        for(int i = 0; i < cutsetOutcomes.length; i++){
+            cutsetOutcomes[i] = network.getNodeByName(cutset.get(i)).getPossibleOutcomes();
+            if(instantiations > MAX_INSTANTIATIONS / cutsetOutcomes[i].length) //Checked before multiplying, so it can't overflow.
+                throw new QueryMemoryException("Cutset " + cutset + " has more than " + MAX_INSTANTIATIONS + " instantiations");
+            instantiations *= cutsetOutcomes[i].length;
+        }
+
+        //The cutset is added to the evidence of every elimination.
+        String[] conditionedNames = Arrays.copyOf(names, names.length + cutset.size());
+        for(int i = 0; i < cutset.size(); i++){
+            conditionedNames[names.length + i] = cutset.get(i);
+        }
+        boolean logSpace = network.isLogSpace();
+        int queryOutcomeCount = network.getNodeByName(names[0]).getOutcomeCount();
+        long blocks = (instantiations + BLOCK_INSTANTIATIONS - 1) / BLOCK_INSTANTIATIONS;
+        context.checkCells(blocks * queryOutcomeCount); //The partial tables are kept until all the blocks are summed.
+        double[][] partialTables = new double[Math.toIntExact(blocks)][]; //Sum of the tables of each block.
+        long[][] blockCounts = new long[Math.toIntExact(blocks)][]; //Additions and multiplications of each block.
+
+        ParallelBlocks.forEachBlock(pool, instantiations, BLOCK_INSTANTIATIONS, (fromInstantiation, toInstantiation) -> {
+            int block = (int) (fromInstantiation / BLOCK_INSTANTIATIONS);
+            String[] conditionedVals = Arrays.copyOf(truthValsArr, conditionedNames.length);
+            double[] partialTable = new double[queryOutcomeCount];
+            Arrays.fill(partialTable, logSpace ? Double.NEGATIVE_INFINITY : 0.0);
+            long[] counts = new long[2];
+
+            for(long instantiation = fromInstantiation; instantiation < toInstantiation; instantiation++){
+                //Values of the cutset variables, the first variable changes the fastest.
+                long remainder = instantiation;
+                for(int i = 0; i < cutsetOutcomes.length; i++){
+                    conditionedVals[names.length + i] = cutsetOutcomes[i][(int) (remainder % cutsetOutcomes[i].length)];
+                    remainder /= cutsetOutcomes[i].length;
+                }
+                double[] table = network.eliminateToQueryTable(conditionedNames, conditionedVals, true, true, counts, context);
+                addTable(partialTable, table, logSpace);
+                if(instantiation != fromInstantiation)
+                    counts[0] += queryOutcomeCount;
+            }
+            partialTables[block] = partialTable;
+            blockCounts[block] = counts;
+        });
+
+        double[] queryTable = partialTables[0];
+        long additions = blockCounts[0][0], multiplications = blockCounts[0][1];
+        for(int block = 1; block < blocks; block++){
+            addTable(queryTable, partialTables[block], logSpace);
+            additions += blockCounts[block][0] + queryOutcomeCount;
+            multiplications += blockCounts[block][1];
+        }
+
+        //Normalization of the summed table.
+        double normalizationSum = logSpace ? Double.NEGATIVE_INFINITY : 0.0;
+        for(double value : queryTable){
+            normalizationSum = logSpace ? LogSpace.add(normalizationSum, value) : normalizationSum + value;
+        }
+        additions += queryOutcomeCount - 1;
+        int queryValueIndex = Arrays.asList(network.getNodeByName(names[0]).getPossibleOutcomes()).indexOf(truthValsArr[0]);
+        double answer = logSpace ? Math.exp(queryTable[queryValueIndex] - normalizationSum)
+                : queryTable[queryValueIndex] / normalizationSum;
+        return new QueryAnswer(answer, additions, multiplications);
+    }
+
+
+    /**
+     * Picks a loop cutset of the variables relevant to a query, which are the query, the evidence and their ancestors.
+     * The evidence is instantiated anyway, therefore it cuts the cycles going through it from a parent to a child.
+     * An observed variable still ties its parents together, since its instantiated table depends on all of them,
+     * so the graph is moralized over it: its non-evidence parents are connected to each other.
+     * The undirected graph of the rest of the relevant variables is pruned of leaves until only variables on cycles,
+     * or on paths between cycles, are left. The variable with the most neighbors among them(fewest outcomes when tied)
+     * joins the cutset and is removed, and so on until no cycles are left. The query variable never joins the cutset.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @return Names of the cutset variables, in the order they were picked.
+     */
+    public List<String> selectCutset(String[] names){
+        Set<String> evidence = new LinkedHashSet<>(Arrays.asList(names).subList(1, names.length));
+        Map<String, Set<String>> neighbors = new LinkedHashMap<>(); //Undirected graph of the relevant non-evidence variables.
+        for(String relevant : getRelevantVariables(names)){
+            if(!evidence.contains(relevant))
+                neighbors.put(relevant, new LinkedHashSet<>());
+        }
+        for(String child : neighbors.keySet()){
+            for(String parent : network.getNodeByName(child).getParents()){
+                if(neighbors.containsKey(parent)){
+                    neighbors.get(child).add(parent);
+                    neighbors.get(parent).add(child);
+                }
+            }
+        }
+        for(String child : evidence){
+            List<String> parents = new ArrayList<>(Arrays.asList(network.getNodeByName(child).getParents()));
+            parents.retainAll(neighbors.keySet());
+            for(int i = 0; i < parents.size(); i++){
+                for(int j = i + 1; j < parents.size(); j++){
+                    neighbors.get(parents.get(i)).add(parents.get(j));
+                    neighbors.get(parents.get(j)).add(parents.get(i));
+                }
+            }
+        }
+
+        List<String> cutset = new ArrayList<>();
+        while(true){
+            removeLeaves(neighbors);
+            if(neighbors.isEmpty())
+                return cutset;
+
+            String picked = null;
+            for(String candidate : neighbors.keySet()){
+                if(candidate.equals(names[0]))
+                    continue;
+                if(picked == null || neighbors.get(candidate).size() > neighbors.get(picked).size()
+                        || (neighbors.get(candidate).size() == neighbors.get(picked).size()
+                        && network.getNodeByName(candidate).getOutcomeCount() < network.getNodeByName(picked).getOutcomeCount()))
+                    picked = candidate;
+            }
+            cutset.add(picked);
+            for(String neighbor : neighbors.remove(picked)){
+                neighbors.get(neighbor).remove(picked);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the most instantiations of a cutset the engine conditions on, given by the bn.cutset.maxInstantiations
+     * system property.
+     * @return Most instantiations of a cutset.
+     */
+    public static long getMaxInstantiations(){
+        return MAX_INSTANTIATIONS;
+    }
+
+
+    /**
+     * Removes every variable with at most one neighbor, repeatedly, since such variables are on no cycle.
+     * @param neighbors Undirected graph, changed in place.
+     */
+    private static void removeLeaves(Map<String, Set<String>> neighbors){
+        Deque<String> leaves = new ArrayDeque<>();
+        for(Map.Entry<String, Set<String>> entry : neighbors.entrySet()){
+            if(entry.getValue().size() <= 1)
+                leaves.add(entry.getKey());
+        }
+        while(!leaves.isEmpty()){
+            String leaf = leaves.remove();
+            Set<String> leafNeighbors = neighbors.remove(leaf);
+            if(leafNeighbors == null)
+                continue; //Already removed.
+            for(String neighbor : leafNeighbors){
+                Set<String> neighborNeighbors = neighbors.get(neighbor);
+                neighborNeighbors.remove(leaf);
+                if(neighborNeighbors.size() == 1)
+                    leaves.add(neighbor);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the query variables and all their ancestors, which are the only variables the elimination uses.
+     * @param names Names of the given query.
+     * @return Names of the relevant variables.
+     */
+    private List<String> getRelevantVariables(String[] names){
+        Set<String> relevant = new LinkedHashSet<>();
+        Deque<String> traversalQueue = new ArrayDeque<>();
+        Collections.addAll(traversalQueue, names);
+        while(!traversalQueue.isEmpty()){
+            String ancestor = traversalQueue.remove();
+            if(relevant.add(ancestor))
+                Collections.addAll(traversalQueue, network.getNodeByName(ancestor).getParents());
+        }
+        return new ArrayList<>(relevant);
+    }
+
+
+    /**
+     * Adds a table of the query variable to a running sum, in log space when the network calculates in log space.
+     * @param sum Running sum, changed in place.
+     * @param table Table to add.
+     * @param logSpace Whenever the tables hold log space values.
+     */
+    private static void addTable(double[] sum, double[] table, boolean logSpace){
+        for(int i = 0; i < sum.length; i++){
+            sum[i] = logSpace ? LogSpace.add(sum[i], table[i]) : sum[i] + table[i];
+        }
+    }
+}
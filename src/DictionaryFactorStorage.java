@@ -0,0 +1,116 @@
+import java.util.HashMap;
+
+
+/**
+ * Read only factor storage for the tables of the network's variable nodes, which usually repeat a small number of
+ * distinct probabilities(0, 1, 0.5 and so on) many times.
+ * Each distinct value is kept once in a float dictionary, and each cell only keeps the code of its value in the dictionary,
+ * using a single byte for up to 256 distinct values, and two bytes for up to 65536 distinct values.
+ */
+public class DictionaryFactorStorage implements FactorStorage {
+    private static final int MAX_BYTE_CODES = 1 << 8;
+    private static final int MAX_SHORT_CODES = 1 << 16;
+
+    private final float[] dictionary; //Distinct values, by their codes.
+
+    private final byte[] byteCodes; //Code of each cell, when the dictionary has up to 256 values. null otherwise.
+
+    private final short[] shortCodes; //Code of each cell, when the dictionary has more than 256 values. null otherwise.
+
+
+    /**
+     * Builds the storage over already encoded cells. Exactly one of the code arrays is not null.
+     * @param dictionary Distinct values, by their codes.
+     * @param byteCodes Single byte codes of the cells, or null.
+     * @param shortCodes Two byte codes of the cells, or null.
+     */
+    private DictionaryFactorStorage(float[] dictionary, byte[] byteCodes, short[] shortCodes){
+        this.dictionary = dictionary;
+        this.byteCodes = byteCodes;
+        this.shortCodes = shortCodes;
+    }
+
+
+    /**
+     * Encodes the given values in float precision, if the encoding takes less memory than a plain float array.
+     * @param values Values of the cells in order.
+     * @return A new dictionary storage, or null whenever there are too many distinct values for the encoding to pay off.
+     */
+    public static DictionaryFactorStorage encode(double[] values){
+        HashMap<Float, Integer> codes = new HashMap<>(); //Code of each distinct value.
+        int[] cellCodes = new int[values.length];
+        for(int i = 0; i < values.length; i++){
+            Float value = (float) values[i];
+            Integer code = codes.get(value);
+            if(code == null){
+                if(codes.size() == MAX_SHORT_CODES)
+                    return null;
+                code = codes.size();
+                codes.put(value, code);
+            }
+            cellCodes[i] = code;
+        }
+
+        //Both the codes and the dictionary should take less memory than a float per cell.
+        int codeBytes = codes.size() <= MAX_BYTE_CODES ? Byte.BYTES : Short.BYTES;
+        if((long) values.length * codeBytes + (long) codes.size() * Float.BYTES >= (long) values.length * Float.BYTES)
+            return null;
+
+        float[] dictionary = new float[codes.size()];
+        for(Float value: codes.keySet()){
+            dictionary[codes.get(value)] = value;
+        }
+
+        if(codeBytes == Byte.BYTES){
+            byte[] byteCodes = new byte[values.length];
+            for(int i = 0; i < values.length; i++){
+                byteCodes[i] = (byte) cellCodes[i];
+            }
+            return new DictionaryFactorStorage(dictionary, byteCodes, null);
+        }
+        short[] shortCodes = new short[values.length];
+        for(int i = 0; i < values.length; i++){
+            shortCodes[i] = (short) cellCodes[i];
+        }
+        return new DictionaryFactorStorage(dictionary, null, shortCodes);
+    }
+
+
+    @Override
+    public long size() {
+        return byteCodes != null ? byteCodes.length : shortCodes.length;
+    }
+
+
+    @Override
+    public double get(long index) {
+        if(byteCodes != null)
+            return dictionary[byteCodes[(int) index] & 0xFF];
+        return dictionary[shortCodes[(int) index] & 0xFFFF];
+    }
+
+
+    /**
+     * The storage is read only, since the tables of the variable nodes never change.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void set(long index, double value) {
+        throw new UnsupportedOperationException("Dictionary compressed factor storage is read only");
+    }
+
+
+    /**
+     * Heap storage is released by the garbage collector, therefore there is nothing to close.
+     */
+    @Override
+    public void close() {
+    }
+
+
+    @Override
+    public long getHeapBytes() {
+        long codeBytes = byteCodes != null ? byteCodes.length : (long) shortCodes.length * Short.BYTES;
+        return 2 * HeapFactorStorage.ARRAY_HEADER_BYTES + codeBytes + (long) dictionary.length * Float.BYTES;
+    }
+}
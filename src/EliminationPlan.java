@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * EliminationPlan turns an elimination order into a dependency graph of buckets.
+ * A bucket joins all the factors which contain a single hidden variable, and sums the variable out of the joined factor.
+ * The plan is built by replaying the elimination on the variables and sizes of the factors only, without any values,
+ * therefore each bucket joins exactly the same factors in exactly the same order as the sequential elimination.
+ * A bucket depends on the buckets which produced its factors. Buckets of different branches of the network
+ * don't depend on each other, and can be eliminated at the same time.
+ */
+public class EliminationPlan {
+    private final List<Bucket> buckets = new ArrayList<>(); //Buckets in the elimination order.
+
+    private final ArrayList<Factor> remainingFactors; //Factors left after all buckets, in the order of the factors list.
+
+    private long predictedRows; //Sum of the rows of every table the buckets build.
+
+    private long largestTableRows; //Rows of the largest table the buckets build.
+
+
+    /**
+     * Builds the plan of eliminating the hidden variables from the given factors, in the given order.
+     * @param factors Factors of the query, after instantiating the evidence. The list itself is not changed.
+     * @param hidden Hidden variables, in the order of elimination.
+     */
+    public EliminationPlan(List<Factor> factors, String[] hidden){
+        HashMap<String, Integer> outcomeCounts = new HashMap<>(); //Number of outcomes of each variable.
+        IdentityHashMap<Factor, Shape> shapes = new IdentityHashMap<>(); //Variables and size of each factor along the replay.
+        IdentityHashMap<Factor, Bucket> producers = new IdentityHashMap<>(); //Last bucket which changed each factor.
+        this.remainingFactors = new ArrayList<>(factors);
+
+        for(Factor factor : factors){
+            String[] vars = factor.getFactorVars();
+            for(int i = 0; i < vars.length; i++){
+                outcomeCounts.put(vars[i], factor.getVarOutcomes()[i].length);
+            }
+            shapes.put(factor, new Shape(vars, outcomeCounts));
+        }
+        //Same order as Factor.factorComparator, on the replayed sizes.
+        Comparator<Factor> shapeComparator = Comparator.comparingLong((Factor factor) -> shapes.get(factor).rows)
+                .thenComparingInt(factor -> shapes.get(factor).asciiSum);
+
+        for(String hiddenString : hidden){
+            ArrayList<Factor> hiddenFactors = new ArrayList<>(); //List of all factors that contain the hidden value.
+            for(Factor factor : remainingFactors){
+                if(shapes.get(factor).vars.contains(hiddenString))
+                    hiddenFactors.add(factor);
+            }
+            if(hiddenFactors.size() == 0) //If there are no factors left for the hidden array, skip it.
+                continue;
+            hiddenFactors.sort(shapeComparator);
+
+            Bucket bucket = new Bucket(hiddenString, hiddenFactors);
+            for(Factor factor : hiddenFactors){
+                Bucket producer = producers.get(factor);
+                if(producer != null && !bucket.dependencies.contains(producer))
+                    bucket.dependencies.add(producer);
+            }
+
+            //Replay the joins, each join leaves the union of both factors in the second factor.
+            for(int i = 1; i < hiddenFactors.size(); i++){
+                Shape joined = shapes.get(hiddenFactors.get(i - 1)).union(shapes.get(hiddenFactors.get(i)), outcomeCounts);
+                shapes.put(hiddenFactors.get(i), joined);
+                remainingFactors.remove(hiddenFactors.get(i - 1));
+                predictedRows += joined.rows;
+                largestTableRows = Math.max(largestTableRows, joined.rows);
+            }
+            Factor eliminationFactor = hiddenFactors.get(hiddenFactors.size() - 1);
+            Shape eliminated = shapes.get(eliminationFactor).without(hiddenString, outcomeCounts);
+            shapes.put(eliminationFactor, eliminated);
+            predictedRows += eliminated.rows;
+            largestTableRows = Math.max(largestTableRows, eliminated.rows);
+
+            if(eliminated.rows == 1){ //One valued factors left after eliminating are discarded.
+                remainingFactors.remove(eliminationFactor);
+                bucket.discardResult = true;
+            }
+            producers.put(eliminationFactor, bucket);
+            buckets.add(bucket);
+        }
+    }
+
+
+    /*
+     * Getters of EliminationPlan class
+     * */
+
+    /**
+     * Returns the buckets in the elimination order. Every bucket comes after all the buckets it depends on.
+     * @return Unmodifiable list of buckets.
+     */
+    public List<Bucket> getBuckets(){
+        return Collections.unmodifiableList(buckets);
+    }
+
+    /**
+     * Returns the factors left after all buckets were eliminated, in the order of the given factors list.
+     * @return List of the remaining factors.
+     */
+    public ArrayList<Factor> getRemainingFactors(){
+        return remainingFactors;
+    }
+
+    /**
+     * Returns the sum of the rows of every table the buckets build, which estimates the cost of the elimination.
+     * @return Predicted number of rows.
+     */
+    public long getPredictedRows(){
+        return predictedRows;
+    }
+
+    /**
+     * Returns the number of rows of the largest table the buckets build.
+     * @return Rows of the largest table.
+     */
+    public long getLargestTableRows(){
+        return largestTableRows;
+    }
+
+    /**
+     * Returns the number of buckets on the longest chain of dependent buckets, which bounds the latency of a
+     * parallel elimination.
+     * @return Length of the critical path.
+     */
+    public int getCriticalPathLength(){
+        IdentityHashMap<Bucket, Integer> depths = new IdentityHashMap<>();
+        int longest = 0;
+        for(Bucket bucket : buckets){
+            int depth = 1;
+            for(Bucket dependency : bucket.dependencies){
+                depth = Math.max(depth, depths.get(dependency) + 1);
+            }
+            depths.put(bucket, depth);
+            longest = Math.max(longest, depth);
+        }
+        return longest;
+    }
+
+
+    /**
+     * Bucket of a single hidden variable: its factors are joined in order, and the variable is summed out of the last one.
+     */
+    public static class Bucket {
+        private final String hiddenVariable; //Variable summed out by the bucket.
+
+        private final List<Factor> factors; //Factors of the bucket, in the order of the joins.
+
+        private final List<Bucket> dependencies = new ArrayList<>(); //Buckets which produced factors of this bucket.
+
+        private boolean discardResult; //Whenever the eliminated factor holds a single value and is discarded.
+
+        private double discardedValue; //Value of the discarded factor, once the bucket was eliminated.
+
+        /**
+         * Builds a bucket.
+         * @param hiddenVariable Variable summed out by the bucket.
+         * @param factors Factors of the bucket, in the order of the joins.
+         */
+        Bucket(String hiddenVariable, List<Factor> factors){
+            this.hiddenVariable = hiddenVariable;
+            this.factors = factors;
+        }
+
+        /**
+         * Returns the variable summed out by the bucket.
+         * @return Name of the hidden variable.
+         */
+        public String getHiddenVariable(){
+            return hiddenVariable;
+        }
+
+        /**
+         * Returns the factors of the bucket, in the order of the joins. The variable is summed out of the last factor.
+         * @return List of factors.
+         */
+        public List<Factor> getFactors(){
+            return factors;
+        }
+
+        /**
+         * Returns the buckets which must be eliminated before this bucket.
+         * @return List of buckets.
+         */
+        public List<Bucket> getDependencies(){
+            return dependencies;
+        }
+
+        /**
+         * Checks whenever the eliminated factor holds a single value, and is discarded once the bucket is done.
+         * @return true whenever the result is discarded.
+         */
+        public boolean isDiscardingResult(){
+            return discardResult;
+        }
+
+        /**
+         * Returns the value of the discarded factor, which is a constant of the elimination.
+         * @return The single value of the eliminated factor. Only set once the bucket was eliminated.
+         */
+        public double getDiscardedValue(){
+            return discardedValue;
+        }
+
+        /**
+         * Keeps the value of the discarded factor before it is released.
+         * @param discardedValue The single value of the eliminated factor.
+         */
+        void setDiscardedValue(double discardedValue){
+            this.discardedValue = discardedValue;
+        }
+    }
+
+
+    /**
+     * Variables and size of a factor, used to replay the elimination without values.
+     */
+    private static class Shape {
+        private final Set<String> vars; //Variables of the factor.
+
+        private final long rows; //Number of rows of the factor. Same as Factor.getFactorSize.
+
+        private final int asciiSum; //Same as Factor.getAsciiSumOfVars.
+
+        /**
+         * Builds the shape of a set of variables.
+         * @param vars Variables of the factor.
+         * @param outcomeCounts Number of outcomes of each variable.
+         */
+        Shape(Iterable<String> vars, HashMap<String, Integer> outcomeCounts){
+            this.vars = new LinkedHashSet<>();
+            long rows = 1;
+            int asciiSum = 0;
+            for(String var : vars){
+                this.vars.add(var);
+                rows = Math.multiplyExact(rows, outcomeCounts.get(var));
+                for(int i = 0; i < var.length(); i++){
+                    asciiSum += var.charAt(i);
+                }
+            }
+            this.rows = rows;
+            this.asciiSum = asciiSum;
+        }
+
+        /**
+         * Builds the shape of an array of variables.
+         * @param vars Variables of the factor.
+         * @param outcomeCounts Number of outcomes of each variable.
+         */
+        Shape(String[] vars, HashMap<String, Integer> outcomeCounts){
+            this(Arrays.asList(vars), outcomeCounts);
+        }
+
+        /**
+         * Returns the shape of the join of this factor with another factor.
+         * @param other Shape of the other factor.
+         * @param outcomeCounts Number of outcomes of each variable.
+         * @return Shape of the joined factor.
+         */
+        Shape union(Shape other, HashMap<String, Integer> outcomeCounts){
+            LinkedHashSet<String> joinedVars = new LinkedHashSet<>(vars);
+            joinedVars.addAll(other.vars);
+            return new Shape(joinedVars, outcomeCounts);
+        }
+
+        /**
+         * Returns the shape of this factor after summing out a variable.
+         * @param var Variable summed out.
+         * @param outcomeCounts Number of outcomes of each variable.
+         * @return Shape of the eliminated factor.
+         */
+        Shape without(String var, HashMap<String, Integer> outcomeCounts){
+            LinkedHashSet<String> keptVars = new LinkedHashSet<>(vars);
+            keptVars.remove(var);
+            return new Shape(keptVars, outcomeCounts);
+        }
+    }
+}
@@ -13,7 +13,7 @@ public class Ex1 {
      * @param query probability string query (Example: P(B=T|J=T,M=T)). Needs to be the exact format!
      * @return String array of the query variable names.
      */
-    private static String[] getQueryNames(String query){
+    static String[] getQueryNames(String query){
         List<String> stringList = new ArrayList<>();
         Pattern pattern = Pattern.compile("([a-z A-Z\\d]*)=");
         Matcher matcher = pattern.matcher(query);
@@ -30,7 +30,7 @@ public class Ex1 {
      * @param query probability string query (Example: P(B=T|J=T,M=T)). Needs to be the exact format!
      * @return String array of the query variable names
      */
-    private static String[] getQueryIndex(String query){
+    static String[] getQueryIndex(String query){
         List<String> stringList = new ArrayList<>();
         Pattern pattern = Pattern.compile("=([a-z A-Z\\d]*)");
         Matcher matcher = pattern.matcher(query);
@@ -75,26 +75,49 @@ public class Ex1 {
             //Iterate until the end of the file.
             while (line != null) {
                 try {
-                    char funcInput = line.charAt(line.length() - 1); //Function number input.
-                    String query = line.substring(0,line.length() - 2); //Query string input.
-                    String answer;
-                    //Switch given an input number.
-                    switch (funcInput){
-                        case '1':
-                            answer = bayesianNetwork.func1(getQueryNames(query), getQueryIndex(query)) + "\n";
-                            fileOutputStream.write(answer.getBytes());
-                            break;
-                        case '2':
-                            answer = bayesianNetwork.func2(getQueryNames(query), getQueryIndex(query)) + "\n";
-                            fileOutputStream.write(answer.getBytes());
-                            break;
-                        case '3':
-                            answer = bayesianNetwork.func3(getQueryNames(query), getQueryIndex(query)) + "\n";
-                            fileOutputStream.write(answer.getBytes());
-                            break;
-                        default:
+                    int commaIndex = line.lastIndexOf(',');
+                    if(commaIndex == -1){ //Every query ends with a comma and the number of its function. Blank lines are skipped.
+                        if(!line.isBlank())
                             System.out.println("Invalid input");
-                            break;
+                        line = br.readLine();
+                        continue;
+                    }
+                    String funcInput = line.substring(commaIndex + 1).trim(); //Function number input.
+                    String query = line.substring(0, commaIndex); //Query string input.
+                    String answer;
+                    //Switch given an input number. Queries which hit a limit of their context are skipped.
+                    try {
+                        switch (funcInput){
+                            case "1":
+                                answer = bayesianNetwork.func1(getQueryNames(query), getQueryIndex(query)) + "\n";
+                                fileOutputStream.write(answer.getBytes());
+                                break;
+                            case "2":
+                                answer = bayesianNetwork.func2(getQueryNames(query), getQueryIndex(query)) + "\n";
+                                fileOutputStream.write(answer.getBytes());
+                                break;
+                            case "3":
+                                answer = bayesianNetwork.func3(getQueryNames(query), getQueryIndex(query)) + "\n";
+                                fileOutputStream.write(answer.getBytes());
+                                break;
+                            default:
+                                //The rest of the engines are numbered from 4, see BayesianNetwork.answer().
+                                int algorithm;
+                                try {
+                                    algorithm = Integer.parseInt(funcInput);
+                                } catch (NumberFormatException e) {
+                                    algorithm = -1;
+                                }
+                                if(!BayesianNetwork.isKnownAlgorithm(algorithm)){
+                                    System.out.println("Invalid input");
+                                    break;
+                                }
+                                answer = bayesianNetwork.answer(getQueryNames(query), getQueryIndex(query), algorithm) + "\n";
+                                fileOutputStream.write(answer.getBytes());
+                                break;
+                        }
+                    } catch (QueryAbortedException e) {
+                        System.out.println("Query aborted: " + e.getMessage());
                     }
                     line = br.readLine();
                 } catch (IOException e) {
@@ -112,7 +135,10 @@ public class Ex1 {
     }
 
     //Main will run the xml reading function, which will parse the input, the XML, and run through the input file.
+    //The query metrics are printed at the end when the bn.metrics.dump system property is true.
     public static void main(String[] args) {
         readFromXmlInputFile();
+        if(Boolean.getBoolean("bn.metrics.dump"))
+            System.out.print(QueryMetrics.getInstance().dump());
     }
 }
@@ -4,8 +4,11 @@ import java.util.Comparator;
 
 /**
  * This class is the main data holder of the factor tables for the algorithms. It holds every essential data for the algorithms to use,
- * with the main one being the factor table, which holds the probabilities of each node, in the correct logical order, in a Hash-Table.
- * Each instance of Factor is build based on the corresponding data of the VariableNode instance.
+ * with the main one being the factor table, which holds the probabilities of each node, in the correct logical order.
+ * The table is kept as a flat storage of cells. Each variable has a stride, which is the distance between the cells of two
+ * consecutive outcomes of the variable. Therefore, the cell of a row is the sum of each variable's outcome index times its stride.
+ * Each instance of Factor is build based on the corresponding data of the VariableNode instance, and uses the probabilities
+ * storage of the variable node as its table, without copying it.
  */
 public class Factor implements Cloneable{
     private final String factorName; //Factor node name.
@@ -14,32 +17,53 @@ public class Factor implements Cloneable{
 
     private String[] vars;
 
-    private Hashtable<TableKey, Double> factorTable; //Factor node factor table!
+    private String[][] varOutcomes; //Possible outcomes of each variable, in the order of vars.
+
+    private long[] strides; //Distance between the cells of consecutive outcomes of each variable, in the order of vars.
+
+    private FactorStorage values; //Factor node factor table cells!
+
+    private boolean ownsValues; //Whenever the values were allocated for this instance, and should be released along with it.
+
+    private Hashtable<TableKey, Double> factorTable; //Keyed view of the values. null until it is first requested.
+
+    private HeapFactorStorage logValues; //Natural logarithms of the values, in the same cells. null until first requested.
+
 
     /**
-     * Builds the full factor instance.
-     * @param name Name of the factor.
-     * @param parents Parents of the factor(Given values).
-     * @param factorTable Full factor table(Built in BayesianNetwork class).
+     * Builds a factor instance from a variable node. The factor table is the probabilities storage of the variable node,
+     * which is ordered the same way as in the xml file. The node's own value changes the fastest,
+     * followed by its parents where the last parent changes the fastest.
+     * @param variableNode Variable node the factor represents.
+     * @param varOutcomes Possible outcomes of the node and each of its parents, in the order of the node's vars.
      */
-    public Factor(String name, String[] parents, Hashtable<TableKey, Double> factorTable){
-        this.factorName = name;
-        this.parents = parents;
-        this.factorTable = factorTable;
-        this.vars = new String[parents.length + 1];
-        this.vars[0] = name;
-        System.arraycopy(parents, 0, this.vars, 1, this.vars.length - 1);
+    public Factor(VariableNode variableNode, String[][] varOutcomes){
+        this.factorName = variableNode.getVariableNodeName();
+        this.parents = variableNode.getParents();
+        this.vars = variableNode.getVars();
+        this.varOutcomes = varOutcomes;
+        this.values = variableNode.getProbabilityStorage();
+        this.ownsValues = false; //The storage belongs to the variable node.
+
+        this.strides = new long[vars.length];
+        long stride = varOutcomes[0].length;
+        this.strides[0] = 1;
+        for(int i = vars.length - 1; i >= 1; i--){
+            this.strides[i] = stride;
+            stride *= varOutcomes[i].length;
+        }
     }
 
 
     @Override
     public String toString() {
-        return "P("+this.factorName + "|" + Arrays.toString(parents) + ") => " + factorTable.toString() + "\n";
+        return "P("+this.factorName + "|" + Arrays.toString(parents) + ") => " + buildTable().toString() + "\n";
     }
 
 
     /**
-     * Clones a factor object by value.
+     * Clones a factor object by value. The clone shares the values storage with the original, since every operation
+     * on a factor replaces its storage instead of changing it. The shared storage is only released by the original.
      * @return The same object, cloned by value.
      * @throws CloneNotSupportedException Whenever object doesn't support the cloning method.
      */
@@ -49,7 +73,9 @@ public class Factor implements Cloneable{
         try{
             factorClone = (Factor) super.clone();
             factorClone.setParents(this.getFactorParents().clone());
-            factorClone.setFactorTable(new Hashtable<>(this.getFactorTable()));
+            factorClone.ownsValues = false;
+            factorClone.factorTable = null;
+            factorClone.logValues = null;
         } catch (CloneNotSupportedException e){
             e.printStackTrace();
         }
@@ -57,34 +83,134 @@ public class Factor implements Cloneable{
     }
 
 
+    /**
+     * Builds a keyed table of the factor's values, each key holding the values of the vars in a specific row.
+     * @return A new hash-table of every row of the factor.
+     */
+    private Hashtable<TableKey, Double> buildTable(){
+        Hashtable<TableKey, Double> table = new Hashtable<>();
+        int[] indexArr = new int[vars.length]; //Arr representing vars value indices.
+        long cell = 0;
+
+        for(long row = 0; row < values.size(); row++){
+            String[] rowValues = new String[vars.length];
+            for(int i = 0; i < rowValues.length; i++){
+                rowValues[i] = varOutcomes[i][indexArr[i]];
+            }
+            table.put(new TableKey(rowValues), values.get(cell));
+
+            //Advance the indices by one row, and the cell along with them.
+            for(int i = 0; i < indexArr.length; i++){
+                indexArr[i]++;
+                cell += strides[i];
+                if(indexArr[i] < varOutcomes[i].length)
+                    break;
+                cell -= strides[i] * varOutcomes[i].length;
+                indexArr[i] = 0;
+            }
+        }
+        return table;
+    }
+
+
+    /**
+     * Fetches the probability of a single row of the factor, given the values of its vars in order.
+     * @param values Values of the factor's vars, in the order of the vars.
+     * @return The probability of the given row. null whenever the row is not in the factor.
+     */
+    public Double getProbability(String[] values){
+        long cell = 0;
+        for(int i = 0; i < values.length; i++){
+            int outcomeIndex = Arrays.asList(varOutcomes[i]).indexOf(values[i]);
+            if(outcomeIndex == -1)
+                return null;
+            cell += outcomeIndex * strides[i];
+        }
+        return this.values.get(cell);
+    }
+
+
+    /**
+     * Releases the keyed view of the factor table. The view will be rebuilt from the values if requested again.
+     * @return The number of rows released.
+     */
+    public synchronized int releaseTable(){
+        if(factorTable == null)
+            return 0;
+        int rows = factorTable.size();
+        factorTable = null;
+        return rows;
+    }
+
+
+    /**
+     * Checks whenever the keyed view of the factor table is currently built.
+     * @return true whenever the factor holds a keyed factor table. false when only the values are held.
+     */
+    public synchronized boolean isMaterialized(){
+        return factorTable != null;
+    }
+
+
+    /**
+     * Returns the estimated number of heap bytes of the cached logarithms of the values.
+     * @return Number of bytes, 0 when the logarithms aren't cached.
+     */
+    public synchronized long getLogValuesBytes(){
+        return logValues == null ? 0 : logValues.getHeapBytes();
+    }
+
+
+    /**
+     * Checks whenever the values were allocated for this instance, meaning they can be changed in place.
+     * @return true whenever the factor owns its values. false when they are shared with a variable node or another factor.
+     */
+    public boolean isOwningValues(){
+        return ownsValues;
+    }
+
+
+    /**
+     * Releases the values storage of the factor, if it was allocated for this instance.
+     * Must be called once the factor is no longer used, since the storage may be held outside the heap.
+     */
+    public void close(){
+        if(ownsValues)
+            values.close();
+    }
+
+
     /**
      * Performs comparison between two factor tables in relation to table row count
      * and variable ascii value sum when 2 tables have the same amount of rows.
      */
     public static Comparator<Factor> factorComparator = (factor1, factor2) -> {
-        int sizeFactor1 = factor1.getFactorSize();
-        int sizeFactor2 = factor2.getFactorSize();
+        long sizeFactor1 = factor1.getFactorSize();
+        long sizeFactor2 = factor2.getFactorSize();
         if(sizeFactor1 != sizeFactor2){
-            return sizeFactor1 - sizeFactor2;
+            return Long.compare(sizeFactor1, sizeFactor2);
         }
         else{
             int asciiFactor1 = factor1.getAsciiSumOfVars();
             int asciiFactor2 = factor2.getAsciiSumOfVars();
-            return asciiFactor1 - asciiFactor2;
+            return Integer.compare(asciiFactor1, asciiFactor2);
         }
     };
 
 
     /**
      * Performs instantiation of a single factor, by filtering the given var, with the value given in the val parameter.
+     * The rows matching the value are copied to a new storage, without the column of the var.
      * @param var Variable we wish to instantiate in the table.
      * @param val Value of the variable we wish to instantiate. Meaning, filter the variable by given value.
+     * @param storageFactory Factory which allocates the storage of the instantiated table.
+     * @param kernels Kernels which copy the kept rows whenever both tables are on the heap.
      */
-    public void instantiate(String var, String val){
+    public void instantiate(String var, String val, FactorStorageFactory storageFactory, FactorKernels kernels){
         String[] factorVars = this.getFactorVars();
         int varIndex = 0;
 
-        //Find the given var's index from the String array of vars(Will correspond to value on TableKey in the table).
+        //Find the given var's index from the String array of vars.
         for(int i = 0; i < factorVars.length; i++){
             if(factorVars[i].equals(var)){
                 varIndex = i;
@@ -92,45 +218,110 @@ public class Factor implements Cloneable{
             }
         }
 
-        Enumeration<TableKey> keySet = this.factorTable.keys(); //Key-set of the given factor table.
-        //Iterate through each key, and delete specific key to table if the value of val doesn't correspond to the value that was given as a parameter.
-        //Current key checked.
-        while(keySet.hasMoreElements()){
-            TableKey currKey = keySet.nextElement();
-            if(!currKey.getKeys()[varIndex].equals(val))
-                this.factorTable.remove(currKey);
-        }
-
-        Hashtable<TableKey, Double> tempTable = new Hashtable<>(); //New temp table for removing evidence column.
-        //This loop iterates after instantiation. Removes single value evidence column.
-        Enumeration<TableKey> newKeySet = this.factorTable.keys();
-        while(newKeySet.hasMoreElements()){
-            TableKey currKey = newKeySet.nextElement(); //Current original key
-            double probVal = this.factorTable.get(currKey); //Save original probability value to keep correct probability values.
-            String[] currVarArr = currKey.getKeys(); //Current key values.
-            String[] newKey = new String[currVarArr.length - 1]; //New array of values.
-            int insertionTemp = 0;
-
-            for(int i = 0; i < currVarArr.length; i++){
-                if(i != varIndex){
-                    newKey[insertionTemp++] = currVarArr[i];
-                }
+        //Section of editing the new variables of the new fully instantiated table.
+        String[] newVars = new String[factorVars.length - 1];
+        String[][] newVarOutcomes = new String[factorVars.length - 1][];
+        long[] sourceStrides = new long[factorVars.length - 1]; //Strides of the kept vars in the original table.
+        int valInsertionTemp = 0;
+
+        for (int i = 0; i < factorVars.length; i++) {
+            if (i != varIndex){
+                newVars[valInsertionTemp] = factorVars[i];
+                newVarOutcomes[valInsertionTemp] = varOutcomes[i];
+                sourceStrides[valInsertionTemp++] = strides[i];
             }
-            tempTable.put(new TableKey(newKey), probVal);
         }
 
-        //Section of editing the new variables of the new fully instantiated factorTable. Saves are local to given object.
-        String[] vars = this.getFactorVars(); //Variables of given factor table.
-        String[] newVars = new String[vars.length - 1]; //New variables of given factor table we wish to edit.
-        int valInsertionTemp = 0;
+        long rows = values.size() / varOutcomes[varIndex].length;
+        FactorStorage instantiatedValues = storageFactory.allocate(rows);
+        int[] indexArr = new int[newVars.length]; //Arr representing kept vars value indices.
+        long sourceCell = Arrays.asList(varOutcomes[varIndex]).indexOf(val) * strides[varIndex]; //Only rows of the given value are kept.
+
+        if(values instanceof HeapFactorStorage && instantiatedValues instanceof HeapFactorStorage){
+            sliceRuns(((HeapFactorStorage) values).getValues(), (int) sourceCell, sourceStrides,
+                    ((HeapFactorStorage) instantiatedValues).getValues(), rows, newVarOutcomes, kernels);
+            this.setValues(newVars, newVarOutcomes, instantiatedValues);
+            return;
+        }
+
+        for(long row = 0; row < rows; row++){
+            instantiatedValues.set(row, values.get(sourceCell));
+
+            //Advance the indices by one row, and the source cell along with them.
+            for(int i = 0; i < indexArr.length; i++){
+                indexArr[i]++;
+                sourceCell += sourceStrides[i];
+                if(indexArr[i] < newVarOutcomes[i].length)
+                    break;
+                sourceCell -= sourceStrides[i] * newVarOutcomes[i].length;
+                indexArr[i] = 0;
+            }
+        }
+        this.setValues(newVars, newVarOutcomes, instantiatedValues);
+    }
+
 
-        for (int i = 0; i < vars.length; i++) {
-            if (i != varIndex)
-                newVars[valInsertionTemp++] = vars[i];
+    /**
+     * Copies the kept rows of a heap table run by run with the kernels.
+     * @param sourceArr Cells of the original table.
+     * @param sourceCell Cell of the first kept row.
+     * @param sourceStrides Strides of the kept variables in the original table.
+     * @param slicedArr Cells of the instantiated table.
+     * @param rows Number of rows of the instantiated table.
+     * @param newVarOutcomes Outcomes of the kept variables.
+     * @param kernels Kernels which copy the runs.
+     */
+    private static void sliceRuns(double[] sourceArr, int sourceCell, long[] sourceStrides, double[] slicedArr,
+                                  long rows, String[][] newVarOutcomes, FactorKernels kernels){
+        int[] outcomeCounts = new int[newVarOutcomes.length];
+        for(int i = 0; i < outcomeCounts.length; i++){
+            outcomeCounts[i] = newVarOutcomes[i].length;
         }
+        RunCursor cursor = new RunCursor(outcomeCounts, sourceStrides);
+        int runLength = (int) cursor.getRunLength();
+        int runStride = (int) cursor.getRunStride(0);
+
+        for(int row = 0; row < rows; row += runLength){
+            kernels.slice(sourceArr, sourceCell + (int) cursor.getCell(0), runStride, slicedArr, row, runLength);
+            cursor.next();
+        }
+    }
+
+
+    /**
+     * Clones the factor with the natural logarithms of its values, for queries which calculate in log space.
+     * The logarithms are calculated on the first request and cached, so the following log space queries share them
+     * instead of converting the factor again. The cells keep their order, therefore the strides stay the same.
+     * @return Clone of the factor whose values are log space values.
+     */
+    public synchronized Factor cloneInLogSpace(){
+        if(logValues == null){
+            double[] logs = new double[(int) values.size()];
+            for(int cell = 0; cell < logs.length; cell++){
+                logs[cell] = LogSpace.toLog(values.get(cell));
+            }
+            logValues = new HeapFactorStorage(logs);
+        }
+        try {
+            Factor factorClone = (Factor) clone();
+            factorClone.values = logValues; //Shared by all the clones, and owned by none of them.
+            return factorClone;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 
-        this.setFactorTable(tempTable); //Set new table to current table.
-        this.setVars(newVars); //Set new vars to current table.
+    /**
+     * Releases the cached logarithms of the values. They will be calculated again if requested.
+     * @return Estimated number of bytes released.
+     */
+    public synchronized long releaseLogValues(){
+        if(logValues == null)
+            return 0;
+        long bytes = logValues.getHeapBytes();
+        logValues = null;
+        return bytes;
     }
 
 
@@ -173,14 +364,25 @@ public class Factor implements Cloneable{
 
 
     /**
-     * Returns the hashTable of the given node.
+     * Returns a keyed hashTable view of the given node's values. The view is built on first request and kept until released.
      * @return HashTable representing the full factor.
      */
-    public Hashtable<TableKey, Double> getFactorTable(){
+    public synchronized Hashtable<TableKey, Double> getFactorTable(){
+        if(this.factorTable == null)
+            this.factorTable = buildTable();
         return this.factorTable;
     }
 
 
+    /**
+     * Returns the storage of the factor table cells.
+     * @return The values storage of the factor.
+     */
+    public FactorStorage getValues(){
+        return this.values;
+    }
+
+
     /**
      * Returns a united array of all the variables in the given factor instance.
      * @return The array of all the given factor's variables.
@@ -190,12 +392,30 @@ public class Factor implements Cloneable{
     }
 
 
+    /**
+     * Returns the possible outcomes of each variable, in the order of the vars.
+     * @return Array of the outcomes of each var.
+     */
+    public String[][] getVarOutcomes(){
+        return this.varOutcomes;
+    }
+
+
+    /**
+     * Returns the stride of each variable in the values storage, in the order of the vars.
+     * @return Array of the strides of each var.
+     */
+    public long[] getStrides(){
+        return this.strides;
+    }
+
+
     /**
      * Returns the number of rows of the factor table.
      * @return The number of rows of the factor table.
      */
-    public int getFactorSize(){
-        return this.factorTable.size();
+    public long getFactorSize(){
+        return this.values.size();
     }
 
 
@@ -230,19 +450,25 @@ public class Factor implements Cloneable{
 
 
     /**
-     * Sets the vars array of a given Factor instance.
+     * Replaces the factor table of the given Factor instance, along with its variables.
+     * The new values are ordered such that the first var changes the fastest. The previous storage is released.
      * @param newVars New variables we with to put in given Factor instance.
+     * @param newVarOutcomes Possible outcomes of each new variable, in the order of the new vars.
+     * @param newValues New storage of the factor table cells. Belongs to the factor from now on.
      */
-    public void setVars(String[] newVars){
+    public synchronized void setValues(String[] newVars, String[][] newVarOutcomes, FactorStorage newValues){
+        close();
         this.vars = newVars;
-    }
-
-
-    /**
-     * Sets the Factor's factor-table field.
-     * @param newFactorTable new factor-table value. Meaning, a new table for the given Factor instance.
-     */
-    public void setFactorTable(Hashtable<TableKey, Double> newFactorTable){
-        this.factorTable = newFactorTable;
+        this.varOutcomes = newVarOutcomes;
+        this.values = newValues;
+        this.ownsValues = true;
+        this.factorTable = null;
+
+        this.strides = new long[newVars.length];
+        long stride = 1;
+        for(int i = 0; i < newVars.length; i++){
+            this.strides[i] = stride;
+            stride *= newVarOutcomes[i].length;
+        }
     }
 }
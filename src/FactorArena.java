@@ -0,0 +1,212 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+
+/**
+ * FactorArena hands out reusable heap buffers for the intermediate factors of queries.
+ * Every thread has its own arena, and a buffer returns to the arena it came from once its storage is closed,
+ * so the tables of one query are built in the buffers the previous query released.
+ * Buffers are kept in size classes of powers of 2, which wastes at most half a buffer, and the arena keeps
+ * buffers up to a byte budget. The budget defaults to the bn.arena.maxBytes system property(64MB), and grows for
+ * queries which are predicted to need more. The raise only lasts for the query: once it ends the budget is restored,
+ * and the buffers beyond it are left to the garbage collector, so an arena never keeps more than the default budget
+ * between queries.
+ */
+public class FactorArena {
+    private static final long DEFAULT_MAX_BYTES = Long.getLong("bn.arena.maxBytes", 64L << 20);
+
+    private static final int SIZE_CLASSES = 31; //Class i holds buffers of 2^i cells.
+
+    private static final ThreadLocal<FactorArena> ARENAS = ThreadLocal.withInitial(FactorArena::new);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<double[]>[] freeBuffers = new ArrayDeque[SIZE_CLASSES]; //Free buffers of each size class.
+
+    private long maxBytes = DEFAULT_MAX_BYTES; //Most bytes of free buffers the arena keeps.
+
+    private long freeBytes; //Bytes of the free buffers the arena keeps.
+
+    private long allocations, reuses; //Number of buffers allocated, and number of buffers handed out again, respectively.
+
+
+    /**
+     * Builds an empty arena.
+     */
+    private FactorArena(){
+        for(int i = 0; i < SIZE_CLASSES; i++){
+            freeBuffers[i] = new ArrayDeque<>();
+        }
+    }
+
+
+    /**
+     * Returns the arena of the current thread.
+     * @return The arena of the thread.
+     */
+    public static FactorArena current(){
+        return ARENAS.get();
+    }
+
+
+    /**
+     * Hands out a storage with all cells set to 0, over a free buffer when there is one, or over a new buffer.
+     * The buffer returns to this arena once the storage is closed.
+     * @param cells Number of cells.
+     * @return A heap storage of the given size.
+     */
+    public HeapFactorStorage allocate(long cells){
+        if(cells > 1L << (SIZE_CLASSES - 1))
+            return new HeapFactorStorage(cells); //Larger than the largest class, never kept.
+        int sizeClass = getSizeClass(cells);
+        double[] buffer;
+        synchronized (this){
+            buffer = freeBuffers[sizeClass].pollLast();
+            if(buffer != null){
+                freeBytes -= getBufferBytes(buffer);
+                reuses++;
+            }
+            else{
+                allocations++;
+            }
+        }
+        if(buffer == null)
+            buffer = new double[1 << sizeClass];
+        else
+            Arrays.fill(buffer, 0, (int) cells, 0.0);
+        return new HeapFactorStorage(buffer, (int) cells, this);
+    }
+
+
+    /**
+     * Prepares the arena for a query, given the number of cells of the largest table it is predicted to build.
+     * The budget grows to keep the buffers of such a query, and a buffer of the largest table is allocated in advance.
+     * The query must hand the returned budget to restore() once it ends.
+     * @param largestCells Number of cells of the largest predicted table.
+     * @return The budget before the query, in bytes.
+     */
+    public long reserve(long largestCells){
+        long previousMaxBytes;
+        int sizeClass = getSizeClass(largestCells);
+        synchronized (this){
+            previousMaxBytes = maxBytes;
+            if(largestCells <= 0 || largestCells > 1L << (SIZE_CLASSES - 1))
+                return previousMaxBytes;
+            maxBytes = Math.max(maxBytes, 4 * ((long) Double.BYTES << sizeClass)); //Room for a join's inputs and output.
+            if(!freeBuffers[sizeClass].isEmpty())
+                return previousMaxBytes;
+            allocations++;
+        }
+        release(new double[1 << sizeClass]);
+        return previousMaxBytes;
+    }
+
+
+    /**
+     * Restores the budget a query raised once it ends, and drops the largest free buffers until the free buffers fit it.
+     * @param previousMaxBytes Budget returned by reserve() at the start of the query.
+     */
+    public synchronized void restore(long previousMaxBytes){
+        maxBytes = previousMaxBytes;
+        for(int sizeClass = SIZE_CLASSES - 1; sizeClass >= 0 && freeBytes > maxBytes; sizeClass--){
+            while(freeBytes > maxBytes && !freeBuffers[sizeClass].isEmpty()){
+                freeBytes -= getBufferBytes(freeBuffers[sizeClass].pollLast());
+            }
+        }
+    }
+
+
+    /**
+     * Returns a buffer to the arena. Buffers which don't fit the budget are left to the garbage collector.
+     * @param buffer Buffer of a closed storage.
+     */
+    synchronized void release(double[] buffer){
+        long bytes = getBufferBytes(buffer);
+        if(freeBytes + bytes > maxBytes)
+            return;
+        freeBuffers[Integer.numberOfTrailingZeros(buffer.length)].addLast(buffer);
+        freeBytes += bytes;
+    }
+
+
+    /**
+     * Drops all the free buffers of the arena, and resets its budget.
+     */
+    public synchronized void clear(){
+        for(ArrayDeque<double[]> buffers : freeBuffers){
+            buffers.clear();
+        }
+        freeBytes = 0;
+        maxBytes = DEFAULT_MAX_BYTES;
+    }
+
+
+    /**
+     * Returns the size class of a number of cells, which is the smallest power of 2 holding them.
+     * @param cells Number of cells.
+     * @return Size class.
+     */
+    private static int getSizeClass(long cells){
+        return cells <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(cells - 1);
+    }
+
+
+    /**
+     * Returns the heap size of a buffer.
+     * @param buffer Buffer.
+     * @return Bytes of the buffer.
+     */
+    private static long getBufferBytes(double[] buffer){
+        return HeapFactorStorage.ARRAY_HEADER_BYTES + (long) buffer.length * Double.BYTES;
+    }
+
+
+    /*
+     * Getters of FactorArena class
+     * */
+
+    /**
+     * Returns the number of buffers the arena allocated. Once the arena is warm, this stops growing.
+     * @return Number of allocations.
+     */
+    public synchronized long getAllocations(){
+        return allocations;
+    }
+
+    /**
+     * Returns the number of times a free buffer was handed out again.
+     * @return Number of reuses.
+     */
+    public synchronized long getReuses(){
+        return reuses;
+    }
+
+    /**
+     * Returns the bytes of the free buffers the arena keeps.
+     * @return Bytes of free buffers.
+     */
+    public synchronized long getFreeBytes(){
+        return freeBytes;
+    }
+
+    /**
+     * Returns the most bytes of free buffers the arena keeps. Raised while a query runs, see reserve().
+     * @return Budget of the arena in bytes.
+     */
+    public synchronized long getMaxBytes(){
+        return maxBytes;
+    }
+
+
+    /*
+     * Setters of FactorArena class
+     * */
+
+    /**
+     * Sets the budget of the arena, which lasts until clear() resets it to the bn.arena.maxBytes default.
+     * The largest free buffers are dropped until the free buffers fit the new budget.
+     * @param maxBytes Most bytes of free buffers the arena keeps.
+     */
+    public void setMaxBytes(long maxBytes){
+        restore(maxBytes);
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.Random;
+
+
+/**
+ * FactorKernels are the inner loops of the factor operations, working on runs of cells of heap tables.
+ * A run is a sequence of cells of a table which are a fixed stride apart. The odometer loops of the factor operations
+ * merge as many consecutive variables as they can into a single run, and hand every run to the kernels.
+ * Every implementation must give bitwise identical results to the scalar kernels, which only means every output cell
+ * is calculated with the same operations in the same order. Vectorized implementations calculate several output cells at once.
+ */
+public interface FactorKernels {
+
+    /**
+     * Multiplies two runs cell by cell into an output run. In log space the cells are added instead.
+     * A stride of 0 repeats the same cell for the entire run.
+     * @param a Cells of the first table.
+     * @param aOffset Cell of the first table where the run starts.
+     * @param aStride Stride of the run in the first table.
+     * @param b Cells of the second table.
+     * @param bOffset Cell of the second table where the run starts.
+     * @param bStride Stride of the run in the second table.
+     * @param out Cells of the output table.
+     * @param outOffset Cell of the output table where the run starts. The output run is contiguous.
+     * @param length Number of cells in the run.
+     * @param logSpace Whenever the tables hold log space values.
+     */
+    void product(double[] a, int aOffset, int aStride, double[] b, int bOffset, int bStride,
+                 double[] out, int outOffset, int length, boolean logSpace);
+
+
+    /**
+     * Sums out a variable for a run of output cells. Each output cell is the sum of the cells of all outcomes
+     * of the summed variable, added in the order of the outcomes, starting from 0.
+     * When the summed variable is the innermost variable of the source table, hiddenStride is 1 and the run stride is
+     * the number of its outcomes. Otherwise the run is contiguous, and the outcomes are far apart.
+     * @param source Cells of the source table.
+     * @param sourceOffset Cell of the first outcome of the first output cell.
+     * @param sourceStride Stride of the run in the source table.
+     * @param hiddenStride Stride of the summed variable in the source table.
+     * @param hiddenCount Number of outcomes of the summed variable.
+     * @param out Cells of the output table.
+     * @param outOffset Cell of the output table where the run starts. The output run is contiguous.
+     * @param length Number of output cells in the run.
+     */
+    void sumOut(double[] source, int sourceOffset, int sourceStride, int hiddenStride, int hiddenCount,
+                double[] out, int outOffset, int length);
+
+
+    /**
+     * Copies a run of the source table into a contiguous output run. Slicing a table by evidence is a series of such copies.
+     * @param source Cells of the source table.
+     * @param sourceOffset Cell of the source table where the run starts.
+     * @param sourceStride Stride of the run in the source table.
+     * @param out Cells of the output table.
+     * @param outOffset Cell of the output table where the run starts.
+     * @param length Number of cells in the run.
+     */
+    void slice(double[] source, int sourceOffset, int sourceStride, double[] out, int outOffset, int length);
+
+
+    /**
+     * Normalizes a run of cells in place, dividing each cell by the sum of the run.
+     * The sum is added in the order of the cells, starting from 0.
+     * @param values Cells of the table.
+     * @param offset Cell where the run starts.
+     * @param length Number of cells in the run.
+     * @return The sum the cells were divided by.
+     */
+    double normalize(double[] values, int offset, int length);
+
+
+    /**
+     * Returns the name of the kernels, for reports.
+     * @return Name of the kernels.
+     */
+    String getName();
+
+
+    /**
+     * Returns the kernels chosen at startup.
+     * The bn.kernels system property decides them: "scalar", "vector" or "auto"(the default).
+     * The vector kernels need the jdk.incubator.vector module(--add-modules jdk.incubator.vector), and are only used
+     * when they load and pass the bitwise self check against the scalar kernels. Otherwise the scalar kernels are used.
+     * @return The default kernels.
+     */
+    static FactorKernels getDefault(){
+        return DefaultHolder.DEFAULT;
+    }
+
+
+    /**
+     * Checks that the given kernels give bitwise identical results to the scalar kernels, over runs of random cells
+     * of all the stride kinds the factor operations use.
+     * @param kernels Kernels to check.
+     * @return true whenever every result is identical. false otherwise.
+     */
+    static boolean matchesScalar(FactorKernels kernels){
+        FactorKernels scalar = new ScalarFactorKernels();
+        Random random = new Random(42);
+        double[] a = new double[512], b = new double[512];
+        for(int i = 0; i < a.length; i++){
+            a[i] = random.nextDouble();
+            b[i] = random.nextDouble();
+        }
+        int[] strides = {0, 1, 2, 3, 7};
+
+        for(int length = 1; length <= 37; length += 3){
+            for(int aStride : strides){
+                for(int bStride : strides){
+                    for(boolean logSpace : new boolean[]{false, true}){
+                        double[] expected = new double[length], actual = new double[length];
+                        scalar.product(a, 5, aStride, b, 3, bStride, expected, 0, length, logSpace);
+                        kernels.product(a, 5, aStride, b, 3, bStride, actual, 0, length, logSpace);
+                        if(!bitwiseEquals(expected, actual))
+                            return false;
+                    }
+                }
+                for(int hiddenCount = 1; hiddenCount <= 4; hiddenCount++){
+                    double[] expected = new double[length], actual = new double[length];
+                    scalar.sumOut(a, 1, aStride == 0 ? hiddenCount : aStride, 1, hiddenCount, expected, 0, length);
+                    kernels.sumOut(a, 1, aStride == 0 ? hiddenCount : aStride, 1, hiddenCount, actual, 0, length);
+                    if(!bitwiseEquals(expected, actual))
+                        return false;
+                    scalar.sumOut(a, 2, 1, length + aStride, hiddenCount, expected, 0, length);
+                    kernels.sumOut(a, 2, 1, length + aStride, hiddenCount, actual, 0, length);
+                    if(!bitwiseEquals(expected, actual))
+                        return false;
+                }
+                double[] expected = new double[length], actual = new double[length];
+                scalar.slice(a, 4, aStride, expected, 0, length);
+                kernels.slice(a, 4, aStride, actual, 0, length);
+                if(!bitwiseEquals(expected, actual))
+                    return false;
+            }
+            double[] expected = new double[length], actual = new double[length];
+            System.arraycopy(b, 0, expected, 0, length);
+            System.arraycopy(b, 0, actual, 0, length);
+            if(Double.doubleToLongBits(scalar.normalize(expected, 0, length)) != Double.doubleToLongBits(kernels.normalize(actual, 0, length))
+                    || !bitwiseEquals(expected, actual))
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Compares two arrays bit by bit.
+     * @param expected First array.
+     * @param actual Second array.
+     * @return true whenever both arrays hold exactly the same bits.
+     */
+    static boolean bitwiseEquals(double[] expected, double[] actual){
+        for(int i = 0; i < expected.length; i++){
+            if(Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(actual[i]))
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Holds the default kernels, which are chosen once, the first time they are needed.
+     */
+    final class DefaultHolder {
+        private static final FactorKernels DEFAULT = choose(System.getProperty("bn.kernels", "auto"));
+
+        private DefaultHolder(){
+        }
+
+        /**
+         * Chooses the kernels according to the requested mode.
+         * @param mode "scalar", "vector" or "auto".
+         * @return The chosen kernels.
+         */
+        private static FactorKernels choose(String mode){
+            if(mode.equals("scalar"))
+                return new ScalarFactorKernels();
+
+            try {
+                //Loaded by name, since the class can't be loaded without the incubator module.
+                FactorKernels vector = (FactorKernels) Class.forName("VectorFactorKernels").getDeclaredConstructor().newInstance();
+                if(matchesScalar(vector))
+                    return vector;
+                System.err.println("Vector factor kernels don't match the scalar kernels, using the scalar kernels");
+            } catch (Throwable e) { //Missing module, or a CPU without vector support.
+                if(mode.equals("vector"))
+                    System.err.println("Vector factor kernels are not available(" + e + "), using the scalar kernels");
+            }
+            return new ScalarFactorKernels();
+        }
+    }
+}
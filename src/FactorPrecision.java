@@ -0,0 +1,23 @@
+/**
+ * The precision factor tables are stored in.
+ * Values are always read as doubles, and sums and products are always calculated in double precision.
+ * The precision only affects the way the values are kept in memory.
+ */
+public enum FactorPrecision {
+    DOUBLE(Double.BYTES), //64 bit cells, the default.
+    FLOAT(Float.BYTES); //32 bit cells. About 7 significant digits, enough for answers printed with 5 digits after the dot.
+
+    private final int cellBytes; //Size of a single cell in bytes.
+
+    FactorPrecision(int cellBytes){
+        this.cellBytes = cellBytes;
+    }
+
+    /**
+     * Returns the size of a single cell stored in this precision.
+     * @return Number of bytes of a cell.
+     */
+    public int getCellBytes(){
+        return cellBytes;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * FactorStorage holds the values of a single factor table as a flat array of cells.
+ * The factor decides how the values of its variables are mapped to a cell index, the storage only keeps the values.
+ * Implementations differ in where the values are kept, on the heap, in off-heap memory or in memory mapped files.
+ */
+public interface FactorStorage {
+
+    /**
+     * Returns the number of cells in the storage.
+     * @return Number of cells.
+     */
+    long size();
+
+
+    /**
+     * Returns the value of a single cell.
+     * @param index Index of the cell.
+     * @return The value of the cell.
+     */
+    double get(long index);
+
+
+    /**
+     * Sets the value of a single cell.
+     * @param index Index of the cell.
+     * @param value New value of the cell.
+     */
+    void set(long index, double value);
+
+
+    /**
+     * Releases the memory held by the storage. The storage can't be used after it was closed.
+     * Memory the garbage collector owns, such as heap arrays and direct buffers, is only returned once it is collected.
+     */
+    void close();
+
+
+    /**
+     * Returns the estimated number of bytes the storage holds on the java heap.
+     * Storages which keep their values outside the heap only count their own bookkeeping.
+     * @return Estimated number of heap bytes.
+     */
+    long getHeapBytes();
+}
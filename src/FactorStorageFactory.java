@@ -0,0 +1,207 @@
+import java.io.File;
+
+
+/**
+ * Decides where the values of a new factor are stored, given the number of cells the factor has.
+ * Small factors are kept on the heap. Factors of at least offHeapThresholdCells cells are kept in off-heap memory,
+ * and factors of at least spillThresholdCells cells are spilled to memory mapped files in the spill directory.
+ * Cells are stored in double or float precision. In float precision, the tables of the variable nodes can also be
+ * compressed with a dictionary of their distinct values.
+ * Double precision heap storages come from the arena of the allocating thread, which reuses the buffers of closed storages.
+ * The defaults can be changed with the system properties: bn.storage.offHeapThreshold, bn.storage.spillThreshold(both in cells),
+ * bn.storage.spillDir, bn.storage.precision(double or float), bn.storage.compressTables(true or false)
+ * and bn.storage.arena(true or false).
+ */
+public class FactorStorageFactory {
+    private static final long DEFAULT_OFF_HEAP_THRESHOLD = 1L << 24; //16M cells(128MB).
+    private static final long DEFAULT_SPILL_THRESHOLD = 1L << 27; //128M cells(1GB).
+
+    private final long offHeapThresholdCells; //Minimal number of cells of a factor stored off-heap.
+
+    private final long spillThresholdCells; //Minimal number of cells of a factor stored in a memory mapped file.
+
+    private final File spillDirectory; //Directory of the memory mapped files.
+
+    private final FactorPrecision precision; //Precision the cells are stored in.
+
+    private final boolean compressTables; //Whenever the tables of the variable nodes are dictionary compressed(float precision only).
+
+    private final boolean useArena; //Whenever double precision heap storages come from the thread's arena.
+
+
+    /**
+     * Builds a double precision storage factory with the given thresholds.
+     * @param offHeapThresholdCells Minimal number of cells of a factor which is stored in off-heap memory.
+     * @param spillThresholdCells Minimal number of cells of a factor which is stored in a memory mapped file.
+     * @param spillDirectory Directory to create the memory mapped files in.
+     */
+    public FactorStorageFactory(long offHeapThresholdCells, long spillThresholdCells, File spillDirectory){
+        this(offHeapThresholdCells, spillThresholdCells, spillDirectory, FactorPrecision.DOUBLE, false);
+    }
+
+
+    /**
+     * Builds a storage factory with the given thresholds and precision.
+     * @param offHeapThresholdCells Minimal number of cells of a factor which is stored in off-heap memory.
+     * @param spillThresholdCells Minimal number of cells of a factor which is stored in a memory mapped file.
+     * @param spillDirectory Directory to create the memory mapped files in.
+     * @param precision Precision the cells are stored in.
+     * @param compressTables Whenever the tables of the variable nodes should be dictionary compressed. Only applies to float precision.
+     */
+    public FactorStorageFactory(long offHeapThresholdCells, long spillThresholdCells, File spillDirectory,
+                                FactorPrecision precision, boolean compressTables){
+        this(offHeapThresholdCells, spillThresholdCells, spillDirectory, precision, compressTables, true);
+    }
+
+
+    /**
+     * Builds a storage factory with the given thresholds, precision and arena usage.
+     * @param offHeapThresholdCells Minimal number of cells of a factor which is stored in off-heap memory.
+     * @param spillThresholdCells Minimal number of cells of a factor which is stored in a memory mapped file.
+     * @param spillDirectory Directory to create the memory mapped files in.
+     * @param precision Precision the cells are stored in.
+     * @param compressTables Whenever the tables of the variable nodes should be dictionary compressed. Only applies to float precision.
+     * @param useArena Whenever double precision heap storages come from the arena of the allocating thread.
+     */
+    public FactorStorageFactory(long offHeapThresholdCells, long spillThresholdCells, File spillDirectory,
+                                FactorPrecision precision, boolean compressTables, boolean useArena){
+        if(offHeapThresholdCells <= 0 || spillThresholdCells <= 0)
+            throw new IllegalArgumentException("Storage thresholds must be positive");
+        this.offHeapThresholdCells = offHeapThresholdCells;
+        this.spillThresholdCells = spillThresholdCells;
+        this.spillDirectory = spillDirectory;
+        this.precision = precision;
+        this.compressTables = compressTables;
+        this.useArena = useArena;
+    }
+
+
+    /**
+     * Builds a storage factory from the system properties, using the defaults for missing properties.
+     * @return A new storage factory.
+     */
+    public static FactorStorageFactory fromSystemProperties(){
+        long offHeapThreshold = Long.getLong("bn.storage.offHeapThreshold", DEFAULT_OFF_HEAP_THRESHOLD);
+        long spillThreshold = Long.getLong("bn.storage.spillThreshold", DEFAULT_SPILL_THRESHOLD);
+        String spillDir = System.getProperty("bn.storage.spillDir", System.getProperty("java.io.tmpdir"));
+        FactorPrecision precision = FactorPrecision.valueOf(System.getProperty("bn.storage.precision", "double").toUpperCase());
+        boolean compressTables = Boolean.parseBoolean(System.getProperty("bn.storage.compressTables", "false"));
+        boolean useArena = Boolean.parseBoolean(System.getProperty("bn.storage.arena", "true"));
+        return new FactorStorageFactory(offHeapThreshold, spillThreshold, new File(spillDir), precision, compressTables, useArena);
+    }
+
+
+    /**
+     * Allocates a new storage with all cells set to 0, in the memory fitting the given number of cells.
+     * The allocation is recorded in the query metrics.
+     * @param cells Number of cells of the new storage.
+     * @return A new factor storage.
+     */
+    public FactorStorage allocate(long cells){
+        QueryMetrics.getInstance().recordAllocation(cells, cells * precision.getCellBytes());
+        if(cells >= spillThresholdCells)
+            return ByteBufferFactorStorage.map(cells, precision, spillDirectory);
+        if(cells >= offHeapThresholdCells)
+            return ByteBufferFactorStorage.allocateDirect(cells, precision);
+        if(precision == FactorPrecision.FLOAT)
+            return new FloatFactorStorage(cells);
+        if(useArena)
+            return FactorArena.current().allocate(cells);
+        return new HeapFactorStorage(cells);
+    }
+
+
+    /**
+     * Prepares the arena of the current thread for a query, given the largest table the query is predicted to build.
+     * Does nothing when the factory doesn't use arenas, or when such a table isn't kept on the heap.
+     * @param largestCells Number of cells of the largest predicted table.
+     * @return Budget of the arena before the query, to hand to restoreArena() once the query ends. -1 when nothing was done.
+     */
+    public long prepareArena(long largestCells){
+        if(useArena && precision == FactorPrecision.DOUBLE && largestCells < offHeapThresholdCells)
+            return FactorArena.current().reserve(largestCells);
+        return -1;
+    }
+
+
+    /**
+     * Restores the budget of the arena of the current thread once a query ends, see prepareArena().
+     * Must be called on the thread which prepared the arena.
+     * @param previousMaxBytes Value prepareArena() returned. -1 does nothing.
+     */
+    public void restoreArena(long previousMaxBytes){
+        if(previousMaxBytes >= 0)
+            FactorArena.current().restore(previousMaxBytes);
+    }
+
+
+    /**
+     * Builds the storage of a variable node's probabilities table.
+     * In double precision the array itself is wrapped, in float precision it is copied to a float or dictionary storage.
+     * @param probabilities Probabilities of a variable node, in the order of the xml file.
+     * @return A storage holding the probabilities.
+     */
+    public FactorStorage wrapProbabilities(double[] probabilities){
+        if(precision == FactorPrecision.DOUBLE)
+            return new HeapFactorStorage(probabilities);
+        if(compressTables){
+            DictionaryFactorStorage compressed = DictionaryFactorStorage.encode(probabilities);
+            if(compressed != null)
+                return compressed;
+        }
+        return new FloatFactorStorage(probabilities);
+    }
+
+
+    /*
+     * Getters of FactorStorageFactory class
+     * */
+
+    /**
+     * Returns the minimal number of cells of a factor which is stored in off-heap memory.
+     * @return Off-heap threshold in cells.
+     */
+    public long getOffHeapThresholdCells(){
+        return offHeapThresholdCells;
+    }
+
+    /**
+     * Returns the minimal number of cells of a factor which is stored in a memory mapped file.
+     * @return Spill threshold in cells.
+     */
+    public long getSpillThresholdCells(){
+        return spillThresholdCells;
+    }
+
+    /**
+     * Returns the directory the memory mapped files are created in.
+     * @return The spill directory.
+     */
+    public File getSpillDirectory(){
+        return spillDirectory;
+    }
+
+    /**
+     * Returns the precision the cells are stored in.
+     * @return The precision of the factory.
+     */
+    public FactorPrecision getPrecision(){
+        return precision;
+    }
+
+    /**
+     * Checks whenever the tables of the variable nodes are dictionary compressed in float precision.
+     * @return true whenever the tables are compressed.
+     */
+    public boolean isCompressTables(){
+        return compressTables;
+    }
+
+    /**
+     * Checks whenever double precision heap storages come from the arena of the allocating thread.
+     * @return true whenever the factory uses arenas.
+     */
+    public boolean isUseArena(){
+        return useArena;
+    }
+}
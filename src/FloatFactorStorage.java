@@ -0,0 +1,62 @@
+/**
+ * Factor storage which keeps its values in a float array on the heap, taking half the memory of a double storage.
+ * Values are rounded to float precision when they are set, and read back as doubles.
+ */
+public class FloatFactorStorage implements FactorStorage {
+    private final float[] values; //Values of the cells in order.
+
+
+    /**
+     * Builds a storage of the given size, with all cells set to 0.
+     * @param cells Number of cells.
+     */
+    public FloatFactorStorage(long cells){
+        if(cells > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Factor of " + cells + " cells is too large for a heap storage");
+        this.values = new float[(int) cells];
+    }
+
+
+    /**
+     * Builds a storage holding a float copy of the given values.
+     * @param values Values of the cells in order.
+     */
+    public FloatFactorStorage(double[] values){
+        this.values = new float[values.length];
+        for(int i = 0; i < values.length; i++){
+            this.values[i] = (float) values[i];
+        }
+    }
+
+
+    @Override
+    public long size() {
+        return values.length;
+    }
+
+
+    @Override
+    public double get(long index) {
+        return values[(int) index];
+    }
+
+
+    @Override
+    public void set(long index, double value) {
+        values[(int) index] = (float) value;
+    }
+
+
+    /**
+     * Heap storage is released by the garbage collector, therefore there is nothing to close.
+     */
+    @Override
+    public void close() {
+    }
+
+
+    @Override
+    public long getHeapBytes() {
+        return HeapFactorStorage.ARRAY_HEADER_BYTES + (long) values.length * Float.BYTES;
+    }
+}
@@ -0,0 +1,319 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * GibbsSampler answers queries approximately by Markov chain Monte Carlo, which keeps working when the evidence is
+ * unlikely and most weighted samples would have a negligible weight.
+ * Every step of a chain draws a single variable from its distribution given its Markov blanket: the variable's own
+ * CPT row times the CPT cells of its children, all of them read by outcome indexes from plain arrays.
+ * The blankets are built once, when the sampler is built, over the entire network. A query only samples the
+ * query variable and the ancestors of the query and the evidence, since the rest of the network can't affect it.
+ * Several independent chains run in parallel on a fork/join pool, each with its own random stream split from a seeded
+ * root, so the estimate depends only on the seed. The chains are burned in, thinned, and compared by their R-hat.
+ * Every sweep of a chain checks the limits of the query's context first.
+ */
+public class GibbsSampler {
+    private static final int BATCHES = 20; //Batches of each chain's samples, for the batch means standard error.
+
+    private final BayesianNetwork network; //Network the queries are asked on.
+
+    private final SamplingModel model; //The entire network, with its Markov blankets.
+
+    private final ForkJoinPool pool; //Pool which runs the chains.
+
+    private final int chains; //Number of independent chains.
+
+    private final int burnIn; //Sweeps of each chain before its samples are kept.
+
+    private final int samplesPerChain; //Samples kept from each chain.
+
+    private final int thinning; //Sweeps between two kept samples.
+
+    private final long seed; //Seed of the root random stream.
+
+
+    /**
+     * Builds a sampler which runs on the network's fork/join pool, whose settings are given by the system properties
+     * bn.gibbs.chains(default 4), bn.gibbs.burnIn(default 1000), bn.gibbs.samples(default 25000 per chain),
+     * bn.gibbs.thinning(default 2) and bn.gibbs.seed(default 1).
+     * @param network Network the queries are asked on.
+     */
+    public GibbsSampler(BayesianNetwork network){
+        this(network, network.getForkJoinPool(), Integer.getInteger("bn.gibbs.chains", 4), Integer.getInteger("bn.gibbs.burnIn", 1000),
+                Integer.getInteger("bn.gibbs.samples", 25000), Integer.getInteger("bn.gibbs.thinning", 2), Long.getLong("bn.gibbs.seed", 1));
+    }
+
+
+    /**
+     * Builds a sampler with the given settings.
+     * @param network Network the queries are asked on.
+     * @param pool Pool which runs the chains.
+     * @param chains Number of independent chains, at least 2 for R-hat.
+     * @param burnIn Sweeps of each chain before its samples are kept.
+     * @param samplesPerChain Samples kept from each chain.
+     * @param thinning Sweeps between two kept samples, at least 1.
+     * @param seed Seed of the root random stream.
+     */
+    public GibbsSampler(BayesianNetwork network, ForkJoinPool pool, int chains, int burnIn, int samplesPerChain, int thinning, long seed){
+        String[] names = new String[network.getNodeCount()];
+        for(int i = 0; i < names.length; i++){
+            names[i] = network.getNodeByIndex(i).getVariableNodeName();
+        }
+        this.network = network;
+        this.model = new SamplingModel(network, names);
+        this.pool = pool;
+        this.chains = chains;
+        this.burnIn = burnIn;
+        this.samplesPerChain = samplesPerChain;
+        this.thinning = Math.max(thinning, 1);
+        this.seed = seed;
+    }
+
+
+    /**
+     * Answers a query approximately, with the estimate as the probability.
+     * The counts of the answer are the operations of calculating the conditional distributions.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query approximately, within the limits of a context.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, checked before every sweep of every chain.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        //If query can be obtainable directly, same as func2() and func3().
+        if(network.IsProbabilityValueDirect(names))
+            return new QueryAnswer(network.getDirectProbability(names, truthValsArr), 0, 0);
+        return sample(names, truthValsArr, context).toQueryAnswer();
+    }
+
+
+    /**
+     * Estimates the posterior of a query by Gibbs sampling.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, checked before the batch means of the chains are allocated and before every sweep of every chain.
+     * @return The estimate with its standard error, effective sample size and R-hat.
+     */
+    public SamplingResult sample(String[] names, String[] truthValsArr, QueryContext context){
+        int varCount = model.getVarCount();
+        int[] evidence = new int[varCount];
+        Arrays.fill(evidence, -1);
+        for(int i = 1; i < names.length; i++){
+            int var = model.getVarId(names[i]);
+            evidence[var] = model.getOutcomeId(var, truthValsArr[i]);
+        }
+        int queryVar = model.getVarId(names[0]);
+        int queryOutcome = model.getOutcomeId(queryVar, truthValsArr[0]);
+        int outcomeCount = model.getOutcomeCount(queryVar);
+
+        //Only the ancestors of the query and the evidence are relevant.
+        boolean[] relevant = new boolean[varCount];
+        Deque<Integer> traversalQueue = new ArrayDeque<>();
+        for(String name : names){
+            traversalQueue.add(model.getVarId(name));
+        }
+        while(!traversalQueue.isEmpty()){
+            int var = traversalQueue.remove();
+            if(!relevant[var]){
+                relevant[var] = true;
+                for(int parent : model.getParents(var)){
+                    traversalQueue.add(parent);
+                }
+            }
+        }
+
+        //Each chain keeps its outcome counts, the query outcome count of each of its batches and its operation counts.
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[chains];
+        long[][] outcomeCounts = new long[chains][outcomeCount];
+        context.checkCells((long) chains * BATCHES);
+        double[][] batchMeans = new double[chains][BATCHES];
+        long[][] operations = new long[chains][2];
+        for(int chain = 0; chain < chains; chain++){
+            streams[chain] = root.split();
+        }
+        ParallelBlocks.forEachBlock(pool, chains, 1, (fromRow, toRow) -> {
+            int chain = (int) fromRow;
+            runChain(evidence, relevant, queryVar, queryOutcome, streams[chain], outcomeCounts[chain], batchMeans[chain], operations[chain],
+                    context);
+        });
+
+        //Posteriors over all the chains.
+        long samples = (long) chains * samplesPerChain;
+        double[] posteriors = new double[outcomeCount];
+        long additions = 0, multiplications = 0;
+        for(int chain = 0; chain < chains; chain++){
+            for(int outcome = 0; outcome < outcomeCount; outcome++){
+                posteriors[outcome] += (double) outcomeCounts[chain][outcome] / samples;
+            }
+            additions += operations[chain][0];
+            multiplications += operations[chain][1];
+        }
+        double estimate = posteriors[queryOutcome];
+
+        //Batch means standard error, over the batches of all the chains.
+        double batchVariance = 0.0;
+        for(double[] chainBatches : batchMeans){
+            for(double batchMean : chainBatches){
+                batchVariance += (batchMean - estimate) * (batchMean - estimate);
+            }
+        }
+        int batchCount = chains * BATCHES;
+        batchVariance /= Math.max(batchCount - 1, 1);
+        double standardError = Math.sqrt(batchVariance / batchCount);
+        double effectiveSampleSize = standardError == 0.0 ? samples : Math.min(samples, estimate * (1 - estimate) / (standardError * standardError));
+        return new SamplingResult(posteriors, queryOutcome, standardError, effectiveSampleSize, samples,
+                getRHat(outcomeCounts, queryOutcome), additions, multiplications);
+    }
+
+
+    /**
+     * Runs a single chain: initializes it by forward sampling with the evidence set, burns it in, and keeps a sample
+     * of the query variable every thinning sweeps.
+     * @param evidence Outcome index of each evidence variable, -1 for the rest.
+     * @param relevant Whenever each variable is relevant to the query.
+     * @param queryVar Index of the query variable.
+     * @param queryOutcome Index of the requested outcome.
+     * @param random Random stream of the chain.
+     * @param outcomeCounts Filled with the number of kept samples of each query outcome.
+     * @param batchMeans Filled with the share of the requested outcome in each batch of kept samples.
+     * @param operations Filled with the number of additions and multiplications, respectively.
+     * @param context Limits of the query, checked before every sweep.
+     */
+    private void runChain(int[] evidence, boolean[] relevant, int queryVar, int queryOutcome, SplittableRandom random,
+                          long[] outcomeCounts, double[] batchMeans, long[] operations, QueryContext context){
+        int varCount = model.getVarCount();
+        int[] state = new int[varCount];
+        for(int var = 0; var < varCount; var++){
+            if(relevant[var])
+                state[var] = evidence[var] != -1 ? evidence[var] : model.drawOutcome(var, model.getRowOffset(var, state), random.nextDouble());
+        }
+
+        //Variables to resample in every sweep, in topological order.
+        int[] sampled = new int[varCount];
+        int sampledCount = 0;
+        for(int var = 0; var < varCount; var++){
+            if(relevant[var] && evidence[var] == -1)
+                sampled[sampledCount++] = var;
+        }
+
+        double[] distribution = new double[maxOutcomeCount()];
+        int batchSize = Math.max(samplesPerChain / BATCHES, 1);
+        for(int sweep = 0, kept = 0; kept < samplesPerChain; sweep++){
+            context.checkpoint();
+            for(int i = 0; i < sampledCount; i++){
+                int var = sampled[i];
+                state[var] = drawFromBlanket(var, state, relevant, distribution, random.nextDouble(), operations);
+            }
+            if(sweep < burnIn || (sweep - burnIn) % thinning != 0)
+                continue;
+            outcomeCounts[state[queryVar]]++;
+            int batch = Math.min(kept / batchSize, BATCHES - 1);
+            if(state[queryVar] == queryOutcome)
+                batchMeans[batch]++;
+            kept++;
+        }
+        for(int batch = 0; batch < BATCHES; batch++){
+            int batchSamples = batch < BATCHES - 1 ? batchSize : samplesPerChain - batchSize * (BATCHES - 1);
+            batchMeans[batch] = batchSamples > 0 ? batchMeans[batch] / batchSamples : outcomeCounts[queryOutcome] / (double) samplesPerChain;
+        }
+    }
+
+
+    /**
+     * Draws a variable from its distribution given its Markov blanket. The distribution of each outcome is the
+     * variable's CPT cell times the CPT cells of its relevant children, with the variable set to the outcome.
+     * @param var Index of the variable.
+     * @param state Current outcome of each variable. The variable's own entry is changed on the way.
+     * @param relevant Whenever each variable is relevant to the query.
+     * @param distribution Scratch array, at least as long as the variable's outcomes.
+     * @param uniform Uniform random number in [0, 1).
+     * @param operations Number of additions and multiplications so far, updated in place.
+     * @return Index of the drawn outcome.
+     */
+    private int drawFromBlanket(int var, int[] state, boolean[] relevant, double[] distribution, double uniform, long[] operations){
+        int outcomeCount = model.getOutcomeCount(var);
+        double[] cpt = model.getCpt(var);
+        int rowOffset = model.getRowOffset(var, state);
+        double total = 0.0;
+        for(int outcome = 0; outcome < outcomeCount; outcome++){
+            state[var] = outcome;
+            double probability = cpt[rowOffset + outcome];
+            for(int child : model.getChildren(var)){
+                if(relevant[child]){
+                    probability *= model.getCpt(child)[model.getRowOffset(child, state) + state[child]];
+                    operations[1]++;
+                }
+            }
+            distribution[outcome] = probability;
+            total += probability;
+        }
+        operations[0] += outcomeCount - 1;
+        if(total == 0.0)
+            return (int) (uniform * outcomeCount); //The blanket rules out every outcome, keep the chain moving.
+
+        double threshold = uniform * total, cumulative = 0.0;
+        for(int outcome = 0; outcome < outcomeCount - 1; outcome++){
+            cumulative += distribution[outcome];
+            if(threshold < cumulative)
+                return outcome;
+        }
+        return outcomeCount - 1;
+    }
+
+
+    /**
+     * Calculates the Gelman-Rubin potential scale reduction of the requested outcome's indicator:
+     * the square root of the pooled variance estimate over the mean variance within the chains.
+     * @param outcomeCounts Number of kept samples of each query outcome, for each chain.
+     * @param queryOutcome Index of the requested outcome.
+     * @return R-hat, 1 when all the chains agree. NaN with less than 2 chains.
+     */
+    private double getRHat(long[][] outcomeCounts, int queryOutcome){
+        if(chains < 2)
+            return Double.NaN;
+        double n = samplesPerChain;
+        double meanOfMeans = 0.0, within = 0.0;
+        double[] means = new double[chains];
+        for(int chain = 0; chain < chains; chain++){
+            means[chain] = outcomeCounts[chain][queryOutcome] / n;
+            meanOfMeans += means[chain] / chains;
+            within += means[chain] * (1 - means[chain]) * n / (n - 1) / chains; //Variance of an indicator.
+        }
+        double between = 0.0;
+        for(double mean : means){
+            between += (mean - meanOfMeans) * (mean - meanOfMeans) * n / (chains - 1);
+        }
+        if(within == 0.0)
+            return between == 0.0 ? 1.0 : Double.POSITIVE_INFINITY;
+        double pooled = (n - 1) / n * within + between / n;
+        return Math.sqrt(pooled / within);
+    }
+
+
+    /**
+     * Returns the largest number of outcomes of a variable.
+     * @return Largest number of outcomes.
+     */
+    private int maxOutcomeCount(){
+        int max = 0;
+        for(int var = 0; var < model.getVarCount(); var++){
+            max = Math.max(max, model.getOutcomeCount(var));
+        }
+        return max;
+    }
+}
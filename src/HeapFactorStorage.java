@@ -0,0 +1,96 @@
+/**
+ * Factor storage which keeps its values in a regular double array on the heap.
+ * This is the storage of the network's own factors, which wrap the probabilities array of their variable nodes
+ * without copying them, and of every intermediate factor which is small enough to stay on the heap.
+ */
+public class HeapFactorStorage implements FactorStorage {
+    static final long ARRAY_HEADER_BYTES = 16; //Rough size of the header of an array.
+
+    private final double[] values; //Values of the cells in order. Arena buffers may be longer than the storage.
+
+    private final int cells; //Number of cells in the storage.
+
+    private FactorArena arena; //Arena the buffer returns to once the storage is closed. null when there isn't one.
+
+
+    /**
+     * Builds a storage of the given size, with all cells set to 0.
+     * @param cells Number of cells.
+     */
+    public HeapFactorStorage(long cells){
+        if(cells > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Factor of " + cells + " cells is too large for a heap storage");
+        this.values = new double[(int) cells];
+        this.cells = (int) cells;
+    }
+
+
+    /**
+     * Builds a storage over an existing array. The array is not copied, changes in the storage are changes in the array.
+     * @param values Values of the cells in order.
+     */
+    public HeapFactorStorage(double[] values){
+        this.values = values;
+        this.cells = values.length;
+    }
+
+
+    /**
+     * Builds a storage over the beginning of an arena buffer.
+     * @param buffer Buffer of the arena, at least as long as the number of cells.
+     * @param cells Number of cells.
+     * @param arena Arena the buffer returns to once the storage is closed.
+     */
+    HeapFactorStorage(double[] buffer, int cells, FactorArena arena){
+        this.values = buffer;
+        this.cells = cells;
+        this.arena = arena;
+    }
+
+
+    @Override
+    public long size() {
+        return cells;
+    }
+
+
+    @Override
+    public double get(long index) {
+        return values[(int) index];
+    }
+
+
+    @Override
+    public void set(long index, double value) {
+        values[(int) index] = value;
+    }
+
+
+    /**
+     * Heap storage is released by the garbage collector, therefore there is nothing to close,
+     * except for returning an arena buffer to its arena.
+     */
+    @Override
+    public synchronized void close() {
+        if(arena != null){
+            arena.release(values);
+            arena = null;
+        }
+    }
+
+
+    @Override
+    public long getHeapBytes() {
+        return ARRAY_HEADER_BYTES + (long) values.length * Double.BYTES;
+    }
+
+
+    /**
+     * Returns the array the storage keeps its values in. An arena buffer may be longer than the storage,
+     * only its first size() cells belong to the storage.
+     * @return The values array(not a copy).
+     */
+    public double[] getValues(){
+        return values;
+    }
+}
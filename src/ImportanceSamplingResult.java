@@ -0,0 +1,42 @@
+/**
+ * ImportanceSamplingResult is the result of an adaptive importance sampler. In addition to the estimate, it holds
+ * the variance reduction against plain likelihood weighting, meaning the variance of likelihood weighting's estimate
+ * over the variance of this estimate, with the same number of samples.
+ */
+public class ImportanceSamplingResult extends SamplingResult {
+    private final double varianceReduction; //Variance of likelihood weighting over the variance of this estimate.
+
+
+    /**
+     * Builds the result of an adaptive importance sampler.
+     * @param result Estimate drawn from the learned proposal.
+     * @param varianceReduction Variance of likelihood weighting over the variance of the estimate, NaN when not compared.
+     */
+    public ImportanceSamplingResult(SamplingResult result, double varianceReduction){
+        super(result);
+        this.varianceReduction = varianceReduction;
+    }
+
+
+    /**
+     * Formats the estimate, adding the variance reduction when there is one.
+     * @return A string of the result.
+     */
+    @Override
+    public String toString() {
+        return super.toString() + (Double.isNaN(varianceReduction) ? "" : String.format(" x%.1f variance reduction", varianceReduction));
+    }
+
+
+    /*
+     * Getters of ImportanceSamplingResult class
+     * */
+
+    /**
+     * Returns the variance reduction against plain likelihood weighting.
+     * @return Variance of likelihood weighting over the variance of this estimate, NaN when it wasn't compared.
+     */
+    public double getVarianceReduction(){
+        return varianceReduction;
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * LatencyHistogram records latencies in nanoseconds into log-linear buckets: every power of 2 is split into
+ * SUB_BUCKETS equal buckets, so a percentile is reported within about 3% of the recorded latency, from nanoseconds up
+ * to hours, in a fixed array. Recording only increments counters, so many threads may record at once.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; //Buckets of every power of 2.
+
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS); //Counts of the buckets.
+
+    private final LongAdder count = new LongAdder(), totalNanos = new LongAdder(); //Recorded latencies, and their sum.
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0); //Largest recorded latency.
+
+
+    /**
+     * Records a single latency.
+     * @param nanos Latency in nanoseconds. Negative latencies are recorded as 0.
+     */
+    public void record(long nanos){
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(getBucket(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+
+    /**
+     * Returns the bucket of a latency. Latencies below SUB_BUCKETS have a bucket each, and every power of 2 above
+     * them is split into SUB_BUCKETS buckets by the bits after its highest bit.
+     * @param nanos Latency in nanoseconds.
+     * @return Index of the bucket.
+     */
+    private static int getBucket(long nanos){
+        if(nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int shift = 64 - Long.numberOfLeadingZeros(nanos) - 1 - SUB_BUCKET_BITS; //Bits below the sub bucket bits.
+        return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) - SUB_BUCKETS);
+    }
+
+
+    /**
+     * Returns the largest latency of a bucket.
+     * @param bucket Index of the bucket.
+     * @return Latency in nanoseconds.
+     */
+    private static long getBucketUpperBound(int bucket){
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+
+    /**
+     * Returns a percentile of the recorded latencies, as the upper bound of its bucket, at most the largest latency.
+     * @param percentile Percentile, between 0 and 100.
+     * @return Latency in nanoseconds, 0 when nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile){
+        long total = count.sum();
+        if(total == 0)
+            return 0;
+        long rank = Math.max((long) Math.ceil(total * percentile / 100.0), 1);
+        long seen = 0;
+        for(int bucket = 0; bucket < buckets.length(); bucket++){
+            seen += buckets.get(bucket);
+            if(seen >= rank)
+                return Math.min(getBucketUpperBound(bucket), maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+
+    /**
+     * Formats the count, mean, p50, p99, p999 and max of the latencies, in milliseconds.
+     * @return A line of the histogram.
+     */
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms",
+                getCount(), getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(99) / 1e6,
+                getPercentileNanos(99.9) / 1e6, getMaxNanos() / 1e6);
+    }
+
+
+    /*
+     * Getters of LatencyHistogram class
+     * */
+
+    /**
+     * Returns the number of recorded latencies.
+     * @return Number of latencies.
+     */
+    public long getCount(){
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded latencies.
+     * @return Mean in nanoseconds, 0 when nothing was recorded.
+     */
+    public double getMeanNanos(){
+        long total = count.sum();
+        return total == 0 ? 0.0 : (double) totalNanos.sum() / total;
+    }
+
+    /**
+     * Returns the largest recorded latency.
+     * @return Latency in nanoseconds.
+     */
+    public long getMaxNanos(){
+        return maxNanos.get();
+    }
+}
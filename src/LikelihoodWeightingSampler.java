@@ -0,0 +1,218 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * LikelihoodWeightingSampler answers queries approximately, for networks where exact elimination is too slow.
+ * Every sample draws the variables in topological order from their CPTs, except for the evidence variables which are
+ * set to their given values, and the sample is weighted by the probability of the evidence given its parents.
+ * The posterior of the query is the weighted share of the samples of each outcome.
+ * Samples are drawn in batches of a fixed size, and each batch has its own random stream, split from a seeded root
+ * in the order of the batches. The batches of a round run in parallel on a fork/join pool, and are summed in order,
+ * so the estimate depends only on the seed and not on the number of threads.
+ * Sampling stops after the maximal number of samples, or once the confidence interval of the estimate is narrow enough.
+ * Every batch checks the limits of the query's context before it is drawn.
+ */
+public class LikelihoodWeightingSampler {
+    private static final int BATCH_SAMPLES = 4096; //Samples of a single batch.
+
+    private static final int ROUND_BATCHES = 16; //Batches between checks of the confidence interval.
+
+    private final BayesianNetwork network; //Network the queries are asked on.
+
+    private final ForkJoinPool pool; //Pool which draws the batches.
+
+    private final long maxSamples; //Samples to stop after, whatever the confidence interval is.
+
+    private final double targetWidth; //Width of the confidence interval to stop at.
+
+    private final double zScore; //Number of standard errors on each side of the confidence interval.
+
+    private final long seed; //Seed of the root random stream.
+
+
+    /**
+     * Builds a sampler which draws on the network's fork/join pool, whose limits are given by the system properties
+     * bn.lw.maxSamples(default 1000000), bn.lw.ciWidth(default 0.01), bn.lw.z(default 1.96, a 95% interval)
+     * and bn.lw.seed(default 1).
+     * @param network Network the queries are asked on.
+     */
+    public LikelihoodWeightingSampler(BayesianNetwork network){
+        this(network, network.getForkJoinPool(), Long.getLong("bn.lw.maxSamples", 1000000),
+                Double.parseDouble(System.getProperty("bn.lw.ciWidth", "0.01")),
+                Double.parseDouble(System.getProperty("bn.lw.z", "1.96")), Long.getLong("bn.lw.seed", 1));
+    }
+
+
+    /**
+     * Builds a sampler with the given limits.
+     * @param network Network the queries are asked on.
+     * @param pool Pool which draws the batches.
+     * @param maxSamples Samples to stop after, whatever the confidence interval is.
+     * @param targetWidth Width of the confidence interval to stop at. 0 always draws maxSamples samples.
+     * @param zScore Number of standard errors on each side of the confidence interval.
+     * @param seed Seed of the root random stream.
+     */
+    public LikelihoodWeightingSampler(BayesianNetwork network, ForkJoinPool pool, long maxSamples, double targetWidth,
+                                      double zScore, long seed){
+        this.network = network;
+        this.pool = pool;
+        this.maxSamples = maxSamples;
+        this.targetWidth = targetWidth;
+        this.zScore = zScore;
+        this.seed = seed;
+    }
+
+
+    /**
+     * Answers a query approximately, with the estimate as the probability.
+     * The counts of the answer are the operations of weighting the samples.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query approximately, within the limits of a context.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, checked before every batch of samples.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        //If query can be obtainable directly, same as func2() and func3().
+        if(network.IsProbabilityValueDirect(names))
+            return new QueryAnswer(network.getDirectProbability(names, truthValsArr), 0, 0);
+        return sample(names, truthValsArr, context).toQueryAnswer();
+    }
+
+
+    /**
+     * Estimates the posterior of a query by likelihood weighting.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, checked before every batch of samples.
+     * @return The estimate with its standard error and effective sample size.
+     */
+    public SamplingResult sample(String[] names, String[] truthValsArr, QueryContext context){
+        SamplingModel model = new SamplingModel(network, names);
+        int[] evidence = new int[model.getVarCount()];
+        Arrays.fill(evidence, -1);
+        for(int i = 1; i < names.length; i++){
+            int var = model.getVarId(names[i]);
+            evidence[var] = model.getOutcomeId(var, truthValsArr[i]);
+        }
+        int queryVar = model.getVarId(names[0]);
+        return estimate(model, evidence, queryVar, model.getOutcomeId(queryVar, truthValsArr[0]), null, context);
+    }
+
+
+    /**
+     * Estimates the posterior of a query by importance sampling: every variable which isn't evidence is drawn from
+     * a proposal table, and the weight is multiplied by its CPT cell over its proposal cell.
+     * Without proposals, every variable is drawn from its own CPT, which is likelihood weighting.
+     * @param model Model of the query.
+     * @param evidence Outcome index of each evidence variable, -1 for the rest.
+     * @param queryVar Index of the query variable.
+     * @param queryOutcome Index of the requested outcome.
+     * @param proposals CPT shaped proposal of each variable, or null to draw from the CPTs.
+     * @param context Limits of the query, checked before every batch of samples and before the totals of each round
+     *                of batches are allocated.
+     * @return The estimate with its standard error and effective sample size.
+     */
+    SamplingResult estimate(SamplingModel model, int[] evidence, int queryVar, int queryOutcome, double[][] proposals,
+                            QueryContext context){
+        int outcomeCount = model.getOutcomeCount(queryVar);
+
+        //Sum of weights, sum of squared weights, and both of them for the samples of each query outcome.
+        double[] totals = new double[2 + 2 * outcomeCount];
+        SplittableRandom root = new SplittableRandom(seed);
+        long samples = 0;
+        double[] posteriors = new double[outcomeCount];
+        double standardError, effectiveSampleSize;
+        while(true){
+            long rows = Math.min((long) ROUND_BATCHES * BATCH_SAMPLES, maxSamples - samples);
+            int batches = (int) ((rows + BATCH_SAMPLES - 1) / BATCH_SAMPLES);
+            SplittableRandom[] streams = new SplittableRandom[batches];
+            context.checkCells((long) batches * totals.length);
+            double[][] batchTotals = new double[batches][totals.length];
+            for(int batch = 0; batch < batches; batch++){
+                streams[batch] = root.split();
+            }
+            ParallelBlocks.forEachBlock(pool, rows, BATCH_SAMPLES, (fromRow, toRow) -> {
+                int batch = (int) (fromRow / BATCH_SAMPLES);
+                context.checkpoint();
+                drawBatch(model, evidence, queryVar, proposals, streams[batch], (int) (toRow - fromRow), batchTotals[batch]);
+            });
+            for(double[] batchTotal : batchTotals){
+                for(int i = 0; i < totals.length; i++){
+                    totals[i] += batchTotal[i];
+                }
+            }
+            samples += rows;
+
+            for(int outcome = 0; outcome < outcomeCount; outcome++){
+                posteriors[outcome] = totals[2 + outcome] / totals[0];
+            }
+            double estimate = posteriors[queryOutcome];
+
+            //Delta method variance of a ratio estimator: sum of w^2 * (indicator - estimate)^2, over the squared sum of weights.
+            double squaredDeviations = (1 - 2 * estimate) * totals[2 + outcomeCount + queryOutcome] + estimate * estimate * totals[1];
+            standardError = Math.sqrt(Math.max(squaredDeviations, 0.0)) / totals[0];
+            effectiveSampleSize = totals[1] == 0.0 ? 0.0 : totals[0] * totals[0] / totals[1];
+            if(samples >= maxSamples || (totals[0] > 0.0 && 2 * zScore * standardError <= targetWidth))
+                break;
+        }
+
+        //A multiplication for every evidence variable, and a division and a multiplication for every drawn proposal.
+        int multiplied = 0;
+        for(int var = 0; var < evidence.length; var++){
+            multiplied += evidence[var] != -1 ? 1 : proposals != null ? 2 : 0;
+        }
+        return new SamplingResult(posteriors, queryOutcome, standardError, effectiveSampleSize, samples,
+                samples, samples * multiplied);
+    }
+
+
+    /**
+     * Draws a batch of weighted samples, and sums their weights.
+     * @param model Model of the query.
+     * @param evidence Outcome index of each evidence variable, -1 for the rest.
+     * @param queryVar Index of the query variable.
+     * @param proposals CPT shaped proposal of each variable, or null to draw from the CPTs.
+     * @param random Random stream of the batch.
+     * @param count Number of samples to draw.
+     * @param totals Sums of the batch: weights, squared weights, and both of them for each query outcome.
+     */
+    private static void drawBatch(SamplingModel model, int[] evidence, int queryVar, double[][] proposals, SplittableRandom random,
+                                  int count, double[] totals){
+        int varCount = model.getVarCount(), outcomeCount = model.getOutcomeCount(queryVar);
+        int[] sample = new int[varCount];
+        for(int i = 0; i < count; i++){
+            double weight = 1.0;
+            for(int var = 0; var < varCount; var++){
+                int rowOffset = model.getRowOffset(var, sample);
+                if(evidence[var] != -1){
+                    sample[var] = evidence[var];
+                    weight *= model.getCpt(var)[rowOffset + evidence[var]];
+                }
+                else if(proposals == null)
+                    sample[var] = model.drawOutcome(var, rowOffset, random.nextDouble());
+                else {
+                    sample[var] = model.drawOutcome(var, proposals[var], rowOffset, random.nextDouble());
+                    weight *= model.getCpt(var)[rowOffset + sample[var]] / proposals[var][rowOffset + sample[var]];
+                }
+            }
+            double squaredWeight = weight * weight;
+            totals[0] += weight;
+            totals[1] += squaredWeight;
+            totals[2 + sample[queryVar]] += weight;
+            totals[2 + outcomeCount + sample[queryVar]] += squaredWeight;
+        }
+    }
+}
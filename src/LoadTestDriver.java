@@ -0,0 +1,184 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * LoadTestDriver replays a query file through the engines under load, and reports the throughput and the latency
+ * histogram of every engine. The query file is in the input format of Ex1, such as the files of NetworkGenerator.
+ * The queries are replayed in order, over and over, by a fixed number of threads. With an arrival rate, the queries
+ * arrive on a fixed schedule(open loop), and every latency is measured from the time its query should have arrived,
+ * so a slow query delays the queries behind it in the measurement too. Without a rate, every thread sends its next
+ * query once the last one is answered(closed loop). The first queries warm the JIT up, and aren't measured.
+ * Usage: LoadTestDriver queries.txt, with the parameters given by the system properties bn.load.threads(default the
+ * number of processors), bn.load.rate(queries per second, default 0 for a closed loop), bn.load.queries(default 10000),
+ * bn.load.warmup(default 1000) and bn.load.algorithm(default -1, the number at the end of each line).
+ */
+public class LoadTestDriver {
+    private final BayesianNetwork network; //Network of the queries.
+
+    private final List<String[][]> queries = new ArrayList<>(); //Names and values of each query.
+
+    private final List<Integer> algorithms = new ArrayList<>(); //Engine of each query.
+
+    private final Map<Integer, LatencyHistogram> histograms = new TreeMap<>(); //Latencies of each engine.
+
+    private final LatencyHistogram total = new LatencyHistogram(); //Latencies of all the engines.
+
+    private final LongAdder failures = new LongAdder(); //Queries which threw, such as aborted or invalid ones.
+
+
+    /**
+     * Reads a query file and its network.
+     * @param queryFileName Path of the query file.
+     * @param algorithm Engine of every query, or -1 for the number at the end of each line.
+     * @throws RuntimeException Whenever the file can't be read.
+     * @throws IllegalArgumentException Whenever the file has no queries.
+     */
+    public LoadTestDriver(String queryFileName, int algorithm){
+        try (BufferedReader reader = new BufferedReader(new FileReader(queryFileName))) {
+            network = new BayesianNetwork(reader.readLine());
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.isBlank())
+                    continue;
+                int commaIndex = line.lastIndexOf(',');
+                String query = line.substring(0, commaIndex);
+                queries.add(new String[][]{Ex1.getQueryNames(query), Ex1.getQueryIndex(query)});
+                algorithms.add(algorithm != -1 ? algorithm : Integer.parseInt(line.substring(commaIndex + 1).trim()));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if(queries.isEmpty())
+            throw new IllegalArgumentException("No queries in " + queryFileName);
+        for(int engine : algorithms){
+            histograms.putIfAbsent(engine, new LatencyHistogram());
+        }
+    }
+
+
+    /**
+     * Runs the load test.
+     * @param threads Number of threads answering queries.
+     * @param ratePerSecond Arrival rate of the queries, or 0 for a closed loop.
+     * @param count Number of measured queries.
+     * @param warmup Number of queries answered before the measurement.
+     * @return Report of the throughput and the latencies.
+     */
+    public String run(int threads, double ratePerSecond, long count, long warmup){
+        AtomicLong next = new AtomicLong(); //Index of the next query to answer, warmup included.
+        long intervalNanos = ratePerSecond > 0 ? (long) (1e9 / ratePerSecond) : 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicLong measureStart = new AtomicLong(); //Time the first measured query started, or arrived.
+        long start = System.nanoTime();
+
+        if(intervalNanos == 0){
+            for(int thread = 0; thread < threads; thread++){
+                pool.execute(() -> {
+                    long index;
+                    while((index = next.getAndIncrement()) < warmup + count){
+                        long queryStart = System.nanoTime();
+                        if(index == warmup)
+                            measureStart.set(queryStart);
+                        answer(index, queryStart, index >= warmup);
+                    }
+                });
+            }
+        }
+        else{
+            //The schedule is kept by the calling thread, which hands each query to the pool at its arrival time.
+            for(long index = 0; index < warmup + count; index++){
+                long arrival = start + index * intervalNanos;
+                long wait = arrival - System.nanoTime();
+                if(wait > 0)
+                    LockSupport.parkNanos(wait);
+                if(index == warmup)
+                    measureStart.set(arrival);
+                long queryIndex = index;
+                pool.execute(() -> answer(queryIndex, arrival, queryIndex >= warmup));
+            }
+        }
+        pool.shutdown();
+        try {
+            while(!pool.awaitTermination(1, TimeUnit.MINUTES)){
+                System.out.println("Waiting for " + (warmup + count) + " queries to finish");
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        double seconds = (System.nanoTime() - measureStart.get()) / 1e9;
+        return report(threads, ratePerSecond, seconds, count);
+    }
+
+
+    /**
+     * Answers a single query of the file, and records its latency.
+     * @param index Index of the query in the replay. The file is replayed in a loop.
+     * @param arrivalNanos Time the query arrived, by System.nanoTime().
+     * @param measured Whenever the latency is recorded.
+     */
+    private void answer(long index, long arrivalNanos, boolean measured){
+        int query = (int) (index % queries.size());
+        try {
+            network.answer(queries.get(query)[0], queries.get(query)[1], algorithms.get(query));
+        } catch (RuntimeException e) {
+            if(measured)
+                failures.increment();
+            return;
+        }
+        if(measured){
+            long latency = System.nanoTime() - arrivalNanos;
+            histograms.get(algorithms.get(query)).record(latency);
+            total.record(latency);
+        }
+    }
+
+
+    /**
+     * Formats the report of a run.
+     * @param threads Number of threads.
+     * @param ratePerSecond Arrival rate, 0 for a closed loop.
+     * @param seconds Time of the measurement, from the first measured query until the last query was answered.
+     * @param answered Number of measured queries.
+     * @return The report.
+     */
+    private String report(int threads, double ratePerSecond, double seconds, long answered){
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Load test: %d queries, %d threads, %s%n", queries.size(), threads,
+                ratePerSecond > 0 ? String.format("open loop at %.1f queries/s", ratePerSecond) : "closed loop"));
+        builder.append(String.format("  throughput %.1f queries/s, %d failures%n", answered / seconds, failures.sum()));
+        builder.append("  all engines: ").append(total).append('\n');
+        for(Map.Entry<Integer, LatencyHistogram> entry : histograms.entrySet()){
+            builder.append("  engine ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+
+    /**
+     * Runs a load test of a query file, see the class documentation for the parameters.
+     * @param args Path of the query file.
+     */
+    public static void main(String[] args) {
+        if(args.length != 1){
+            System.out.println("Usage: LoadTestDriver queries.txt");
+            return;
+        }
+        LoadTestDriver driver = new LoadTestDriver(args[0], Integer.getInteger("bn.load.algorithm", -1));
+        System.out.print(driver.run(Integer.getInteger("bn.load.threads", Runtime.getRuntime().availableProcessors()),
+                Double.parseDouble(System.getProperty("bn.load.rate", "0")), Long.getLong("bn.load.queries", 10000),
+                Long.getLong("bn.load.warmup", 1000)));
+    }
+}
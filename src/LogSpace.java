@@ -0,0 +1,158 @@
+/**
+ * LogSpace holds the arithmetic of factors whose values are kept as natural logarithms of probabilities.
+ * Products of many small probabilities underflow to 0 in double precision, while the sums of their logarithms don't.
+ * Multiplication becomes addition, and addition becomes the log-sum-exp operation, which is calculated relative to
+ * the largest term, so the exponents never overflow or underflow for the terms that matter.
+ * The exponents and logarithms of log-sum-exp are exact(Math.exp, Math.log1p) by default. With the bn.logSpace.fast
+ * system property they are approximated by interpolated tables instead, which keeps the hot loops close to the speed
+ * of plain probabilities. Every approximated sum is within a relative error of APPROXIMATION_ERROR of the exact sum.
+ */
+public final class LogSpace {
+    //Terms smaller than the largest term by more than this(in log space) don't change a double sum, since exp(-37) < 2^-53.
+    private static final double NEGLIGIBLE_DIFFERENCE = 37;
+
+    //Whenever log-sum-exp uses the approximated exponents and logarithms.
+    static final boolean FAST = Boolean.parseBoolean(System.getProperty("bn.logSpace.fast", "false"));
+
+    //Bound of the relative error of an approximated sum, which is the absolute error of its logarithm.
+    public static final double APPROXIMATION_ERROR = 2e-6;
+
+    //Steps of the table of log(1 + exp(d)) in a unit of d. Linear interpolation errs by at most 1 / (32 * steps^2).
+    private static final int SOFTPLUS_STEPS = 128;
+
+    //log(1 + exp(d)) for d from -NEGLIGIBLE_DIFFERENCE to 0, in steps of 1 / SOFTPLUS_STEPS.
+    private static final double[] SOFTPLUS = new double[(int) NEGLIGIBLE_DIFFERENCE * SOFTPLUS_STEPS + 2];
+
+    //Steps of the table of 2^f for f in [0, 1). Linear interpolation errs by a relative 1e-6 at most.
+    private static final int EXP2_STEPS = 256;
+
+    private static final double[] EXP2 = new double[EXP2_STEPS + 1]; //2^f for f from 0 to 1, in steps of 1 / EXP2_STEPS.
+
+    private static final double LOG2_E = 1.4426950408889634; //log2(e), converts natural exponents to binary ones.
+
+    static {
+        for(int i = 0; i < SOFTPLUS.length; i++){
+            SOFTPLUS[i] = Math.log1p(Math.exp(-NEGLIGIBLE_DIFFERENCE + (double) i / SOFTPLUS_STEPS));
+        }
+        for(int i = 0; i <= EXP2_STEPS; i++){
+            EXP2[i] = Math.pow(2, (double) i / EXP2_STEPS);
+        }
+    }
+
+    private LogSpace(){
+    }
+
+
+    /**
+     * Returns the log space value of a probability. The log of 0 is negative infinity, which acts as the log space 0.
+     * @param probability Probability value.
+     * @return Natural logarithm of the probability.
+     */
+    public static double toLog(double probability){
+        return Math.log(probability);
+    }
+
+
+    /**
+     * Returns log(exp(a) + exp(b)), meaning the log space addition of two values.
+     * Whenever one of the terms is negligible, the other is returned without calculating any exponent.
+     * @param a First log space value.
+     * @param b Second log space value.
+     * @return Log space sum of both values.
+     */
+    public static double add(double a, double b){
+        double max = Math.max(a, b);
+        double difference = Math.min(a, b) - max;
+        if(difference < -NEGLIGIBLE_DIFFERENCE || Double.isNaN(difference)) //NaN only when both are negative infinity.
+            return max;
+        return max + (FAST ? fastSoftplus(difference) : Math.log1p(Math.exp(difference)));
+    }
+
+
+    /**
+     * Returns the log space sum of cells of a storage, given by a first cell and a stride between consecutive cells.
+     * The largest term is found first, and the rest of the terms are summed relative to it, skipping negligible terms.
+     * @param values Storage of log space values.
+     * @param firstCell Cell of the first term.
+     * @param stride Distance between the cells of consecutive terms.
+     * @param terms Number of terms.
+     * @return Log space sum of the terms.
+     */
+    public static double sum(FactorStorage values, long firstCell, long stride, int terms){
+        if(terms == 2)
+            return add(values.get(firstCell), values.get(firstCell + stride)); //The common case of binary variables.
+
+        double max = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < terms; i++){
+            max = Math.max(max, values.get(firstCell + i * stride));
+        }
+        if(max == Double.NEGATIVE_INFINITY)
+            return max;
+
+        double sum = 0.0;
+        for(int i = 0; i < terms; i++){
+            double difference = values.get(firstCell + i * stride) - max;
+            if(difference >= -NEGLIGIBLE_DIFFERENCE)
+                sum += FAST ? fastExp(difference) : Math.exp(difference);
+        }
+        return max + Math.log(sum); //The sum is at least 1, a single logarithm per sum.
+    }
+
+
+    /**
+     * Returns the log space sum of the first terms of an array, calculated the same way as the sum of storage cells.
+     * @param terms Log space values.
+     * @param count Number of terms to sum.
+     * @return Log space sum of the terms.
+     */
+    public static double sum(double[] terms, int count){
+        if(count == 2)
+            return add(terms[0], terms[1]);
+
+        double max = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < count; i++){
+            max = Math.max(max, terms[i]);
+        }
+        if(max == Double.NEGATIVE_INFINITY)
+            return max;
+
+        double sum = 0.0;
+        for(int i = 0; i < count; i++){
+            double difference = terms[i] - max;
+            if(difference >= -NEGLIGIBLE_DIFFERENCE)
+                sum += FAST ? fastExp(difference) : Math.exp(difference);
+        }
+        return max + Math.log(sum);
+    }
+
+
+    /**
+     * Approximates log(1 + exp(d)) by linear interpolation of a table. The second derivative of the function is at most 1/4,
+     * therefore the absolute error is at most 1 / (32 * SOFTPLUS_STEPS^2), below 2e-6.
+     * @param difference Difference d between the smaller and the larger term, between -NEGLIGIBLE_DIFFERENCE and 0.
+     * @return Approximation of log(1 + exp(d)).
+     */
+    static double fastSoftplus(double difference){
+        double position = (difference + NEGLIGIBLE_DIFFERENCE) * SOFTPLUS_STEPS;
+        int index = (int) position;
+        double fraction = position - index;
+        return SOFTPLUS[index] + fraction * (SOFTPLUS[index + 1] - SOFTPLUS[index]);
+    }
+
+
+    /**
+     * Approximates exp(d) for d at most 0, as 2^i * 2^f, where i is the integer part of the binary exponent and 2^f is
+     * interpolated from a table. The relative error is at most about ln(2)^2 / (8 * EXP2_STEPS^2), below 1e-6.
+     * @param difference Exponent d, between -NEGLIGIBLE_DIFFERENCE and 0.
+     * @return Approximation of exp(d).
+     */
+    static double fastExp(double difference){
+        double exponent = difference * LOG2_E;
+        int whole = (int) Math.floor(exponent);
+        double position = (exponent - whole) * EXP2_STEPS;
+        int index = (int) position;
+        double fraction = position - index;
+        double power = EXP2[index] + fraction * (EXP2[index + 1] - EXP2[index]);
+        return power * Double.longBitsToDouble((long) (whole + 1023) << 52); //2^whole, a normal double for d >= -37.
+    }
+}
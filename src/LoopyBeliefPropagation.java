@@ -0,0 +1,585 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * LoopyBeliefPropagation answers queries approximately on networks whose treewidth is far beyond elimination.
+ * The factor graph has a node for every variable and for every factor of the network, and an edge between a factor
+ * and each of its variables. Messages are passed along the edges in both directions until they stop changing,
+ * and the belief of a variable is the product of the messages it receives, with the evidence variables clamped.
+ * On networks without undirected cycles the beliefs are exact, otherwise they are an approximation.
+ * The graph is built once, and all the messages are kept in two flat arrays, one for each direction, where each edge
+ * has a slice of the size of its variable's outcomes.
+ * Messages are scheduled either synchronously, where every iteration updates all the messages in parallel on a
+ * fork/join pool, or by residuals, where the message which would change the most is always updated first.
+ * Updates may be damped, by keeping part of the previous message.
+ * Every iteration checks the limits of the query's context first.
+ */
+public class LoopyBeliefPropagation {
+    /**
+     * Order the messages are updated in.
+     */
+    public enum Schedule {
+        SYNCHRONOUS, //Every iteration updates all the messages from the messages of the previous iteration.
+        RESIDUAL //The message with the largest pending change is updated first, with a priority queue.
+    }
+
+    private static final int BLOCK_NODES = 64; //Variables or factors of a single parallel block.
+
+    private final BayesianNetwork network; //Network the queries are asked on.
+
+    private final ForkJoinPool pool; //Pool which updates the messages of synchronous iterations.
+
+    private final Schedule schedule; //Order the messages are updated in.
+
+    private final double damping; //Share of the previous message kept in every update, 0 for no damping.
+
+    private final double tolerance; //Largest residual of converged messages.
+
+    private final int maxIterations; //Iterations to stop after, whenever the messages converged or not.
+
+    private final HashMap<String, Integer> varIds = new HashMap<>(); //Index of each variable by its name.
+
+    private final int[] cards; //Number of outcomes of each variable.
+
+    private final int[] varEdgeStarts, varEdges; //Edges of variable v are varEdges[varEdgeStarts[v]] to varEdges[varEdgeStarts[v + 1] - 1].
+
+    private final int[] factorEdgeStarts; //Edges of factor f are factorEdgeStarts[f] to factorEdgeStarts[f + 1] - 1, by stride.
+
+    private final int[] edgeVars, edgeFactors, edgeStrides; //Variable, factor and stride of the variable in the factor, of each edge.
+
+    private final int[] messageOffsets; //Index of the first cell of each edge's message, in both message arrays.
+
+    private final int messageCells; //Cells of all the messages of a single direction.
+
+    private final int[] tableOffsets; //Index of the first cell of each factor's table.
+
+    private final double[] tables; //Tables of all the factors, factor after factor.
+
+
+    /**
+     * Builds an engine which updates on the network's fork/join pool, whose settings are given by the system properties
+     * bn.bp.schedule(default SYNCHRONOUS), bn.bp.damping(default 0), bn.bp.tolerance(default 1e-8)
+     * and bn.bp.maxIterations(default 200).
+     * @param network Network the queries are asked on.
+     */
+    public LoopyBeliefPropagation(BayesianNetwork network){
+        this(network, network.getForkJoinPool(), Schedule.valueOf(System.getProperty("bn.bp.schedule", "SYNCHRONOUS").toUpperCase()),
+                Double.parseDouble(System.getProperty("bn.bp.damping", "0")), Double.parseDouble(System.getProperty("bn.bp.tolerance", "1e-8")),
+                Integer.getInteger("bn.bp.maxIterations", 200));
+    }
+
+
+    /**
+     * Builds an engine with the given settings, and the factor graph of the network.
+     * @param network Network the queries are asked on.
+     * @param pool Pool which updates the messages of synchronous iterations.
+     * @param schedule Order the messages are updated in.
+     * @param damping Share of the previous message kept in every update, in [0, 1).
+     * @param tolerance Largest residual of converged messages.
+     * @param maxIterations Iterations to stop after. A residual iteration is as many updates as there are edges.
+     */
+    public LoopyBeliefPropagation(BayesianNetwork network, ForkJoinPool pool, Schedule schedule, double damping,
+                                  double tolerance, int maxIterations){
+        this.network = network;
+        this.pool = pool;
+        this.schedule = schedule;
+        this.damping = damping;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+
+        int varCount = network.getNodeCount();
+        cards = new int[varCount];
+        for(int var = 0; var < varCount; var++){
+            VariableNode node = network.getNodeByIndex(var);
+            varIds.put(node.getVariableNodeName(), var);
+            cards[var] = node.getOutcomeCount();
+        }
+
+        //Edges of each factor, sorted by stride, so iterating the table in order is counting in mixed radix.
+        int factorCount = varCount;
+        factorEdgeStarts = new int[factorCount + 1];
+        tableOffsets = new int[factorCount + 1];
+        List<int[]> edges = new ArrayList<>();
+        for(int f = 0; f < factorCount; f++){
+            Factor factor = network.getFactorByIndex(f);
+            Integer[] order = new Integer[factor.getFactorVars().length];
+            for(int i = 0; i < order.length; i++){
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(factor.getStrides()[a], factor.getStrides()[b]));
+            for(int i : order){
+                edges.add(new int[]{varIds.get(factor.getFactorVars()[i]), f, Math.toIntExact(factor.getStrides()[i])});
+            }
+            factorEdgeStarts[f + 1] = edges.size();
+            tableOffsets[f + 1] = Math.addExact(tableOffsets[f], Math.toIntExact(factor.getValues().size()));
+        }
+        tables = new double[tableOffsets[factorCount]];
+        for(int f = 0; f < factorCount; f++){
+            FactorStorage values = network.getFactorByIndex(f).getValues();
+            for(int cell = 0; cell < values.size(); cell++){
+                tables[tableOffsets[f] + cell] = values.get(cell);
+            }
+        }
+
+        edgeVars = new int[edges.size()];
+        edgeFactors = new int[edges.size()];
+        edgeStrides = new int[edges.size()];
+        messageOffsets = new int[edges.size()];
+        int[] varDegrees = new int[varCount];
+        int cells = 0;
+        for(int e = 0; e < edges.size(); e++){
+            edgeVars[e] = edges.get(e)[0];
+            edgeFactors[e] = edges.get(e)[1];
+            edgeStrides[e] = edges.get(e)[2];
+            messageOffsets[e] = cells;
+            cells += cards[edgeVars[e]];
+            varDegrees[edgeVars[e]]++;
+        }
+        messageCells = cells;
+        varEdgeStarts = new int[varCount + 1];
+        for(int var = 0; var < varCount; var++){
+            varEdgeStarts[var + 1] = varEdgeStarts[var] + varDegrees[var];
+        }
+        varEdges = new int[edges.size()];
+        int[] filled = Arrays.copyOf(varEdgeStarts, varCount);
+        for(int e = 0; e < edges.size(); e++){
+            varEdges[filled[edgeVars[e]]++] = e;
+        }
+    }
+
+
+    /**
+     * Answers a query approximately, with the belief as the probability.
+     * The counts of the answer are the operations of all the message updates.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query approximately, within the limits of a context.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, checked before every iteration.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        //If query can be obtainable directly, same as func2() and func3().
+        if(network.IsProbabilityValueDirect(names))
+            return new QueryAnswer(network.getDirectProbability(names, truthValsArr), 0, 0);
+        return propagate(names, truthValsArr, context).toQueryAnswer();
+    }
+
+
+    /**
+     * Passes messages until they converge or the iterations run out, and returns the belief of the query variable.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, checked before the messages are allocated and before every iteration.
+     * @return The belief with the residual of every iteration.
+     * @throws IllegalArgumentException Whenever the network has no such variable or outcome.
+     */
+    public BeliefPropagationResult propagate(String[] names, String[] truthValsArr, QueryContext context){
+        int[] evidence = new int[cards.length];
+        Arrays.fill(evidence, -1);
+        for(int i = 1; i < names.length; i++){
+            int var = getVarId(names[i]);
+            evidence[var] = getOutcomeId(var, names[i], truthValsArr[i]);
+        }
+        int queryVar = getVarId(names[0]);
+        int queryOutcome = getOutcomeId(queryVar, names[0], truthValsArr[0]);
+
+        context.checkCells(messageCells);
+        double[] toFactors = new double[messageCells], toVars = new double[messageCells];
+        for(int e = 0; e < edgeVars.length; e++){
+            Arrays.fill(toVars, messageOffsets[e], messageOffsets[e] + cards[edgeVars[e]], 1.0 / cards[edgeVars[e]]);
+        }
+        long[] operations = new long[2];
+        double[] residuals = schedule == Schedule.SYNCHRONOUS ? propagateSynchronously(evidence, toFactors, toVars, operations, context)
+                : propagateByResiduals(evidence, toFactors, toVars, operations, context);
+
+        //Belief of the query variable, the product of its incoming messages.
+        double[] beliefs = new double[cards[queryVar]];
+        computeVarMessage(queryVar, -1, evidence, toVars, beliefs, 0);
+        boolean converged = residuals.length > 0 && residuals[residuals.length - 1] < tolerance;
+        return new BeliefPropagationResult(beliefs, queryOutcome, residuals, converged, operations[0], operations[1]);
+    }
+
+
+    /**
+     * Runs synchronous iterations: the messages of all the variables, and then the messages of all the factors,
+     * each of them in parallel blocks. A factor's messages depend only on the variables' messages, and every block
+     * writes only its own messages, so the results don't depend on the number of threads.
+     * @param evidence Outcome index of each evidence variable, -1 for the rest.
+     * @param toFactors Messages from variables to factors, updated in place.
+     * @param toVars Messages from factors to variables, updated in place.
+     * @param operations Number of additions and multiplications so far, updated in place.
+     * @param context Limits of the query, checked before every iteration.
+     * @return Largest residual of each iteration.
+     */
+    private double[] propagateSynchronously(int[] evidence, double[] toFactors, double[] toVars, long[] operations,
+                                            QueryContext context){
+        int varCount = cards.length, factorCount = factorEdgeStarts.length - 1;
+        double[] factorResiduals = new double[factorCount];
+        long[] iterationOperations = getIterationOperations();
+        List<Double> residuals = new ArrayList<>();
+        for(int iteration = 0; iteration < maxIterations; iteration++){
+            context.checkpoint();
+            ParallelBlocks.forEachBlock(pool, varCount, BLOCK_NODES, (fromVar, toVar) -> {
+                for(int var = (int) fromVar; var < toVar; var++){
+                    for(int i = varEdgeStarts[var]; i < varEdgeStarts[var + 1]; i++){
+                        int e = varEdges[i];
+                        computeVarMessage(var, e, evidence, toVars, toFactors, messageOffsets[e]);
+                    }
+                }
+            });
+            ParallelBlocks.forEachBlock(pool, factorCount, BLOCK_NODES, (fromFactor, toFactor) -> {
+                double[] message = new double[maxCard()];
+                int[] digits = new int[maxDegree()];
+                for(int f = (int) fromFactor; f < toFactor; f++){
+                    double residual = 0.0;
+                    for(int e = factorEdgeStarts[f]; e < factorEdgeStarts[f + 1]; e++){
+                        computeFactorMessage(e, toFactors, message, digits);
+                        residual = Math.max(residual, commit(e, message, toVars));
+                    }
+                    factorResiduals[f] = residual;
+                }
+            });
+            operations[0] += iterationOperations[0];
+            operations[1] += iterationOperations[1];
+
+            double residual = 0.0;
+            for(double factorResidual : factorResiduals){
+                residual = Math.max(residual, factorResidual);
+            }
+            residuals.add(residual);
+            if(residual < tolerance)
+                break;
+        }
+        return toArray(residuals);
+    }
+
+
+    /**
+     * Runs residual scheduling: the pending message of every edge is kept along with its residual, the change it would
+     * make, and the edge with the largest residual is updated first. Updating a message to a variable changes the
+     * variable's messages to its other factors, and with them the pending messages of those factors.
+     * Stale queue entries are skipped by their version.
+     * @param evidence Outcome index of each evidence variable, -1 for the rest.
+     * @param toFactors Messages from variables to factors, updated in place.
+     * @param toVars Messages from factors to variables, updated in place.
+     * @param operations Number of additions and multiplications so far, updated in place.
+     * @param context Limits of the query, checked before every iteration of as many updates as there are edges.
+     * @return Largest pending residual after each iteration of as many updates as there are edges.
+     */
+    private double[] propagateByResiduals(int[] evidence, double[] toFactors, double[] toVars, long[] operations,
+                                         QueryContext context){
+        int edgeCount = edgeVars.length;
+        double[] pending = new double[messageCells];
+        double[] edgeResiduals = new double[edgeCount];
+        int[] versions = new int[edgeCount];
+        int[] digits = new int[maxDegree()];
+        double[] message = new double[maxCard()];
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(b[0], a[0])); //{residual, edge, version}
+
+        for(int var = 0; var < cards.length; var++){
+            for(int i = varEdgeStarts[var]; i < varEdgeStarts[var + 1]; i++){
+                computeVarMessage(var, varEdges[i], evidence, toVars, toFactors, messageOffsets[varEdges[i]]);
+            }
+        }
+        for(int e = 0; e < edgeCount; e++){
+            edgeResiduals[e] = prepare(e, toFactors, toVars, pending, message, digits, operations);
+            queue.add(new double[]{edgeResiduals[e], e, versions[e]});
+        }
+
+        List<Double> residuals = new ArrayList<>();
+        long updates = 0, maxUpdates = (long) maxIterations * edgeCount;
+        context.checkpoint();
+        while(updates < maxUpdates){
+            double[] top = queue.poll();
+            if(top == null || top[0] < tolerance){
+                residuals.add(top == null ? 0.0 : top[0]);
+                break;
+            }
+            int e = (int) top[1];
+            if((int) top[2] != versions[e])
+                continue; //Stale entry.
+
+            //Update the message, then the variable's other messages and the pending messages of their factors.
+            System.arraycopy(pending, messageOffsets[e], toVars, messageOffsets[e], cards[edgeVars[e]]);
+            edgeResiduals[e] = 0.0;
+            versions[e]++;
+            if(damping > 0.0){
+                //A damped message only moved part of the way, the rest is pending.
+                edgeResiduals[e] = prepare(e, toFactors, toVars, pending, message, digits, operations);
+                queue.add(new double[]{edgeResiduals[e], e, versions[e]});
+            }
+            int var = edgeVars[e];
+            for(int i = varEdgeStarts[var]; i < varEdgeStarts[var + 1]; i++){
+                int varEdge = varEdges[i];
+                if(varEdge == e)
+                    continue;
+                computeVarMessage(var, varEdge, evidence, toVars, toFactors, messageOffsets[varEdge]);
+                operations[1] += (long) cards[var] * (varEdgeStarts[var + 1] - varEdgeStarts[var] - 1);
+                int f = edgeFactors[varEdge];
+                for(int factorEdge = factorEdgeStarts[f]; factorEdge < factorEdgeStarts[f + 1]; factorEdge++){
+                    if(factorEdge == varEdge)
+                        continue;
+                    edgeResiduals[factorEdge] = prepare(factorEdge, toFactors, toVars, pending, message, digits, operations);
+                    queue.add(new double[]{edgeResiduals[factorEdge], factorEdge, ++versions[factorEdge]});
+                }
+            }
+
+            if(++updates % edgeCount == 0){
+                double residual = 0.0;
+                for(double edgeResidual : edgeResiduals){
+                    residual = Math.max(residual, edgeResidual);
+                }
+                residuals.add(residual);
+                context.checkpoint();
+            }
+        }
+        return toArray(residuals);
+    }
+
+
+    /**
+     * Calculates the pending message of an edge, damped against its current message, and its residual.
+     * @param e The edge.
+     * @param toFactors Messages from variables to factors.
+     * @param toVars Messages from factors to variables.
+     * @param pending Pending messages from factors to variables, the edge's message is set.
+     * @param message Scratch array of at least the variable's outcomes.
+     * @param digits Scratch array of at least the factor's degree.
+     * @param operations Number of additions and multiplications so far, updated in place.
+     * @return Largest difference between the pending message and the current message.
+     */
+    private double prepare(int e, double[] toFactors, double[] toVars, double[] pending, double[] message, int[] digits, long[] operations){
+        computeFactorMessage(e, toFactors, message, digits);
+        int f = edgeFactors[e];
+        long tableSize = tableOffsets[f + 1] - tableOffsets[f];
+        operations[0] += tableSize;
+        operations[1] += tableSize * (factorEdgeStarts[f + 1] - factorEdgeStarts[f] - 1);
+        int card = cards[edgeVars[e]], offset = messageOffsets[e];
+        double residual = 0.0;
+        for(int x = 0; x < card; x++){
+            pending[offset + x] = (1 - damping) * message[x] + damping * toVars[offset + x];
+            residual = Math.max(residual, Math.abs(pending[offset + x] - toVars[offset + x]));
+        }
+        return residual;
+    }
+
+
+    /**
+     * Damps a new message of an edge against its current message, and replaces it.
+     * @param e The edge.
+     * @param message New message from the factor to the variable.
+     * @param toVars Messages from factors to variables, the edge's message is replaced.
+     * @return Largest difference between the new message and the previous message.
+     */
+    private double commit(int e, double[] message, double[] toVars){
+        int card = cards[edgeVars[e]], offset = messageOffsets[e];
+        double residual = 0.0;
+        for(int x = 0; x < card; x++){
+            double damped = (1 - damping) * message[x] + damping * toVars[offset + x];
+            residual = Math.max(residual, Math.abs(damped - toVars[offset + x]));
+            toVars[offset + x] = damped;
+        }
+        return residual;
+    }
+
+
+    /**
+     * Calculates the normalized message of a variable to one of its factors: the evidence indicator of the variable,
+     * times the messages of all its other factors. Without an edge to leave out, it is the belief of the variable.
+     * @param var The variable.
+     * @param excludedEdge Edge of the factor the message goes to, or -1 for the belief.
+     * @param evidence Outcome index of each evidence variable, -1 for the rest.
+     * @param toVars Messages from factors to variables.
+     * @param out Array to write the message to.
+     * @param outOffset Index of the message's first cell in the array.
+     */
+    private void computeVarMessage(int var, int excludedEdge, int[] evidence, double[] toVars, double[] out, int outOffset){
+        int card = cards[var];
+        double total = 0.0;
+        for(int x = 0; x < card; x++){
+            double value = evidence[var] == -1 || evidence[var] == x ? 1.0 : 0.0;
+            for(int i = varEdgeStarts[var]; i < varEdgeStarts[var + 1] && value != 0.0; i++){
+                if(varEdges[i] != excludedEdge)
+                    value *= toVars[messageOffsets[varEdges[i]] + x];
+            }
+            out[outOffset + x] = value;
+            total += value;
+        }
+        normalize(out, outOffset, card, total);
+    }
+
+
+    /**
+     * Calculates the normalized message of a factor to one of its variables: the factor's table times the messages of
+     * its other variables, with the other variables summed out. The table is iterated in order, while the outcome of
+     * every variable is counted in mixed radix, since the edges of the factor are sorted by their strides.
+     * @param e Edge of the variable the message goes to.
+     * @param toFactors Messages from variables to factors.
+     * @param message Array to write the message to, from its first cell.
+     * @param digits Scratch array of at least the factor's degree.
+     */
+    private void computeFactorMessage(int e, double[] toFactors, double[] message, int[] digits){
+        int f = edgeFactors[e];
+        int firstEdge = factorEdgeStarts[f], degree = factorEdgeStarts[f + 1] - firstEdge;
+        int target = e - firstEdge;
+        Arrays.fill(message, 0, cards[edgeVars[e]], 0.0);
+        Arrays.fill(digits, 0, degree, 0);
+        for(int cell = tableOffsets[f]; cell < tableOffsets[f + 1]; cell++){
+            double product = tables[cell];
+            for(int i = 0; i < degree; i++){
+                if(i != target)
+                    product *= toFactors[messageOffsets[firstEdge + i] + digits[i]];
+            }
+            message[digits[target]] += product;
+            for(int i = 0; i < degree; i++){
+                if(++digits[i] < cards[edgeVars[firstEdge + i]])
+                    break;
+                digits[i] = 0;
+            }
+        }
+        double total = 0.0;
+        for(int x = 0; x < cards[edgeVars[e]]; x++){
+            total += message[x];
+        }
+        normalize(message, 0, cards[edgeVars[e]], total);
+    }
+
+
+    /**
+     * Divides a message by its total. A message which is all zeros, because of conflicting evidence, becomes uniform.
+     * @param message Array of the message.
+     * @param offset Index of the message's first cell.
+     * @param card Number of cells of the message.
+     * @param total Sum of the message's cells.
+     */
+    private static void normalize(double[] message, int offset, int card, double total){
+        for(int x = 0; x < card; x++){
+            message[offset + x] = total > 0.0 ? message[offset + x] / total : 1.0 / card;
+        }
+    }
+
+
+    /**
+     * Returns the number of additions and multiplications of a single synchronous iteration.
+     * @return Number of additions and multiplications, respectively.
+     */
+    private long[] getIterationOperations(){
+        long[] operations = new long[2];
+        for(int f = 0; f + 1 < factorEdgeStarts.length; f++){
+            long degree = factorEdgeStarts[f + 1] - factorEdgeStarts[f], tableSize = tableOffsets[f + 1] - tableOffsets[f];
+            operations[0] += degree * tableSize;
+            operations[1] += degree * tableSize * (degree - 1);
+        }
+        for(int var = 0; var < cards.length; var++){
+            long degree = varEdgeStarts[var + 1] - varEdgeStarts[var];
+            operations[1] += degree * cards[var] * Math.max(degree - 1, 0);
+        }
+        return operations;
+    }
+
+
+    /**
+     * Returns the index of a variable.
+     * @param name Name of the variable.
+     * @return Index of the variable, in the order of the network.
+     * @throws IllegalArgumentException Whenever the network has no such variable.
+     */
+    private int getVarId(String name){
+        Integer var = varIds.get(name);
+        if(var == null)
+            throw new IllegalArgumentException("Unknown variable " + name);
+        return var;
+    }
+
+
+    /**
+     * Returns the index of an outcome of a variable.
+     * @param var Index of the variable.
+     * @param name Name of the variable.
+     * @param outcome The outcome.
+     * @return Index of the outcome.
+     * @throws IllegalArgumentException Whenever the variable has no such outcome.
+     */
+    private int getOutcomeId(int var, String name, String outcome){
+        int index = Arrays.asList(network.getNodeByIndex(var).getPossibleOutcomes()).indexOf(outcome);
+        if(index == -1)
+            throw new IllegalArgumentException("Unknown outcome " + outcome + " of " + name);
+        return index;
+    }
+
+
+    /**
+     * Returns the largest number of outcomes of a variable.
+     * @return Largest number of outcomes.
+     */
+    private int maxCard(){
+        int max = 0;
+        for(int card : cards){
+            max = Math.max(max, card);
+        }
+        return max;
+    }
+
+
+    /**
+     * Returns the largest number of variables of a factor.
+     * @return Largest degree of a factor.
+     */
+    private int maxDegree(){
+        int max = 0;
+        for(int f = 0; f + 1 < factorEdgeStarts.length; f++){
+            max = Math.max(max, factorEdgeStarts[f + 1] - factorEdgeStarts[f]);
+        }
+        return max;
+    }
+
+
+    /**
+     * Copies a list of residuals into an array.
+     * @param residuals The residuals.
+     * @return Array of the residuals.
+     */
+    private static double[] toArray(List<Double> residuals){
+        double[] array = new double[residuals.size()];
+        for(int i = 0; i < array.length; i++){
+            array[i] = residuals.get(i);
+        }
+        return array;
+    }
+
+
+    /*
+     * Getters of LoopyBeliefPropagation class
+     * */
+
+    /**
+     * Returns the order the messages are updated in.
+     * @return The schedule.
+     */
+    public Schedule getSchedule(){
+        return schedule;
+    }
+
+    /**
+     * Returns the number of edges of the factor graph.
+     * @return Number of edges.
+     */
+    public int getEdgeCount(){
+        return edgeVars.length;
+    }
+}
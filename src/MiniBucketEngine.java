@@ -0,0 +1,425 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * MiniBucketEngine answers queries whose elimination is too large for memory with bounds instead of an exact answer.
+ * It runs the bucket loop of func3(): the CPTs of the relevant variables are instantiated with the evidence, and the
+ * hidden variables are eliminated in the min-neighbors order, each with the bucket of the tables which contain it.
+ * A bucket whose tables together have more variables than the i-bound is split into mini-buckets of at most i-bound
+ * variables each. The first mini-bucket sums the variable out as usual, while the rest maximize it out for the upper
+ * bound, minimize it out for the lower bound, and average it out for the estimate. With a large enough i-bound every
+ * bucket is a single mini-bucket, and all three are the exact answer.
+ * The i-bound is chosen before the elimination starts, as the largest one whose tables all fit the memory budget,
+ * by a dry run over the variables of the tables only. The largest table of the chosen i-bound is checked against the
+ * query's context before the elimination starts, and every bucket checks the context's time limit.
+ */
+public class MiniBucketEngine {
+    private static final int CELL_BYTES = 3 * Double.BYTES; //Every cell holds a lower bound, an upper bound and an estimate.
+
+    private final BayesianNetwork network; //Network the queries are asked on.
+
+    private final long budgetBytes; //Memory budget of the largest table.
+
+
+    /**
+     * Builds an engine whose memory budget is given by the system property bn.minibucket.budgetBytes(default 64MB).
+     * @param network Network the queries are asked on.
+     */
+    public MiniBucketEngine(BayesianNetwork network){
+        this(network, Long.getLong("bn.minibucket.budgetBytes", 64L << 20));
+    }
+
+
+    /**
+     * Builds an engine with the given memory budget.
+     * @param network Network the queries are asked on.
+     * @param budgetBytes Memory budget of the largest table, in bytes.
+     */
+    public MiniBucketEngine(BayesianNetwork network, long budgetBytes){
+        this.network = network;
+        this.budgetBytes = budgetBytes;
+    }
+
+
+    /**
+     * Answers a query with the normalized estimate as the probability.
+     * The counts of the answer are the operations of the elimination, on the bounds and the estimate together.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query with the normalized estimate as the probability, within the limits of a context.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        //If query can be obtainable directly, same as func2() and func3().
+        if(network.IsProbabilityValueDirect(names))
+            return new QueryAnswer(network.getDirectProbability(names, truthValsArr), 0, 0);
+        return bound(names, truthValsArr, context).toQueryAnswer();
+    }
+
+
+    /**
+     * Bounds a query by mini-bucket elimination, with the largest i-bound which fits the memory budget.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, checked before every bucket. Its table limit applies to the largest table.
+     * @return Bounds and estimate of the query.
+     * @throws IllegalArgumentException Whenever even a single table of the query doesn't fit the memory budget.
+     */
+    public MiniBucketResult bound(String[] names, String[] truthValsArr, QueryContext context){
+        String[] hidden = network.getHeuristicEliminationOrder(names);
+        List<BoundTable> tables = buildTables(names, truthValsArr, hidden);
+        long budgetCells = budgetBytes / CELL_BYTES;
+
+        //Largest i-bound whose dry run fits the budget.
+        int iBound = hidden.length + names.length;
+        long[] counts = new long[3];
+        while(iBound > 0){
+            Arrays.fill(counts, 0);
+            eliminate(toShapes(tables), hidden, iBound, counts, context);
+            if(counts[2] <= budgetCells)
+                break;
+            iBound--;
+        }
+        if(iBound == 0)
+            throw new IllegalArgumentException("Memory budget of " + budgetBytes + " bytes is too small for the tables of the query");
+
+        context.checkCells(counts[2]);
+
+        Arrays.fill(counts, 0);
+        BoundTable queryTable = eliminate(tables, hidden, iBound, counts, context);
+        return new MiniBucketResult(queryTable.lower, queryTable.upper, queryTable.estimate,
+                Arrays.asList(network.getNodeByName(names[0]).getPossibleOutcomes()).indexOf(truthValsArr[0]),
+                iBound, counts[2], counts[0], counts[1]);
+    }
+
+
+    /**
+     * Builds the tables of the relevant variables' CPTs, instantiated with the evidence.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param hidden Hidden variables of the query.
+     * @return Tables of the query.
+     */
+    private List<BoundTable> buildTables(String[] names, String[] truthValsArr, String[] hidden){
+        HashMap<String, Integer> evidence = new HashMap<>();
+        for(int i = 1; i < names.length; i++){
+            int outcome = Arrays.asList(network.getNodeByName(names[i]).getPossibleOutcomes()).indexOf(truthValsArr[i]);
+            if(outcome == -1)
+                throw new IllegalArgumentException("Unknown outcome " + truthValsArr[i] + " of " + names[i]);
+            evidence.put(names[i], outcome);
+        }
+
+        List<String> relevant = new ArrayList<>(Arrays.asList(names));
+        relevant.addAll(Arrays.asList(hidden));
+        List<BoundTable> tables = new ArrayList<>();
+        for(String name : relevant){
+            Factor cpt = network.getFactorByName(name);
+            String[] cptVars = cpt.getFactorVars();
+            long fixedCell = 0;
+            List<String> vars = new ArrayList<>();
+            List<Integer> cards = new ArrayList<>();
+            List<Long> strides = new ArrayList<>();
+            for(int i = 0; i < cptVars.length; i++){
+                Integer outcome = evidence.get(cptVars[i]);
+                if(outcome != null)
+                    fixedCell += outcome * cpt.getStrides()[i];
+                else {
+                    vars.add(cptVars[i]);
+                    cards.add(cpt.getVarOutcomes()[i].length);
+                    strides.add(cpt.getStrides()[i]);
+                }
+            }
+            BoundTable table = new BoundTable(vars.toArray(new String[0]), cards.stream().mapToInt(Integer::intValue).toArray(), true);
+            int[] indexArr = new int[vars.size()];
+            long sourceCell = fixedCell;
+            for(int cell = 0; cell < table.estimate.length; cell++){
+                double value = cpt.getValues().get(sourceCell);
+                table.lower[cell] = value;
+                table.upper[cell] = value;
+                table.estimate[cell] = value;
+                for(int i = 0; i < indexArr.length; i++){
+                    indexArr[i]++;
+                    sourceCell += strides.get(i);
+                    if(indexArr[i] < table.cards[i])
+                        break;
+                    sourceCell -= strides.get(i) * table.cards[i];
+                    indexArr[i] = 0;
+                }
+            }
+            tables.add(table);
+        }
+        return tables;
+    }
+
+
+    /**
+     * Copies the variables of tables without their values, for a dry run.
+     * @param tables Tables to copy.
+     * @return Tables of the same variables, without values.
+     */
+    private static List<BoundTable> toShapes(List<BoundTable> tables){
+        List<BoundTable> shapes = new ArrayList<>();
+        for(BoundTable table : tables){
+            shapes.add(new BoundTable(table.vars, table.cards, false));
+        }
+        return shapes;
+    }
+
+
+    /**
+     * The bucket loop: eliminates the hidden variables in order, each from its bucket split into mini-buckets,
+     * and joins whatever is left into the table of the query variable.
+     * Tables without values are a dry run, which only counts the sizes.
+     * @param tables Tables of the query, changed in place.
+     * @param hidden Hidden variables in elimination order.
+     * @param iBound Largest number of variables of a mini-bucket.
+     * @param counts Filled with the number of additions, multiplications, and the cells of the largest table.
+     * @param context Limits of the query, checked before every bucket.
+     * @return Table of the query variable.
+     */
+    private static BoundTable eliminate(List<BoundTable> tables, String[] hidden, int iBound, long[] counts, QueryContext context){
+        for(BoundTable table : tables){
+            counts[2] = Math.max(counts[2], table.size());
+        }
+        for(String var : hidden){
+            context.checkpoint();
+            List<BoundTable> bucket = new ArrayList<>();
+            tables.removeIf(table -> table.indexOf(var) != -1 && bucket.add(table));
+            bucket.sort((a, b) -> Integer.compare(b.vars.length, a.vars.length)); //First fit decreasing.
+
+            //Partition into mini-buckets of at most iBound variables.
+            List<List<BoundTable>> miniBuckets = new ArrayList<>();
+            List<List<String>> scopes = new ArrayList<>();
+            for(BoundTable table : bucket){
+                int target = -1;
+                for(int i = 0; i < miniBuckets.size() && target == -1; i++){
+                    if(unionSize(scopes.get(i), table.vars) <= iBound)
+                        target = i;
+                }
+                if(target == -1){
+                    miniBuckets.add(new ArrayList<>());
+                    scopes.add(new ArrayList<>());
+                    target = miniBuckets.size() - 1;
+                }
+                miniBuckets.get(target).add(table);
+                for(String tableVar : table.vars){
+                    if(!scopes.get(target).contains(tableVar))
+                        scopes.get(target).add(tableVar);
+                }
+            }
+
+            for(int i = 0; i < miniBuckets.size(); i++){
+                BoundTable joined = null;
+                for(BoundTable table : miniBuckets.get(i)){
+                    joined = joined == null ? table : joined.join(table, counts);
+                    counts[2] = Math.max(counts[2], joined.size());
+                }
+                tables.add(joined.eliminate(var, i == 0, counts));
+            }
+        }
+
+        BoundTable queryTable = null;
+        for(BoundTable table : tables){
+            queryTable = queryTable == null ? table : queryTable.join(table, counts);
+            counts[2] = Math.max(counts[2], queryTable.size());
+        }
+        return queryTable;
+    }
+
+
+    /**
+     * Returns the number of variables of a scope together with a table.
+     * @param scope Variables of a mini-bucket.
+     * @param vars Variables of the table.
+     * @return Number of variables of both.
+     */
+    private static int unionSize(List<String> scope, String[] vars){
+        int size = scope.size();
+        for(String var : vars){
+            if(!scope.contains(var))
+                size++;
+        }
+        return size;
+    }
+
+
+    /**
+     * Table of a lower bound, an upper bound and an estimate for every cell. The first variable changes the fastest.
+     * Tables of a dry run have no values.
+     */
+    private static class BoundTable {
+        private final String[] vars; //Variables of the table.
+
+        private final int[] cards; //Number of outcomes of each variable.
+
+        private final double[] lower, upper, estimate; //Values of the cells. null for a dry run.
+
+        private final long cells; //Number of cells.
+
+        /**
+         * Builds a table with all cells set to 0.
+         * @param vars Variables of the table.
+         * @param cards Number of outcomes of each variable.
+         * @param withValues Whenever to allocate the values, false for a dry run.
+         */
+        BoundTable(String[] vars, int[] cards, boolean withValues){
+            this.vars = vars;
+            this.cards = cards;
+            long size = 1;
+            for(int card : cards){
+                size = Math.multiplyExact(size, card);
+            }
+            this.cells = size;
+            this.lower = withValues ? new double[Math.toIntExact(size)] : null;
+            this.upper = withValues ? new double[Math.toIntExact(size)] : null;
+            this.estimate = withValues ? new double[Math.toIntExact(size)] : null;
+        }
+
+        /**
+         * Returns the number of cells of the table.
+         * @return Number of cells.
+         */
+        long size(){
+            return cells;
+        }
+
+        /**
+         * Returns the position of a variable in the table.
+         * @param var Name of the variable.
+         * @return Position of the variable, or -1 when the table doesn't have it.
+         */
+        int indexOf(String var){
+            for(int i = 0; i < vars.length; i++){
+                if(vars[i].equals(var))
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Joins this table with another table, multiplying the bounds and the estimates cell by cell.
+         * @param other Other table.
+         * @param counts Counts of additions and multiplications, updated in place.
+         * @return Joined table.
+         */
+        BoundTable join(BoundTable other, long[] counts){
+            List<String> joinedVars = new ArrayList<>(Arrays.asList(vars));
+            int[] joinedCards = Arrays.copyOf(cards, vars.length + other.vars.length);
+            for(int i = 0; i < other.vars.length; i++){
+                if(indexOf(other.vars[i]) == -1){
+                    joinedCards[joinedVars.size()] = other.cards[i];
+                    joinedVars.add(other.vars[i]);
+                }
+            }
+            BoundTable joined = new BoundTable(joinedVars.toArray(new String[0]), Arrays.copyOf(joinedCards, joinedVars.size()), lower != null);
+            if(lower == null)
+                return joined;
+
+            long[] thisStrides = joined.getStrides(this), otherStrides = joined.getStrides(other);
+            int[] indexArr = new int[joined.vars.length];
+            int thisCell = 0, otherCell = 0;
+            for(int cell = 0; cell < joined.cells; cell++){
+                joined.lower[cell] = lower[thisCell] * other.lower[otherCell];
+                joined.upper[cell] = upper[thisCell] * other.upper[otherCell];
+                joined.estimate[cell] = estimate[thisCell] * other.estimate[otherCell];
+                for(int i = 0; i < indexArr.length; i++){
+                    indexArr[i]++;
+                    thisCell += thisStrides[i];
+                    otherCell += otherStrides[i];
+                    if(indexArr[i] < joined.cards[i])
+                        break;
+                    thisCell -= thisStrides[i] * joined.cards[i];
+                    otherCell -= otherStrides[i] * joined.cards[i];
+                    indexArr[i] = 0;
+                }
+            }
+            counts[1] += 3 * joined.cells;
+            return joined;
+        }
+
+        /**
+         * Eliminates a variable. The first mini-bucket of a bucket sums it out of the bounds and the estimate.
+         * The rest maximize it out of the upper bound, minimize it out of the lower bound and average it out of the estimate.
+         * @param var Variable to eliminate.
+         * @param sum Whenever this is the first mini-bucket of its bucket.
+         * @param counts Counts of additions and multiplications, updated in place.
+         * @return Table without the variable.
+         */
+        BoundTable eliminate(String var, boolean sum, long[] counts){
+            int position = indexOf(var);
+            String[] keptVars = new String[vars.length - 1];
+            int[] keptCards = new int[vars.length - 1];
+            long[] sourceStrides = new long[vars.length - 1];
+            long varStride = 1;
+            for(int i = 0, j = 0, stride = 1; i < vars.length; stride *= cards[i++]){
+                if(i == position)
+                    varStride = stride;
+                else {
+                    keptVars[j] = vars[i];
+                    keptCards[j] = cards[i];
+                    sourceStrides[j++] = stride;
+                }
+            }
+            BoundTable result = new BoundTable(keptVars, keptCards, lower != null);
+            if(lower == null)
+                return result;
+
+            int card = cards[position];
+            int[] indexArr = new int[keptVars.length];
+            long sourceCell = 0;
+            for(int cell = 0; cell < result.cells; cell++){
+                double lowerValue = lower[(int) sourceCell], upperValue = upper[(int) sourceCell], estimateValue = estimate[(int) sourceCell];
+                for(int outcome = 1; outcome < card; outcome++){
+                    int source = (int) (sourceCell + outcome * varStride);
+                    lowerValue = sum ? lowerValue + lower[source] : Math.min(lowerValue, lower[source]);
+                    upperValue = sum ? upperValue + upper[source] : Math.max(upperValue, upper[source]);
+                    estimateValue += estimate[source];
+                }
+                result.lower[cell] = lowerValue;
+                result.upper[cell] = upperValue;
+                result.estimate[cell] = sum ? estimateValue : estimateValue / card;
+                for(int i = 0; i < indexArr.length; i++){
+                    indexArr[i]++;
+                    sourceCell += sourceStrides[i];
+                    if(indexArr[i] < keptCards[i])
+                        break;
+                    sourceCell -= sourceStrides[i] * keptCards[i];
+                    indexArr[i] = 0;
+                }
+            }
+            counts[0] += (sum ? 3L : 1L) * result.cells * (card - 1);
+            if(!sum)
+                counts[1] += result.cells; //Division of the average.
+            return result;
+        }
+
+        /**
+         * Returns the strides of another table, for each variable of this table. 0 for variables it doesn't have.
+         * @param other Other table, whose variables are all in this table.
+         * @return Strides of the other table.
+         */
+        private long[] getStrides(BoundTable other){
+            long[] strides = new long[vars.length];
+            long stride = 1;
+            for(int i = 0; i < other.vars.length; i++){
+                strides[indexOf(other.vars[i])] = stride;
+                stride *= other.cards[i];
+            }
+            return strides;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.text.DecimalFormat;
+
+
+/**
+ * MiniBucketResult holds the answer of mini-bucket elimination: upper and lower bounds on the unnormalized query,
+ * P(query, evidence), for every outcome of the query variable, together with an estimate of it.
+ * The bounds of the normalized answer follow from them, as the requested outcome at its bound against
+ * the other outcomes at their opposite bounds.
+ */
+public class MiniBucketResult {
+    private final double[] lowerJoint, upperJoint, estimateJoint; //Bounds and estimate of P(query=outcome, evidence).
+
+    private final int queryOutcome; //Index of the outcome the query asked for.
+
+    private final int iBound; //Largest number of variables of a mini-bucket.
+
+    private final long peakCells; //Cells of the largest table of the elimination.
+
+    private final long additions, multiplications; //Counters of additions and multiplications, respectively.
+
+
+    /**
+     * Builds the result of mini-bucket elimination.
+     * @param lowerJoint Lower bound of P(query=outcome, evidence) for each outcome.
+     * @param upperJoint Upper bound of P(query=outcome, evidence) for each outcome.
+     * @param estimateJoint Estimate of P(query=outcome, evidence) for each outcome.
+     * @param queryOutcome Index of the outcome the query asked for.
+     * @param iBound Largest number of variables of a mini-bucket.
+     * @param peakCells Cells of the largest table of the elimination.
+     * @param additions Number of additions performed.
+     * @param multiplications Number of multiplications performed.
+     */
+    public MiniBucketResult(double[] lowerJoint, double[] upperJoint, double[] estimateJoint, int queryOutcome, int iBound,
+                            long peakCells, long additions, long multiplications){
+        this.lowerJoint = lowerJoint;
+        this.upperJoint = upperJoint;
+        this.estimateJoint = estimateJoint;
+        this.queryOutcome = queryOutcome;
+        this.iBound = iBound;
+        this.peakCells = peakCells;
+        this.additions = additions;
+        this.multiplications = multiplications;
+    }
+
+
+    /**
+     * Returns the normalized estimate as a query answer, the same as exact algorithms return.
+     * @return The answer of the query.
+     */
+    public QueryAnswer toQueryAnswer(){
+        return new QueryAnswer(getEstimate(), additions, multiplications);
+    }
+
+
+    /**
+     * Formats the estimate with its bounds, the i-bound and the peak table size.
+     * @return A string of the result.
+     */
+    @Override
+    public String toString() {
+        DecimalFormat decimalFormat = new DecimalFormat("#.#####");
+        return decimalFormat.format(getEstimate()) + " in [" + decimalFormat.format(getLowerBound()) + ", "
+                + decimalFormat.format(getUpperBound()) + "] (i-bound " + iBound + ", peak " + peakCells + " cells)";
+    }
+
+
+    /**
+     * Sums the cells of a joint table, except for the requested outcome.
+     * @param joint Joint table.
+     * @return Sum of the other outcomes.
+     */
+    private double sumOfOthers(double[] joint){
+        double sum = 0.0;
+        for(int outcome = 0; outcome < joint.length; outcome++){
+            if(outcome != queryOutcome)
+                sum += joint[outcome];
+        }
+        return sum;
+    }
+
+
+    /*
+     * Getters of MiniBucketResult class
+     * */
+
+    /**
+     * Returns the normalized estimate of the requested outcome.
+     * @return The estimate.
+     */
+    public double getEstimate(){
+        return estimateJoint[queryOutcome] / (estimateJoint[queryOutcome] + sumOfOthers(estimateJoint));
+    }
+
+    /**
+     * Returns the lower bound of the normalized answer.
+     * @return The lower bound.
+     */
+    public double getLowerBound(){
+        return lowerJoint[queryOutcome] / (lowerJoint[queryOutcome] + sumOfOthers(upperJoint));
+    }
+
+    /**
+     * Returns the upper bound of the normalized answer.
+     * @return The upper bound.
+     */
+    public double getUpperBound(){
+        return upperJoint[queryOutcome] / (upperJoint[queryOutcome] + sumOfOthers(lowerJoint));
+    }
+
+    /**
+     * Returns the lower bound of the unnormalized query, P(query, evidence).
+     * @return The lower bound.
+     */
+    public double getJointLowerBound(){
+        return lowerJoint[queryOutcome];
+    }
+
+    /**
+     * Returns the upper bound of the unnormalized query, P(query, evidence).
+     * @return The upper bound.
+     */
+    public double getJointUpperBound(){
+        return upperJoint[queryOutcome];
+    }
+
+    /**
+     * Returns the estimate of the unnormalized query, P(query, evidence).
+     * @return The estimate.
+     */
+    public double getJointEstimate(){
+        return estimateJoint[queryOutcome];
+    }
+
+    /**
+     * Returns the i-bound the elimination ran with.
+     * @return Largest number of variables of a mini-bucket.
+     */
+    public int getIBound(){
+        return iBound;
+    }
+
+    /**
+     * Returns the cells of the largest table of the elimination.
+     * @return Number of cells.
+     */
+    public long getPeakCells(){
+        return peakCells;
+    }
+
+    /**
+     * Returns the number of additions performed.
+     * @return Number of additions.
+     */
+    public long getAdditions(){
+        return additions;
+    }
+
+    /**
+     * Returns the number of multiplications performed.
+     * @return Number of multiplications.
+     */
+    public long getMultiplications(){
+        return multiplications;
+    }
+}
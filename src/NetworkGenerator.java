@@ -0,0 +1,361 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+
+/**
+ * NetworkGenerator writes random networks in the XML format BayesianNetwork parses, and random query files in the
+ * input format of Ex1, for tests of scale which the small example networks can't give.
+ * The variables are generated in order, and every variable picks its parents among the window of the variables just
+ * before it. The window is an upper bound of the treewidth, not the treewidth itself: in that order every variable is
+ * connected only to variables at most a window away, in the moral graph too, so eliminating in the order never builds
+ * a table of more than window + 1 variables, but sparse parents usually give a much lower width.
+ * The number of parents is drawn up to the in-degree limit, and the number of outcomes between the given bounds.
+ * Sparsity is the chance of every CPT cell to be 0. Each row keeps at least one cell which isn't 0, and every
+ * row sums to exactly 1 in the 4 digits the tables are written with.
+ * The evidence of the queries is taken from a sample of the network, therefore it never has a probability of 0.
+ * Usage: NetworkGenerator network.xml queries.txt [samples.csv], with the parameters given by the system properties
+ * bn.gen.nodes(default 50), bn.gen.inDegree(3), bn.gen.minOutcomes(2), bn.gen.maxOutcomes(3), bn.gen.window(6),
+ * bn.gen.sparsity(0), bn.gen.seed(1), bn.gen.queries(100), bn.gen.evidence(3), bn.gen.algorithm(3) and bn.gen.samples(100000).
+ */
+public class NetworkGenerator {
+    private final int nodes; //Number of variables.
+
+    private final int maxInDegree; //Most parents of a variable.
+
+    private final int minOutcomes, maxOutcomes; //Bounds of the number of outcomes of a variable.
+
+    private final int window; //Number of previous variables the parents are picked from, an upper bound of the treewidth.
+
+    private final double sparsity; //Chance of a CPT cell to be 0.
+
+    private final SplittableRandom random; //Source of the network and the queries.
+
+    private int[] outcomeCounts; //Number of outcomes of each variable. null until the network is generated.
+
+    private int[][] parents; //Parents of each variable, in the order of the table.
+
+    private double[][] cpts; //Table of each variable, own outcome fastest, then the last parent, and so on.
+
+
+    /**
+     * Builds a generator.
+     * @param nodes Number of variables.
+     * @param maxInDegree Most parents of a variable.
+     * @param minOutcomes Least outcomes of a variable, at least 2.
+     * @param maxOutcomes Most outcomes of a variable, at most 10000.
+     * @param window Number of previous variables the parents are picked from, at least the in-degree.
+     *               It bounds the treewidth from above.
+     * @param sparsity Chance of a CPT cell to be 0, between 0 and 1.
+     * @param seed Seed of the random source. The same parameters and seed generate the same files.
+     * @throws IllegalArgumentException Whenever a parameter is out of its range.
+     */
+    public NetworkGenerator(int nodes, int maxInDegree, int minOutcomes, int maxOutcomes, int window, double sparsity, long seed){
+        if(nodes < 1 || maxInDegree < 0 || minOutcomes < 2 || maxOutcomes < minOutcomes || maxOutcomes > 10000 || window < maxInDegree
+                || sparsity < 0 || sparsity >= 1)
+            throw new IllegalArgumentException("Invalid generator parameters");
+        this.nodes = nodes;
+        this.maxInDegree = maxInDegree;
+        this.minOutcomes = minOutcomes;
+        this.maxOutcomes = maxOutcomes;
+        this.window = window;
+        this.sparsity = sparsity;
+        this.random = new SplittableRandom(seed);
+    }
+
+
+    /**
+     * Generates the structure and the tables of the network. Called once, before the network or the queries are written.
+     */
+    private void generate(){
+        if(outcomeCounts != null)
+            return;
+        outcomeCounts = new int[nodes];
+        parents = new int[nodes][];
+        cpts = new double[nodes][];
+        for(int var = 0; var < nodes; var++){
+            outcomeCounts[var] = random.nextInt(minOutcomes, maxOutcomes + 1);
+
+            //Parents are a random subset of the window before the variable, in increasing order.
+            int[] candidates = new int[var - Math.max(0, var - window)];
+            for(int i = 0; i < candidates.length; i++){
+                candidates[i] = var - candidates.length + i;
+            }
+            shuffle(candidates);
+            parents[var] = Arrays.copyOf(candidates, Math.min(candidates.length, random.nextInt(maxInDegree + 1)));
+            Arrays.sort(parents[var]);
+
+            int rows = 1;
+            for(int parent : parents[var]){
+                rows = Math.multiplyExact(rows, outcomeCounts[parent]);
+            }
+            cpts[var] = new double[rows * outcomeCounts[var]];
+            for(int row = 0; row < rows; row++){
+                fillRow(cpts[var], row * outcomeCounts[var], outcomeCounts[var]);
+            }
+        }
+    }
+
+
+    /**
+     * Fills a row of a CPT with random probabilities, rounded to 4 digits after the dot, which sum to 1.
+     * Cells are 0 with the chance of the sparsity, except for one random cell which is always positive.
+     * @param cpt Table of the variable.
+     * @param offset First cell of the row.
+     * @param outcomes Number of outcomes of the variable.
+     */
+    private void fillRow(double[] cpt, int offset, int outcomes){
+        int kept = random.nextInt(outcomes);
+        int[] weights = new int[outcomes];
+        for(int i = 0; i < outcomes; i++){
+            weights[i] = i != kept && random.nextDouble() < sparsity ? 0 : 1 + random.nextInt(1000);
+        }
+        roundRow(weights, cpt, offset);
+    }
+
+
+    /**
+     * Fills a row of a CPT with probabilities in proportion to the given weights, rounded to 4 digits after the dot.
+     * Cells are in units of 1/10000. Every positive weight gets a unit, and the rest are shared in proportion to the
+     * weights by largest remainder, so the row sums to exactly 10000 units, and cells of a positive weight stay positive.
+     * @param weights Weight of each cell, at least one of them positive, and at most 10000 of them positive.
+     * @param cpt Table of the variable.
+     * @param offset First cell of the row.
+     */
+    static void roundRow(int[] weights, double[] cpt, int offset){
+        long total = 0;
+        int positives = 0;
+        for(int weight : weights){
+            total += weight;
+            if(weight > 0)
+                positives++;
+        }
+        int spare = 10000 - positives, left = spare;
+        long[] remainders = new long[weights.length];
+        for(int i = 0; i < weights.length; i++){
+            if(weights[i] == 0){
+                remainders[i] = -1; //Cells which are 0 never take a unit.
+                cpt[offset + i] = 0;
+                continue;
+            }
+            long share = (long) weights[i] * spare;
+            cpt[offset + i] = 1 + share / total;
+            left -= (int) (share / total);
+            remainders[i] = share % total;
+        }
+        for(; left > 0; left--){ //Fewer units are left than positive cells, so each cell takes one at most.
+            int largest = 0;
+            for(int i = 1; i < weights.length; i++){
+                if(remainders[i] > remainders[largest])
+                    largest = i;
+            }
+            cpt[offset + largest]++;
+            remainders[largest] = -1;
+        }
+        for(int i = 0; i < weights.length; i++){
+            cpt[offset + i] /= 10000;
+        }
+    }
+
+
+    /**
+     * Writes the network in the XML format of BayesianNetwork. Variables are named N0, N1, ... and their outcomes
+     * s0, s1, ... The definitions are in the order of the variables, as the parser expects.
+     * @param file File to write.
+     * @throws RuntimeException Whenever the file can't be written.
+     */
+    public void writeNetwork(File file){
+        generate();
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            writer.println("<NETWORK>");
+            for(int var = 0; var < nodes; var++){
+                StringBuilder line = new StringBuilder("<VARIABLE><NAME>").append(getName(var)).append("</NAME>");
+                for(int outcome = 0; outcome < outcomeCounts[var]; outcome++){
+                    line.append("<OUTCOME>").append(getOutcome(outcome)).append("</OUTCOME>");
+                }
+                writer.println(line.append("</VARIABLE>"));
+            }
+            for(int var = 0; var < nodes; var++){
+                StringBuilder line = new StringBuilder("<DEFINITION><FOR>").append(getName(var)).append("</FOR>");
+                for(int parent : parents[var]){
+                    line.append("<GIVEN>").append(getName(parent)).append("</GIVEN>");
+                }
+                line.append("<TABLE>");
+                for(int cell = 0; cell < cpts[var].length; cell++){
+                    line.append(cell == 0 ? "" : " ").append(String.format(Locale.ROOT, "%.4f", cpts[var][cell]));
+                }
+                writer.println(line.append("</TABLE></DEFINITION>"));
+            }
+            writer.println("</NETWORK>");
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Generates random queries in the input format of Ex1: a query variable with a random outcome, and up to the given
+     * number of evidence variables with the values of a sample of the network.
+     * @param count Number of queries.
+     * @param maxEvidence Most evidence variables of a query.
+     * @param algorithm Number of the engine at the end of every line, see BayesianNetwork.answer().
+     * @return Lines of the queries.
+     */
+    public List<String> generateQueries(int count, int maxEvidence, int algorithm){
+        generate();
+        List<String> queries = new ArrayList<>();
+        int[] order = new int[nodes];
+        for(int var = 0; var < nodes; var++){
+            order[var] = var;
+        }
+        for(int i = 0; i < count; i++){
+            int[] sample = sample();
+            shuffle(order);
+            int evidenceCount = Math.min(nodes - 1, random.nextInt(maxEvidence + 1));
+            StringBuilder query = new StringBuilder("P(").append(getName(order[0])).append('=')
+                    .append(getOutcome(random.nextInt(outcomeCounts[order[0]]))).append('|');
+            for(int e = 1; e <= evidenceCount; e++){
+                query.append(e == 1 ? "" : ",").append(getName(order[e])).append('=').append(getOutcome(sample[order[e]]));
+            }
+            queries.add(query.append("),").append(algorithm).toString());
+        }
+        return queries;
+    }
+
+
+    /**
+     * Writes a query file in the input format of Ex1: the name of the network file, and then the queries.
+     * @param file File to write.
+     * @param networkFileName Name of the network file, as Ex1 should open it.
+     * @param queries Lines of the queries.
+     * @throws RuntimeException Whenever the file can't be written.
+     */
+    public static void writeQueries(File file, String networkFileName, List<String> queries){
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println(networkFileName);
+            for(String query : queries){
+                writer.println(query);
+            }
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Writes samples of the network as a CSV file, the dataset ParameterLearner learns the tables from.
+     * The header holds the names of the variables, and every line the outcomes of a single sample.
+     * @param file File to write.
+     * @param rows Number of samples.
+     * @throws RuntimeException Whenever the file can't be written.
+     */
+    public void writeSamples(File file, long rows){
+        generate();
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16))) {
+            StringBuilder line = new StringBuilder();
+            for(int var = 0; var < nodes; var++){
+                line.append(var == 0 ? "" : ",").append(getName(var));
+            }
+            writer.println(line);
+            for(long row = 0; row < rows; row++){
+                int[] sample = sample();
+                line.setLength(0);
+                for(int var = 0; var < nodes; var++){
+                    line.append(var == 0 ? "" : ",").append(getOutcome(sample[var]));
+                }
+                writer.println(line);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Draws a full sample of the network, every variable in order given its parents.
+     * @return Outcome of each variable.
+     */
+    private int[] sample(){
+        int[] sample = new int[nodes];
+        for(int var = 0; var < nodes; var++){
+            int row = 0;
+            for(int parent : parents[var]){
+                row = row * outcomeCounts[parent] + sample[parent];
+            }
+            double u = random.nextDouble(), cumulative = 0;
+            sample[var] = outcomeCounts[var] - 1;
+            for(int outcome = 0; outcome < outcomeCounts[var]; outcome++){
+                cumulative += cpts[var][row * outcomeCounts[var] + outcome];
+                if(u < cumulative && cpts[var][row * outcomeCounts[var] + outcome] > 0){
+                    sample[var] = outcome;
+                    break;
+                }
+            }
+        }
+        return sample;
+    }
+
+
+    /**
+     * Shuffles an array in place, with the generator's random source.
+     * @param values Array to shuffle.
+     */
+    private void shuffle(int[] values){
+        for(int i = values.length - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int temp = values[i];
+            values[i] = values[j];
+            values[j] = temp;
+        }
+    }
+
+
+    /**
+     * Returns the name of a variable.
+     * @param var Index of the variable.
+     * @return Name of the variable.
+     */
+    private static String getName(int var){
+        return "N" + var;
+    }
+
+
+    /**
+     * Returns the name of an outcome.
+     * @param outcome Index of the outcome.
+     * @return Name of the outcome.
+     */
+    private static String getOutcome(int outcome){
+        return "s" + outcome;
+    }
+
+
+    /**
+     * Writes a network and a query file, see the class documentation for the parameters.
+     * @param args Path of the network file, path of the query file and optionally path of a samples file.
+     */
+    public static void main(String[] args) {
+        if(args.length != 2 && args.length != 3){
+            System.out.println("Usage: NetworkGenerator network.xml queries.txt [samples.csv]");
+            return;
+        }
+        NetworkGenerator generator = new NetworkGenerator(Integer.getInteger("bn.gen.nodes", 50),
+                Integer.getInteger("bn.gen.inDegree", 3), Integer.getInteger("bn.gen.minOutcomes", 2),
+                Integer.getInteger("bn.gen.maxOutcomes", 3), Integer.getInteger("bn.gen.window", 6),
+                Double.parseDouble(System.getProperty("bn.gen.sparsity", "0")), Long.getLong("bn.gen.seed", 1));
+        generator.writeNetwork(new File(args[0]));
+        writeQueries(new File(args[1]), args[0], generator.generateQueries(Integer.getInteger("bn.gen.queries", 100),
+                Integer.getInteger("bn.gen.evidence", 3), Integer.getInteger("bn.gen.algorithm", 3)));
+        if(args.length == 3)
+            generator.writeSamples(new File(args[2]), Long.getLong("bn.gen.samples", 100000));
+    }
+}
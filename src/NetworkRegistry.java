@@ -0,0 +1,407 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+
+/**
+ * NetworkRegistry serves several bayesian networks from a single process.
+ * Networks are registered by name together with their xml file, and are only built when they are first requested.
+ * The registry keeps track of the estimated heap footprint of every loaded network. Whenever the sum of the footprints
+ * exceeds the configured budget, the least recently used networks are evicted, or only their derived caches are released,
+ * depending on the eviction mode of the registry.
+ * Evicted networks stay registered, and are loaded again on their next request.
+ */
+public class NetworkRegistry {
+
+    /**
+     * The ways the registry can free memory once its budget is exceeded.
+     */
+    public enum EvictionMode {
+        NETWORKS, //Evict entire networks, least recently used first.
+        CACHES, //Only release the derived caches of networks, least recently used first.
+        CACHES_THEN_NETWORKS //Release derived caches first, and evict entire networks only if that was not enough.
+    }
+
+    //Registered networks, least recently used first. Only get() reorders them, so looking an entry up doesn't count as a use.
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final long memoryBudgetBytes; //Maximal sum of estimated footprints of the loaded networks.
+
+    private final EvictionMode evictionMode; //What the registry evicts when the budget is exceeded.
+
+
+    /**
+     * Builds an empty registry.
+     * @param memoryBudgetBytes Maximal sum of the estimated footprints of all loaded networks, in bytes.
+     * @param evictionMode What should be evicted whenever the budget is exceeded.
+     */
+    public NetworkRegistry(long memoryBudgetBytes, EvictionMode evictionMode){
+        if(memoryBudgetBytes <= 0)
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudgetBytes);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.evictionMode = evictionMode;
+        this.entries = new LinkedHashMap<>();
+    }
+
+
+    /**
+     * Registers a network by name. The network itself is not built until it is first requested.
+     * @param name Name the network will be requested by.
+     * @param xmlFileName Name of the xml file the network is built from.
+     */
+    public synchronized void register(String name, String xmlFileName){
+        Entry previous = entries.get(name);
+        if(previous != null && !previous.xmlFileName.equals(xmlFileName))
+            throw new IllegalStateException("Network " + name + " is already registered with " + previous.xmlFileName);
+        if(previous == null)
+            entries.put(name, new Entry(name, xmlFileName));
+    }
+
+
+    /**
+     * Unregisters a network, dropping it from memory if it was loaded.
+     * @param name Name of the network.
+     * @return true whenever the network was registered. false otherwise.
+     */
+    public synchronized boolean unregister(String name){
+        return entries.remove(name) != null;
+    }
+
+
+    /**
+     * Returns the network registered by the given name, building it first if it isn't loaded.
+     * Loading a network may evict other networks(or their caches) in order to stay within the memory budget.
+     * @param name Name of the requested network.
+     * @return The bayesian network registered by the given name.
+     * @throws IllegalArgumentException Whenever no network is registered by the given name.
+     */
+    public BayesianNetwork get(String name){
+        Entry entry;
+        synchronized (this){
+            entry = entries.remove(name);
+            if(entry == null)
+                throw new IllegalArgumentException("No network is registered by the name " + name);
+            entries.put(name, entry); //Reinserting marks the entry as the most recently used one.
+        }
+
+        BayesianNetwork network;
+        boolean loaded = false;
+        //Loading happens outside the registry lock, so other networks can be served while a network is being built.
+        synchronized (entry){
+            network = entry.network;
+            if(network == null){
+                long start = System.nanoTime();
+                network = new BayesianNetwork(entry.xmlFileName);
+                entry.recordLoad(network, System.nanoTime() - start);
+                loaded = true;
+            }
+            entry.accessCount++;
+        }
+
+        if(loaded)
+            enforceBudget();
+        return network;
+    }
+
+
+    /**
+     * Checks whenever the network registered by the given name is currently loaded in memory.
+     * @param name Name of the network.
+     * @return true whenever the network is loaded. false otherwise(also when it isn't registered).
+     */
+    public boolean isResident(String name){
+        Entry entry;
+        synchronized (this){
+            entry = entries.get(name);
+        }
+        if(entry == null)
+            return false;
+        synchronized (entry){
+            return entry.network != null;
+        }
+    }
+
+
+    /**
+     * Re-estimates the footprints of all loaded networks(their caches may have grown since they were loaded),
+     * and evicts networks or caches until the registry is within its memory budget.
+     */
+    public void enforceBudget(){
+        List<Entry> lruOrder;
+        synchronized (this){
+            lruOrder = new ArrayList<>(entries.values()); //Least recently used first.
+        }
+
+        long residentBytes = 0;
+        for(Entry entry: lruOrder){
+            synchronized (entry){
+                if(entry.network != null)
+                    entry.estimatedBytes = entry.network.getEstimatedFootprintBytes();
+                residentBytes += entry.estimatedBytes;
+            }
+        }
+
+        //First pass releases derived caches only, when the mode allows it.
+        if(evictionMode != EvictionMode.NETWORKS){
+            Iterator<Entry> iterator = lruOrder.iterator();
+            while(residentBytes > memoryBudgetBytes && iterator.hasNext()){
+                residentBytes -= iterator.next().releaseCaches();
+            }
+        }
+
+        //Second pass evicts entire networks, when the mode allows it.
+        if(evictionMode != EvictionMode.CACHES){
+            //The most recently used network is never evicted, so the network which was just requested stays loaded.
+            for(int i = 0; i < lruOrder.size() - 1 && residentBytes > memoryBudgetBytes; i++){
+                residentBytes -= lruOrder.get(i).evict();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the sum of the estimated footprints of all loaded networks, as they were last estimated.
+     * @return Estimated number of bytes held by all loaded networks.
+     */
+    public long getResidentBytes(){
+        List<Entry> snapshot;
+        synchronized (this){
+            snapshot = new ArrayList<>(entries.values());
+        }
+        long bytes = 0;
+        for(Entry entry: snapshot){
+            synchronized (entry){
+                bytes += entry.estimatedBytes;
+            }
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Returns the statistics of the network registered by the given name.
+     * @param name Name of the network.
+     * @return Snapshot of the network's statistics, or null whenever no network is registered by that name.
+     */
+    public NetworkStatistics getStatistics(String name){
+        Entry entry;
+        synchronized (this){
+            entry = entries.get(name);
+        }
+        return entry == null ? null : entry.snapshot();
+    }
+
+
+    /**
+     * Returns the statistics of all registered networks, from the least recently used to the most recently used.
+     * @return List of snapshots of the networks' statistics.
+     */
+    public List<NetworkStatistics> getAllStatistics(){
+        List<Entry> snapshot;
+        synchronized (this){
+            snapshot = new ArrayList<>(entries.values());
+        }
+        List<NetworkStatistics> statistics = new ArrayList<>();
+        for(Entry entry: snapshot){
+            statistics.add(entry.snapshot());
+        }
+        return statistics;
+    }
+
+
+    /**
+     * Returns the memory budget of the registry.
+     * @return Memory budget in bytes.
+     */
+    public long getMemoryBudgetBytes(){
+        return memoryBudgetBytes;
+    }
+
+
+    /**
+     * Returns the eviction mode of the registry.
+     * @return The eviction mode given at construction.
+     */
+    public EvictionMode getEvictionMode(){
+        return evictionMode;
+    }
+
+
+    /**
+     * A single registered network. All mutable fields are guarded by the entry itself.
+     */
+    private static class Entry {
+        private final String name;
+        private final String xmlFileName;
+        private BayesianNetwork network; //null whenever the network is not loaded.
+        private long estimatedBytes; //Last estimated footprint. 0 whenever the network is not loaded.
+        private long loadCount, lastLoadNanos, totalLoadNanos;
+        private long accessCount, evictionCount, cacheReleaseCount;
+
+        private Entry(String name, String xmlFileName){
+            this.name = name;
+            this.xmlFileName = xmlFileName;
+        }
+
+        /**
+         * Saves a freshly built network in the entry, together with its load statistics.
+         * @param network The network that was built.
+         * @param loadNanos Time it took to build the network, in nanoseconds.
+         */
+        private void recordLoad(BayesianNetwork network, long loadNanos){
+            this.network = network;
+            this.estimatedBytes = network.getEstimatedFootprintBytes();
+            this.loadCount++;
+            this.lastLoadNanos = loadNanos;
+            this.totalLoadNanos += loadNanos;
+        }
+
+        /**
+         * Releases the derived caches of the network, if it is loaded.
+         * @return Estimated number of bytes released.
+         */
+        private synchronized long releaseCaches(){
+            if(network == null)
+                return 0;
+            long released = network.releaseCaches();
+            if(released > 0){
+                cacheReleaseCount++;
+                estimatedBytes = Math.max(0, estimatedBytes - released);
+            }
+            return released;
+        }
+
+        /**
+         * Drops the network from memory. It stays registered, and will be built again on its next request.
+         * @return Estimated number of bytes released.
+         */
+        private synchronized long evict(){
+            if(network == null)
+                return 0;
+            long released = estimatedBytes;
+            network = null;
+            estimatedBytes = 0;
+            evictionCount++;
+            return released;
+        }
+
+        private synchronized NetworkStatistics snapshot(){
+            return new NetworkStatistics(name, network != null, estimatedBytes, loadCount, lastLoadNanos,
+                    totalLoadNanos, accessCount, evictionCount, cacheReleaseCount);
+        }
+    }
+
+
+    /**
+     * An immutable snapshot of the residency and load-time statistics of a single registered network.
+     */
+    public static class NetworkStatistics {
+        private final String name;
+        private final boolean resident;
+        private final long estimatedBytes;
+        private final long loadCount, lastLoadNanos, totalLoadNanos;
+        private final long accessCount, evictionCount, cacheReleaseCount;
+
+        private NetworkStatistics(String name, boolean resident, long estimatedBytes, long loadCount, long lastLoadNanos,
+                                  long totalLoadNanos, long accessCount, long evictionCount, long cacheReleaseCount){
+            this.name = name;
+            this.resident = resident;
+            this.estimatedBytes = estimatedBytes;
+            this.loadCount = loadCount;
+            this.lastLoadNanos = lastLoadNanos;
+            this.totalLoadNanos = totalLoadNanos;
+            this.accessCount = accessCount;
+            this.evictionCount = evictionCount;
+            this.cacheReleaseCount = cacheReleaseCount;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": resident=" + resident +
+                    ", estimatedBytes=" + estimatedBytes +
+                    ", loads=" + loadCount +
+                    ", lastLoadMillis=" + lastLoadNanos / 1_000_000.0 +
+                    ", totalLoadMillis=" + totalLoadNanos / 1_000_000.0 +
+                    ", accesses=" + accessCount +
+                    ", evictions=" + evictionCount +
+                    ", cacheReleases=" + cacheReleaseCount;
+        }
+
+        /*
+         * Getters of NetworkStatistics class
+         * */
+
+        /**
+         * Returns the name of the network.
+         * @return Name the network is registered by.
+         */
+        public String getName(){
+            return name;
+        }
+
+        /**
+         * Checks whenever the network was loaded when the snapshot was taken.
+         * @return true whenever the network was loaded. false otherwise.
+         */
+        public boolean isResident(){
+            return resident;
+        }
+
+        /**
+         * Returns the estimated footprint of the network when the snapshot was taken.
+         * @return Estimated number of bytes. 0 whenever the network was not loaded.
+         */
+        public long getEstimatedBytes(){
+            return estimatedBytes;
+        }
+
+        /**
+         * Returns the number of times the network was built.
+         * @return Number of loads.
+         */
+        public long getLoadCount(){
+            return loadCount;
+        }
+
+        /**
+         * Returns the time the last build of the network took.
+         * @return Load time in nanoseconds.
+         */
+        public long getLastLoadNanos(){
+            return lastLoadNanos;
+        }
+
+        /**
+         * Returns the time all builds of the network took together.
+         * @return Total load time in nanoseconds.
+         */
+        public long getTotalLoadNanos(){
+            return totalLoadNanos;
+        }
+
+        /**
+         * Returns the number of times the network was requested.
+         * @return Number of requests.
+         */
+        public long getAccessCount(){
+            return accessCount;
+        }
+
+        /**
+         * Returns the number of times the network was evicted.
+         * @return Number of evictions.
+         */
+        public long getEvictionCount(){
+            return evictionCount;
+        }
+
+        /**
+         * Returns the number of times the derived caches of the network were released.
+         * @return Number of cache releases.
+         */
+        public long getCacheReleaseCount(){
+            return cacheReleaseCount;
+        }
+    }
+}
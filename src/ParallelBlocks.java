@@ -0,0 +1,111 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * ParallelBlocks splits the output rows of a factor operation into blocks of a fixed size, and processes them
+ * on a fork/join pool. Every block writes its own output rows only, and every output row is calculated by a single
+ * block in the same order as a sequential run, therefore the results don't depend on the number of threads.
+ */
+public final class ParallelBlocks {
+    static final long BLOCK_ROWS = 1 << 16; //Rows of a single block, rounded to whole runs.
+
+    private ParallelBlocks(){
+    }
+
+
+    /**
+     * Task which processes a range of output rows.
+     */
+    public interface RangeTask {
+        /**
+         * Processes the rows in the range.
+         * @param fromRow First row of the range. Always the first row of a run.
+         * @param toRow Row after the last row of the range.
+         */
+        void run(long fromRow, long toRow);
+    }
+
+
+    /**
+     * Processes all the rows of an output table. Tables with fewer rows than the threshold are processed sequentially
+     * by the calling thread, larger tables are split into blocks of whole runs which are processed by the pool.
+     * @param pool Pool which processes the blocks.
+     * @param threshold Least number of rows which is processed in parallel.
+     * @param rows Number of rows in the output table.
+     * @param runLength Number of rows in a single run. Blocks never split a run.
+     * @param task Task which processes a range of rows.
+     */
+    public static void forEachBlock(ForkJoinPool pool, long threshold, long rows, long runLength, RangeTask task){
+        long blockRows = Math.max(runLength, BLOCK_ROWS / runLength * runLength);
+        if(rows < threshold || rows <= blockRows || pool.getParallelism() == 1){
+            task.run(0, rows);
+            return;
+        }
+        pool.invoke(new BlockAction(task, 0, (rows + blockRows - 1) / blockRows, blockRows, rows));
+    }
+
+
+    /**
+     * Processes all the rows of a range in blocks of a given size, on the pool. Each block is a separate call of the task,
+     * even when the pool has a single thread, so tasks which keep a partial result per block get the same blocks
+     * regardless of the number of threads.
+     * @param pool Pool which processes the blocks.
+     * @param rows Number of rows.
+     * @param blockRows Rows of a single block.
+     * @param task Task which processes a range of rows.
+     */
+    public static void forEachBlock(ForkJoinPool pool, long rows, long blockRows, RangeTask task){
+        long blocks = (rows + blockRows - 1) / blockRows;
+        if(blocks == 0)
+            return;
+        if(pool.getParallelism() == 1){
+            for(long block = 0; block < blocks; block++){
+                task.run(block * blockRows, Math.min(rows, (block + 1) * blockRows));
+            }
+            return;
+        }
+        pool.invoke(new BlockAction(task, 0, blocks, blockRows, rows));
+    }
+
+
+    /**
+     * Action which processes a range of blocks, splitting it in half until a single block is left.
+     */
+    private static class BlockAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask task; //Task which processes the rows.
+
+        private final long fromBlock, toBlock; //Range of blocks of this action.
+
+        private final long blockRows, rows; //Rows of a single block, and of the entire table.
+
+        /**
+         * Builds an action of a range of blocks.
+         * @param task Task which processes the rows.
+         * @param fromBlock First block of the range.
+         * @param toBlock Block after the last block of the range.
+         * @param blockRows Rows of a single block.
+         * @param rows Rows of the entire table.
+         */
+        BlockAction(RangeTask task, long fromBlock, long toBlock, long blockRows, long rows){
+            this.task = task;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.blockRows = blockRows;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            if(toBlock - fromBlock == 1){
+                task.run(fromBlock * blockRows, Math.min(rows, toBlock * blockRows));
+                return;
+            }
+            long middle = (fromBlock + toBlock) >>> 1;
+            invokeAll(new BlockAction(task, fromBlock, middle, blockRows, rows),
+                    new BlockAction(task, middle, toBlock, blockRows, rows));
+        }
+    }
+}
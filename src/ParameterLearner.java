@@ -0,0 +1,510 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * ParameterLearner estimates the tables of a network from a dataset of full samples, keeping the structure of a given network:
+ * its variables, their outcomes and their parents.
+ * The dataset is a CSV file whose header holds the names of the variables, and every following line the outcomes of a single
+ * sample. Columns which aren't variables of the network are ignored, and values may be surrounded by double quotes, but
+ * can't hold the delimiter. Lines with an empty value, or '?', in one of the variables are skipped as missing data.
+ * The file is streamed in chunks of lines: while a chunk is counted on the pool, the next one is read.
+ * The values are dictionary encoded to the indexes of the outcomes of their variables, and every worker thread counts
+ * into its own array of all tables, indexed in the order of the xml file, own outcome fastest and the first parent slowest.
+ * The counts are whole numbers, therefore merging the arrays of the threads gives the same counts in any order,
+ * and the learned tables don't depend on the number of threads or on the chunk size.
+ * Every table row is smoothed with a symmetric Dirichlet prior: a pseudo count of alpha is added to every cell.
+ * Usage: ParameterLearner network.xml samples.csv snapshot.bin, with the parameters given by the system properties
+ * bn.learn.alpha(default 1), bn.learn.chunkRows(65536), bn.learn.blockRows(4096) and bn.learn.delimiter(,).
+ */
+public class ParameterLearner {
+    private static final int MAGIC = 0x424E5031; //Start of a snapshot of a learned network.
+
+    private static final int MISSING = -1; //Encoded value of a missing value.
+
+    private final ForkJoinPool pool; //Pool which counts the chunks.
+
+    private final double alpha; //Pseudo count of every cell of the tables.
+
+    private final int chunkRows; //Lines read from the file at a time.
+
+    private final long blockRows; //Lines of a chunk a single task counts.
+
+    private final char delimiter; //Separator of the values in a line.
+
+    private final String[] varNames; //Names of the variables, in the order of the network.
+
+    private final String[][] varOutcomes; //Outcomes of each variable.
+
+    private final String[][] varParents; //Parents of each variable, in the order of its table.
+
+    private final List<HashMap<String, Integer>> dictionaries; //Index of every outcome, per variable.
+
+    private final int[] tableOffsets; //Index of the first cell of each table in the counts array.
+
+    private final int[][] parentVars; //Indexes of the parents of each variable.
+
+    private final int[][] parentStrides; //Cells between consecutive outcomes of each parent of each variable.
+
+    private final long[] counts; //Merged counts of all the tables.
+
+    private long rows, skippedRows; //Counters of counted lines and of lines skipped for missing values, respectively.
+
+
+    /**
+     * Builds a learner of the structure of a network, with the parameters given by the system properties.
+     * @param structure Network whose variables, outcomes and parents the learned network keeps. Its tables are ignored.
+     */
+    public ParameterLearner(BayesianNetwork structure){
+        this(structure, structure.getForkJoinPool(), Double.parseDouble(System.getProperty("bn.learn.alpha", "1")),
+                Integer.getInteger("bn.learn.chunkRows", 1 << 16), Long.getLong("bn.learn.blockRows", 1 << 12),
+                System.getProperty("bn.learn.delimiter", ",").charAt(0));
+    }
+
+
+    /**
+     * Builds a learner of the structure of a network.
+     * @param structure Network whose variables, outcomes and parents the learned network keeps. Its tables are ignored.
+     * @param pool Pool which counts the chunks.
+     * @param alpha Pseudo count of every cell of the tables. 0 gives the maximum likelihood tables.
+     * @param chunkRows Lines read from the file at a time.
+     * @param blockRows Lines of a chunk a single task counts.
+     * @param delimiter Separator of the values in a line.
+     * @throws IllegalArgumentException Whenever a parameter is invalid, or the tables are too large to count.
+     */
+    public ParameterLearner(BayesianNetwork structure, ForkJoinPool pool, double alpha, int chunkRows, long blockRows, char delimiter){
+        if(alpha < 0 || chunkRows < 1 || blockRows < 1)
+            throw new IllegalArgumentException("Invalid learner parameters");
+        this.pool = pool;
+        this.alpha = alpha;
+        this.chunkRows = chunkRows;
+        this.blockRows = blockRows;
+        this.delimiter = delimiter;
+
+        int varCount = structure.getNodeCount();
+        varNames = new String[varCount];
+        varOutcomes = new String[varCount][];
+        varParents = new String[varCount][];
+        dictionaries = new ArrayList<>();
+        HashMap<String, Integer> varIndexes = new HashMap<>();
+        for(int var = 0; var < varCount; var++){
+            VariableNode node = structure.getNodeByIndex(var);
+            varNames[var] = node.getVariableNodeName();
+            varOutcomes[var] = node.getPossibleOutcomes();
+            varParents[var] = node.getParents();
+            varIndexes.put(varNames[var], var);
+            HashMap<String, Integer> dictionary = new HashMap<>();
+            for(int outcome = 0; outcome < varOutcomes[var].length; outcome++){
+                dictionary.put(varOutcomes[var][outcome], outcome);
+            }
+            dictionaries.add(dictionary);
+        }
+
+        tableOffsets = new int[varCount + 1];
+        parentVars = new int[varCount][];
+        parentStrides = new int[varCount][];
+        long cells = 0;
+        for(int var = 0; var < varCount; var++){
+            tableOffsets[var] = (int) cells;
+            parentVars[var] = new int[varParents[var].length];
+            parentStrides[var] = new int[varParents[var].length];
+            long stride = varOutcomes[var].length; //The last parent changes right after the own outcome.
+            for(int p = varParents[var].length - 1; p >= 0; p--){
+                parentVars[var][p] = varIndexes.get(varParents[var][p]);
+                parentStrides[var][p] = (int) stride;
+                stride *= varOutcomes[parentVars[var][p]].length;
+            }
+            cells += stride;
+            if(cells > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Tables of " + cells + " cells are too large to learn");
+        }
+        tableOffsets[varCount] = (int) cells;
+        counts = new long[(int) cells];
+    }
+
+
+    /**
+     * Counts the samples of a CSV file. The counts add up with those of earlier files, so a dataset split to several files
+     * can be learned file by file.
+     * @param file CSV file of samples, see the class documentation.
+     * @throws IOException Whenever the file can't be read.
+     * @throws IllegalArgumentException Whenever a variable has no column, or a line has an outcome its variable doesn't have.
+     */
+    public void learn(File file) throws IOException {
+        List<long[]> threadCounts = new ArrayList<>(); //Counts of every thread which counted a block, merged at the end.
+        ThreadLocal<long[]> localCounts = ThreadLocal.withInitial(() -> {
+            long[] local = new long[counts.length];
+            synchronized (threadCounts){
+                threadCounts.add(local);
+            }
+            return local;
+        });
+        AtomicLong skipped = new AtomicLong();
+        long lineNumber = 2, lines = 0; //Number of the first line of the next chunk in the file, and lines counted.
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16)) {
+            String header = reader.readLine();
+            if(header == null)
+                throw new IllegalArgumentException(file + " has no header");
+            int[] columnVars = mapColumns(splitLine(header), file); //Variable of each column, -1 for ignored columns.
+
+            String[] chunk = new String[chunkRows], nextChunk = new String[chunkRows];
+            int chunkLines = readChunk(reader, chunk);
+            while(chunkLines > 0){
+                String[] chunkToCount = chunk;
+                int lineCount = chunkLines;
+                long firstLine = lineNumber;
+                ForkJoinTask<?> counting = pool.submit(() -> ParallelBlocks.forEachBlock(pool, lineCount, blockRows, (fromRow, toRow) ->
+                        countLines(chunkToCount, (int) fromRow, (int) toRow, firstLine, columnVars, localCounts.get(), skipped)));
+
+                //The next chunk is read while the current one is counted.
+                chunkLines = readChunk(reader, nextChunk);
+                counting.join();
+                chunk = nextChunk;
+                nextChunk = chunkToCount;
+                lineNumber += lineCount;
+                lines += lineCount;
+            }
+        }
+
+        //Merged only once the entire file was counted, so a file which fails leaves the counts as they were.
+        for(long[] local : threadCounts){
+            for(int cell = 0; cell < counts.length; cell++){
+                counts[cell] += local[cell];
+            }
+        }
+        rows += lines - skipped.get();
+        skippedRows += skipped.get();
+    }
+
+
+    /**
+     * Reads the next lines of the file into a chunk. Blank lines are skipped.
+     * @param reader Reader of the file.
+     * @param chunk Array the lines are read into.
+     * @return Number of lines read, less than the length of the chunk only at the end of the file.
+     * @throws IOException Whenever the file can't be read.
+     */
+    private int readChunk(BufferedReader reader, String[] chunk) throws IOException {
+        int lines = 0;
+        String line;
+        while(lines < chunk.length && (line = reader.readLine()) != null){
+            if(!line.isBlank())
+                chunk[lines++] = line;
+        }
+        return lines;
+    }
+
+
+    /**
+     * Finds the variable of every column of the header.
+     * @param columns Names of the columns.
+     * @param file File of the header, for error messages.
+     * @return Index of the variable of each column, or -1 for columns which aren't variables of the network.
+     * @throws IllegalArgumentException Whenever a variable has no column, or more than one.
+     */
+    private int[] mapColumns(String[] columns, File file){
+        HashMap<String, Integer> varIndexes = new HashMap<>();
+        for(int var = 0; var < varNames.length; var++){
+            varIndexes.put(varNames[var], var);
+        }
+        int[] columnVars = new int[columns.length];
+        boolean[] found = new boolean[varNames.length];
+        for(int column = 0; column < columns.length; column++){
+            Integer var = varIndexes.get(columns[column]);
+            columnVars[column] = var == null ? -1 : var;
+            if(var != null){
+                if(found[var])
+                    throw new IllegalArgumentException("Variable " + columns[column] + " has more than one column in " + file);
+                found[var] = true;
+            }
+        }
+        for(int var = 0; var < varNames.length; var++){
+            if(!found[var])
+                throw new IllegalArgumentException("Variable " + varNames[var] + " has no column in " + file);
+        }
+        return columnVars;
+    }
+
+
+    /**
+     * Splits a line to its values. Surrounding spaces and double quotes of each value are removed.
+     * @param line Line of the file.
+     * @return Values of the line in order.
+     */
+    private String[] splitLine(String line){
+        ArrayList<String> values = new ArrayList<>();
+        int start = 0;
+        for(int i = 0; i <= line.length(); i++){
+            if(i == line.length() || line.charAt(i) == delimiter){
+                values.add(unquote(line.substring(start, i).trim()));
+                start = i + 1;
+            }
+        }
+        return values.toArray(new String[0]);
+    }
+
+
+    /**
+     * Removes the double quotes around a value, if there are any.
+     * @param value Value of a column.
+     * @return The value without its quotes.
+     */
+    private static String unquote(String value){
+        if(value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+            return value.substring(1, value.length() - 1);
+        return value;
+    }
+
+
+    /**
+     * Counts a range of lines of a chunk. Every line is dictionary encoded, and then adds 1 to a single cell of every table.
+     * @param chunk Lines of the chunk.
+     * @param fromLine First line of the range.
+     * @param toLine Line after the last line of the range.
+     * @param firstLine Number of the first line of the chunk in the file, for error messages.
+     * @param columnVars Variable of each column, -1 for ignored columns.
+     * @param counts Counts of the thread.
+     * @param skipped Counter of lines skipped for missing values.
+     * @throws IllegalArgumentException Whenever a line has a wrong number of values, or an outcome its variable doesn't have.
+     */
+    private void countLines(String[] chunk, int fromLine, int toLine, long firstLine, int[] columnVars, long[] counts,
+                            AtomicLong skipped){
+        int[] encoded = new int[varNames.length]; //Outcome index of each variable in the current line.
+        long skippedLines = 0;
+        for(int line = fromLine; line < toLine; line++){
+            if(!encodeLine(chunk[line], firstLine + line, columnVars, encoded)){
+                skippedLines++;
+                continue;
+            }
+            for(int var = 0; var < encoded.length; var++){
+                int cell = tableOffsets[var] + encoded[var];
+                int[] parents = parentVars[var], strides = parentStrides[var];
+                for(int p = 0; p < parents.length; p++){
+                    cell += encoded[parents[p]] * strides[p];
+                }
+                counts[cell]++;
+            }
+        }
+        skipped.addAndGet(skippedLines);
+    }
+
+
+    /**
+     * Dictionary encodes the values of a line, without splitting it into strings of the ignored columns.
+     * @param line Line of the file.
+     * @param lineNumber Number of the line in the file, for error messages.
+     * @param columnVars Variable of each column, -1 for ignored columns.
+     * @param encoded Array the outcome index of each variable is written to.
+     * @return false whenever a variable is missing its value in the line.
+     * @throws IllegalArgumentException Whenever the line has a wrong number of values, or an outcome its variable doesn't have.
+     */
+    private boolean encodeLine(String line, long lineNumber, int[] columnVars, int[] encoded){
+        boolean complete = true;
+        int column = 0, start = 0;
+        for(int i = 0; i <= line.length(); i++){
+            if(i < line.length() && line.charAt(i) != delimiter)
+                continue;
+            if(column >= columnVars.length)
+                throw new IllegalArgumentException("Line " + lineNumber + " has more than " + columnVars.length + " values");
+            int var = columnVars[column++];
+            if(var != -1){
+                String value = unquote(line.substring(start, i).trim());
+                Integer outcome = dictionaries.get(var).get(value);
+                if(outcome != null)
+                    encoded[var] = outcome;
+                else if(value.isEmpty() || value.equals("?")){
+                    encoded[var] = MISSING;
+                    complete = false;
+                }
+                else
+                    throw new IllegalArgumentException("Line " + lineNumber + ": " + value + " is not an outcome of " + varNames[var]);
+            }
+            start = i + 1;
+        }
+        if(column != columnVars.length)
+            throw new IllegalArgumentException("Line " + lineNumber + " has " + column + " values instead of " + columnVars.length);
+        return complete;
+    }
+
+
+    /**
+     * Returns the learned table of a variable: the counts of every row smoothed with the pseudo count, and normalized.
+     * A row without counts and without a pseudo count is uniform.
+     * @param var Index of the variable, in the order of the network.
+     * @return Probability values in the order of the xml file, own outcome fastest.
+     */
+    public double[] getProbabilities(int var){
+        int outcomes = varOutcomes[var].length;
+        double[] probabilities = new double[tableOffsets[var + 1] - tableOffsets[var]];
+        for(int row = 0; row < probabilities.length; row += outcomes){
+            long rowCount = 0;
+            for(int outcome = 0; outcome < outcomes; outcome++){
+                rowCount += counts[tableOffsets[var] + row + outcome];
+            }
+            double total = rowCount + alpha * outcomes;
+            for(int outcome = 0; outcome < outcomes; outcome++){
+                probabilities[row + outcome] = total == 0 ? 1.0 / outcomes
+                        : (counts[tableOffsets[var] + row + outcome] + alpha) / total;
+            }
+        }
+        return probabilities;
+    }
+
+
+    /**
+     * Builds a network of the structure with the learned tables, stored as configured by the system properties.
+     * @return The learned network.
+     */
+    public BayesianNetwork toNetwork(){
+        return toNetwork(FactorStorageFactory.fromSystemProperties());
+    }
+
+
+    /**
+     * Builds a network of the structure with the learned tables.
+     * @param storageFactory Factory which decides where and in which precision factors are stored.
+     * @return The learned network.
+     */
+    public BayesianNetwork toNetwork(FactorStorageFactory storageFactory){
+        ArrayList<VariableNode> nodes = new ArrayList<>();
+        for(int var = 0; var < varNames.length; var++){
+            nodes.add(new VariableNode(varNames[var], varOutcomes[var], varParents[var], getProbabilities(var)));
+        }
+        return new BayesianNetwork(nodes, storageFactory);
+    }
+
+
+    /**
+     * Writes the learned network to a binary snapshot, which loads without parsing xml or text.
+     * @param file File to write.
+     * @throws IOException Whenever the file can't be written.
+     */
+    public void saveSnapshot(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(rows);
+            out.writeInt(varNames.length);
+            for(int var = 0; var < varNames.length; var++){
+                out.writeUTF(varNames[var]);
+                out.writeInt(varOutcomes[var].length);
+                for(String outcome : varOutcomes[var]){
+                    out.writeUTF(outcome);
+                }
+                out.writeInt(varParents[var].length);
+                for(String parent : varParents[var]){
+                    out.writeUTF(parent);
+                }
+                double[] probabilities = getProbabilities(var);
+                out.writeInt(probabilities.length);
+                for(double probability : probabilities){
+                    out.writeDouble(probability);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Reads a network written by saveSnapshot(), stored as configured by the system properties.
+     * @param file File to read.
+     * @return The learned network.
+     * @throws IOException Whenever the file can't be read, or isn't a snapshot.
+     */
+    public static BayesianNetwork loadSnapshot(File file) throws IOException {
+        return loadSnapshot(file, FactorStorageFactory.fromSystemProperties());
+    }
+
+
+    /**
+     * Reads a network written by saveSnapshot().
+     * @param file File to read.
+     * @param storageFactory Factory which decides where and in which precision factors are stored.
+     * @return The learned network.
+     * @throws IOException Whenever the file can't be read, or isn't a snapshot.
+     */
+    public static BayesianNetwork loadSnapshot(File file, FactorStorageFactory storageFactory) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC)
+                throw new IOException(file + " is not a snapshot of a learned network");
+            in.readLong(); //Rows the network was learned from.
+            int varCount = in.readInt();
+            ArrayList<VariableNode> nodes = new ArrayList<>();
+            for(int var = 0; var < varCount; var++){
+                String name = in.readUTF();
+                String[] outcomes = new String[in.readInt()];
+                for(int outcome = 0; outcome < outcomes.length; outcome++){
+                    outcomes[outcome] = in.readUTF();
+                }
+                String[] parents = new String[in.readInt()];
+                for(int p = 0; p < parents.length; p++){
+                    parents[p] = in.readUTF();
+                }
+                double[] probabilities = new double[in.readInt()];
+                for(int i = 0; i < probabilities.length; i++){
+                    probabilities[i] = in.readDouble();
+                }
+                nodes.add(new VariableNode(name, outcomes, parents, probabilities));
+            }
+            return new BayesianNetwork(nodes, storageFactory);
+        }
+    }
+
+
+    /*
+     * Getters of ParameterLearner class
+     * */
+
+    /**
+     * Returns the number of lines the tables were learned from.
+     * @return Number of counted lines.
+     */
+    public long getRows(){
+        return rows;
+    }
+
+    /**
+     * Returns the number of lines skipped for missing values.
+     * @return Number of skipped lines.
+     */
+    public long getSkippedRows(){
+        return skippedRows;
+    }
+
+
+    /**
+     * Learns the tables of a network from a CSV file of samples, and writes the learned network to a snapshot.
+     * See the class documentation for the parameters.
+     * @param args Path of the network file, path of the samples file and path of the snapshot file.
+     */
+    public static void main(String[] args) {
+        if(args.length != 3){
+            System.out.println("Usage: ParameterLearner network.xml samples.csv snapshot.bin");
+            return;
+        }
+        ParameterLearner learner = new ParameterLearner(new BayesianNetwork(args[0]));
+        long start = System.nanoTime();
+        try {
+            learner.learn(new File(args[1]));
+            learner.saveSnapshot(new File(args[2]));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.printf("Learned from %d lines(%d skipped) in %.1f ms%n", learner.getRows(), learner.getSkippedRows(),
+                (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * PrecisionReport compares the answers of the float precision storage modes against the double precision engine.
+ * It reads input files in the same format as input.txt, answers every query with a network built in each mode, and prints
+ * the error of every answer, whether its printed form(5 digits after the dot) changed, and the footprint of each network.
+ * Usage: java PrecisionReport [input file...] (input.txt by default).
+ */
+public class PrecisionReport {
+
+    //The modes compared against double precision, and their display names.
+    private static final FactorPrecision[] PRECISIONS = {FactorPrecision.DOUBLE, FactorPrecision.FLOAT, FactorPrecision.FLOAT};
+    private static final boolean[] COMPRESSIONS = {false, false, true};
+    private static final String[] MODE_NAMES = {"double", "float", "float+dictionary"};
+
+
+    //Main reports each input file given in the arguments, or input.txt when none were given.
+    public static void main(String[] args) {
+        String[] inputFiles = args.length == 0 ? new String[]{"input.txt"} : args;
+        for(String inputFile: inputFiles){
+            reportInputFile(inputFile);
+        }
+    }
+
+
+    /**
+     * Answers every query of a single input file in every mode, and prints the comparison.
+     * @param inputFile Name of an input file, in the format of input.txt.
+     */
+    private static void reportInputFile(String inputFile){
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(inputFile))) {
+            String line;
+            while((line = br.readLine()) != null){
+                if(!line.isBlank())
+                    lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        //The xml file is relative to the input file, like in Ex1 when running from the input file's directory.
+        File xmlFile = new File(lines.get(0));
+        if(!xmlFile.isAbsolute() && new File(inputFile).getParentFile() != null)
+            xmlFile = new File(new File(inputFile).getParentFile(), lines.get(0));
+
+        BayesianNetwork[] networks = new BayesianNetwork[MODE_NAMES.length];
+        for(int mode = 0; mode < networks.length; mode++){
+            FactorStorageFactory defaults = FactorStorageFactory.fromSystemProperties();
+            FactorStorageFactory storageFactory = new FactorStorageFactory(defaults.getOffHeapThresholdCells(),
+                    defaults.getSpillThresholdCells(), defaults.getSpillDirectory(), PRECISIONS[mode], COMPRESSIONS[mode]);
+            networks[mode] = new BayesianNetwork(xmlFile.getPath(), storageFactory);
+        }
+
+        System.out.println("Accuracy report of " + inputFile + " (" + xmlFile + ")");
+        double[] maxError = new double[networks.length];
+        double[] errorSum = new double[networks.length];
+        int[] printedMismatches = new int[networks.length];
+
+        for(int lineIndex = 1; lineIndex < lines.size(); lineIndex++){
+            String line = lines.get(lineIndex);
+            int commaIndex = line.lastIndexOf(','); //The engine number follows the last comma, like in Ex1.
+            int algorithm = Integer.parseInt(line.substring(commaIndex + 1).trim());
+            String query = line.substring(0, commaIndex);
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+
+            QueryAnswer reference = networks[0].answer(names, values, algorithm);
+            StringBuilder row = new StringBuilder(line).append(": double=").append(reference.getProbability());
+            for(int mode = 1; mode < networks.length; mode++){
+                QueryAnswer answer = networks[mode].answer(names, values, algorithm);
+                double error = Math.abs(answer.getProbability() - reference.getProbability());
+                maxError[mode] = Math.max(maxError[mode], error);
+                errorSum[mode] += error;
+                boolean printedMatch = answer.toString().equals(reference.toString());
+                if(!printedMatch)
+                    printedMismatches[mode]++;
+                row.append(", ").append(MODE_NAMES[mode]).append(" error=").append(error)
+                        .append(printedMatch ? "" : " (printed answer differs: " + answer + ")");
+            }
+            System.out.println(row);
+        }
+
+        int queries = lines.size() - 1;
+        for(int mode = 0; mode < networks.length; mode++){
+            System.out.print(MODE_NAMES[mode] + ": footprint=" + networks[mode].getEstimatedFootprintBytes() + " bytes");
+            if(mode > 0){
+                System.out.print(", max error=" + maxError[mode] +
+                        ", mean error=" + (queries == 0 ? 0 : errorSum[mode] / queries) +
+                        ", printed answers differing=" + printedMismatches[mode] + "/" + queries);
+            }
+            System.out.println();
+        }
+    }
+}
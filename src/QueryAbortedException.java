@@ -0,0 +1,16 @@
+/**
+ * QueryAbortedException is thrown by an engine which stopped answering a query because one of the limits of its
+ * QueryContext was hit. The subclasses tell which limit it was.
+ */
+public class QueryAbortedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * Builds the exception.
+     * @param message Description of the limit which was hit.
+     */
+    public QueryAbortedException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,68 @@
+import java.text.DecimalFormat;
+
+
+/**
+ * QueryAnswer holds the answer of a single probability query, together with the number of additions and multiplications
+ * the algorithm performed in order to calculate it.
+ * Its string form is the answer line written to the output file.
+ */
+public class QueryAnswer {
+    private final double probability; //Probability of the query.
+
+    private final long additions, multiplications; //Counters of additions and multiplications, respectively.
+
+
+    /**
+     * Builds a query answer.
+     * @param probability Probability of the query.
+     * @param additions Number of additions performed to calculate the probability.
+     * @param multiplications Number of multiplications performed to calculate the probability.
+     */
+    public QueryAnswer(double probability, long additions, long multiplications){
+        this.probability = probability;
+        this.additions = additions;
+        this.multiplications = multiplications;
+    }
+
+
+    /**
+     * Formats the answer as an output line: the probability with 5 digits after the dot, followed by the number of
+     * additions and multiplications.
+     * @return A string of the answer.
+     */
+    @Override
+    public String toString() {
+        //Decimal format for correct answer printing(5 digits after the dot).
+        DecimalFormat decimalFormat = new DecimalFormat("#.#####");
+        return decimalFormat.format(probability) + "," + additions + "," + multiplications;
+    }
+
+
+    /*
+     * Getters of QueryAnswer class
+     * */
+
+    /**
+     * Returns the probability of the query.
+     * @return The probability, not rounded.
+     */
+    public double getProbability(){
+        return probability;
+    }
+
+    /**
+     * Returns the number of additions performed to calculate the probability.
+     * @return Number of additions.
+     */
+    public long getAdditions(){
+        return additions;
+    }
+
+    /**
+     * Returns the number of multiplications performed to calculate the probability.
+     * @return Number of multiplications.
+     */
+    public long getMultiplications(){
+        return multiplications;
+    }
+}
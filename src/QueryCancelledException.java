@@ -0,0 +1,15 @@
+/**
+ * Thrown by an engine which aborted a query which was cancelled.
+ */
+public class QueryCancelledException extends QueryAbortedException {
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * Builds the exception.
+     * @param message Description of the limit which was hit.
+     */
+    public QueryCancelledException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,403 @@
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+
+/**
+ * QueryCompiler generates a specialized routine for each query shape of a network, a query variable together with
+ * a set of evidence variables, and caches the routines by their shape.
+ * The relevant variables of the shape are compiled into an arithmetic circuit, and the circuit is written out as Java
+ * source: one assignment for each sum or product, over a flat array of values, with the parameters as constants.
+ * There are no names, tables or hashing left, so the JIT compiles it into straight-line arithmetic.
+ * The source is compiled in memory by the system Java compiler and loaded as a hidden class, which is unloaded
+ * once its routine is evicted from the cache.
+ * Shapes whose circuit is too large, or a runtime without a Java compiler, are answered by func3()'s variable elimination.
+ * Generating a routine checks the limits of the query's context while the circuit is compiled, and before the source
+ * is compiled by javac, which can't be interrupted. The routine is cached even when the query passed its limits in
+ * javac, and the query checks them again before it runs the routine.
+ */
+public class QueryCompiler {
+    private static final int NODES_PER_METHOD = 256; //Assignments of each generated method, small enough for the JIT.
+
+    private static final AtomicInteger classCounter = new AtomicInteger(); //Suffix of the generated class names.
+
+    private static final int DEFAULT_MAX_NODES = Integer.getInteger("bn.codegen.maxNodes", 1 << 18); //Largest circuit by default.
+
+    private final BayesianNetwork network; //Network the routines are generated for.
+
+    private final int maxNodes; //Largest circuit to generate a routine for.
+
+    private final Map<String, CompiledQuery> cache; //Routine of each shape, null for shapes which can't be compiled.
+
+
+    /**
+     * Builds a compiler whose limits are given by the system properties bn.codegen.maxNodes(default 2^18 nodes)
+     * and bn.codegen.cacheSize(default 64 shapes).
+     * @param network Network to generate routines for.
+     */
+    public QueryCompiler(BayesianNetwork network){
+        this(network, DEFAULT_MAX_NODES, Integer.getInteger("bn.codegen.cacheSize", 64));
+    }
+
+
+    /**
+     * Builds a compiler with the given limits.
+     * @param network Network to generate routines for.
+     * @param maxNodes Largest circuit to generate a routine for, in nodes.
+     * @param cacheSize Number of shapes to keep routines for. The least recently used shape is evicted first.
+     */
+    public QueryCompiler(BayesianNetwork network, int maxNodes, int cacheSize){
+        this.network = network;
+        this.maxNodes = maxNodes;
+        this.cache = new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+
+    /**
+     * Answers a query with the routine of its shape, generating the routine on the first query of the shape.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query with the routine of its shape within the limits of a context, generating the routine on the
+     * first query of the shape.
+     * @param names Names of the given query.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query, which also apply to generating the routine and to func3()'s elimination.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        //If query can be obtainable directly, same as func2() and func3().
+        if(network.IsProbabilityValueDirect(names))
+            return new QueryAnswer(network.getDirectProbability(names, truthValsArr), 0, 0);
+
+        CompiledQuery compiled = getCompiledQuery(names, context);
+        if(compiled == null)
+            return network.answer(names, truthValsArr, 3, context);
+        context.checkpoint(); //The routine may have been generated by javac past the deadline.
+        return compiled.answer(names, truthValsArr);
+    }
+
+
+    /**
+     * Returns the routine of a query's shape, generating it when it isn't cached.
+     * @param names Names of the given query, the query variable first.
+     * @return The routine, or null when the shape can't be compiled.
+     */
+    public CompiledQuery getCompiledQuery(String[] names){
+        return getCompiledQuery(names, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Returns the routine of a query's shape, generating it within the limits of a context when it isn't cached.
+     * A generation which hits a limit caches nothing, and the next query of the shape generates it again.
+     * @param names Names of the given query, the query variable first.
+     * @param context Limits of the generation.
+     * @return The routine, or null when the shape can't be compiled.
+     */
+    public CompiledQuery getCompiledQuery(String[] names, QueryContext context){
+        String[] evidenceVars = Arrays.copyOfRange(names, 1, names.length);
+        Arrays.sort(evidenceVars);
+        String shape = getShape(names);
+        synchronized (cache){
+            if(cache.containsKey(shape)){
+                QueryMetrics.getInstance().recordCacheLookups(1, 1);
+                return cache.get(shape);
+            }
+        }
+        QueryMetrics.getInstance().recordCacheLookups(1, 0);
+
+        //Generated outside the lock, two threads may generate the same shape and the last one is kept.
+        CompiledQuery compiled = compile(names[0], evidenceVars, context);
+        synchronized (cache){
+            cache.put(shape, compiled);
+        }
+        return compiled;
+    }
+
+
+    /**
+     * Returns the cache key of a query's shape: the query variable and the sorted evidence variables.
+     * @param names Names of the given query, the query variable first.
+     * @return Key of the shape.
+     */
+    private static String getShape(String[] names){
+        String[] evidenceVars = Arrays.copyOfRange(names, 1, names.length);
+        Arrays.sort(evidenceVars);
+        return names[0] + "|" + String.join(",", evidenceVars);
+    }
+
+
+    /**
+     * Drops all the cached routines.
+     */
+    public void clear(){
+        synchronized (cache){
+            cache.clear();
+        }
+    }
+
+
+    /**
+     * Generates the routine of a shape.
+     * @param queryVar Name of the query variable.
+     * @param evidenceVars Names of the evidence variables.
+     * @param context Limits of the generation.
+     * @return The routine, or null when the circuit is too large or there is no Java compiler.
+     */
+    private CompiledQuery compile(String queryVar, String[] evidenceVars, QueryContext context){
+        String[] shapeVars = new String[evidenceVars.length + 1];
+        shapeVars[0] = queryVar;
+        System.arraycopy(evidenceVars, 0, shapeVars, 1, evidenceVars.length);
+        List<String> relevant = getRelevantVariables(shapeVars);
+        if(ArithmeticCircuit.estimateNodeCount(network, relevant, maxNodes) > maxNodes)
+            return null; //Bails out before any node is built.
+        ArithmeticCircuit circuit = ArithmeticCircuit.compile(network, relevant, context);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null)
+            return null; //Running on a runtime without the compiler module.
+
+        //The circuit's variables start with the shape's variables, in order.
+        String[][] evidenceOutcomes = new String[evidenceVars.length][];
+        int[] inputOffsets = new int[shapeVars.length];
+        int inputs = circuit.getVarOutcomes(0).length;
+        for(int var = 1; var < shapeVars.length; var++){
+            evidenceOutcomes[var - 1] = circuit.getVarOutcomes(var);
+            inputOffsets[var] = inputs;
+            inputs += evidenceOutcomes[var - 1].length;
+        }
+
+        String className = "GeneratedQuery" + classCounter.incrementAndGet();
+        long[] counts = new long[2];
+        String source = generateSource(className, circuit, inputOffsets, counts);
+        context.checkpoint();
+        ToDoubleFunction<double[]> routine = load(compiler, className, source);
+        return new CompiledQuery(routine, queryVar, circuit.getVarOutcomes(0), evidenceVars, evidenceOutcomes, counts[0], counts[1]);
+    }
+
+
+    /**
+     * Writes a circuit out as the source of a routine class. Every sum and product gets a slot in a values array,
+     * and the assignments are split between methods of NODES_PER_METHOD assignments each.
+     * Indicators of the shape's variables are read from the routine's input, the rest are 1 and are left out.
+     * @param className Name of the generated class.
+     * @param circuit Circuit whose first variables are the shape's variables.
+     * @param inputOffsets Index of the first input of each of the shape's variables.
+     * @param counts Filled with the number of additions and multiplications of a single run, respectively.
+     * @return Source of the class.
+     */
+    private static String generateSource(String className, ArithmeticCircuit circuit, int[] inputOffsets, long[] counts){
+        String[] expressions = new String[circuit.getNodeCount()]; //How each node is read in the generated code.
+        StringBuilder methods = new StringBuilder();
+        int slots = 0, methodCount = 0;
+        for(int node = 0; node < circuit.getNodeCount(); node++){
+            byte type = circuit.getNodeType(node);
+            if(type == ArithmeticCircuit.PARAMETER){
+                expressions[node] = toLiteral(circuit.getParameterValue(node));
+                continue;
+            }
+            if(type == ArithmeticCircuit.INDICATOR){
+                int var = circuit.getIndicatorVar(node);
+                expressions[node] = var < inputOffsets.length ? "in[" + (inputOffsets[var] + circuit.getIndicatorOutcome(node)) + "]" : null;
+                continue;
+            }
+
+            List<String> terms = new ArrayList<>();
+            for(int child : circuit.getNodeChildren(node)){
+                terms.add(expressions[child] == null ? "1.0" : expressions[child]);
+            }
+            if(type == ArithmeticCircuit.PRODUCT){
+                terms.removeIf("1.0"::equals); //Indicators of variables outside the shape.
+                if(terms.isEmpty())
+                    terms.add("1.0");
+            }
+            if(terms.size() == 1){
+                expressions[node] = terms.get(0); //A product with a single term left is that term.
+                continue;
+            }
+            if(slots % NODES_PER_METHOD == 0){
+                if(slots > 0)
+                    methods.append("    }\n\n");
+                methods.append("    private static void part").append(methodCount++).append("(double[] v, double[] in) {\n");
+            }
+            counts[type == ArithmeticCircuit.SUM ? 0 : 1] += terms.size() - 1;
+            expressions[node] = "v[" + slots + "]";
+            methods.append("        v[").append(slots++).append("] = ")
+                    .append(String.join(type == ArithmeticCircuit.SUM ? " + " : " * ", terms)).append(";\n");
+        }
+        if(slots > 0)
+            methods.append("    }\n");
+
+        StringBuilder source = new StringBuilder();
+        source.append("public final class ").append(className).append(" implements java.util.function.ToDoubleFunction<double[]> {\n");
+        source.append("    public double applyAsDouble(double[] in) {\n");
+        source.append("        double[] v = new double[").append(Math.max(slots, 1)).append("];\n");
+        for(int method = 0; method < methodCount; method++){
+            source.append("        part").append(method).append("(v, in);\n");
+        }
+        String rootExpression = expressions[circuit.getRoot()];
+        source.append("        return ").append(rootExpression == null ? "1.0" : rootExpression).append(";\n");
+        source.append("    }\n\n");
+        source.append(methods);
+        source.append("}\n");
+        return source.toString();
+    }
+
+
+    /**
+     * Writes a parameter as a Java literal which is read back as the exact same double.
+     * @param value The parameter.
+     * @return Literal of the parameter.
+     */
+    private static String toLiteral(double value){
+        if(Double.isNaN(value) || Double.isInfinite(value))
+            return "Double.longBitsToDouble(" + Double.doubleToRawLongBits(value) + "L)";
+        return Double.toString(value);
+    }
+
+
+    /**
+     * Compiles a generated class in memory and defines it as a hidden class next to this class.
+     * @param compiler System Java compiler.
+     * @param className Name of the generated class.
+     * @param source Source of the generated class.
+     * @return Instance of the generated routine.
+     * @throws RuntimeException Whenever the source doesn't compile or the class can't be defined.
+     */
+    @SuppressWarnings("unchecked")
+    private static ToDoubleFunction<double[]> load(JavaCompiler compiler, String className, String source){
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE){
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(compiler.getStandardFileManager(diagnostics, null, null)){
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + name + kind.extension), kind){
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classBytes;
+                    }
+                };
+            }
+        }) {
+            Boolean compiled = compiler.getTask(null, fileManager, diagnostics, Arrays.asList("-g:none", "-proc:none"), null,
+                    Collections.singletonList(sourceFile)).call();
+            if(!Boolean.TRUE.equals(compiled)){
+                StringBuilder message = new StringBuilder("Generated query " + className + " doesn't compile:");
+                for(Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()){
+                    message.append('\n').append(diagnostic.getMessage(null));
+                }
+                throw new IllegalStateException(message.toString());
+            }
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes.toByteArray(), true);
+            return (ToDoubleFunction<double[]>) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Returns the query variables and all their ancestors, which are the only variables the circuit needs.
+     * @param names Names of the query variables.
+     * @return Names of the relevant variables, the given names first.
+     */
+    private List<String> getRelevantVariables(String[] names){
+        Set<String> relevant = new LinkedHashSet<>();
+        Deque<String> traversalQueue = new ArrayDeque<>();
+        Collections.addAll(traversalQueue, names);
+        while(!traversalQueue.isEmpty()){
+            String ancestor = traversalQueue.remove();
+            if(relevant.add(ancestor))
+                Collections.addAll(traversalQueue, network.getNodeByName(ancestor).getParents());
+        }
+        return new ArrayList<>(relevant);
+    }
+
+
+    /*
+     * Getters of QueryCompiler class
+     * */
+
+    /**
+     * Returns the cached routine of a query's shape, without generating it or counting a cache lookup.
+     * @param names Names of the given query, the query variable first.
+     * @return The routine, or null when the shape wasn't generated yet or can't be compiled.
+     */
+    public CompiledQuery getCachedQuery(String[] names){
+        synchronized (cache){
+            return cache.get(getShape(names));
+        }
+    }
+
+    /**
+     * Returns the largest circuit a routine is generated for.
+     * @return Largest number of nodes.
+     */
+    public int getMaxNodes(){
+        return maxNodes;
+    }
+
+    /**
+     * Returns the largest circuit a routine is generated for by compilers built with the default limits,
+     * given by the bn.codegen.maxNodes system property.
+     * @return Largest number of nodes.
+     */
+    public static int getDefaultMaxNodes(){
+        return DEFAULT_MAX_NODES;
+    }
+
+    /**
+     * Returns the number of shapes whose routines are cached.
+     * @return Number of cached shapes.
+     */
+    public int getCachedShapes(){
+        synchronized (cache){
+            return cache.size();
+        }
+    }
+}
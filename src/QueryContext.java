@@ -0,0 +1,159 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * QueryContext holds the limits of a single query: a deadline, a cancellation token and the largest table the query
+ * may allocate. The engines call checkpoint() at block boundaries of their inner loops, and checkCells() before they
+ * allocate a table, and both throw a QueryAbortedException once a limit is hit. The checks are a volatile read and,
+ * for queries with a deadline, a read of the clock, therefore they are cheap enough for every block of rows.
+ * A context may name a fallback engine, which answers the query instead when it runs out of time or memory.
+ */
+public class QueryContext {
+    private static final long NO_DEADLINE = Long.MAX_VALUE; //Deadline of queries without a time limit.
+
+    private final long startNanos; //Time the query started, by System.nanoTime().
+
+    private final long deadlineNanos; //Time the query must end by, by System.nanoTime(). NO_DEADLINE when there isn't one.
+
+    private final long timeoutMillis; //Time limit of the query, 0 when there isn't one.
+
+    private final long maxCells; //Largest table the query may allocate, in cells.
+
+    private final int fallbackAlgorithm; //Engine which answers aborted queries, -1 when there isn't one.
+
+    private final AtomicBoolean cancelled; //Cancellation token, shared with the context of the fallback.
+
+
+    /**
+     * Builds the context of a query which starts now.
+     * @param timeoutMillis Time limit of the query in milliseconds, 0 for no limit.
+     * @param maxCells Largest table the query may allocate, in cells. 0 for no limit.
+     * @param fallbackAlgorithm Engine which answers the query when it runs out of time or memory, -1 for none.
+     *                          See BayesianNetwork.answer() for the numbers of the engines.
+     * @throws IllegalArgumentException Whenever a limit is negative.
+     */
+    public QueryContext(long timeoutMillis, long maxCells, int fallbackAlgorithm){
+        this(timeoutMillis, maxCells, fallbackAlgorithm, new AtomicBoolean());
+    }
+
+
+    /**
+     * Builds the context of a query which starts now, with an existing cancellation token.
+     * @param timeoutMillis Time limit of the query in milliseconds, 0 for no limit.
+     * @param maxCells Largest table the query may allocate, in cells. 0 for no limit.
+     * @param fallbackAlgorithm Engine which answers the query when it runs out of time or memory, -1 for none.
+     * @param cancelled Cancellation token.
+     */
+    private QueryContext(long timeoutMillis, long maxCells, int fallbackAlgorithm, AtomicBoolean cancelled){
+        if(timeoutMillis < 0 || maxCells < 0)
+            throw new IllegalArgumentException("Query limits can't be negative");
+        this.startNanos = System.nanoTime();
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = timeoutMillis == 0 ? NO_DEADLINE : startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxCells = maxCells == 0 ? Long.MAX_VALUE : maxCells;
+        this.fallbackAlgorithm = fallbackAlgorithm;
+        this.cancelled = cancelled;
+    }
+
+
+    /**
+     * Builds the context of a query which starts now, with the limits given by the system properties
+     * bn.query.timeoutMillis(default 0, no limit), bn.query.maxCells(default 0, no limit)
+     * and bn.query.fallback(default -1, no fallback).
+     * @return New context.
+     */
+    public static QueryContext fromProperties(){
+        return new QueryContext(Long.getLong("bn.query.timeoutMillis", 0), Long.getLong("bn.query.maxCells", 0),
+                Integer.getInteger("bn.query.fallback", -1));
+    }
+
+
+    /**
+     * Builds the context the fallback engine answers with: it has no time or memory limits, since the query already
+     * ran out of them, but it shares the cancellation token of this context. The fallback engine checks the token
+     * at its checkpoints, the same as any engine, therefore cancelling the query also stops its fallback.
+     * @return New context.
+     */
+    public QueryContext forFallback(){
+        return new QueryContext(0, 0, -1, cancelled);
+    }
+
+
+    /**
+     * Cancels the query. Engines running the query abort at their next checkpoint, from any thread.
+     */
+    public void cancel(){
+        cancelled.set(true);
+    }
+
+
+    /**
+     * Aborts the query when it was cancelled or when it passed its deadline.
+     * @throws QueryCancelledException Whenever the query was cancelled.
+     * @throws QueryDeadlineException Whenever the query passed its deadline.
+     */
+    public void checkpoint(){
+        if(cancelled.get())
+            throw new QueryCancelledException("Query was cancelled after " + getElapsedMillis() + " ms");
+        if(deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos > 0)
+            throw new QueryDeadlineException("Query passed its deadline of " + timeoutMillis + " ms");
+    }
+
+
+    /**
+     * Aborts the query when a table it is about to allocate is larger than its limit. Called before the allocation,
+     * with the predicted number of cells, therefore the query fails before it takes the memory.
+     * @param cells Number of cells of the table.
+     * @throws QueryMemoryException Whenever the table is larger than the limit.
+     */
+    public void checkCells(long cells){
+        if(cells > maxCells)
+            throw new QueryMemoryException("Table of " + cells + " cells is larger than the limit of " + maxCells + " cells");
+    }
+
+
+    /*
+     * Getters of QueryContext class
+     * */
+
+    /**
+     * Checks whenever the query was cancelled.
+     * @return true whenever the query was cancelled.
+     */
+    public boolean isCancelled(){
+        return cancelled.get();
+    }
+
+    /**
+     * Returns the time since the query started.
+     * @return Elapsed time in milliseconds.
+     */
+    public long getElapsedMillis(){
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the time limit of the query.
+     * @return Time limit in milliseconds, 0 when there isn't one.
+     */
+    public long getTimeoutMillis(){
+        return timeoutMillis;
+    }
+
+    /**
+     * Returns the largest table the query may allocate.
+     * @return Number of cells, Long.MAX_VALUE when there is no limit.
+     */
+    public long getMaxCells(){
+        return maxCells;
+    }
+
+    /**
+     * Returns the engine which answers the query when it runs out of time or memory.
+     * @return Number of the engine, -1 when there isn't one.
+     */
+    public int getFallbackAlgorithm(){
+        return fallbackAlgorithm;
+    }
+}
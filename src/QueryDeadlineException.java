@@ -0,0 +1,15 @@
+/**
+ * Thrown by an engine which aborted a query which passed its deadline.
+ */
+public class QueryDeadlineException extends QueryAbortedException {
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * Builds the exception.
+     * @param message Description of the limit which was hit.
+     */
+    public QueryDeadlineException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Thrown by an engine which aborted a query which was about to allocate a table larger than its limit.
+ */
+public class QueryMemoryException extends QueryAbortedException {
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * Builds the exception.
+     * @param message Description of the limit which was hit.
+     */
+    public QueryMemoryException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,301 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * QueryMetrics records where the queries of the process spend their time: the time of every phase of the inference,
+ * in a counter and a histogram per phase, and the factor tables the queries allocate and the cache lookups of the
+ * engines. A phase is timed by calling start() before it and record() after it.
+ * The counters are LongAdders and the histograms hold a bucket for every power of 2 nanoseconds, therefore recording
+ * never takes a lock, and threads of parallel queries don't contend on a single counter.
+ * There is a single instance per process, registered with the platform MBean server as bn:type=QueryMetrics.
+ * The recording is on unless the bn.metrics system property is false, and it can be turned on and off at any time.
+ * While it is off, start() and record() return right away.
+ */
+public final class QueryMetrics implements QueryMetricsMBean {
+    private static final String OBJECT_NAME = "bn:type=QueryMetrics";
+
+    private static final int BUCKETS = 64; //Bucket i holds the times of less than 2^i nanoseconds.
+
+    private static final QueryMetrics INSTANCE = new QueryMetrics(Boolean.parseBoolean(System.getProperty("bn.metrics", "true")));
+
+
+    /**
+     * Phases of a query. Phases may be nested: the joins of a fused elimination are also recorded as joins.
+     */
+    public enum Phase {
+        QUERY, //A whole run of an engine. A query answered by a fallback engine runs twice.
+        RELEVANCE, //Pruning the network to the relevant factors, and copying them.
+        INSTANTIATION, //Instantiating the evidence in the factors.
+        ORDERING, //Ordering the hidden variables and planning the buckets.
+        JOIN, //A single join of two factors.
+        ELIMINATE, //Summing a hidden variable out of a factor, or out of a bucket when fused.
+        NORMALIZATION //Normalizing the final table of the query.
+    }
+
+    private volatile boolean enabled; //Whenever the metrics are recorded.
+
+    private final LongAdder[] phaseCounts = new LongAdder[Phase.values().length]; //Runs of each phase.
+
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length]; //Total time of each phase.
+
+    private final AtomicLongArray histograms = new AtomicLongArray(Phase.values().length * BUCKETS); //Histogram of each phase, in order.
+
+    private final LongAdder tables = new LongAdder(), cells = new LongAdder(), bytes = new LongAdder(); //Allocated tables.
+
+    private final LongAccumulator peakCells = new LongAccumulator(Math::max, 0); //Largest allocated table.
+
+    private final LongAdder cacheLookups = new LongAdder(), cacheHits = new LongAdder(); //Lookups in the caches of the engines.
+
+
+    /**
+     * Builds the metrics, with all the counters set to 0.
+     * @param enabled Whenever the metrics are recorded.
+     */
+    private QueryMetrics(boolean enabled){
+        this.enabled = enabled;
+        for(int i = 0; i < phaseCounts.length; i++){
+            phaseCounts[i] = new LongAdder();
+            phaseNanos[i] = new LongAdder();
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            //The metrics still work without JMX, through dump().
+        }
+    }
+
+
+    /**
+     * Returns the metrics of the process.
+     * @return The single instance.
+     */
+    public static QueryMetrics getInstance(){
+        return INSTANCE;
+    }
+
+
+    /**
+     * Starts timing a phase.
+     * @return Start time to hand to record(), 0 while the metrics are off.
+     */
+    public long start(){
+        return enabled ? System.nanoTime() : 0;
+    }
+
+
+    /**
+     * Records the time of a phase which was started by start().
+     * @param phase Phase which ended.
+     * @param start Start time returned by start().
+     */
+    public void record(Phase phase, long start){
+        if(start == 0 || !enabled)
+            return;
+        long nanos = Math.max(System.nanoTime() - start, 0);
+        phaseCounts[phase.ordinal()].increment();
+        phaseNanos[phase.ordinal()].add(nanos);
+        histograms.incrementAndGet(phase.ordinal() * BUCKETS + Math.min(BUCKETS - Long.numberOfLeadingZeros(nanos), BUCKETS - 1));
+    }
+
+
+    /**
+     * Records the allocation of a factor table.
+     * @param tableCells Number of cells of the table.
+     * @param tableBytes Number of bytes of the cells of the table.
+     */
+    public void recordAllocation(long tableCells, long tableBytes){
+        if(!enabled)
+            return;
+        tables.increment();
+        cells.add(tableCells);
+        bytes.add(tableBytes);
+        peakCells.accumulate(tableCells);
+    }
+
+
+    /**
+     * Records lookups in a cache of an engine.
+     * @param lookups Number of lookups.
+     * @param hits Number of lookups which found their value.
+     */
+    public void recordCacheLookups(long lookups, long hits){
+        if(!enabled)
+            return;
+        cacheLookups.add(lookups);
+        cacheHits.add(hits);
+    }
+
+
+    /**
+     * Returns an upper bound of a percentile of the times of a phase, from its histogram.
+     * @param phase Phase of the times.
+     * @param percentile Percentile, between 0 and 100.
+     * @return Nanoseconds, 0 when the phase never ran.
+     */
+    public long getPercentileNanos(Phase phase, double percentile){
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            buckets[i] = histograms.get(phase.ordinal() * BUCKETS + i);
+            total += buckets[i];
+        }
+        if(total == 0)
+            return 0;
+        long rank = Math.max((long) Math.ceil(total * percentile / 100.0), 1);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += buckets[i];
+            if(seen >= rank)
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+
+    @Override
+    public long getPhasePercentileNanos(String phase, double percentile) {
+        return getPercentileNanos(Phase.valueOf(phase), percentile);
+    }
+
+
+    @Override
+    public String dump() {
+        StringBuilder builder = new StringBuilder("Query metrics").append(enabled ? "" : " (off)").append('\n');
+        builder.append(String.format("  %-14s %10s %12s %10s %10s %10s%n", "phase", "count", "total ms", "mean us", "p50 us", "p99 us"));
+        for(Phase phase : Phase.values()){
+            long count = phaseCounts[phase.ordinal()].sum(), nanos = phaseNanos[phase.ordinal()].sum();
+            builder.append(String.format("  %-14s %10d %12.3f %10.2f %10.2f %10.2f%n", phase.name().toLowerCase(), count,
+                    nanos / 1e6, count == 0 ? 0.0 : nanos / 1e3 / count,
+                    getPercentileNanos(phase, 50) / 1e3, getPercentileNanos(phase, 99) / 1e3));
+        }
+        builder.append("  tables: ").append(tables.sum()).append(", total cells: ").append(cells.sum())
+                .append(", peak cells: ").append(peakCells.get()).append(", allocated bytes: ").append(bytes.sum()).append('\n');
+        long lookups = cacheLookups.sum(), hits = cacheHits.sum();
+        builder.append("  cache lookups: ").append(lookups).append(", hits: ").append(hits)
+                .append(String.format(" (%.1f%%)%n", lookups == 0 ? 0.0 : 100.0 * hits / lookups));
+        return builder.toString();
+    }
+
+
+    @Override
+    public void reset() {
+        for(int i = 0; i < phaseCounts.length; i++){
+            phaseCounts[i].reset();
+            phaseNanos[i].reset();
+        }
+        for(int i = 0; i < histograms.length(); i++){
+            histograms.set(i, 0);
+        }
+        tables.reset();
+        cells.reset();
+        bytes.reset();
+        peakCells.reset();
+        cacheLookups.reset();
+        cacheHits.reset();
+    }
+
+
+    /**
+     * Formats all the metrics as plain text, see dump().
+     * @return Text of the metrics.
+     */
+    @Override
+    public String toString() {
+        return dump();
+    }
+
+
+    /*
+     * Getters and setters of QueryMetrics class
+     * */
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the number of times a phase ran.
+     * @param phase Phase to count.
+     * @return Number of runs.
+     */
+    public long getCount(Phase phase){
+        return phaseCounts[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns the total time spent in a phase.
+     * @param phase Phase to time.
+     * @return Nanoseconds.
+     */
+    public long getTotalNanos(Phase phase){
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    @Override
+    public String[] getPhaseNames() {
+        String[] names = new String[Phase.values().length];
+        for(Phase phase : Phase.values()){
+            names[phase.ordinal()] = phase.name();
+        }
+        return names;
+    }
+
+    @Override
+    public long[] getPhaseCounts() {
+        long[] counts = new long[phaseCounts.length];
+        for(int i = 0; i < counts.length; i++){
+            counts[i] = phaseCounts[i].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public long[] getPhaseTotalNanos() {
+        long[] nanos = new long[phaseNanos.length];
+        for(int i = 0; i < nanos.length; i++){
+            nanos[i] = phaseNanos[i].sum();
+        }
+        return nanos;
+    }
+
+    @Override
+    public long getTableCount() {
+        return tables.sum();
+    }
+
+    @Override
+    public long getTotalCells() {
+        return cells.sum();
+    }
+
+    @Override
+    public long getPeakCells() {
+        return peakCells.get();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getCacheLookups() {
+        return cacheLookups.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+}
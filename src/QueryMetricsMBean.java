@@ -0,0 +1,104 @@
+/**
+ * Management interface of QueryMetrics, as it is seen through JMX under the name bn:type=QueryMetrics.
+ * Times are in nanoseconds, and every counter counts since the start of the process or the last reset().
+ */
+public interface QueryMetricsMBean {
+
+    /**
+     * Checks whenever the metrics are recorded.
+     * @return true whenever the metrics are recorded.
+     */
+    boolean isEnabled();
+
+
+    /**
+     * Turns the recording of the metrics on or off. The counters keep their values while it is off.
+     * @param enabled true to record the metrics.
+     */
+    void setEnabled(boolean enabled);
+
+
+    /**
+     * Returns the names of the phases, in the order of the arrays of the phase attributes.
+     * @return Names of the phases.
+     */
+    String[] getPhaseNames();
+
+
+    /**
+     * Returns the number of times each phase ran.
+     * @return Count of each phase.
+     */
+    long[] getPhaseCounts();
+
+
+    /**
+     * Returns the total time spent in each phase.
+     * @return Nanoseconds of each phase.
+     */
+    long[] getPhaseTotalNanos();
+
+
+    /**
+     * Returns an upper bound of a percentile of the times of a phase, from its histogram.
+     * @param phase Name of the phase.
+     * @param percentile Percentile, between 0 and 100.
+     * @return Nanoseconds, 0 when the phase never ran.
+     */
+    long getPhasePercentileNanos(String phase, double percentile);
+
+
+    /**
+     * Returns the number of factor tables which were allocated.
+     * @return Number of tables.
+     */
+    long getTableCount();
+
+
+    /**
+     * Returns the number of cells of all the factor tables which were allocated.
+     * @return Number of cells.
+     */
+    long getTotalCells();
+
+
+    /**
+     * Returns the number of cells of the largest factor table which was allocated.
+     * @return Number of cells.
+     */
+    long getPeakCells();
+
+
+    /**
+     * Returns the number of bytes of the cells of all the factor tables which were allocated.
+     * @return Number of bytes.
+     */
+    long getAllocatedBytes();
+
+
+    /**
+     * Returns the number of lookups in the caches of the engines.
+     * @return Number of lookups.
+     */
+    long getCacheLookups();
+
+
+    /**
+     * Returns the number of lookups in the caches of the engines which found their value.
+     * @return Number of hits.
+     */
+    long getCacheHits();
+
+
+    /**
+     * Formats all the metrics as plain text.
+     * @return Text of the metrics.
+     */
+    String dump();
+
+
+    /**
+     * Sets every counter and histogram back to 0.
+     */
+    void reset();
+}
@@ -0,0 +1,221 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * QueryPlan is the result of planning a single query: the statistics the planner looked at, the predicted cost of
+ * every candidate engine, and the engine it picked. The explanation lists all of them.
+ */
+public class QueryPlan {
+    private final String query; //The query as it was given, for the explanation.
+
+    private final int relevantVariables; //Number of variables of the relevant subnetwork.
+
+    private final double enumerationSize; //Number of assignments func1() iterates over for each query outcome.
+
+    private final List<Candidate> candidates = new ArrayList<>(); //Candidates in the order they were considered.
+
+    private Candidate chosen; //Candidate the query runs with.
+
+
+    /**
+     * Builds an empty plan.
+     * @param query The query as it was given.
+     * @param relevantVariables Number of variables of the relevant subnetwork.
+     * @param enumerationSize Number of assignments func1() iterates over for each query outcome.
+     */
+    QueryPlan(String query, int relevantVariables, double enumerationSize){
+        this.query = query;
+        this.relevantVariables = relevantVariables;
+        this.enumerationSize = enumerationSize;
+    }
+
+
+    /**
+     * Adds a candidate engine to the plan.
+     * @param engine Number of the engine, as in BayesianNetwork.answer().
+     * @param name Name of the engine.
+     * @param exact Whenever the engine gives the exact answer.
+     * @param inducedWidth Induced width of the engine's elimination order, -1 when it doesn't eliminate.
+     * @param peakCells Cells of the largest table the engine builds.
+     * @param cost Predicted number of additions and multiplications.
+     * @param feasible Whenever the engine is within the planner's limits.
+     */
+    void addCandidate(int engine, String name, boolean exact, int inducedWidth, double peakCells, double cost, boolean feasible){
+        candidates.add(new Candidate(engine, name, exact, inducedWidth, peakCells, cost, feasible));
+    }
+
+
+    /**
+     * Picks the cheapest feasible exact candidate, or the cheapest feasible approximate candidate when there is no
+     * feasible exact one. When nothing is feasible, the cheapest candidate of all is picked.
+     */
+    void choose(){
+        for(boolean exact : new boolean[]{true, false}){
+            for(Candidate candidate : candidates){
+                if(candidate.exact == exact && candidate.feasible && (chosen == null || candidate.cost < chosen.cost))
+                    chosen = candidate;
+            }
+            if(chosen != null)
+                return;
+        }
+        for(Candidate candidate : candidates){
+            if(chosen == null || candidate.cost < chosen.cost)
+                chosen = candidate;
+        }
+    }
+
+
+    /**
+     * Describes the plan: the statistics of the query, every candidate with its predicted cost, and the chosen engine.
+     * @return Multi line explanation of the plan.
+     */
+    public String explain(){
+        StringBuilder builder = new StringBuilder("Plan of ").append(query).append('\n');
+        builder.append("  relevant variables: ").append(relevantVariables)
+                .append(", enumeration size: ").append(String.format("%.3g", enumerationSize)).append('\n');
+        for(Candidate candidate : candidates){
+            builder.append(candidate == chosen ? "* " : "  ").append(candidate).append('\n');
+        }
+        return builder.toString();
+    }
+
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+
+
+    /*
+     * Getters of QueryPlan class
+     * */
+
+    /**
+     * Returns the number of the chosen engine.
+     * @return Number of the engine, as in BayesianNetwork.answer().
+     */
+    public int getEngine(){
+        return chosen.engine;
+    }
+
+    /**
+     * Returns the name of the chosen engine.
+     * @return Name of the engine.
+     */
+    public String getEngineName(){
+        return chosen.name;
+    }
+
+    /**
+     * Returns the predicted cost of the chosen engine.
+     * @return Predicted number of additions and multiplications.
+     */
+    public double getPredictedCost(){
+        return chosen.cost;
+    }
+
+    /**
+     * Returns the number of variables of the relevant subnetwork.
+     * @return Number of relevant variables.
+     */
+    public int getRelevantVariables(){
+        return relevantVariables;
+    }
+
+    /**
+     * Returns the number of assignments func1() iterates over for each query outcome.
+     * @return Enumeration size.
+     */
+    public double getEnumerationSize(){
+        return enumerationSize;
+    }
+
+    /**
+     * Returns all the candidates, in the order they were considered.
+     * @return The candidates.
+     */
+    public List<Candidate> getCandidates(){
+        return Collections.unmodifiableList(candidates);
+    }
+
+
+    /**
+     * A candidate engine of a plan, with its predicted cost.
+     */
+    public static class Candidate {
+        private final int engine; //Number of the engine.
+
+        private final String name; //Name of the engine.
+
+        private final boolean exact; //Whenever the engine gives the exact answer.
+
+        private final int inducedWidth; //Induced width of the elimination order, -1 when the engine doesn't eliminate.
+
+        private final double peakCells; //Cells of the largest table the engine builds.
+
+        private final double cost; //Predicted number of additions and multiplications.
+
+        private final boolean feasible; //Whenever the engine is within the planner's limits.
+
+        /**
+         * Builds a candidate.
+         * @param engine Number of the engine.
+         * @param name Name of the engine.
+         * @param exact Whenever the engine gives the exact answer.
+         * @param inducedWidth Induced width of the elimination order, -1 when the engine doesn't eliminate.
+         * @param peakCells Cells of the largest table the engine builds.
+         * @param cost Predicted number of additions and multiplications.
+         * @param feasible Whenever the engine is within the planner's limits.
+         */
+        Candidate(int engine, String name, boolean exact, int inducedWidth, double peakCells, double cost, boolean feasible){
+            this.engine = engine;
+            this.name = name;
+            this.exact = exact;
+            this.inducedWidth = inducedWidth;
+            this.peakCells = peakCells;
+            this.cost = cost;
+            this.feasible = feasible;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d %s: cost %.3g, peak %.3g cells%s%s%s", engine, name, cost, peakCells,
+                    inducedWidth >= 0 ? ", induced width " + inducedWidth : "", exact ? "" : ", approximate",
+                    feasible ? "" : ", over the limits");
+        }
+
+        /**
+         * Returns the number of the engine.
+         * @return Number of the engine, as in BayesianNetwork.answer().
+         */
+        public int getEngine(){
+            return engine;
+        }
+
+        /**
+         * Returns the predicted cost of the engine.
+         * @return Predicted number of additions and multiplications.
+         */
+        public double getCost(){
+            return cost;
+        }
+
+        /**
+         * Returns the induced width of the engine's elimination order.
+         * @return Induced width, -1 when the engine doesn't eliminate.
+         */
+        public int getInducedWidth(){
+            return inducedWidth;
+        }
+
+        /**
+         * Returns the cells of the largest table the engine builds.
+         * @return Number of cells.
+         */
+        public double getPeakCells(){
+            return peakCells;
+        }
+    }
+}
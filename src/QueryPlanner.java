@@ -0,0 +1,386 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * QueryPlanner picks the engine of a query before running anything, by predicting the cost of each candidate from the
+ * structure of the query alone: the size of the relevant subnetwork, the number of assignments enumeration iterates
+ * over, and the induced width, peak table size and number of operations of variable elimination under the
+ * alphabetical order of func2() and the min-neighbors order of func3(). The elimination is simulated over the
+ * variables of the tables, with the evidence removed, the same way the elimination removes it by instantiation.
+ * Every other engine is priced from the same statistics: cutset conditioning as an elimination for every cutset
+ * instantiation, recursive conditioning by whether its caches hold the clusters of the elimination, the circuits by
+ * their (estimated) node counts, and the approximations by their settings, samples, sweeps or iterations.
+ * The cheapest exact engine within the limits is picked, and the cheapest approximation when no exact engine is.
+ * The approximations are compared by their cost only, the planner doesn't predict their error.
+ */
+public class QueryPlanner {
+    //Operations a generated routine's javac compilation costs per circuit node, measured at 10 to 20 microseconds a node.
+    private static final double JAVAC_OPERATIONS_PER_NODE = 1e4;
+
+    private final BayesianNetwork network; //Network the queries are asked on.
+
+    private final double maxExactCost; //Largest predicted cost of an exact engine.
+
+    private final double maxCells; //Largest predicted table of an exact engine.
+
+    private final boolean explain; //Whenever answered queries print their plan.
+
+
+    /**
+     * Builds a planner whose limits are given by the system properties bn.planner.maxExactCost(default 10^10 operations),
+     * bn.planner.maxCells(default 2^26 cells) and bn.planner.explain(default false).
+     * @param network Network the queries are asked on.
+     */
+    public QueryPlanner(BayesianNetwork network){
+        this(network, Double.parseDouble(System.getProperty("bn.planner.maxExactCost", "1e10")),
+                Long.getLong("bn.planner.maxCells", 1L << 26), Boolean.parseBoolean(System.getProperty("bn.planner.explain", "false")));
+    }
+
+
+    /**
+     * Builds a planner with the given limits.
+     * @param network Network the queries are asked on.
+     * @param maxExactCost Largest predicted cost of an exact engine, in additions and multiplications.
+     * @param maxCells Largest predicted table of an exact engine, in cells.
+     * @param explain Whenever answered queries print their plan.
+     */
+    public QueryPlanner(BayesianNetwork network, double maxExactCost, double maxCells, boolean explain){
+        this.network = network;
+        this.maxExactCost = maxExactCost;
+        this.maxCells = maxCells;
+        this.explain = explain;
+    }
+
+
+    /**
+     * Answers a query with the engine of its plan, printing the plan first in explain mode.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query with the engine of its plan within the limits of a context, printing the plan first in explain mode.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        QueryPlan plan = plan(names);
+        if(explain)
+            System.out.print(plan.explain());
+        return network.answer(names, truthValsArr, plan.getEngine(), context);
+    }
+
+
+    /**
+     * Plans a query. Only the variables of the query matter, not their values.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @return The plan, with the chosen engine.
+     */
+    public QueryPlan plan(String[] names){
+        String query = "P(" + names[0] + "|" + String.join(",", Arrays.copyOfRange(names, 1, names.length)) + ")";
+        if(network.IsProbabilityValueDirect(names)){
+            QueryPlan plan = new QueryPlan(query, names.length, 0);
+            plan.addCandidate(3, "direct lookup", true, -1, 0, 0, true);
+            plan.choose();
+            return plan;
+        }
+
+        String[] minNeighborsOrder = network.getHeuristicEliminationOrder(names);
+        String[] alphabeticalOrder = minNeighborsOrder.clone();
+        Arrays.sort(alphabeticalOrder);
+        List<String> relevant = new ArrayList<>(Arrays.asList(names));
+        relevant.addAll(Arrays.asList(minNeighborsOrder));
+
+        //Enumeration iterates over all the variables of the network which aren't in the query, for every query outcome.
+        double enumerationSize = 1;
+        List<String> nameList = Arrays.asList(names);
+        for(int i = 0; i < network.getNodeCount(); i++){
+            VariableNode node = network.getNodeByIndex(i);
+            if(!nameList.contains(node.getVariableNodeName()))
+                enumerationSize *= node.getOutcomeCount();
+        }
+        QueryPlan plan = new QueryPlan(query, relevant.size(), enumerationSize);
+
+        double[] minNeighbors = simulateElimination(names, relevant, minNeighborsOrder);
+        plan.addCandidate(3, "variable elimination, min-neighbors order", true, (int) minNeighbors[0], minNeighbors[1], minNeighbors[2],
+                minNeighbors[1] <= maxCells && minNeighbors[2] <= maxExactCost);
+        double[] alphabetical = simulateElimination(names, relevant, alphabeticalOrder);
+        plan.addCandidate(2, "variable elimination, alphabetical order", true, (int) alphabetical[0], alphabetical[1], alphabetical[2],
+                alphabetical[1] <= maxCells && alphabetical[2] <= maxExactCost);
+        int queryOutcomes = network.getNodeByName(names[0]).getOutcomeCount();
+        double enumerationCost = queryOutcomes * enumerationSize * network.getNodeCount();
+        plan.addCandidate(1, "enumeration", true, -1, 0, enumerationCost, enumerationCost <= maxExactCost);
+
+        List<String> cutset = new CutsetConditioningEngine(network).selectCutset(names);
+        addConditioningCandidates(plan, names, relevant, minNeighbors, cutset);
+        addCircuitCandidates(plan, names, relevant, minNeighbors);
+
+        //Every sample draws or weights each relevant variable once.
+        double samplingCost = Long.getLong("bn.lw.maxSamples", 1000000) * (double) relevant.size();
+        plan.addCandidate(8, "likelihood weighting", false, -1, 0, samplingCost, true);
+        addApproximateCandidates(plan, names, relevant, minNeighbors);
+        plan.choose();
+        return plan;
+    }
+
+
+    /**
+     * Adds the candidates of cutset conditioning and recursive conditioning.
+     * Cutset conditioning eliminates the query once for every instantiation of its cutset, with the cutset added to
+     * the evidence, so its peak table is the peak of a single conditioned elimination. It only fits cutsets within the
+     * engine's limit of instantiations.
+     * Recursive conditioning with every cache solves each dtree node once per instantiation of its context, which
+     * costs about as much as the elimination its dtree is built from, for every query outcome. Without every cache,
+     * a dtree node is solved again for every instantiation above it, which is bounded by enumerating the relevant
+     * variables. It builds no tables, only caches within its budget.
+     * @param plan Plan to add the candidates to.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param relevant Names of the relevant variables.
+     * @param minNeighbors Induced width, peak cells and cost of the min-neighbors elimination.
+     * @param cutset Loop cutset of the query, see CutsetConditioningEngine.selectCutset().
+     */
+    private void addConditioningCandidates(QueryPlan plan, String[] names, List<String> relevant, double[] minNeighbors, List<String> cutset){
+        int queryOutcomes = network.getNodeByName(names[0]).getOutcomeCount();
+        String[] conditionedNames = Arrays.copyOf(names, names.length + cutset.size());
+        double instantiations = 1;
+        for(int i = 0; i < cutset.size(); i++){
+            conditionedNames[names.length + i] = cutset.get(i);
+            instantiations *= network.getNodeByName(cutset.get(i)).getOutcomeCount();
+        }
+        double[] conditioned = simulateElimination(conditionedNames, relevant, network.getHeuristicEliminationOrder(conditionedNames));
+        double cutsetCost = instantiations * (conditioned[2] + queryOutcomes); //An elimination and a table sum per instantiation.
+        plan.addCandidate(4, "cutset conditioning, " + cutset.size() + " cutset variables", true, (int) conditioned[0], conditioned[1],
+                cutsetCost, conditioned[1] <= maxCells && cutsetCost <= maxExactCost
+                        && instantiations <= CutsetConditioningEngine.getMaxInstantiations());
+
+        double cacheCells = (double) Long.getLong("bn.rc.cacheBytes", 64L << 20) / Double.BYTES;
+        double relevantAssignments = 1;
+        for(String name : relevant){
+            if(!Arrays.asList(names).contains(name))
+                relevantAssignments *= network.getNodeByName(name).getOutcomeCount();
+        }
+        boolean everyCache = minNeighbors[2] <= cacheCells; //The clusters are at most the elimination's operations.
+        double conditioningCost = queryOutcomes * (everyCache ? minNeighbors[2] : relevantAssignments * relevant.size());
+        double cachedCells = Math.min(minNeighbors[2], cacheCells);
+        plan.addCandidate(5, "recursive conditioning" + (everyCache ? "" : ", partial caches"), true, -1, cachedCells, conditioningCost,
+                cachedCells <= maxCells && conditioningCost <= maxExactCost);
+    }
+
+
+    /**
+     * Adds the candidates of the network's arithmetic circuit and of the generated routine of the query's shape.
+     * The circuit covers the entire network, and is compiled once, by the first query which needs it. Its two passes
+     * visit every edge about three times, and a circuit has about twice as many edges as nodes.
+     * The routine of a shape is generated once, by compiling the circuit of its relevant variables with javac, and
+     * then costs the operations of a run for every query outcome. A shape whose circuit is larger than the compiler's
+     * limit is answered by func3(), therefore it costs the same as func3().
+     * @param plan Plan to add the candidates to.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param relevant Names of the relevant variables.
+     * @param minNeighbors Induced width, peak cells and cost of the min-neighbors elimination.
+     */
+    private void addCircuitCandidates(QueryPlan plan, String[] names, List<String> relevant, double[] minNeighbors){
+        long nodeLimit = (long) Math.min(maxCells, Long.MAX_VALUE / 4);
+        double circuitCost, nodes;
+        ArithmeticCircuit circuit = network.getCompiledArithmeticCircuit();
+        if(circuit != null){
+            nodes = circuit.getNodeCount();
+            circuitCost = 3.0 * circuit.getEdgeCount();
+        }
+        else {
+            nodes = network.getEstimatedCircuitNodes(nodeLimit); //Calculated by the first plan of the network.
+            circuitCost = nodes + 3 * 2 * nodes; //Compiling builds every node once.
+        }
+        plan.addCandidate(6, "arithmetic circuit" + (circuit != null ? "" : ", not compiled yet"), true, -1,
+                nodes, circuitCost, nodes <= maxCells && circuitCost <= maxExactCost);
+
+        QueryCompiler compiler = network.getExistingQueryCompiler(); //Planning alone doesn't create the compiler.
+        CompiledQuery routine = compiler == null ? null : compiler.getCachedQuery(names);
+        int maxNodes = compiler == null ? QueryCompiler.getDefaultMaxNodes() : compiler.getMaxNodes();
+        int queryOutcomes = network.getNodeByName(names[0]).getOutcomeCount();
+        if(routine != null){
+            double routineCost = (double) queryOutcomes * (routine.getAdditions() + routine.getMultiplications() + 1);
+            plan.addCandidate(7, "generated routine", true, -1, 0, routineCost, routineCost <= maxExactCost);
+            return;
+        }
+        double shapeNodes = ArithmeticCircuit.estimateNodeCount(network, relevant, maxNodes);
+        if(shapeNodes > maxNodes){
+            plan.addCandidate(7, "generated routine, too large, func3()", true, (int) minNeighbors[0], minNeighbors[1], minNeighbors[2],
+                    minNeighbors[1] <= maxCells && minNeighbors[2] <= maxExactCost);
+            return;
+        }
+        double generationCost = shapeNodes * JAVAC_OPERATIONS_PER_NODE + queryOutcomes * 2 * shapeNodes;
+        plan.addCandidate(7, "generated routine, not generated yet", true, -1, shapeNodes, generationCost,
+                shapeNodes <= maxCells && generationCost <= maxExactCost);
+    }
+
+
+    /**
+     * Adds the candidates of Gibbs sampling, adaptive importance sampling, loopy belief propagation and mini-bucket
+     * elimination, priced by their settings, the same as likelihood weighting:
+     * Gibbs draws every non-evidence relevant variable in every sweep, from its CPT row and its children's cells.
+     * Adaptive importance sampling draws its learning stages, and then weights every final sample by a division and
+     * a multiplication for each variable.
+     * Belief propagation computes every message of the entire network in every iteration, at most its iteration limit.
+     * It is exact when the relevant variables form a polytree, evidence included, since the messages of the rest of
+     * the network, which has no evidence, are uniform.
+     * Mini-bucket elimination keeps three values a cell. It is exact when the peak table of func3() fits its budget,
+     * otherwise its tables are bounded by the budget.
+     * @param plan Plan to add the candidates to.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param relevant Names of the relevant variables.
+     * @param minNeighbors Induced width, peak cells and cost of the min-neighbors elimination.
+     */
+    private void addApproximateCandidates(QueryPlan plan, String[] names, List<String> relevant, double[] minNeighbors){
+        List<String> nameList = Arrays.asList(names);
+        double sweepCost = 0;
+        for(String name : relevant){
+            if(nameList.subList(1, nameList.size()).contains(name))
+                continue;
+            int relevantChildren = 0;
+            for(String other : relevant){
+                if(Arrays.asList(network.getNodeByName(other).getParents()).contains(name))
+                    relevantChildren++;
+            }
+            sweepCost += network.getNodeByName(name).getOutcomeCount() * (1.0 + relevantChildren);
+        }
+        double sweeps = Integer.getInteger("bn.gibbs.chains", 4) * (Integer.getInteger("bn.gibbs.burnIn", 1000)
+                + (double) Integer.getInteger("bn.gibbs.samples", 25000) * Integer.getInteger("bn.gibbs.thinning", 2));
+        plan.addCandidate(9, "Gibbs sampling", false, -1, 0, sweeps * sweepCost, true);
+
+        double learningSamples = (double) Integer.getInteger("bn.ais.stages", 10) * Integer.getInteger("bn.ais.stageSamples", 2500);
+        double importanceCost = (learningSamples + 2.0 * Long.getLong("bn.ais.maxSamples", 1000000)) * relevant.size();
+        plan.addCandidate(10, "adaptive importance sampling", false, -1, 0, importanceCost, true);
+
+        double iterationCost = 0;
+        for(int i = 0; i < network.getNodeCount(); i++){
+            Factor factor = network.getFactorByIndex(i);
+            int degree = factor.getFactorVars().length;
+            iterationCost += (double) factor.getValues().size() * degree + (double) network.getNodeByIndex(i).getOutcomeCount() * degree;
+        }
+        boolean polytree = isPolytree(relevant);
+        double propagationCost = Integer.getInteger("bn.bp.maxIterations", 200) * iterationCost;
+        plan.addCandidate(11, "loopy belief propagation", polytree, -1, 0, propagationCost,
+                !polytree || propagationCost <= maxExactCost);
+
+        double budgetCells = Long.getLong("bn.minibucket.budgetBytes", 64L << 20) / (3.0 * Double.BYTES);
+        boolean singleBuckets = minNeighbors[1] <= budgetCells;
+        double bucketCells = Math.min(minNeighbors[1], budgetCells);
+        double boundCost = 3 * (singleBuckets ? minNeighbors[2] : Math.min(minNeighbors[2], relevant.size() * budgetCells));
+        plan.addCandidate(12, "mini-bucket elimination", singleBuckets, singleBuckets ? (int) minNeighbors[0] : -1, bucketCells, boundCost,
+                !singleBuckets || (bucketCells <= maxCells && boundCost <= maxExactCost));
+    }
+
+
+    /**
+     * Checks whenever the relevant variables form a polytree, meaning their undirected graph has no cycles.
+     * Every edge is from a variable to one of its parents, which are relevant too, and an edge between two variables
+     * which are already connected closes a cycle.
+     * @param relevant Names of the relevant variables, closed under taking parents.
+     * @return true whenever there are no cycles.
+     */
+    private boolean isPolytree(List<String> relevant){
+        HashMap<String, String> representatives = new HashMap<>(); //Union-find forest of the connected variables.
+        for(String child : relevant){
+            for(String parent : network.getNodeByName(child).getParents()){
+                String childRoot = findRepresentative(representatives, child), parentRoot = findRepresentative(representatives, parent);
+                if(childRoot.equals(parentRoot))
+                    return false;
+                representatives.put(childRoot, parentRoot);
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the representative of a variable's connected set, compressing the path to it on the way.
+     * @param representatives Parent of each variable in the union-find forest, missing for the representatives.
+     * @param var Name of the variable.
+     * @return Name of the representative.
+     */
+    private static String findRepresentative(HashMap<String, String> representatives, String var){
+        String root = var;
+        while(representatives.containsKey(root)){
+            root = representatives.get(root);
+        }
+        while(!var.equals(root)){
+            String next = representatives.get(var);
+            representatives.put(var, root);
+            var = next;
+        }
+        return root;
+    }
+
+
+    /**
+     * Simulates an elimination over the variables of the tables: each bucket joins the tables of its variable into
+     * a table of all their variables, and sums the variable out. The remaining tables are joined into the query table.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param relevant Names of the relevant variables.
+     * @param order Hidden variables in elimination order.
+     * @return The induced width, the cells of the largest table and the number of additions and multiplications.
+     */
+    private double[] simulateElimination(String[] names, List<String> relevant, String[] order){
+        Set<String> evidence = new LinkedHashSet<>(Arrays.asList(names).subList(1, names.length));
+        List<Set<String>> scopes = new ArrayList<>();
+        for(String name : relevant){
+            Set<String> scope = new LinkedHashSet<>(Arrays.asList(network.getNodeByName(name).getVars()));
+            scope.removeAll(evidence);
+            if(!scope.isEmpty())
+                scopes.add(scope);
+        }
+
+        double width = 0, peakCells = 0, cost = 0;
+        for(String var : order){
+            Set<String> union = new LinkedHashSet<>();
+            int bucketSize = 0;
+            for(int i = scopes.size() - 1; i >= 0; i--){
+                if(scopes.get(i).contains(var)){
+                    union.addAll(scopes.remove(i));
+                    bucketSize++;
+                }
+            }
+            if(bucketSize == 0)
+                continue;
+            double cells = getCells(union);
+            width = Math.max(width, union.size() - 1);
+            peakCells = Math.max(peakCells, cells);
+            cost += cells * (bucketSize - 1) + cells; //Joins, then the sum over the variable.
+            union.remove(var);
+            if(!union.isEmpty())
+                scopes.add(union);
+        }
+
+        //Joins of the query tables.
+        double queryCells = network.getNodeByName(names[0]).getOutcomeCount();
+        cost += queryCells * Math.max(scopes.size() - 1, 0) + queryCells;
+        return new double[]{width, peakCells, cost};
+    }
+
+
+    /**
+     * Returns the number of cells of a table over the given variables.
+     * @param vars Variables of the table.
+     * @return Number of cells.
+     */
+    private double getCells(Set<String> vars){
+        double cells = 1;
+        for(String var : vars){
+            cells *= network.getNodeByName(var).getOutcomeCount();
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,490 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * RecursiveConditioningEngine answers queries with recursive conditioning over a dtree of the network's CPTs.
+ * A dtree is a full binary tree whose leaves are the CPTs of the variables relevant to the query. The cutset of an
+ * internal node is the set of variables shared by its two subtrees which weren't instantiated above it. Instantiating
+ * the cutset makes both subtrees independent, so each of them is solved recursively, and their answers are multiplied
+ * and summed over the cutset instantiations.
+ * The answer of a subtree only depends on the values of its context, which is the set of its variables which are
+ * instantiated above it. A context cache keeps these answers, so each one is calculated once. Caches are given to
+ * the dtree nodes in order of size, as long as they fit the memory budget, which trades time for space smoothly:
+ * a budget of 0 runs in linear space, and a large enough budget caches every node.
+ * The default budget is taken from the bn.rc.cacheBytes system property, or 64MB.
+ * An engine keeps the state of the query it answers, therefore the network builds a new engine for every query.
+ * The lookups and hits of the caches are recorded in the query metrics.
+ */
+public class RecursiveConditioningEngine {
+    private static final long DEFAULT_CACHE_BYTES = Long.getLong("bn.rc.cacheBytes", 64L << 20);
+
+    private static final int CHECKPOINT_STEPS = 1 << 14; //Cutset instantiations between checks of the query's limits.
+
+    private final BayesianNetwork network; //Network the queries are asked on.
+
+    private final long cacheBudgetBytes; //Most bytes the context caches of a query may take.
+
+    private int[] outcomeCounts; //Number of outcomes of each relevant variable.
+
+    private int[] values; //Current value of each relevant variable, -1 for variables which aren't instantiated.
+
+    private long additions, multiplications; //Counters of the current query.
+
+    private long cacheLookups, cacheHits; //Cache statistics of the current query, recorded in the query metrics.
+
+    private long cachedBytes; //Bytes of the caches of the current query.
+
+    private QueryContext context; //Limits of the current query.
+
+    private int checkpointCountdown; //Cutset instantiations left until the next check of the limits.
+
+
+    /**
+     * Builds an engine with the default cache budget.
+     * @param network Network the queries are asked on.
+     */
+    public RecursiveConditioningEngine(BayesianNetwork network){
+        this(network, DEFAULT_CACHE_BYTES);
+    }
+
+
+    /**
+     * Builds an engine with the given cache budget.
+     * @param network Network the queries are asked on.
+     * @param cacheBudgetBytes Most bytes the context caches of a query may take. 0 disables caching.
+     */
+    public RecursiveConditioningEngine(BayesianNetwork network, long cacheBudgetBytes){
+        this.network = network;
+        this.cacheBudgetBytes = cacheBudgetBytes;
+    }
+
+
+    /**
+     * Answers a query with recursive conditioning. The query variable and the evidence are instantiated,
+     * and the dtree is solved once for every outcome of the query variable. The results are normalized.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr){
+        return answer(names, truthValsArr, QueryContext.fromProperties());
+    }
+
+
+    /**
+     * Answers a query with recursive conditioning, within the limits of a context.
+     * The limits are checked once the dtree is built and then every CHECKPOINT_STEPS instantiations of a cutset,
+     * and the size of the query table and of every context cache is checked before it is allocated.
+     * @param names Names of the given query, the query variable first and then the evidence.
+     * @param truthValsArr The values given with the names in the same order.
+     * @param context Limits of the query.
+     * @return The answer of the query.
+     */
+    public QueryAnswer answer(String[] names, String[] truthValsArr, QueryContext context){
+        additions = multiplications = cacheLookups = cacheHits = cachedBytes = 0;
+        this.context = context;
+        checkpointCountdown = CHECKPOINT_STEPS;
+
+        //If query can be obtainable directly, same as func2() and func3().
+        if(network.IsProbabilityValueDirect(names))
+            return new QueryAnswer(network.getDirectProbability(names, truthValsArr), 0, 0);
+
+        //Relevant variables are the query, the evidence and their ancestors.
+        List<String> relevant = getRelevantVariables(names);
+        HashMap<String, Integer> varIds = new HashMap<>();
+        outcomeCounts = new int[relevant.size()];
+        values = new int[relevant.size()];
+        Arrays.fill(values, -1);
+        for(int id = 0; id < relevant.size(); id++){
+            varIds.put(relevant.get(id), id);
+            outcomeCounts[id] = network.getNodeByName(relevant.get(id)).getOutcomeCount();
+        }
+        for(int i = 1; i < names.length; i++){
+            values[varIds.get(names[i])] = getOutcomeIndex(names[i], truthValsArr[i]);
+        }
+        int queryId = varIds.get(names[0]);
+
+        DtreeNode root = buildDtree(relevant, varIds);
+        LinkedHashSet<Integer> instantiated = new LinkedHashSet<>(); //Query and evidence, instantiated above the root.
+        for(String name : names){
+            instantiated.add(varIds.get(name));
+        }
+        assignCutsets(root, instantiated);
+        context.checkpoint();
+        allocateCaches(root);
+
+        context.checkCells(outcomeCounts[queryId]);
+        double[] queryTable = new double[outcomeCounts[queryId]];
+        for(int outcome = 0; outcome < queryTable.length; outcome++){
+            values[queryId] = outcome;
+            queryTable[outcome] = recursiveConditioning(root);
+        }
+
+        //Normalization of the query table.
+        double normalizationSum = 0.0;
+        for(double value : queryTable){
+            normalizationSum += value;
+        }
+        additions += queryTable.length - 1;
+        QueryMetrics.getInstance().recordCacheLookups(cacheLookups, cacheHits);
+        double answer = queryTable[getOutcomeIndex(names[0], truthValsArr[0])] / normalizationSum;
+        return new QueryAnswer(answer, additions, multiplications);
+    }
+
+
+    /**
+     * Solves a dtree node under the current instantiation: the probability of the instantiated values of its CPTs,
+     * summed over the values of its variables which aren't instantiated.
+     * @param node Node of the dtree.
+     * @return The value of the node.
+     */
+    private double recursiveConditioning(DtreeNode node){
+        int cacheIndex = -1;
+        if(node.cache != null){
+            cacheIndex = 0;
+            for(int i = 0; i < node.context.length; i++){
+                cacheIndex += values[node.context[i]] * node.contextStrides[i];
+            }
+            cacheLookups++;
+            if(!Double.isNaN(node.cache[cacheIndex])){
+                cacheHits++;
+                return node.cache[cacheIndex];
+            }
+        }
+
+        double result;
+        if(node.factor != null)
+            result = leafValue(node);
+        else
+            result = conditionOnCutset(node, 0);
+
+        if(node.cache != null)
+            node.cache[cacheIndex] = result;
+        return result;
+    }
+
+
+    /**
+     * Sums the product of both children of a node, over all the instantiations of its cutset from the given position.
+     * @param node Internal node of the dtree.
+     * @param position Position in the cutset of the next variable to instantiate.
+     * @return Sum over the instantiations.
+     */
+    private double conditionOnCutset(DtreeNode node, int position){
+        if(position == node.cutset.length){
+            double left = recursiveConditioning(node.left);
+            if(left == 0.0)
+                return 0.0; //The right subtree can't change a 0 product.
+            multiplications++;
+            return left * recursiveConditioning(node.right);
+        }
+        int var = node.cutset[position];
+        double sum = 0.0;
+        for(int outcome = 0; outcome < outcomeCounts[var]; outcome++){
+            if(--checkpointCountdown == 0){
+                checkpointCountdown = CHECKPOINT_STEPS;
+                context.checkpoint();
+            }
+            values[var] = outcome;
+            sum += conditionOnCutset(node, position + 1);
+        }
+        values[var] = -1;
+        additions += outcomeCounts[var] - 1;
+        return sum;
+    }
+
+
+    /**
+     * Returns the value of a leaf: its CPT cell under the current instantiation, summed over the variables of the CPT
+     * which aren't instantiated. Such variables appear in no other CPT below the nearest cutset.
+     * @param node Leaf of the dtree.
+     * @return The value of the leaf.
+     */
+    private double leafValue(DtreeNode node){
+        long cell = 0;
+        int freeCount = 0;
+        int[] freeVars = new int[node.factorVars.length];
+        long[] freeStrides = new long[node.factorVars.length];
+        for(int i = 0; i < node.factorVars.length; i++){
+            int value = values[node.factorVars[i]];
+            if(value == -1){
+                freeVars[freeCount] = node.factorVars[i];
+                freeStrides[freeCount++] = node.factorStrides[i];
+            }
+            else{
+                cell += value * node.factorStrides[i];
+            }
+        }
+        if(freeCount == 0)
+            return node.factor.getValues().get(cell);
+
+        //Sum the cells of all the values of the free variables.
+        int[] indexArr = new int[freeCount];
+        double sum = 0.0;
+        long rows = 0;
+        while(true){
+            sum += node.factor.getValues().get(cell);
+            rows++;
+            int i = 0;
+            for(; i < freeCount; i++){
+                indexArr[i]++;
+                cell += freeStrides[i];
+                if(indexArr[i] < outcomeCounts[freeVars[i]])
+                    break;
+                cell -= freeStrides[i] * outcomeCounts[freeVars[i]];
+                indexArr[i] = 0;
+            }
+            if(i == freeCount)
+                break;
+        }
+        additions += rows - 1;
+        return sum;
+    }
+
+
+    /**
+     * Builds a dtree over the CPTs of the relevant variables, from a min-degree elimination order of their moral graph.
+     * For each variable in the order, all the trees containing it are combined into a single tree.
+     * @param relevant Names of the relevant variables.
+     * @param varIds Id of each relevant variable.
+     * @return Root of the dtree.
+     */
+    private DtreeNode buildDtree(List<String> relevant, HashMap<String, Integer> varIds){
+        List<DtreeNode> trees = new ArrayList<>();
+        List<Set<Integer>> neighbors = new ArrayList<>();
+        for(int id = 0; id < relevant.size(); id++){
+            neighbors.add(new LinkedHashSet<>());
+        }
+        for(String name : relevant){
+            Factor factor = network.getFactorByName(name);
+            int[] factorVars = new int[factor.getFactorVars().length];
+            for(int i = 0; i < factorVars.length; i++){
+                factorVars[i] = varIds.get(factor.getFactorVars()[i]);
+            }
+            trees.add(new DtreeNode(factor, factorVars, factor.getStrides()));
+            for(int a : factorVars){
+                for(int b : factorVars){
+                    if(a != b)
+                        neighbors.get(a).add(b);
+                }
+            }
+        }
+
+        boolean[] eliminated = new boolean[relevant.size()];
+        for(int step = 0; step < relevant.size(); step++){
+            int var = -1;
+            for(int id = 0; id < relevant.size(); id++){
+                if(!eliminated[id] && (var == -1 || neighbors.get(id).size() < neighbors.get(var).size()))
+                    var = id;
+            }
+            eliminated[var] = true;
+            for(int a : neighbors.get(var)){
+                neighbors.get(a).remove(var);
+                for(int b : neighbors.get(var)){
+                    if(a != b)
+                        neighbors.get(a).add(b);
+                }
+            }
+
+            List<DtreeNode> containing = new ArrayList<>();
+            for(DtreeNode tree : trees){
+                if(tree.vars.contains(var))
+                    containing.add(tree);
+            }
+            if(containing.size() > 1){
+                trees.removeAll(containing);
+                trees.add(combine(containing));
+            }
+        }
+        return combine(trees);
+    }
+
+
+    /**
+     * Combines trees into a single balanced tree, pairing the smallest trees first.
+     * @param trees Trees to combine. At least one.
+     * @return Root of the combined tree.
+     */
+    private static DtreeNode combine(List<DtreeNode> trees){
+        List<DtreeNode> remaining = new ArrayList<>(trees);
+        while(remaining.size() > 1){
+            remaining.sort(Comparator.comparingInt(tree -> tree.vars.size()));
+            DtreeNode left = remaining.remove(0), right = remaining.remove(0);
+            remaining.add(new DtreeNode(left, right));
+        }
+        return remaining.get(0);
+    }
+
+
+    /**
+     * Assigns the cutset and the context of every node, top down.
+     * @param node Node of the dtree.
+     * @param acutset Variables instantiated above the node.
+     */
+    private void assignCutsets(DtreeNode node, Set<Integer> acutset){
+        List<Integer> context = new ArrayList<>();
+        for(int var : node.vars){
+            if(acutset.contains(var))
+                context.add(var);
+        }
+        Collections.sort(context);
+        node.context = context.stream().mapToInt(Integer::intValue).toArray();
+        if(node.factor != null)
+            return;
+
+        List<Integer> cutset = new ArrayList<>();
+        for(int var : node.left.vars){
+            if(node.right.vars.contains(var) && !acutset.contains(var))
+                cutset.add(var);
+        }
+        Collections.sort(cutset);
+        node.cutset = cutset.stream().mapToInt(Integer::intValue).toArray();
+
+        Set<Integer> childAcutset = new LinkedHashSet<>(acutset);
+        childAcutset.addAll(cutset);
+        assignCutsets(node.left, childAcutset);
+        assignCutsets(node.right, childAcutset);
+    }
+
+
+    /**
+     * Gives caches to the internal nodes in order of cache size, as long as they fit the budget.
+     * Leaves aren't cached, since a leaf is a single lookup.
+     * @param root Root of the dtree.
+     */
+    private void allocateCaches(DtreeNode root){
+        List<DtreeNode> internalNodes = new ArrayList<>();
+        List<DtreeNode> traversal = new ArrayList<>(Collections.singletonList(root));
+        while(!traversal.isEmpty()){
+            DtreeNode node = traversal.remove(traversal.size() - 1);
+            if(node.factor == null){
+                internalNodes.add(node);
+                traversal.add(node.left);
+                traversal.add(node.right);
+            }
+        }
+        for(DtreeNode node : internalNodes){
+            long entries = 1;
+            node.contextStrides = new int[node.context.length];
+            for(int i = 0; i < node.context.length; i++){
+                node.contextStrides[i] = (int) Math.min(entries, Integer.MAX_VALUE);
+                entries = Math.min(entries * outcomeCounts[node.context[i]], Long.MAX_VALUE / 16);
+            }
+            node.cacheEntries = entries;
+        }
+        internalNodes.sort(Comparator.comparingLong(node -> node.cacheEntries));
+        for(DtreeNode node : internalNodes){
+            long bytes = node.cacheEntries * Double.BYTES;
+            if(node.cacheEntries > Integer.MAX_VALUE - 8 || cachedBytes + bytes > cacheBudgetBytes)
+                break;
+            context.checkCells(node.cacheEntries);
+            node.cache = new double[(int) node.cacheEntries];
+            Arrays.fill(node.cache, Double.NaN); //NaN marks an entry which wasn't calculated yet.
+            cachedBytes += bytes;
+        }
+    }
+
+
+    /**
+     * Returns the query variables and all their ancestors, which are the only variables the query depends on.
+     * @param names Names of the given query.
+     * @return Names of the relevant variables.
+     */
+    private List<String> getRelevantVariables(String[] names){
+        Set<String> relevant = new LinkedHashSet<>();
+        List<String> traversalQueue = new ArrayList<>(Arrays.asList(names));
+        while(!traversalQueue.isEmpty()){
+            String ancestor = traversalQueue.remove(traversalQueue.size() - 1);
+            if(relevant.add(ancestor))
+                Collections.addAll(traversalQueue, network.getNodeByName(ancestor).getParents());
+        }
+        return new ArrayList<>(relevant);
+    }
+
+
+    /**
+     * Returns the index of an outcome of a variable.
+     * @param name Name of the variable.
+     * @param outcome Outcome of the variable.
+     * @return Index of the outcome.
+     */
+    private int getOutcomeIndex(String name, String outcome){
+        return Arrays.asList(network.getNodeByName(name).getPossibleOutcomes()).indexOf(outcome);
+    }
+
+
+    /*
+     * Getters of RecursiveConditioningEngine class
+     * */
+
+    /**
+     * Returns the cache budget of a query.
+     * @return Budget in bytes.
+     */
+    public long getCacheBudgetBytes(){
+        return cacheBudgetBytes;
+    }
+
+
+    /**
+     * Node of a dtree. Leaves hold a single CPT, internal nodes hold two children.
+     */
+    private static class DtreeNode {
+        private final Factor factor; //CPT of a leaf, null for internal nodes.
+
+        private final int[] factorVars; //Ids of the CPT variables, in the order of the factor.
+
+        private final long[] factorStrides; //Strides of the CPT variables.
+
+        private final DtreeNode left, right; //Children of an internal node.
+
+        private final Set<Integer> vars; //Ids of all the variables of the subtree.
+
+        private int[] cutset, context; //Ids of the cutset(internal nodes only) and of the context variables.
+
+        private int[] contextStrides; //Stride of each context variable in the cache.
+
+        private long cacheEntries; //Number of context instantiations.
+
+        private double[] cache; //Value of each context instantiation, null when the node isn't cached.
+
+        /**
+         * Builds a leaf.
+         * @param factor CPT of the leaf.
+         * @param factorVars Ids of the CPT variables.
+         * @param factorStrides Strides of the CPT variables.
+         */
+        DtreeNode(Factor factor, int[] factorVars, long[] factorStrides){
+            this.factor = factor;
+            this.factorVars = factorVars;
+            this.factorStrides = factorStrides;
+            this.left = this.right = null;
+            this.vars = new LinkedHashSet<>();
+            for(int var : factorVars){
+                vars.add(var);
+            }
+        }
+
+        /**
+         * Builds an internal node.
+         * @param left Left child.
+         * @param right Right child.
+         */
+        DtreeNode(DtreeNode left, DtreeNode right){
+            this.factor = null;
+            this.factorVars = null;
+            this.factorStrides = null;
+            this.left = left;
+            this.right = right;
+            this.vars = new LinkedHashSet<>(left.vars);
+            this.vars.addAll(right.vars);
+        }
+    }
+}
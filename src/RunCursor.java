@@ -0,0 +1,154 @@
+/**
+ * RunCursor walks the rows of a new table run by run, while keeping track of the matching cell of each source table.
+ * A run is a sequence of rows along which every source cell moves by a fixed stride. Leading variables whose strides
+ * continue each other in all the sources are merged into a single run, the rest of the variables are iterated
+ * one run at a time, like an odometer.
+ * Runs are never longer than MAX_RUN_LENGTH rows: a longer merged run is walked in equal pieces, so a table which is
+ * a single run, such as one which sums out its first or last variable, still splits into several parallel blocks.
+ */
+public class RunCursor {
+    private final int[] outcomeCounts; //Number of outcomes of each variable of the new table.
+
+    private final long[][] strides; //Strides of each source, for each variable of the new table.
+
+    static final long MAX_RUN_LENGTH = ParallelBlocks.BLOCK_ROWS; //Most rows of a single run.
+
+    private final int runVars; //Number of leading variables merged into a single run.
+
+    private final long mergedRunLength; //Number of rows of the merged leading variables.
+
+    private final long runLength; //Number of rows in a single run. Divides the merged run length.
+
+    private long runOffset; //Row of the current run inside its merged run.
+
+    private final int[] indexArr; //Indices of the variables outside the run.
+
+    private final long[] cells; //Cell of each source where the current run starts.
+
+
+    /**
+     * Builds a cursor at the first row of the new table.
+     * @param outcomeCounts Number of outcomes of each variable of the new table.
+     * @param strides Strides of each source, for each variable of the new table. 0 for variables a source doesn't have.
+     */
+    public RunCursor(int[] outcomeCounts, long[]... strides){
+        this.outcomeCounts = outcomeCounts;
+        this.strides = strides;
+        this.indexArr = new int[outcomeCounts.length];
+        this.cells = new long[strides.length];
+
+        int runVars = outcomeCounts.length == 0 ? 0 : 1;
+        long runLength = outcomeCounts.length == 0 ? 1 : outcomeCounts[0];
+        while(runVars < outcomeCounts.length && continuesRun(runVars)){
+            runLength *= outcomeCounts[runVars++];
+        }
+        this.runVars = runVars;
+        this.mergedRunLength = runLength;
+        this.runLength = getPieceLength(runLength);
+    }
+
+
+    /**
+     * Returns the length of the pieces a merged run is walked in: the largest divisor of its length which isn't
+     * longer than MAX_RUN_LENGTH, so every piece has the same length and blocks of whole pieces stay aligned.
+     * @param mergedRunLength Number of rows of the merged run.
+     * @return Number of rows of a single piece.
+     */
+    private static long getPieceLength(long mergedRunLength){
+        if(mergedRunLength <= MAX_RUN_LENGTH)
+            return mergedRunLength;
+        for(long length = MAX_RUN_LENGTH; length > 1; length--){
+            if(mergedRunLength % length == 0)
+                return length;
+        }
+        return 1;
+    }
+
+
+    /**
+     * Checks whenever the strides of a variable continue the strides of the previous variable in all the sources.
+     * @param var Index of the variable.
+     * @return true whenever the variable can be merged into the run of the previous variable.
+     */
+    private boolean continuesRun(int var){
+        for(long[] sourceStrides : strides){
+            if(sourceStrides[var] != sourceStrides[var - 1] * outcomeCounts[var - 1])
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Moves the cursor to the run starting at the given row.
+     * @param row Row of the new table. Must be the first row of a run.
+     */
+    public void seek(long row){
+        long run = row / mergedRunLength;
+        runOffset = row % mergedRunLength;
+        for(int source = 0; source < cells.length; source++){
+            cells[source] = 0;
+        }
+        for(int i = runVars; i < indexArr.length; i++){
+            indexArr[i] = (int) (run % outcomeCounts[i]);
+            run /= outcomeCounts[i];
+            for(int source = 0; source < cells.length; source++){
+                cells[source] += indexArr[i] * strides[source][i];
+            }
+        }
+    }
+
+
+    /**
+     * Advances the cursor to the next run, and the cells of all sources along with it.
+     */
+    public void next(){
+        runOffset += runLength;
+        if(runOffset < mergedRunLength)
+            return;
+        runOffset = 0;
+        for(int i = runVars; i < indexArr.length; i++){
+            indexArr[i]++;
+            for(int source = 0; source < cells.length; source++){
+                cells[source] += strides[source][i];
+            }
+            if(indexArr[i] < outcomeCounts[i])
+                break;
+            for(int source = 0; source < cells.length; source++){
+                cells[source] -= strides[source][i] * outcomeCounts[i];
+            }
+            indexArr[i] = 0;
+        }
+    }
+
+
+    /*
+     * Getters of RunCursor class
+     * */
+
+    /**
+     * Returns the number of rows in a single run. Never more than MAX_RUN_LENGTH, therefore it fits an int.
+     * @return Run length.
+     */
+    public long getRunLength(){
+        return runLength;
+    }
+
+    /**
+     * Returns the stride of a source along the run.
+     * @param source Index of the source.
+     * @return Stride of the source along the run.
+     */
+    public long getRunStride(int source){
+        return runVars == 0 ? 0 : strides[source][0];
+    }
+
+    /**
+     * Returns the cell of a source where the current run starts.
+     * @param source Index of the source.
+     * @return Cell of the source.
+     */
+    public long getCell(int source){
+        return runOffset == 0 ? cells[source] : cells[source] + runOffset * strides[source][0];
+    }
+}
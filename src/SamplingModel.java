@@ -0,0 +1,250 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * SamplingModel is the part of a network the samplers draw from: the query variable, the evidence and all their
+ * ancestors, in topological order(parents before children), with their CPTs as the plain probability arrays of
+ * their variable nodes. Variables are referred to by their index in the topological order, and a full sample is an
+ * array of outcome indexes in the same order.
+ * The model may also cover the entire network, in which case queries use only part of it.
+ */
+class SamplingModel {
+    private final String[] names; //Names of the variables, in topological order.
+
+    private final String[][] outcomes; //Outcomes of each variable.
+
+    private final int[][] parents; //Indexes of the parents of each variable, in the order of the xml file.
+
+    private final int[][] children; //Indexes of the children of each variable, in topological order.
+
+    private final double[][] cpts; //CPT of each variable. The variable's own outcome changes the fastest, then the last parent.
+
+    private final HashMap<String, Integer> ids = new HashMap<>(); //Index of each variable by its name.
+
+
+    /**
+     * Builds the model of a query.
+     * @param network Network of the query.
+     * @param queryVars Names of the query variable and the evidence variables.
+     */
+    SamplingModel(BayesianNetwork network, String[] queryVars){
+        List<String> order = new ArrayList<>();
+        Set<String> visited = new LinkedHashSet<>();
+        for(String name : queryVars){
+            addTopologically(network, name, visited, order);
+        }
+        names = order.toArray(new String[0]);
+        outcomes = new String[names.length][];
+        parents = new int[names.length][];
+        cpts = new double[names.length][];
+        for(int var = 0; var < names.length; var++){
+            ids.put(names[var], var);
+            VariableNode node = network.getNodeByName(names[var]);
+            outcomes[var] = node.getPossibleOutcomes();
+            cpts[var] = node.getProbabilities();
+            String[] parentNames = node.getParents();
+            parents[var] = new int[parentNames.length];
+            for(int i = 0; i < parentNames.length; i++){
+                parents[var][i] = ids.get(parentNames[i]); //Parents come first in the order.
+            }
+        }
+
+        int[] childCounts = new int[names.length];
+        for(int var = 0; var < names.length; var++){
+            for(int parent : parents[var]){
+                childCounts[parent]++;
+            }
+        }
+        children = new int[names.length][];
+        for(int var = 0; var < names.length; var++){
+            children[var] = new int[childCounts[var]];
+            childCounts[var] = 0;
+        }
+        for(int var = 0; var < names.length; var++){
+            for(int parent : parents[var]){
+                children[parent][childCounts[parent]++] = var;
+            }
+        }
+    }
+
+
+    /**
+     * Adds a variable after all its ancestors, unless it was already added.
+     * An explicit stack is used, since chains of ancestors may be deeper than the call stack.
+     * @param network Network of the variable.
+     * @param name Name of the variable.
+     * @param visited Variables which were already visited.
+     * @param order Topological order, extended in place.
+     */
+    private static void addTopologically(BayesianNetwork network, String name, Set<String> visited, List<String> order){
+        Deque<String> stack = new ArrayDeque<>();
+        Deque<Boolean> expanded = new ArrayDeque<>();
+        stack.push(name);
+        expanded.push(false);
+        while(!stack.isEmpty()){
+            String current = stack.pop();
+            if(expanded.pop()){
+                order.add(current);
+                continue;
+            }
+            if(!visited.add(current))
+                continue;
+            stack.push(current);
+            expanded.push(true);
+            String[] currentParents = network.getNodeByName(current).getParents();
+            for(int i = currentParents.length - 1; i >= 0; i--){ //Reversed, so the first parent is added first.
+                if(!visited.contains(currentParents[i])){
+                    stack.push(currentParents[i]);
+                    expanded.push(false);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the index of the first cell of a variable's CPT row, given the outcomes of its parents.
+     * @param var Index of the variable.
+     * @param sample Outcome index of each variable, at least of the variable's parents.
+     * @return Index of the cell of the variable's first outcome.
+     */
+    int getRowOffset(int var, int[] sample){
+        int row = 0;
+        for(int parent : parents[var]){
+            row = row * outcomes[parent].length + sample[parent];
+        }
+        return row * outcomes[var].length;
+    }
+
+
+    /**
+     * Draws an outcome of a variable from its CPT row. The row is normalized on the way, so rows which don't
+     * sum exactly to 1 are sampled by their relative weights.
+     * @param var Index of the variable.
+     * @param rowOffset Index of the first cell of the row.
+     * @param uniform Uniform random number in [0, 1).
+     * @return Index of the drawn outcome.
+     */
+    int drawOutcome(int var, int rowOffset, double uniform){
+        return drawOutcome(var, cpts[var], rowOffset, uniform);
+    }
+
+
+    /**
+     * Draws an outcome of a variable from a row of a CPT shaped table, such as a proposal of an importance sampler.
+     * @param var Index of the variable.
+     * @param cpt Table of the same shape as the variable's CPT.
+     * @param rowOffset Index of the first cell of the row.
+     * @param uniform Uniform random number in [0, 1).
+     * @return Index of the drawn outcome.
+     */
+    int drawOutcome(int var, double[] cpt, int rowOffset, double uniform){
+        int count = outcomes[var].length;
+        double total = 0.0;
+        for(int outcome = 0; outcome < count; outcome++){
+            total += cpt[rowOffset + outcome];
+        }
+        double threshold = uniform * total, cumulative = 0.0;
+        for(int outcome = 0; outcome < count - 1; outcome++){
+            cumulative += cpt[rowOffset + outcome];
+            if(threshold < cumulative)
+                return outcome;
+        }
+        return count - 1;
+    }
+
+
+    /**
+     * Returns the index of a variable.
+     * @param name Name of the variable.
+     * @return Index of the variable in the topological order.
+     * @throws IllegalArgumentException Whenever the model has no such variable.
+     */
+    int getVarId(String name){
+        Integer var = ids.get(name);
+        if(var == null)
+            throw new IllegalArgumentException("Unknown variable " + name);
+        return var;
+    }
+
+
+    /**
+     * Returns the index of an outcome of a variable.
+     * @param var Index of the variable.
+     * @param outcome The outcome.
+     * @return Index of the outcome.
+     * @throws IllegalArgumentException Whenever the variable has no such outcome.
+     */
+    int getOutcomeId(int var, String outcome){
+        int index = Arrays.asList(outcomes[var]).indexOf(outcome);
+        if(index == -1)
+            throw new IllegalArgumentException("Unknown outcome " + outcome + " of " + names[var]);
+        return index;
+    }
+
+
+    /*
+     * Getters of SamplingModel class
+     * */
+
+    /**
+     * Returns the number of variables of the model.
+     * @return Number of variables.
+     */
+    int getVarCount(){
+        return names.length;
+    }
+
+    /**
+     * Returns the number of outcomes of a variable.
+     * @param var Index of the variable.
+     * @return Number of outcomes.
+     */
+    int getOutcomeCount(int var){
+        return outcomes[var].length;
+    }
+
+    /**
+     * Returns the parents of a variable.
+     * @param var Index of the variable.
+     * @return Indexes of the parents(not a copy).
+     */
+    int[] getParents(int var){
+        return parents[var];
+    }
+
+    /**
+     * Returns the children of a variable. Together with its parents and the other parents of its children,
+     * they are the variable's Markov blanket.
+     * @param var Index of the variable.
+     * @return Indexes of the children(not a copy).
+     */
+    int[] getChildren(int var){
+        return children[var];
+    }
+
+    /**
+     * Returns the CPT of a variable.
+     * @param var Index of the variable.
+     * @return The CPT(not a copy).
+     */
+    double[] getCpt(int var){
+        return cpts[var];
+    }
+
+    /**
+     * Returns the name of a variable.
+     * @param var Index of the variable.
+     * @return Name of the variable.
+     */
+    String getName(int var){
+        return names[var];
+    }
+}
@@ -0,0 +1,164 @@
+import java.text.DecimalFormat;
+
+
+/**
+ * SamplingResult holds the answer of an approximate query: the estimated posteriors of the query variable, together with
+ * the standard error of the requested outcome's estimate and the effective sample size of the weighted samples.
+ * It also holds the number of samples drawn, and the number of additions and multiplications spent on weighting them.
+ */
+public class SamplingResult {
+    private final double[] posteriors; //Estimated posterior of each outcome of the query variable.
+
+    private final int queryOutcome; //Index of the outcome the query asked for.
+
+    private final double standardError; //Standard error of the estimate of the requested outcome.
+
+    private final double effectiveSampleSize; //Number of unweighted samples worth the same as the weighted samples.
+
+    private final long samples; //Number of samples drawn.
+
+    private final double rHat; //Potential scale reduction of multiple Markov chains. NaN for independent samples.
+
+    private final long additions, multiplications; //Counters of additions and multiplications, respectively.
+
+
+    /**
+     * Builds the result of an approximate query.
+     * @param posteriors Estimated posterior of each outcome of the query variable.
+     * @param queryOutcome Index of the outcome the query asked for.
+     * @param standardError Standard error of the estimate of the requested outcome.
+     * @param effectiveSampleSize Effective sample size of the samples.
+     * @param samples Number of samples drawn.
+     * @param additions Number of additions performed.
+     * @param multiplications Number of multiplications performed.
+     */
+    public SamplingResult(double[] posteriors, int queryOutcome, double standardError, double effectiveSampleSize,
+                          long samples, long additions, long multiplications){
+        this(posteriors, queryOutcome, standardError, effectiveSampleSize, samples, Double.NaN, additions, multiplications);
+    }
+
+
+    /**
+     * Builds the result of an approximate query drawn from multiple Markov chains.
+     * @param posteriors Estimated posterior of each outcome of the query variable.
+     * @param queryOutcome Index of the outcome the query asked for.
+     * @param standardError Standard error of the estimate of the requested outcome.
+     * @param effectiveSampleSize Effective sample size of the samples.
+     * @param samples Number of samples drawn.
+     * @param rHat Potential scale reduction of the chains, close to 1 once they converged.
+     * @param additions Number of additions performed.
+     * @param multiplications Number of multiplications performed.
+     */
+    public SamplingResult(double[] posteriors, int queryOutcome, double standardError, double effectiveSampleSize,
+                          long samples, double rHat, long additions, long multiplications){
+        this.posteriors = posteriors;
+        this.queryOutcome = queryOutcome;
+        this.standardError = standardError;
+        this.effectiveSampleSize = effectiveSampleSize;
+        this.samples = samples;
+        this.rHat = rHat;
+        this.additions = additions;
+        this.multiplications = multiplications;
+    }
+
+
+    /**
+     * Builds a copy of another result, for results which add their own details.
+     * @param other Result to copy.
+     */
+    protected SamplingResult(SamplingResult other){
+        this(other.posteriors, other.queryOutcome, other.standardError, other.effectiveSampleSize, other.samples, other.rHat,
+                other.additions, other.multiplications);
+    }
+
+
+    /**
+     * Returns the estimate as a query answer, the same as exact algorithms return.
+     * @return The answer of the query.
+     */
+    public QueryAnswer toQueryAnswer(){
+        return new QueryAnswer(getEstimate(), additions, multiplications);
+    }
+
+
+    /**
+     * Formats the estimate with its standard error, effective sample size, number of samples and R-hat if there is one.
+     * @return A string of the result.
+     */
+    @Override
+    public String toString() {
+        DecimalFormat decimalFormat = new DecimalFormat("#.#####");
+        return decimalFormat.format(getEstimate()) + " +- " + decimalFormat.format(standardError)
+                + " (ess " + Math.round(effectiveSampleSize) + " of " + samples + " samples"
+                + (Double.isNaN(rHat) ? "" : ", r-hat " + decimalFormat.format(rHat)) + ")";
+    }
+
+
+    /*
+     * Getters of SamplingResult class
+     * */
+
+    /**
+     * Returns the estimated probability of the requested outcome.
+     * @return The estimate. NaN when no sample agreed with the evidence.
+     */
+    public double getEstimate(){
+        return posteriors[queryOutcome];
+    }
+
+    /**
+     * Returns the estimated posteriors of all the outcomes of the query variable.
+     * @return Estimated posteriors, in the order of the outcomes.
+     */
+    public double[] getPosteriors(){
+        return posteriors.clone();
+    }
+
+    /**
+     * Returns the standard error of the estimate.
+     * @return The standard error.
+     */
+    public double getStandardError(){
+        return standardError;
+    }
+
+    /**
+     * Returns the effective sample size.
+     * @return The effective sample size.
+     */
+    public double getEffectiveSampleSize(){
+        return effectiveSampleSize;
+    }
+
+    /**
+     * Returns the number of samples drawn.
+     * @return Number of samples.
+     */
+    public long getSamples(){
+        return samples;
+    }
+
+    /**
+     * Returns the potential scale reduction(R-hat) of the chains the samples were drawn from.
+     * @return R-hat, NaN when the samples are independent.
+     */
+    public double getRHat(){
+        return rHat;
+    }
+
+    /**
+     * Returns the number of additions performed.
+     * @return Number of additions.
+     */
+    public long getAdditions(){
+        return additions;
+    }
+
+    /**
+     * Returns the number of multiplications performed.
+     * @return Number of multiplications.
+     */
+    public long getMultiplications(){
+        return multiplications;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Factor kernels which calculate one cell at a time. These are the reference kernels, and the fallback whenever
+ * the vector kernels aren't available.
+ */
+public class ScalarFactorKernels implements FactorKernels {
+
+    @Override
+    public void product(double[] a, int aOffset, int aStride, double[] b, int bOffset, int bStride,
+                        double[] out, int outOffset, int length, boolean logSpace) {
+        for(int i = 0; i < length; i++){
+            double aValue = a[aOffset + i * aStride], bValue = b[bOffset + i * bStride];
+            out[outOffset + i] = logSpace ? aValue + bValue : aValue * bValue;
+        }
+    }
+
+
+    @Override
+    public void sumOut(double[] source, int sourceOffset, int sourceStride, int hiddenStride, int hiddenCount,
+                       double[] out, int outOffset, int length) {
+        for(int i = 0; i < length; i++){
+            int cell = sourceOffset + i * sourceStride;
+            double sum = 0.0;
+            for(int outcome = 0; outcome < hiddenCount; outcome++){
+                sum += source[cell + outcome * hiddenStride];
+            }
+            out[outOffset + i] = sum;
+        }
+    }
+
+
+    @Override
+    public void slice(double[] source, int sourceOffset, int sourceStride, double[] out, int outOffset, int length) {
+        if(sourceStride == 1){
+            System.arraycopy(source, sourceOffset, out, outOffset, length);
+            return;
+        }
+        for(int i = 0; i < length; i++){
+            out[outOffset + i] = source[sourceOffset + i * sourceStride];
+        }
+    }
+
+
+    @Override
+    public double normalize(double[] values, int offset, int length) {
+        double sum = 0.0;
+        for(int i = 0; i < length; i++){
+            sum += values[offset + i];
+        }
+        for(int i = 0; i < length; i++){
+            values[offset + i] /= sum;
+        }
+        return sum;
+    }
+
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -6,6 +6,7 @@ import java.util.Comparator;
  * Variable node is a class which holds all primitive data fetched from the xml file the input requested to get data from.
  * It assumes correctness of input in the input file, therefore, no checks are written.
  * Variable node also simplifies the probability values to be an array of doubles, yet keeps them as an array.
+ * The array can later be compacted(to float precision or dictionary compressed), see compactProbabilities().
  * This class is essentially a database of the xml data, which will be improved upon in the Factor class.
  */
 public class VariableNode {
@@ -15,7 +16,7 @@ public class VariableNode {
 
     private final String[] parents; //The parents of the node. Kept as string names.
 
-    private final double[] probabilityValues; //Array of probability values.
+    private FactorStorage probabilityValues; //Storage of probability values, in the order of the xml file.
 
     private final int outcomeCount, parentCount; //Counters of outcomes and parents, respectively.
 
@@ -30,11 +31,28 @@ public class VariableNode {
         this.nodeName = nodeName;
         this.possibleOutcomes = possibleOutcomes;
         this.parents = parents;
-        this.probabilityValues = parseProbabilityValues(stringValues);
+        this.probabilityValues = new HeapFactorStorage(parseProbabilityValues(stringValues));
         this.outcomeCount = possibleOutcomes.length;
         this.parentCount = parents.length;
     }
 
+    /**
+     * Builds a single primitive variable node of probability values which were already calculated, such as learned ones.
+     * @param nodeName Name of the node.
+     * @param possibleOutcomes The possible outcomes for the node.
+     * @param parents The parents of the node.
+     * @param probabilities The probability values of the node, in the order of the xml file. Not copied.
+     */
+    public VariableNode(String nodeName, String[] possibleOutcomes, String[] parents, double[] probabilities){
+        this.nodeName = nodeName;
+        this.possibleOutcomes = possibleOutcomes;
+        this.parents = parents;
+        this.probabilityValues = new HeapFactorStorage(probabilities);
+        this.outcomeCount = possibleOutcomes.length;
+        this.parentCount = parents.length;
+    }
+
+
     @Override
     public String toString() {
         return "\n{" +
@@ -44,7 +62,7 @@ public class VariableNode {
                 ", parentCount=" + parentCount +
                 ", parents=" + Arrays.toString(parents) +
                 ", Number of rows=" + getNumberOfProbabilities() +
-                ", probabilityValues=" + Arrays.toString(probabilityValues) +
+                ", probabilityValues=" + Arrays.toString(getProbabilities()) +
                 "}\n";
     }
 
@@ -63,6 +81,16 @@ public class VariableNode {
     }
 
 
+    /**
+     * Replaces the storage of the probability values with the storage the given factory builds for tables of variable nodes.
+     * Used to keep the probabilities in float precision, or dictionary compressed, instead of a double array.
+     * @param storageFactory Factory which builds the new storage.
+     */
+    public void compactProbabilities(FactorStorageFactory storageFactory){
+        this.probabilityValues = storageFactory.wrapProbabilities(getProbabilities());
+    }
+
+
     /**
      * The comparator works by sorting 2 variables by the amount of neighbors in ascending order.
      * Therefore, it will give in a loop, a list of variables, sorted by the amount of parents.
@@ -135,10 +163,34 @@ public class VariableNode {
     }
 
     /**
-     * Returns the array of probabilities
+     * Returns the array of probabilities. Whenever the probabilities were compacted, the array is a new copy of them.
      * @return Array of probabilities of the given node(Double values).
      */
     public double[] getProbabilities(){
+        if(probabilityValues instanceof HeapFactorStorage)
+            return ((HeapFactorStorage) probabilityValues).getValues();
+
+        double[] values = new double[getNumberOfProbabilities()];
+        for(int i = 0; i < values.length; i++){
+            values[i] = probabilityValues.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Returns a single probability by its index in the order of the xml file.
+     * @param index Index of the probability.
+     * @return The probability value.
+     */
+    public double getProbability(int index){
+        return probabilityValues.get(index);
+    }
+
+    /**
+     * Returns the storage of the probabilities.
+     * @return Storage of the probabilities of the given node.
+     */
+    public FactorStorage getProbabilityStorage(){
         return probabilityValues;
     }
 
@@ -148,7 +200,7 @@ public class VariableNode {
      * @return Number of probabilities in the given VariableNode instance.
      */
     public int getNumberOfProbabilities(){
-        return probabilityValues.length;
+        return (int) probabilityValues.size();
     }
 
 
@@ -0,0 +1,150 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Factor kernels which calculate several output cells at once with the Vector API, using the widest vectors the CPU
+ * supports(4 doubles on AVX2, 8 doubles on AVX-512). Each lane calculates a single output cell with exactly the
+ * operations of the scalar kernels, in the same order, therefore the results are bitwise identical.
+ * Contiguous runs are loaded directly, runs of stride 0 are broadcast and other runs are gathered.
+ * Needs the jdk.incubator.vector module, which is why this class is only loaded by name.
+ */
+public class VectorFactorKernels implements FactorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final int LANES = SPECIES.length();
+
+    private static final int CACHED_STRIDES = 1 << 12; //Strides whose gather offsets are kept in an array.
+
+    //Gather offsets of the lanes of each stride, built once per stride and shared by all the calls and threads.
+    private static final AtomicReferenceArray<int[]> INDEX_MAPS = new AtomicReferenceArray<>(CACHED_STRIDES);
+    private static final ConcurrentHashMap<Integer, int[]> LARGE_INDEX_MAPS = new ConcurrentHashMap<>();
+
+    private final ScalarFactorKernels scalar = new ScalarFactorKernels(); //Calculates the tails of the runs.
+
+
+    @Override
+    public void product(double[] a, int aOffset, int aStride, double[] b, int bOffset, int bStride,
+                        double[] out, int outOffset, int length, boolean logSpace) {
+        int[] aMap = indexMap(aStride), bMap = indexMap(bStride);
+        int i = 0;
+        for(; i + LANES <= length; i += LANES){
+            DoubleVector aVector = load(a, aOffset + i * aStride, aStride, aMap);
+            DoubleVector bVector = load(b, bOffset + i * bStride, bStride, bMap);
+            (logSpace ? aVector.add(bVector) : aVector.mul(bVector)).intoArray(out, outOffset + i);
+        }
+        scalar.product(a, aOffset + i * aStride, aStride, b, bOffset + i * bStride, bStride,
+                out, outOffset + i, length - i, logSpace);
+    }
+
+
+    @Override
+    public void sumOut(double[] source, int sourceOffset, int sourceStride, int hiddenStride, int hiddenCount,
+                       double[] out, int outOffset, int length) {
+        int[] map = indexMap(sourceStride);
+        int i = 0;
+        for(; i + LANES <= length; i += LANES){
+            int cell = sourceOffset + i * sourceStride;
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for(int outcome = 0; outcome < hiddenCount; outcome++){
+                sum = sum.add(load(source, cell + outcome * hiddenStride, sourceStride, map));
+            }
+            sum.intoArray(out, outOffset + i);
+        }
+        scalar.sumOut(source, sourceOffset + i * sourceStride, sourceStride, hiddenStride, hiddenCount,
+                out, outOffset + i, length - i);
+    }
+
+
+    @Override
+    public void slice(double[] source, int sourceOffset, int sourceStride, double[] out, int outOffset, int length) {
+        if(sourceStride == 1){
+            System.arraycopy(source, sourceOffset, out, outOffset, length);
+            return;
+        }
+        int[] map = indexMap(sourceStride);
+        int i = 0;
+        for(; i + LANES <= length; i += LANES){
+            load(source, sourceOffset + i * sourceStride, sourceStride, map).intoArray(out, outOffset + i);
+        }
+        scalar.slice(source, sourceOffset + i * sourceStride, sourceStride, out, outOffset + i, length - i);
+    }
+
+
+    @Override
+    public double normalize(double[] values, int offset, int length) {
+        //The sum stays sequential, since adding lanes separately changes the order of the additions.
+        double sum = 0.0;
+        for(int i = 0; i < length; i++){
+            sum += values[offset + i];
+        }
+        int i = 0;
+        for(; i + LANES <= length; i += LANES){
+            DoubleVector.fromArray(SPECIES, values, offset + i).div(sum).intoArray(values, offset + i);
+        }
+        for(; i < length; i++){
+            values[offset + i] /= sum;
+        }
+        return sum;
+    }
+
+
+    @Override
+    public String getName() {
+        return "vector(" + LANES + " lanes)";
+    }
+
+
+    /**
+     * Loads the cells of a single vector from a run.
+     * @param array Cells of the table.
+     * @param offset Cell of the first lane.
+     * @param stride Stride of the run.
+     * @param map Gather offsets of the lanes, used when the stride is neither 0 nor 1.
+     * @return Vector of the cells.
+     */
+    private static DoubleVector load(double[] array, int offset, int stride, int[] map){
+        if(stride == 1)
+            return DoubleVector.fromArray(SPECIES, array, offset);
+        if(stride == 0)
+            return DoubleVector.broadcast(SPECIES, array[offset]);
+        return DoubleVector.fromArray(SPECIES, array, offset, map, 0);
+    }
+
+
+    /**
+     * Returns the gather offsets of the lanes for a given stride. The offsets only depend on the stride, therefore they
+     * are built on the first run of every stride and cached, and the kernels don't allocate on the following runs.
+     * @param stride Stride of the run.
+     * @return Offset of each lane, or null when the run doesn't need a gather.
+     */
+    private static int[] indexMap(int stride){
+        if(stride == 0 || stride == 1)
+            return null;
+        if(stride >= CACHED_STRIDES)
+            return LARGE_INDEX_MAPS.computeIfAbsent(stride, VectorFactorKernels::buildIndexMap);
+        int[] map = INDEX_MAPS.get(stride);
+        if(map == null){
+            map = buildIndexMap(stride); //Threads which race here build equal maps, either one is kept.
+            INDEX_MAPS.set(stride, map);
+        }
+        return map;
+    }
+
+
+    /**
+     * Builds the gather offsets of the lanes for a given stride.
+     * @param stride Stride of the run.
+     * @return Offset of each lane.
+     */
+    private static int[] buildIndexMap(int stride){
+        int[] map = new int[LANES];
+        for(int lane = 0; lane < LANES; lane++){
+            map[lane] = lane * stride;
+        }
+        return map;
+    }
+}
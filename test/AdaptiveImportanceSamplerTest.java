@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that seeded adaptive importance sampling is reproducible whatever the number of threads, and stops at its target.
+ */
+class AdaptiveImportanceSamplerTest {
+    private static final String[] NAMES = {"B", "J", "M"};
+
+    private static final String[] VALUES = {"T", "T", "T"};
+
+    private final BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+
+
+    /**
+     * Samples the query on a pool of the given parallelism.
+     * @param parallelism Number of threads of the pool.
+     * @param maxSamples Samples of the final estimate to stop after.
+     * @param targetWidth Width of the confidence interval to stop at, 0 to draw every sample.
+     * @return The result of the sampler.
+     */
+    private ImportanceSamplingResult sample(int parallelism, long maxSamples, double targetWidth){
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return new AdaptiveImportanceSampler(network, pool, 10, 2500, maxSamples, targetWidth, 1.96, 42)
+                    .sample(NAMES, VALUES, false, new QueryContext(0, 0, -1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * The learning stages run on the calling thread, and the final batches draw from streams split off the seed,
+     * so one thread and four threads give the same result.
+     */
+    @Test
+    void sameSeedGivesSameResultOnAnyThreadCount(){
+        ImportanceSamplingResult sequential = sample(1, 300000, 0);
+        ImportanceSamplingResult parallel = sample(4, 300000, 0);
+        assertArrayEquals(sequential.getPosteriors(), parallel.getPosteriors());
+        assertEquals(sequential.getStandardError(), parallel.getStandardError(), 0);
+        assertEquals(300000, sequential.getSamples(), "Without a target every sample is drawn");
+    }
+
+
+    /**
+     * The final estimate stops at the first round whose 95% confidence interval is as narrow as the target,
+     * and the interval holds the exact answer.
+     */
+    @Test
+    void stopsAtConfidenceIntervalTarget(){
+        double width = 0.01;
+        ImportanceSamplingResult result = sample(4, 100000000, width);
+        assertTrue(result.getSamples() < 100000000);
+        assertTrue(2 * 1.96 * result.getStandardError() <= width);
+        double exact = network.answer(NAMES, VALUES, 3).getProbability();
+        assertEquals(exact, result.getEstimate(), width / 2);
+    }
+}
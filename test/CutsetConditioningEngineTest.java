@@ -0,0 +1,112 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests of the loop cutsets CutsetConditioningEngine picks, of its answers and of its limit of instantiations.
+ */
+class CutsetConditioningEngineTest {
+    //A diamond X -> A -> C <- B <- X, where observing C leaves a cycle through the moral edge of A and B.
+    private static final String DIAMOND_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<NETWORK>\n"
+            + "<VARIABLE><NAME>X</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<VARIABLE><NAME>A</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<VARIABLE><NAME>B</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<VARIABLE><NAME>C</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<DEFINITION><FOR>X</FOR><TABLE>0.3 0.7</TABLE></DEFINITION>\n"
+            + "<DEFINITION><FOR>A</FOR><GIVEN>X</GIVEN><TABLE>0.8 0.2 0.1 0.9</TABLE></DEFINITION>\n"
+            + "<DEFINITION><FOR>B</FOR><GIVEN>X</GIVEN><TABLE>0.6 0.4 0.25 0.75</TABLE></DEFINITION>\n"
+            + "<DEFINITION><FOR>C</FOR><GIVEN>A</GIVEN><GIVEN>B</GIVEN><TABLE>0.9 0.1 0.5 0.5 0.4 0.6 0.05 0.95</TABLE></DEFINITION>\n"
+            + "</NETWORK>\n";
+
+
+    /**
+     * Observing the common child of A and B keeps them tied together, so the cycle X, A, B needs a cutset variable.
+     * Without evidence on C, C is not relevant and there is no cycle.
+     */
+    @Test
+    void observedCommonChildKeepsTheCycle(){
+        BayesianNetwork network = new BayesianNetwork(TestNetworks.write(DIAMOND_XML));
+        CutsetConditioningEngine engine = new CutsetConditioningEngine(network);
+        List<String> cutset = engine.selectCutset(new String[]{"X", "C"});
+        assertEquals(1, cutset.size());
+        assertTrue(cutset.contains("A") || cutset.contains("B"), "The query variable never joins the cutset");
+        assertEquals(0, engine.selectCutset(new String[]{"X", "A"}).size());
+
+        String[] names = {"X", "C"};
+        String[] values = {"T", "T"};
+        assertEquals(network.answer(names, values, 3).getProbability(), engine.answer(names, values).getProbability(), 1e-12);
+    }
+
+
+    /**
+     * Random queries of a generated network with cycles are answered the same as func3() answers them.
+     */
+    @Test
+    void answersMatchVariableElimination(){
+        NetworkGenerator generator = new NetworkGenerator(25, 3, 2, 3, 6, 0, 36);
+        BayesianNetwork network = new BayesianNetwork(TestNetworks.write(generator));
+        CutsetConditioningEngine engine = new CutsetConditioningEngine(network);
+        for(String line : generator.generateQueries(30, 4, 4)){
+            String query = line.substring(0, line.lastIndexOf(','));
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            assertEquals(network.answer(names, values, 3).getProbability(), engine.answer(names, values).getProbability(), 1e-9, query);
+        }
+    }
+
+
+    /**
+     * Writes a wheel: Q and a ring of binary variables R0, R1, ... are the roots, and every observed Ci has the parents
+     * Q, Ri and the next variable of the ring. Every pair of neighbors on the ring closes a cycle through Q,
+     * and the query variable Q can't join the cutset, so the cutset holds about every other variable of the ring.
+     * @param ring Number of variables on the ring.
+     * @return Path of the network file.
+     */
+    private static String wheel(int ring){
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<NETWORK>\n");
+        xml.append("<VARIABLE><NAME>Q</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n");
+        for(int i = 0; i < ring; i++){
+            xml.append("<VARIABLE><NAME>R").append(i).append("</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n");
+            xml.append("<VARIABLE><NAME>C").append(i).append("</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n");
+        }
+        xml.append("<DEFINITION><FOR>Q</FOR><TABLE>0.4 0.6</TABLE></DEFINITION>\n");
+        for(int i = 0; i < ring; i++){
+            xml.append("<DEFINITION><FOR>R").append(i).append("</FOR><TABLE>0.7 0.3</TABLE></DEFINITION>\n");
+        }
+        for(int i = 0; i < ring; i++){
+            xml.append("<DEFINITION><FOR>C").append(i).append("</FOR><GIVEN>Q</GIVEN><GIVEN>R").append(i)
+                    .append("</GIVEN><GIVEN>R").append((i + 1) % ring)
+                    .append("</GIVEN><TABLE>0.9 0.1 0.6 0.4 0.5 0.5 0.2 0.8 0.3 0.7 0.35 0.65 0.15 0.85 0.05 0.95</TABLE></DEFINITION>\n");
+        }
+        return TestNetworks.write(xml.append("</NETWORK>\n").toString());
+    }
+
+
+    /**
+     * A cutset with more instantiations than the limit(2^20 by default) aborts with a QueryMemoryException before any
+     * elimination, and the fallback engine of the context answers the query instead.
+     */
+    @Test
+    void cutsetOverTheLimitFallsBack(){
+        int ring = 48;
+        BayesianNetwork network = new BayesianNetwork(wheel(ring));
+        String[] names = new String[ring + 1];
+        String[] values = new String[ring + 1];
+        names[0] = "Q";
+        values[0] = "T";
+        for(int i = 0; i < ring; i++){
+            names[i + 1] = "C" + i;
+            values[i + 1] = i % 3 == 0 ? "T" : "F";
+        }
+        assertTrue(new CutsetConditioningEngine(network).selectCutset(names).size() > 20, "More than 2^20 instantiations");
+
+        assertThrows(QueryMemoryException.class, () -> network.answer(names, values, 4, new QueryContext(0, 0, -1)));
+        assertEquals(network.answer(names, values, 3).getProbability(),
+                network.answer(names, values, 4, new QueryContext(0, 0, 3)).getProbability(), 0);
+    }
+}
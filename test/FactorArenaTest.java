@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that the queries which raise the budget of the thread's arena restore it once they end, however they end.
+ */
+class FactorArenaTest {
+    private static final long BUDGET = 256; //Queries which build tables of 8 cells or more raise it.
+
+
+    /**
+     * Builds a network whose tables are joined and eliminated by the calling thread, so they use its arena.
+     * @param path Path of the network file.
+     * @return The network.
+     */
+    private static BayesianNetwork sequentialNetwork(String path){
+        BayesianNetwork network = new BayesianNetwork(path);
+        network.setParallelThreshold(Long.MAX_VALUE);
+        return network;
+    }
+
+
+    /**
+     * After each of many queries of both elimination engines the budget is back to its start value,
+     * and the arena keeps no more free buffers than it allows.
+     */
+    @Test
+    void budgetIsRestoredAfterEveryQuery(){
+        NetworkGenerator generator = new NetworkGenerator(30, 4, 2, 3, 6, 0, 35);
+        BayesianNetwork network = sequentialNetwork(TestNetworks.write(generator));
+        List<String> queries = generator.generateQueries(100, 4, 3);
+        FactorArena arena = FactorArena.current();
+        arena.clear();
+        arena.setMaxBytes(BUDGET);
+        try {
+            for(int i = 0; i < queries.size(); i++){
+                String query = queries.get(i);
+                network.answer(Ex1.getQueryNames(query), Ex1.getQueryIndex(query), 2 + i % 2);
+                assertEquals(BUDGET, arena.getMaxBytes(), query);
+                assertTrue(arena.getFreeBytes() <= BUDGET, query);
+            }
+            assertTrue(arena.getReuses() > 0, "The queries reuse the buffers of their tables");
+        } finally {
+            arena.clear();
+        }
+    }
+
+
+    /**
+     * A query which is cancelled while the budget is raised restores the budget as it aborts.
+     */
+    @Test
+    void budgetIsRestoredAfterAbortedQuery(){
+        BayesianNetwork network = sequentialNetwork(TestNetworks.generate(30, 4, 35));
+        FactorArena arena = FactorArena.current();
+        arena.clear();
+        arena.setMaxBytes(BUDGET);
+        QueryContext context = new QueryContext(0, 0, -1){
+            @Override
+            public void checkpoint(){
+                if(arena.getMaxBytes() != BUDGET)
+                    cancel(); //Aborts in the middle of the elimination.
+                super.checkpoint();
+            }
+        };
+        try {
+            assertThrows(QueryCancelledException.class, () -> network.answer(new String[]{"N0", "N29"}, new String[]{"s0", "s0"}, 3, context));
+            assertTrue(context.isCancelled(), "The query raised the budget");
+            assertEquals(BUDGET, arena.getMaxBytes());
+            assertTrue(arena.getFreeBytes() <= BUDGET);
+        } finally {
+            arena.clear();
+        }
+    }
+}
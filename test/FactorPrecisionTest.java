@@ -0,0 +1,74 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Tests that the float precision storage modes answer within the tolerance FactorPrecision claims for them,
+ * half a unit of the 5th digit after the dot the answers are printed with.
+ */
+class FactorPrecisionTest {
+    private static final double TOLERANCE = 5e-6;
+
+
+    /**
+     * Builds a network from a file in the given storage mode.
+     * @param path Path of the network file.
+     * @param precision Precision of the cells.
+     * @param compressTables Whenever the tables of the variable nodes are dictionary compressed.
+     * @return The network.
+     */
+    private static BayesianNetwork networkOf(String path, FactorPrecision precision, boolean compressTables){
+        return new BayesianNetwork(path, new FactorStorageFactory(Long.MAX_VALUE, Long.MAX_VALUE,
+                new File(System.getProperty("java.io.tmpdir")), precision, compressTables));
+    }
+
+
+    /**
+     * Answers every query with both variable elimination engines in double, float and float+dictionary precision,
+     * and compares the float answers to the double ones.
+     * @param path Path of the network file.
+     * @param queries Query lines in the input format of Ex1, without the engine number.
+     */
+    private static void assertWithinTolerance(String path, List<String> queries){
+        BayesianNetwork reference = networkOf(path, FactorPrecision.DOUBLE, false);
+        BayesianNetwork[] networks = {networkOf(path, FactorPrecision.FLOAT, false), networkOf(path, FactorPrecision.FLOAT, true)};
+        for(String query : queries){
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            for(int algorithm = 2; algorithm <= 3; algorithm++){
+                double expected = reference.answer(names, values, algorithm).getProbability();
+                for(BayesianNetwork network : networks){
+                    assertEquals(expected, network.answer(names, values, algorithm).getProbability(), TOLERANCE, query);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Queries of the alarm network, with and without evidence.
+     */
+    @Test
+    void alarmAnswersWithinTolerance(){
+        assertWithinTolerance(TestNetworks.alarm(),
+                List.of("P(B=T|J=T,M=T)", "P(A=F|E=T,J=F)", "P(J=T)", "P(E=T|B=F,J=T,M=F)"));
+    }
+
+
+    /**
+     * Random queries of a generated network of 40 variables with up to 4 parents, where the float tables are larger
+     * and the rounding errors of more cells add up.
+     */
+    @Test
+    void generatedNetworkAnswersWithinTolerance(){
+        NetworkGenerator generator = new NetworkGenerator(40, 4, 2, 3, 6, 0, 29);
+        String path = TestNetworks.write(generator);
+        List<String> queries = generator.generateQueries(30, 5, 3);
+        queries.replaceAll(line -> line.substring(0, line.lastIndexOf(',')));
+        assertWithinTolerance(path, queries);
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Round trips through every kind of factor storage the factory allocates, and through the chunks of the byte buffer storages.
+ */
+class FactorStorageTest {
+    private static final long CHUNK_CELLS = 1L << 27; //Cells of a single chunk of ByteBufferFactorStorage.
+
+
+    /**
+     * Creates an empty temporary directory to spill the mapped storages into, which is deleted when the tests end.
+     * @return The directory.
+     */
+    private static File spillDirectory() throws IOException {
+        File directory = Files.createTempDirectory("spill").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+
+    /**
+     * Writes a distinct value to every cell of a storage and reads them all back.
+     * The values are exact in float precision as well.
+     * @param storage Storage to check.
+     * @param cells Number of cells the storage was allocated with.
+     */
+    private static void assertRoundTrip(FactorStorage storage, long cells){
+        assertEquals(cells, storage.size());
+        for(long cell = 0; cell < cells; cell++){
+            assertEquals(0, storage.get(cell), 0, "New storages start at 0");
+            storage.set(cell, cell / 4.0);
+        }
+        for(long cell = 0; cell < cells; cell++){
+            assertEquals(cell / 4.0, storage.get(cell), 0);
+        }
+    }
+
+
+    /**
+     * Tables below the off-heap threshold stay on the heap.
+     */
+    @Test
+    void heapStorageRoundTrip() throws IOException {
+        FactorStorageFactory factory = new FactorStorageFactory(1000, 2000, spillDirectory(), FactorPrecision.DOUBLE, false, false);
+        FactorStorage storage = factory.allocate(999);
+        assertTrue(storage instanceof HeapFactorStorage);
+        assertRoundTrip(storage, 999);
+        storage.close();
+    }
+
+
+    /**
+     * Tables from the off-heap threshold are kept in direct memory, in either precision.
+     */
+    @Test
+    void offHeapStorageRoundTrip() throws IOException {
+        for(FactorPrecision precision : FactorPrecision.values()){
+            FactorStorageFactory factory = new FactorStorageFactory(1000, 2000, spillDirectory(), precision, false, false);
+            FactorStorage storage = factory.allocate(1000);
+            assertTrue(storage instanceof ByteBufferFactorStorage);
+            assertFalse(((ByteBufferFactorStorage) storage).isMapped());
+            assertRoundTrip(storage, 1000);
+            storage.close();
+        }
+    }
+
+
+    /**
+     * Tables from the spill threshold are mapped from a file in the spill directory, which closing deletes.
+     */
+    @Test
+    void mappedStorageRoundTrip() throws IOException {
+        for(FactorPrecision precision : FactorPrecision.values()){
+            File directory = spillDirectory();
+            FactorStorageFactory factory = new FactorStorageFactory(1000, 2000, directory, precision, false, false);
+            FactorStorage storage = factory.allocate(2000);
+            assertTrue(storage instanceof ByteBufferFactorStorage);
+            assertTrue(((ByteBufferFactorStorage) storage).isMapped());
+            assertEquals(1, directory.list().length);
+            assertRoundTrip(storage, 2000);
+
+            storage.close();
+            assertEquals(0, directory.list().length, "Closing deletes the mapped file");
+        }
+    }
+
+
+    /**
+     * Cells on both sides of the boundary between the first and the second chunk keep their own values.
+     * The storage is mapped, so only the pages which are touched take memory.
+     */
+    @Test
+    void chunkBoundaryRoundTrip() throws IOException {
+        for(FactorPrecision precision : FactorPrecision.values()){
+            File directory = spillDirectory();
+            long cells = CHUNK_CELLS + 4;
+            ByteBufferFactorStorage storage = ByteBufferFactorStorage.map(cells, precision, directory);
+            assertEquals(cells, storage.size());
+
+            long[] boundaryCells = {0, CHUNK_CELLS - 2, CHUNK_CELLS - 1, CHUNK_CELLS, CHUNK_CELLS + 1, cells - 1};
+            for(int i = 0; i < boundaryCells.length; i++){
+                storage.set(boundaryCells[i], i + 1.5);
+            }
+            for(int i = 0; i < boundaryCells.length; i++){
+                assertEquals(i + 1.5, storage.get(boundaryCells[i]), 0);
+            }
+            assertEquals(0, storage.get(CHUNK_CELLS + 2), 0, "Cells which weren't set stay 0");
+
+            storage.close();
+            assertEquals(0, directory.list().length);
+        }
+    }
+
+
+    /**
+     * A network whose every intermediate table is spilled to a mapped file answers the same as a network on the heap.
+     */
+    @Test
+    void spilledNetworkAnswersLikeHeapNetwork() throws IOException {
+        String path = TestNetworks.alarm();
+        String[] names = {"B", "J", "M"};
+        String[] values = {"T", "T", "T"};
+        BayesianNetwork heap = new BayesianNetwork(path);
+        BayesianNetwork spilled = new BayesianNetwork(path, new FactorStorageFactory(1, 1, spillDirectory()));
+        assertEquals(heap.func3(names, values), spilled.func3(names, values));
+        assertEquals(heap.func2(names, values), spilled.func2(names, values));
+    }
+}
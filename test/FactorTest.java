@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Hashtable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests of the keyed view of Factor, and of the storage clones share with the original.
+ */
+class FactorTest {
+
+    /**
+     * Builds the table of a variable node the way the factors were built before they kept their values in a storage,
+     * row by row in the order of the xml file. The node's own value changes the fastest,
+     * followed by its parents where the last parent changes the fastest.
+     * @param network Network of the node.
+     * @param node Variable node to build the table of.
+     * @return The eagerly built table.
+     */
+    private static Hashtable<TableKey, Double> eagerTable(BayesianNetwork network, VariableNode node){
+        String[] vars = node.getVars();
+        String[][] outcomes = new String[vars.length][];
+        for(int i = 0; i < vars.length; i++){
+            outcomes[i] = network.getNodeByName(vars[i]).getPossibleOutcomes();
+        }
+
+        Hashtable<TableKey, Double> table = new Hashtable<>();
+        double[] probabilities = node.getProbabilities();
+        int[] indexArr = new int[vars.length];
+        for(double probability : probabilities){
+            String[] rowValues = new String[vars.length];
+            for(int i = 0; i < vars.length; i++){
+                rowValues[i] = outcomes[i][indexArr[i]];
+            }
+            table.put(new TableKey(rowValues), probability);
+
+            //The own value first, then the parents from the last one.
+            for(int i = 0; i < vars.length; i++){
+                int var = i == 0 ? 0 : vars.length - i;
+                if(++indexArr[var] < outcomes[var].length)
+                    break;
+                indexArr[var] = 0;
+            }
+        }
+        return table;
+    }
+
+
+    /**
+     * Compares the lazily built view of every factor of a network with the eagerly built table.
+     * @param path Path of the network file.
+     */
+    private static void assertViewsMatchEagerTables(String path){
+        BayesianNetwork network = new BayesianNetwork(path);
+        for(int i = 0; i < network.getNodeCount(); i++){
+            VariableNode node = network.getNodeByIndex(i);
+            Factor factor = network.getFactorByName(node.getVariableNodeName());
+            assertFalse(factor.isMaterialized(), "The view is built on the first request");
+            assertEquals(eagerTable(network, node), factor.getFactorTable());
+            assertTrue(factor.isMaterialized());
+
+            assertEquals(factor.getFactorTable().size(), factor.releaseTable());
+            assertFalse(factor.isMaterialized());
+        }
+    }
+
+
+    /**
+     * The view of the alarm network's factors holds the same rows as the eagerly built tables.
+     */
+    @Test
+    void lazyViewMatchesEagerTableOfAlarm(){
+        assertViewsMatchEagerTables(TestNetworks.alarm());
+    }
+
+
+    /**
+     * The view of a generated network with up to three parents and ternary variables holds the same rows
+     * as the eagerly built tables, so the strides of every parent are checked.
+     */
+    @Test
+    void lazyViewMatchesEagerTableOfGeneratedNetwork(){
+        assertViewsMatchEagerTables(TestNetworks.generate(12, 3, 27));
+    }
+
+
+    /**
+     * Closing a clone leaves the storage of the original alone, while closing the original releases it.
+     */
+    @Test
+    void closingCloneKeepsSharedStorage() throws CloneNotSupportedException {
+        BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+        FactorStorageFactory offHeap = new FactorStorageFactory(1, Long.MAX_VALUE, new File(System.getProperty("java.io.tmpdir")));
+        Factor factor = (Factor) network.getFactorByName("A").clone();
+        factor.instantiate("E", "T", offHeap, network.getKernels()); //Allocates a direct storage the factor owns.
+        assertTrue(factor.isOwningValues());
+        double before = factor.getProbability(new String[]{"T", "F"}); //P(A=T|E=T,B=F)
+
+        Factor clone = (Factor) factor.clone();
+        assertFalse(clone.isOwningValues());
+        assertTrue(clone.getValues() == factor.getValues(), "The clone shares the storage");
+        clone.close();
+        assertEquals(before, factor.getProbability(new String[]{"T", "F"}), 0);
+        assertEquals(0.29, before, 0);
+
+        factor.close();
+        assertThrows(NullPointerException.class, () -> factor.getValues().get(0), "The original releases its storage");
+    }
+}
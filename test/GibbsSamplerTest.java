@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that seeded Gibbs sampling is reproducible whatever the number of threads, and converges to the exact answer.
+ */
+class GibbsSamplerTest {
+    private static final String[] NAMES = {"A", "J", "E"};
+
+    private static final String[] VALUES = {"T", "T", "F"};
+
+    private final BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+
+
+    /**
+     * Samples the query with four chains on a pool of the given parallelism.
+     * @param parallelism Number of threads of the pool.
+     * @return The result of the sampler.
+     */
+    private SamplingResult sample(int parallelism){
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return new GibbsSampler(network, pool, 4, 500, 20000, 2, 41).sample(NAMES, VALUES, new QueryContext(0, 0, -1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * Every chain draws from its own stream split off the seed, so one thread and four threads give the same result.
+     */
+    @Test
+    void sameSeedGivesSameResultOnAnyThreadCount(){
+        SamplingResult sequential = sample(1);
+        SamplingResult parallel = sample(4);
+        assertArrayEquals(sequential.getPosteriors(), parallel.getPosteriors());
+        assertEquals(sequential.getStandardError(), parallel.getStandardError(), 0);
+        assertEquals(sequential.getRHat(), parallel.getRHat(), 0);
+        assertEquals(4 * 20000, sequential.getSamples());
+    }
+
+
+    /**
+     * The chains mix, and the estimate is within four standard errors of the exact answer.
+     */
+    @Test
+    void estimateIsCloseToExactAnswer(){
+        SamplingResult result = sample(4);
+        assertTrue(result.getRHat() < 1.1, "R-hat " + result.getRHat());
+        double exact = network.answer(NAMES, VALUES, 3).getProbability();
+        assertEquals(exact, result.getEstimate(), 4 * result.getStandardError());
+    }
+}
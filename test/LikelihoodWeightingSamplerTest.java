@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that seeded likelihood weighting is reproducible whatever the number of threads, and stops at its target.
+ */
+class LikelihoodWeightingSamplerTest {
+    private static final String[] NAMES = {"B", "J", "M"};
+
+    private static final String[] VALUES = {"T", "T", "T"};
+
+    private final BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+
+
+    /**
+     * Samples the query on a pool of the given parallelism.
+     * @param parallelism Number of threads of the pool.
+     * @param maxSamples Samples to stop after.
+     * @param targetWidth Width of the confidence interval to stop at, 0 to draw every sample.
+     * @return The result of the sampler.
+     */
+    private SamplingResult sample(int parallelism, long maxSamples, double targetWidth){
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return new LikelihoodWeightingSampler(network, pool, maxSamples, targetWidth, 1.96, 40)
+                    .sample(NAMES, VALUES, new QueryContext(0, 0, -1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * Every batch draws from its own stream split off the seed, so one thread and four threads draw the same samples.
+     */
+    @Test
+    void sameSeedGivesSameResultOnAnyThreadCount(){
+        SamplingResult sequential = sample(1, 300000, 0);
+        SamplingResult parallel = sample(4, 300000, 0);
+        assertArrayEquals(sequential.getPosteriors(), parallel.getPosteriors());
+        assertEquals(sequential.getStandardError(), parallel.getStandardError(), 0);
+        assertEquals(sequential.getEffectiveSampleSize(), parallel.getEffectiveSampleSize(), 0);
+        assertEquals(300000, sequential.getSamples(), "Without a target every sample is drawn");
+    }
+
+
+    /**
+     * Sampling stops at the first round whose 95% confidence interval is as narrow as the target,
+     * long before the sample limit, and the interval holds the exact answer.
+     */
+    @Test
+    void stopsAtConfidenceIntervalTarget(){
+        double width = 0.02;
+        SamplingResult result = sample(4, 100000000, width);
+        assertTrue(result.getSamples() < 100000000);
+        assertTrue(2 * 1.96 * result.getStandardError() <= width);
+        double exact = network.answer(NAMES, VALUES, 3).getProbability();
+        assertEquals(exact, result.getEstimate(), width / 2);
+    }
+}
@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+
+/**
+ * Tests that the engines answer the same in log space as with plain probabilities, and keep answering where plain
+ * probabilities underflow.
+ */
+class LogSpaceTest {
+
+    /**
+     * Answers every query with enumeration and both variable elimination engines, in log space and with plain probabilities.
+     * @param path Path of the network file.
+     * @param queries Query lines in the input format of Ex1, without the engine number.
+     */
+    private static void assertLogSpaceMatchesLinearSpace(String path, List<String> queries){
+        BayesianNetwork linear = new BayesianNetwork(path);
+        linear.setLogSpace(false);
+        BayesianNetwork log = new BayesianNetwork(path);
+        log.setLogSpace(true);
+        for(String query : queries){
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            for(int algorithm = 1; algorithm <= 3; algorithm++){
+                assertEquals(linear.answer(names, values, algorithm).getProbability(),
+                        log.answer(names, values, algorithm).getProbability(), 1e-9, query + " with engine " + algorithm);
+            }
+        }
+    }
+
+
+    /**
+     * Writes a chain N0 -> N1 -> ... of binary variables. Each variable is T with probability 0.001 after a T parent,
+     * and 0.002 after an F parent. The first variable is T with probability 0.5.
+     * @param length Number of variables.
+     * @return Path of the network file.
+     */
+    private static String chain(int length){
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<NETWORK>\n");
+        for(int i = 0; i < length; i++){
+            xml.append("<VARIABLE><NAME>N").append(i).append("</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n");
+        }
+        xml.append("<DEFINITION><FOR>N0</FOR><TABLE>0.5 0.5</TABLE></DEFINITION>\n");
+        for(int i = 1; i < length; i++){
+            xml.append("<DEFINITION><FOR>N").append(i).append("</FOR><GIVEN>N").append(i - 1)
+                    .append("</GIVEN><TABLE>0.001 0.999 0.002 0.998</TABLE></DEFINITION>\n");
+        }
+        return TestNetworks.write(xml.append("</NETWORK>\n").toString());
+    }
+
+
+    /**
+     * Queries of the alarm network give the same answers in both spaces.
+     */
+    @Test
+    void alarmMatchesLinearSpace(){
+        assertLogSpaceMatchesLinearSpace(TestNetworks.alarm(),
+                List.of("P(B=T|J=T,M=T)", "P(A=F|E=T,J=F)", "P(J=T)", "P(E=T|B=F,J=T,M=F)"));
+    }
+
+
+    /**
+     * Random queries of a generated network give the same answers in both spaces.
+     */
+    @Test
+    void generatedNetworkMatchesLinearSpace(){
+        NetworkGenerator generator = new NetworkGenerator(12, 3, 2, 3, 6, 0, 30);
+        String path = TestNetworks.write(generator);
+        List<String> queries = generator.generateQueries(20, 4, 3);
+        queries.replaceAll(line -> line.substring(0, line.lastIndexOf(',')));
+        assertLogSpaceMatchesLinearSpace(path, queries);
+    }
+
+
+    /**
+     * The evidence of a chain of 400 variables has a probability below 1e-1000, which is 0 as a double.
+     * Only the first link depends on the query variable, so the answer is 0.5 * 0.001 / (0.5 * 0.001 + 0.5 * 0.002).
+     */
+    @Test
+    void deepChainDoesNotUnderflow(){
+        int length = 400;
+        String path = chain(length);
+        String[] names = new String[length];
+        String[] values = new String[length];
+        for(int i = 0; i < length; i++){
+            names[i] = "N" + i;
+            values[i] = "T";
+        }
+        double expected = 1.0 / 3;
+
+        BayesianNetwork linear = new BayesianNetwork(path);
+        linear.setLogSpace(false);
+        double linearAnswer = linear.answer(names, values, 1).getProbability(); //Enumeration multiplies the whole joint.
+        assertFalse(Math.abs(linearAnswer - expected) < 1e-6, "Plain probabilities underflow, answered " + linearAnswer);
+
+        BayesianNetwork log = new BayesianNetwork(path);
+        log.setLogSpace(true);
+        for(int algorithm = 1; algorithm <= 3; algorithm++){
+            assertEquals(expected, log.answer(names, values, algorithm).getProbability(), 1e-9, "Engine " + algorithm);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that loopy belief propagation is exact on polytrees, and that its synchronous schedule gives the same beliefs
+ * whatever the number of threads.
+ */
+class LoopyBeliefPropagationTest {
+
+    /**
+     * Propagates a query on a pool of the given parallelism, with the synchronous schedule.
+     * @param network Network of the query.
+     * @param parallelism Number of threads of the pool.
+     * @param names Names of the query.
+     * @param values Values of the query.
+     * @return The result of the propagation.
+     */
+    private static BeliefPropagationResult propagate(BayesianNetwork network, int parallelism, String[] names, String[] values){
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return new LoopyBeliefPropagation(network, pool, LoopyBeliefPropagation.Schedule.SYNCHRONOUS, 0, 1e-10, 500)
+                    .propagate(names, values, new QueryContext(0, 0, -1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * The alarm network is a polytree, so the beliefs converge to the exact answers.
+     */
+    @Test
+    void exactOnPolytree(){
+        BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+        for(String query : List.of("P(B=T|J=T,M=T)", "P(A=F|E=T,J=F)", "P(J=T)", "P(E=T|B=F,J=T,M=F)")){
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            BeliefPropagationResult result = propagate(network, 4, names, values);
+            assertTrue(result.isConverged(), query);
+            assertEquals(network.answer(names, values, 3).getProbability(), result.getBelief(), 1e-8, query);
+        }
+    }
+
+
+    /**
+     * Synchronous iterations update every message from the messages of the previous iteration, so one thread and four
+     * threads give the same beliefs on a network with cycles too. The network has enough variables for several blocks.
+     */
+    @Test
+    void sameBeliefsOnAnyThreadCount(){
+        NetworkGenerator generator = new NetworkGenerator(200, 3, 2, 3, 6, 0, 43);
+        BayesianNetwork network = new BayesianNetwork(TestNetworks.write(generator));
+        for(String line : generator.generateQueries(10, 4, 11)){
+            String query = line.substring(0, line.lastIndexOf(','));
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            BeliefPropagationResult sequential = propagate(network, 1, names, values);
+            BeliefPropagationResult parallel = propagate(network, 4, names, values);
+            assertArrayEquals(sequential.getBeliefs(), parallel.getBeliefs(), query);
+            assertEquals(sequential.getIterations(), parallel.getIterations());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that the bounds of mini-bucket elimination hold the exact answer, and meet at it when the budget fits the
+ * tables of the elimination.
+ */
+class MiniBucketEngineTest {
+    private final NetworkGenerator generator = new NetworkGenerator(30, 4, 2, 3, 8, 0, 44);
+
+    private final BayesianNetwork network = new BayesianNetwork(TestNetworks.write(generator));
+
+
+    /**
+     * Returns random queries of the generated network, in the format of Ex1 without the engine number.
+     * @return Lines of the queries.
+     */
+    private List<String> queries(){
+        List<String> queries = generator.generateQueries(20, 5, 12);
+        queries.replaceAll(line -> line.substring(0, line.lastIndexOf(',')));
+        return queries;
+    }
+
+
+    /**
+     * With a budget far below the tables of func3(), the i-bound is lowered and the lower and upper bounds,
+     * of the joint and of the normalized answer, hold the exact answer.
+     */
+    @Test
+    void boundsHoldExactAnswer(){
+        MiniBucketEngine engine = new MiniBucketEngine(network, 300 * 3 * Double.BYTES);
+        boolean split = false;
+        for(String query : queries()){
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            MiniBucketResult result = engine.bound(names, values, new QueryContext(0, 0, -1));
+            double exact = network.answer(names, values, 3).getProbability();
+            assertTrue(result.getLowerBound() <= exact + 1e-12, query + " lower " + result.getLowerBound() + " exact " + exact);
+            assertTrue(exact <= result.getUpperBound() + 1e-12, query + " upper " + result.getUpperBound() + " exact " + exact);
+            assertTrue(result.getJointLowerBound() <= result.getJointEstimate() + 1e-15, query);
+            assertTrue(result.getJointEstimate() <= result.getJointUpperBound() + 1e-15, query);
+            split |= result.getLowerBound() < result.getUpperBound() - 1e-9;
+        }
+        assertTrue(split, "The budget splits some buckets");
+    }
+
+
+    /**
+     * With the default budget every bucket fits, so both bounds and the estimate are the exact answer.
+     */
+    @Test
+    void boundsMeetWhenBucketsFit(){
+        MiniBucketEngine engine = new MiniBucketEngine(network, 64L << 20);
+        for(String query : queries()){
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            MiniBucketResult result = engine.bound(names, values, new QueryContext(0, 0, -1));
+            double exact = network.answer(names, values, 3).getProbability();
+            assertEquals(exact, result.getLowerBound(), 1e-9, query);
+            assertEquals(exact, result.getEstimate(), 1e-9, query);
+            assertEquals(exact, result.getUpperBound(), 1e-9, query);
+        }
+    }
+}
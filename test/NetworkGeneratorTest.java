@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that the tables NetworkGenerator writes are distributions: every row sums to 1 and no cell is negative.
+ */
+class NetworkGeneratorTest {
+    private static final Pattern VARIABLE = Pattern.compile("<VARIABLE><NAME>(\\w+)</NAME>(.*)</VARIABLE>");
+
+    private static final Pattern DEFINITION = Pattern.compile("<DEFINITION><FOR>(\\w+)</FOR>.*<TABLE>(.*)</TABLE></DEFINITION>");
+
+
+    /**
+     * Reads a generated network file, and checks every row of every table in units of 1/10000, the 4 digits the
+     * tables are written with.
+     * @param generator Generator of the network.
+     * @return Number of rows checked.
+     */
+    private static int assertRowsAreDistributions(NetworkGenerator generator){
+        String xml;
+        try {
+            xml = Files.readString(Path.of(TestNetworks.write(generator)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        HashMap<String, Integer> outcomeCounts = new HashMap<>();
+        int rows = 0;
+        for(String line : xml.split("\\n")){
+            Matcher variable = VARIABLE.matcher(line);
+            if(variable.matches())
+                outcomeCounts.put(variable.group(1), variable.group(2).split("<OUTCOME>").length - 1);
+            Matcher definition = DEFINITION.matcher(line);
+            if(!definition.matches())
+                continue;
+            int outcomes = outcomeCounts.get(definition.group(1));
+            String[] cells = definition.group(2).split(" ");
+            assertEquals(0, cells.length % outcomes, line);
+            for(int offset = 0; offset < cells.length; offset += outcomes){
+                long units = 0, positives = 0;
+                for(int i = offset; i < offset + outcomes; i++){
+                    long cellUnits = Math.round(Double.parseDouble(cells[i]) * 10000);
+                    assertTrue(cellUnits >= 0, "Negative cell " + cells[i] + " of " + definition.group(1));
+                    units += cellUnits;
+                    positives += cellUnits > 0 ? 1 : 0;
+                }
+                assertEquals(10000, units, "Row of " + definition.group(1) + " at " + offset);
+                assertTrue(positives > 0, "Row of " + definition.group(1) + " at " + offset);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+
+    /**
+     * Tables of few outcomes, with and without sparsity.
+     */
+    @Test
+    void rowsOfFewOutcomesAreDistributions(){
+        assertTrue(assertRowsAreDistributions(new NetworkGenerator(60, 4, 2, 4, 6, 0, 49)) > 60);
+        assertTrue(assertRowsAreDistributions(new NetworkGenerator(60, 4, 2, 4, 6, 0.5, 49)) > 60);
+    }
+
+
+    /**
+     * Rows of up to 60 outcomes, where a cell of a small weight is below a unit of 1/10000 before it is rounded up.
+     * The rounding of these cells must not be taken from the other cells of the row below 0.
+     */
+    @Test
+    void rowsOfManyOutcomesAreDistributions(){
+        assertTrue(assertRowsAreDistributions(new NetworkGenerator(30, 2, 20, 60, 2, 0, 49)) > 30);
+        assertTrue(assertRowsAreDistributions(new NetworkGenerator(30, 2, 20, 60, 2, 0.3, 49)) > 30);
+    }
+
+
+    /**
+     * A row of 10 cells of weight 1000, 2001 cells of weight 1 and a cell of weight 0, where each small cell is below
+     * a unit before it is rounded up. Rounding every small cell up to a unit and taking the excess from the last
+     * positive cell would leave that cell at -330 units.
+     */
+    @Test
+    void roundingUpSmallCellsKeepsTheRowADistribution(){
+        int[] weights = new int[2012];
+        Arrays.fill(weights, 0, 10, 1000);
+        Arrays.fill(weights, 10, 2011, 1);
+        double[] row = new double[weights.length + 1];
+        row[0] = -1; //Before the row, left as it is.
+        NetworkGenerator.roundRow(weights, row, 1);
+        assertEquals(-1, row[0], 0);
+        long units = 0;
+        for(int i = 0; i < weights.length; i++){
+            long cellUnits = Math.round(row[i + 1] * 10000);
+            assertTrue(weights[i] == 0 ? cellUnits == 0 : cellUnits >= 1, "Cell " + i + " has " + cellUnits + " units");
+            units += cellUnits;
+        }
+        assertEquals(10000, units);
+    }
+}
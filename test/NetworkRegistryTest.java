@@ -0,0 +1,172 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests of the LRU eviction of NetworkRegistry, its statistics and its lazy loading.
+ */
+class NetworkRegistryTest {
+    private final String alarm = TestNetworks.alarm();
+
+    private final long alarmBytes = new BayesianNetwork(alarm).getEstimatedFootprintBytes(); //Footprint of a fresh network.
+
+
+    /**
+     * Builds a registry of the alarm network under the given names.
+     * @param budgetBytes Memory budget of the registry.
+     * @param mode Eviction mode of the registry.
+     * @param names Names to register the network by.
+     * @return The registry.
+     */
+    private NetworkRegistry registryOf(long budgetBytes, NetworkRegistry.EvictionMode mode, String... names){
+        NetworkRegistry registry = new NetworkRegistry(budgetBytes, mode);
+        for(String name : names){
+            registry.register(name, alarm);
+        }
+        return registry;
+    }
+
+
+    /**
+     * With room for two networks, every load evicts the least recently used network, where a request counts as a use.
+     */
+    @Test
+    void evictsLeastRecentlyUsedNetworkFirst(){
+        NetworkRegistry registry = registryOf(2 * alarmBytes + alarmBytes / 2, NetworkRegistry.EvictionMode.NETWORKS, "a", "b", "c");
+        registry.get("a");
+        registry.get("b");
+        registry.get("c");
+        assertFalse(registry.isResident("a"), "a is the least recently used");
+        assertTrue(registry.isResident("b"));
+        assertTrue(registry.isResident("c"));
+
+        registry.get("b"); //c is now the least recently used.
+        registry.get("a");
+        assertFalse(registry.isResident("c"), "c is the least recently used");
+        assertTrue(registry.isResident("a"));
+        assertTrue(registry.isResident("b"));
+        assertEquals(2 * alarmBytes, registry.getResidentBytes());
+    }
+
+
+    /**
+     * The network which was just requested stays loaded, even when it alone is over the budget.
+     */
+    @Test
+    void neverEvictsMostRecentlyUsedNetwork(){
+        NetworkRegistry registry = registryOf(1, NetworkRegistry.EvictionMode.NETWORKS, "a", "b");
+        registry.get("a");
+        assertTrue(registry.isResident("a"));
+
+        registry.get("b");
+        assertFalse(registry.isResident("a"));
+        assertTrue(registry.isResident("b"));
+    }
+
+
+    /**
+     * CACHES_THEN_NETWORKS releases the compiled circuit of the least recently used network first, and only evicts
+     * networks once there are no caches left to release and the budget is still exceeded.
+     */
+    @Test
+    void releasesCachesBeforeEvictingNetworks(){
+        NetworkRegistry registry = registryOf(2 * alarmBytes + alarmBytes / 2,
+                NetworkRegistry.EvictionMode.CACHES_THEN_NETWORKS, "a", "b", "c");
+        registry.get("a").getArithmeticCircuit(); //Counted in the footprint once the budget is enforced again.
+
+        registry.get("b");
+        assertTrue(registry.isResident("a"), "Releasing the circuit of a was enough");
+        assertTrue(registry.isResident("b"));
+        assertEquals(1, registry.getStatistics("a").getCacheReleaseCount());
+        assertEquals(0, registry.getStatistics("a").getEvictionCount());
+        assertEquals(2 * alarmBytes, registry.getResidentBytes());
+
+        registry.get("c"); //There are no caches left to release.
+        assertFalse(registry.isResident("a"));
+        assertEquals(1, registry.getStatistics("a").getEvictionCount());
+        assertTrue(registry.isResident("b"));
+        assertTrue(registry.isResident("c"));
+    }
+
+
+    /**
+     * CACHES never evicts a network, even when the budget is still exceeded.
+     */
+    @Test
+    void cachesModeKeepsNetworksLoaded(){
+        NetworkRegistry registry = registryOf(1, NetworkRegistry.EvictionMode.CACHES, "a", "b");
+        registry.get("a");
+        registry.get("b");
+        assertTrue(registry.isResident("a"));
+        assertTrue(registry.isResident("b"));
+    }
+
+
+    /**
+     * Snapshots count the loads, requests and evictions, and don't change once they are taken.
+     */
+    @Test
+    void statisticsSnapshotCountsLoadsAndEvictions(){
+        NetworkRegistry registry = registryOf(alarmBytes, NetworkRegistry.EvictionMode.NETWORKS, "a", "b");
+        registry.get("a");
+        registry.get("a");
+        NetworkRegistry.NetworkStatistics before = registry.getStatistics("a");
+        registry.get("b");
+        registry.get("a");
+
+        assertTrue(before.isResident());
+        assertEquals(alarmBytes, before.getEstimatedBytes());
+        assertEquals(1, before.getLoadCount());
+        assertEquals(2, before.getAccessCount());
+        assertEquals(0, before.getEvictionCount());
+
+        NetworkRegistry.NetworkStatistics after = registry.getStatistics("a");
+        assertEquals(2, after.getLoadCount());
+        assertEquals(3, after.getAccessCount());
+        assertEquals(1, after.getEvictionCount());
+        assertTrue(after.getTotalLoadNanos() >= after.getLastLoadNanos());
+
+        List<NetworkRegistry.NetworkStatistics> all = registry.getAllStatistics();
+        assertEquals("b", all.get(0).getName(), "Least recently used first");
+        assertFalse(all.get(0).isResident());
+        assertEquals("a", all.get(1).getName());
+        assertEquals(null, registry.getStatistics("missing"));
+    }
+
+
+    /**
+     * Two threads requesting a network which isn't loaded get the same instance, which is built once.
+     */
+    @Test
+    void concurrentRequestsLoadTheNetworkOnce() throws Exception {
+        NetworkRegistry registry = registryOf(Long.MAX_VALUE, NetworkRegistry.EvictionMode.NETWORKS, "a");
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<BayesianNetwork> first = executor.submit(() -> {
+                start.await();
+                return registry.get("a");
+            });
+            Future<BayesianNetwork> second = executor.submit(() -> {
+                start.await();
+                return registry.get("a");
+            });
+            start.countDown();
+            assertTrue(first.get(30, TimeUnit.SECONDS) == second.get(30, TimeUnit.SECONDS), "Both threads get the same network");
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, registry.getStatistics("a").getLoadCount());
+        assertEquals(2, registry.getStatistics("a").getAccessCount());
+    }
+}
@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Tests that ParameterLearner learns the smoothed counts of a dataset, the same on any number of threads,
+ * and that its snapshots load back to the same network.
+ */
+class ParameterLearnerTest {
+    //Samples of the alarm network, with an extra column, the columns out of the network's order, a quoted value and a missing value.
+    private static final String ALARM_CSV = "id,B,E,A,J,M\n"
+            + "1,T,F,T,T,F\n"
+            + "2,F,F,F,F,F\n"
+            + "3,\"T\",F,T,T,T\n"
+            + "4,F,T,T,F,T\n"
+            + "5,F,F,F,F,F\n"
+            + "6,F,?,T,T,T\n"
+            + "7,F,F,T,F,F\n";
+
+
+    /**
+     * Writes a file which is deleted when the tests end.
+     * @param suffix Suffix of the file name.
+     * @param content Content of the file, or null to leave it empty.
+     * @return The file.
+     * @throws IOException Whenever the file can't be written.
+     */
+    private static File tempFile(String suffix, String content) throws IOException {
+        File file = File.createTempFile("learner", suffix);
+        file.deleteOnExit();
+        if(content != null)
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+
+    /**
+     * Builds a learner of a network's structure on a pool of the given number of threads.
+     * @param structure Network whose structure is learned.
+     * @param threads Number of threads of the pool.
+     * @param alpha Pseudo count of every cell.
+     * @param chunkRows Lines read at a time.
+     * @param blockRows Lines a single task counts.
+     * @return The learner.
+     */
+    private static ParameterLearner learnerOf(BayesianNetwork structure, int threads, double alpha, int chunkRows, long blockRows){
+        return new ParameterLearner(structure, new ForkJoinPool(threads), alpha, chunkRows, blockRows, ',');
+    }
+
+
+    /**
+     * The six complete lines of the dataset are counted, and the line with a missing value is skipped. Each learned
+     * table row is its counts plus the pseudo count of 1 per cell, normalized. With a pseudo count of 0 the tables are
+     * the plain frequencies, and a row without counts is uniform.
+     * @throws IOException Whenever the dataset can't be written.
+     */
+    @Test
+    void learnedTablesAreSmoothedCounts() throws IOException {
+        File samples = tempFile(".csv", ALARM_CSV);
+        BayesianNetwork structure = new BayesianNetwork(TestNetworks.alarm());
+        ParameterLearner learner = learnerOf(structure, 1, 1, 2, 1);
+        learner.learn(samples);
+        assertEquals(6, learner.getRows());
+        assertEquals(1, learner.getSkippedRows());
+
+        //Variables are in the order of the xml file: E, B, A(given E and B), J(given A) and M(given A).
+        assertArrayEquals(new double[]{2.0 / 8, 6.0 / 8}, learner.getProbabilities(0), "E");
+        assertArrayEquals(new double[]{3.0 / 8, 5.0 / 8}, learner.getProbabilities(1), "B");
+        assertArrayEquals(new double[]{1.0 / 2, 1.0 / 2, 2.0 / 3, 1.0 / 3, 3.0 / 4, 1.0 / 4, 2.0 / 5, 3.0 / 5},
+                learner.getProbabilities(2), "A");
+        assertArrayEquals(new double[]{3.0 / 6, 3.0 / 6, 1.0 / 4, 3.0 / 4}, learner.getProbabilities(3), "J");
+        assertArrayEquals(new double[]{3.0 / 6, 3.0 / 6, 1.0 / 4, 3.0 / 4}, learner.getProbabilities(4), "M");
+
+        ParameterLearner frequencies = learnerOf(structure, 1, 0, 1 << 16, 1 << 12);
+        frequencies.learn(samples);
+        assertArrayEquals(new double[]{2.0 / 6, 4.0 / 6}, frequencies.getProbabilities(1), "B");
+        assertArrayEquals(new double[]{1.0 / 2, 1.0 / 2, 1.0, 0.0, 1.0, 0.0, 1.0 / 3, 2.0 / 3},
+                frequencies.getProbabilities(2), "A");
+    }
+
+
+    /**
+     * Samples of a generated network are learned on a single thread and on 4 threads, with different chunk and block
+     * sizes. The merged counts are whole numbers, so every learned table is exactly the same.
+     * @throws IOException Whenever the samples can't be written or read.
+     */
+    @Test
+    void sameTablesOnAnyThreadCount() throws IOException {
+        NetworkGenerator generator = new NetworkGenerator(30, 3, 2, 3, 6, 0.2, 50);
+        BayesianNetwork structure = new BayesianNetwork(TestNetworks.write(generator));
+        File samples = tempFile(".csv", null);
+        generator.writeSamples(samples, 20000);
+
+        ParameterLearner sequential = learnerOf(structure, 1, 1, 1 << 16, 1 << 16);
+        sequential.learn(samples);
+        ParameterLearner parallel = learnerOf(structure, 4, 1, 3000, 97);
+        parallel.learn(samples);
+        assertEquals(20000, sequential.getRows());
+        assertEquals(sequential.getRows(), parallel.getRows());
+        for(int var = 0; var < structure.getNodeCount(); var++){
+            assertArrayEquals(sequential.getProbabilities(var), parallel.getProbabilities(var), "Variable " + var);
+        }
+    }
+
+
+    /**
+     * A snapshot loads back to a network of the same variables, outcomes, parents and tables as toNetwork() builds,
+     * which answers the same.
+     * @throws IOException Whenever the snapshot can't be written or read.
+     */
+    @Test
+    void snapshotRoundTrip() throws IOException {
+        NetworkGenerator generator = new NetworkGenerator(20, 3, 2, 3, 6, 0, 50);
+        BayesianNetwork structure = new BayesianNetwork(TestNetworks.write(generator));
+        File samples = tempFile(".csv", null);
+        generator.writeSamples(samples, 5000);
+        ParameterLearner learner = learnerOf(structure, 2, 0.5, 1 << 16, 1 << 12);
+        learner.learn(samples);
+
+        File snapshot = tempFile(".bin", null);
+        learner.saveSnapshot(snapshot);
+        BayesianNetwork learned = learner.toNetwork();
+        BayesianNetwork loaded = ParameterLearner.loadSnapshot(snapshot);
+        assertEquals(learned.getNodeCount(), loaded.getNodeCount());
+        for(int var = 0; var < learned.getNodeCount(); var++){
+            VariableNode expected = learned.getNodeByIndex(var), actual = loaded.getNodeByIndex(var);
+            assertEquals(expected.getVariableNodeName(), actual.getVariableNodeName());
+            assertEquals(List.of(expected.getPossibleOutcomes()), List.of(actual.getPossibleOutcomes()));
+            assertEquals(List.of(expected.getParents()), List.of(actual.getParents()));
+            assertArrayEquals(learner.getProbabilities(var), actual.getProbabilities(), expected.getVariableNodeName());
+        }
+
+        for(String line : generator.generateQueries(20, 3, 3)){
+            String query = line.substring(0, line.lastIndexOf(','));
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            assertEquals(learned.answer(names, values, 3).getProbability(), loaded.answer(names, values, 3).getProbability(), 0, query);
+        }
+    }
+}
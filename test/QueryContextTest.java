@@ -0,0 +1,133 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that the deadline, the cancellation and the cell limit of a QueryContext abort every engine with the matching
+ * QueryAbortedException, and that the fallback engine answers the queries which ran out of time or memory.
+ */
+class QueryContextTest {
+    private static final String[] NAMES = {"B", "J", "M"};
+
+    private static final String[] VALUES = {"T", "T", "T"};
+
+    private static final int ENGINES = 12; //Engines 1 to 12 of BayesianNetwork.answer().
+
+    private static final long TIMEOUT_MILLIS = 200;
+
+
+    /**
+     * Builds a context whose second checkpoint, the first one inside the engine, waits until the deadline passed.
+     * answer() makes the first checkpoint before it runs the engine.
+     * @param fallbackAlgorithm Engine which answers the query instead, -1 for none.
+     * @return The context.
+     */
+    private static QueryContext expiringContext(int fallbackAlgorithm){
+        return new QueryContext(TIMEOUT_MILLIS, 0, fallbackAlgorithm){
+            private int checkpoints;
+
+            @Override
+            public void checkpoint(){
+                if(++checkpoints == 2){
+                    try {
+                        Thread.sleep(TIMEOUT_MILLIS + 50);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                super.checkpoint();
+            }
+        };
+    }
+
+
+    /**
+     * Builds a context which is cancelled at its second checkpoint, the first one inside the engine.
+     * @param fallbackAlgorithm Engine of the context, which never answers cancelled queries.
+     * @return The context.
+     */
+    private static QueryContext cancellingContext(int fallbackAlgorithm){
+        return new QueryContext(0, 0, fallbackAlgorithm){
+            private int checkpoints;
+
+            @Override
+            public void checkpoint(){
+                if(++checkpoints == 2)
+                    cancel();
+                super.checkpoint();
+            }
+        };
+    }
+
+
+    /**
+     * Every engine checks the deadline inside its work, and without a fallback the query aborts with a QueryDeadlineException.
+     * With a fallback, func3() answers the query instead.
+     */
+    @Test
+    void deadlineAbortsEveryEngine(){
+        double expected = new BayesianNetwork(TestNetworks.alarm()).answer(NAMES, VALUES, 3).getProbability();
+        for(int algorithm = 1; algorithm <= ENGINES; algorithm++){
+            BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+            int engine = algorithm;
+            assertThrows(QueryDeadlineException.class, () -> network.answer(NAMES, VALUES, engine, expiringContext(-1)), "Engine " + engine);
+            assertEquals(expected, network.answer(NAMES, VALUES, engine, expiringContext(3)).getProbability(), 0, "Engine " + engine);
+        }
+    }
+
+
+    /**
+     * Every engine checks the cancellation token inside its work. A cancelled query aborts with a QueryCancelledException
+     * even when the context has a fallback, since the caller doesn't want an answer anymore.
+     */
+    @Test
+    void cancelAbortsEveryEngine(){
+        for(int algorithm = 1; algorithm <= ENGINES; algorithm++){
+            BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+            int engine = algorithm;
+            assertThrows(QueryCancelledException.class, () -> network.answer(NAMES, VALUES, engine, cancellingContext(-1)), "Engine " + engine);
+            assertThrows(QueryCancelledException.class, () -> network.answer(NAMES, VALUES, engine, cancellingContext(3)), "Engine " + engine);
+        }
+    }
+
+
+    /**
+     * Every engine checks the size of its tables before it allocates them, and a limit of a single cell is below all
+     * of them, so the query aborts with a QueryMemoryException. With a fallback, func3() answers the query instead.
+     */
+    @Test
+    void cellLimitAbortsEveryEngine(){
+        double expected = new BayesianNetwork(TestNetworks.alarm()).answer(NAMES, VALUES, 3).getProbability();
+        for(int algorithm = 1; algorithm <= ENGINES; algorithm++){
+            BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+            int engine = algorithm;
+            assertThrows(QueryMemoryException.class, () -> network.answer(NAMES, VALUES, engine, new QueryContext(0, 1, -1)), "Engine " + engine);
+            assertEquals(expected, network.answer(NAMES, VALUES, engine, new QueryContext(0, 1, 3)).getProbability(), 0, "Engine " + engine);
+        }
+    }
+
+
+    /**
+     * The context of the fallback has no time or cell limit and no fallback of its own, but it shares the cancellation
+     * token, so cancelling the query also stops the fallback engine.
+     */
+    @Test
+    void fallbackContextSharesOnlyTheCancellation(){
+        QueryContext context = new QueryContext(TIMEOUT_MILLIS, 1, 3);
+        QueryContext fallback = context.forFallback();
+        assertEquals(0, fallback.getTimeoutMillis());
+        assertEquals(Long.MAX_VALUE, fallback.getMaxCells());
+        assertEquals(-1, fallback.getFallbackAlgorithm());
+        fallback.checkCells(Long.MAX_VALUE);
+        fallback.checkpoint();
+        assertFalse(fallback.isCancelled());
+
+        context.cancel();
+        assertTrue(fallback.isCancelled());
+        assertThrows(QueryCancelledException.class, fallback::checkpoint);
+    }
+}
@@ -0,0 +1,128 @@
+import org.junit.jupiter.api.Test;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that the phase timings recorded by the queries are reported the same through the JMX bean and the text dump,
+ * and that nothing is recorded while the metrics are off.
+ */
+class QueryMetricsTest {
+    private static final String[] NAMES = {"B", "J", "M"};
+
+    private static final String[] VALUES = {"T", "T", "T"};
+
+
+    /**
+     * Reads an attribute of the metrics bean from the platform MBean server.
+     * @param attribute Name of the attribute.
+     * @return Value of the attribute.
+     * @throws JMException Whenever the bean isn't registered.
+     */
+    private static Object attribute(String attribute) throws JMException {
+        return ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName("bn:type=QueryMetrics"), attribute);
+    }
+
+
+    /**
+     * Returns the line of a phase in the text dump, split into its columns.
+     * @param dump Text of the metrics.
+     * @param phase The phase.
+     * @return Name, count, total ms, mean, p50 and p99 of the phase.
+     */
+    private static String[] dumpLine(String dump, QueryMetrics.Phase phase){
+        for(String line : dump.split("\\n")){
+            String[] columns = line.trim().split("\\s+");
+            if(columns[0].equals(phase.name().toLowerCase()))
+                return columns;
+        }
+        throw new AssertionError("No line of phase " + phase);
+    }
+
+
+    /**
+     * Two queries of func3() run every phase of variable elimination. The bean counts two query runs, reports the
+     * same counts as the dump and a time for every phase which ran, and recursive conditioning records cache lookups.
+     * @throws JMException Whenever the bean isn't registered.
+     */
+    @Test
+    void beanAndDumpReportRecordedPhases() throws JMException {
+        QueryMetrics metrics = QueryMetrics.getInstance();
+        boolean enabled = metrics.isEnabled();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("bn:type=QueryMetrics");
+        try {
+            server.setAttribute(name, new Attribute("Enabled", true));
+            server.invoke(name, "reset", null, null);
+            BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+            network.answer(NAMES, VALUES, 3);
+            network.answer(NAMES, VALUES, 3);
+            network.answer(NAMES, VALUES, 5);
+
+            String[] phaseNames = (String[]) attribute("PhaseNames");
+            long[] counts = (long[]) attribute("PhaseCounts");
+            long[] totalNanos = (long[]) attribute("PhaseTotalNanos");
+            String dump = (String) server.invoke(name, "dump", null, null);
+            for(QueryMetrics.Phase phase : QueryMetrics.Phase.values()){
+                int i = phase.ordinal();
+                assertEquals(phase.name(), phaseNames[i]);
+                assertTrue(counts[i] > 0, phase + " ran");
+                assertTrue(totalNanos[i] > 0, phase + " took time");
+                assertEquals(metrics.getCount(phase), counts[i]);
+                assertEquals(Long.toString(counts[i]), dumpLine(dump, phase)[1], phase.name());
+                assertTrue((long) server.invoke(name, "getPhasePercentileNanos", new Object[]{phase.name(), 99.0},
+                        new String[]{String.class.getName(), double.class.getName()}) > 0, phase + " has a p99");
+            }
+            assertEquals(3, counts[QueryMetrics.Phase.QUERY.ordinal()]);
+            assertTrue((long) attribute("TableCount") > 0);
+            assertTrue((long) attribute("PeakCells") > 0);
+            assertTrue((long) attribute("CacheLookups") > 0, "Recursive conditioning looks up its caches");
+            assertTrue(dump.startsWith("Query metrics\n"), dump);
+            assertTrue(dump.contains("tables: " + attribute("TableCount") + ","), dump);
+        } finally {
+            metrics.setEnabled(enabled);
+            metrics.reset();
+        }
+    }
+
+
+    /**
+     * While the metrics are off, the queries record no phase, table or cache lookup, and the dump says so.
+     * @throws JMException Whenever the bean isn't registered.
+     */
+    @Test
+    void metricsOffRecordNothing() throws JMException {
+        QueryMetrics metrics = QueryMetrics.getInstance();
+        boolean enabled = metrics.isEnabled();
+        try {
+            ManagementFactory.getPlatformMBeanServer().setAttribute(new ObjectName("bn:type=QueryMetrics"), new Attribute("Enabled", false));
+            assertEquals(false, attribute("Enabled"));
+            metrics.reset();
+            BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+            for(int algorithm = 1; algorithm <= 5; algorithm++){
+                network.answer(NAMES, VALUES, algorithm);
+            }
+
+            for(long count : (long[]) attribute("PhaseCounts")){
+                assertEquals(0, count);
+            }
+            for(long nanos : (long[]) attribute("PhaseTotalNanos")){
+                assertEquals(0, nanos);
+            }
+            assertEquals(0, (long) attribute("TableCount"));
+            assertEquals(0, (long) attribute("TotalCells"));
+            assertEquals(0, (long) attribute("CacheLookups"));
+            assertTrue(metrics.dump().startsWith("Query metrics (off)\n"));
+        } finally {
+            metrics.setEnabled(enabled);
+            metrics.reset();
+        }
+    }
+}
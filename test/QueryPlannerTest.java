@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests of the engines QueryPlanner picks and of the costs it predicts for them.
+ */
+class QueryPlannerTest {
+    private static final String[] NAMES = {"B", "J", "M"};
+
+    private static final String[] VALUES = {"T", "T", "T"};
+
+
+    /**
+     * Returns the candidate of an engine in a plan.
+     * @param plan Plan of a query.
+     * @param engine Number of the engine.
+     * @return The candidate of the engine.
+     */
+    private static QueryPlan.Candidate candidateOf(QueryPlan plan, int engine){
+        for(QueryPlan.Candidate candidate : plan.getCandidates()){
+            if(candidate.getEngine() == engine)
+                return candidate;
+        }
+        throw new AssertionError("No candidate of engine " + engine);
+    }
+
+
+    /**
+     * A shape which has no generated routine yet is charged the javac compilation of its circuit, so a one-off query
+     * isn't answered by generating a routine. Once the routine exists, only its runs are charged.
+     */
+    @Test
+    void chargesCompilationOfNewRoutines(){
+        BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+        QueryPlan plan = new QueryPlanner(network).plan(NAMES);
+        QueryPlan.Candidate routine = candidateOf(plan, 7);
+        assertTrue(routine.getCost() >= 1e4 * routine.getPeakCells(), "javac costs 10^4 operations a circuit node");
+        assertTrue(routine.getCost() > 100 * candidateOf(plan, 3).getCost());
+        assertEquals(3, plan.getEngine());
+
+        network.answer(NAMES, VALUES, 7); //Generates the routine of the shape.
+        CompiledQuery compiled = network.getQueryCompiler().getCachedQuery(NAMES);
+        double runCost = 2.0 * (compiled.getAdditions() + compiled.getMultiplications() + 1);
+        assertEquals(runCost, candidateOf(new QueryPlanner(network).plan(NAMES), 7).getCost(), 0);
+    }
+
+
+    /**
+     * The burglary query of the alarm network has 5 relevant variables of induced width 2, and is answered by
+     * variable elimination in min-neighbors order. The explanation lists every engine once and marks the chosen one.
+     * Planning creates no query compiler, and estimates the circuit of the whole network only once.
+     */
+    @Test
+    void explainsTheChosenEngine(){
+        BayesianNetwork network = new BayesianNetwork(TestNetworks.alarm());
+        QueryPlan plan = new QueryPlanner(network).plan(NAMES);
+        assertEquals(3, plan.getEngine());
+        assertEquals(5, plan.getRelevantVariables());
+        assertEquals(2, candidateOf(plan, 3).getInducedWidth());
+
+        String[] lines = plan.explain().split("\n");
+        assertEquals("Plan of P(B|J,M)", lines[0]);
+        assertTrue(lines[1].startsWith("  relevant variables: 5,"), lines[1]);
+        assertEquals(2 + plan.getCandidates().size(), lines.length);
+        int chosen = 0;
+        for(int i = 2; i < lines.length; i++){
+            if(lines[i].startsWith("* ")){
+                chosen++;
+                assertTrue(lines[i].startsWith("* 3 variable elimination, min-neighbors order: "), lines[i]);
+            }
+        }
+        assertEquals(1, chosen);
+
+        assertNull(network.getExistingQueryCompiler());
+        long nodes = network.getEstimatedCircuitNodes(Long.MAX_VALUE / 4);
+        assertEquals(nodes + 3 * 2 * nodes, candidateOf(plan, 6).getCost(), 0);
+        new QueryPlanner(network).plan(new String[]{"A", "E"});
+        assertEquals(nodes, network.getEstimatedCircuitNodes(Long.MAX_VALUE / 4));
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Tests that recursive conditioning answers the same as func3(), whichever caches fit its budget.
+ */
+class RecursiveConditioningEngineTest {
+
+    /**
+     * Answers queries with engines of the given cache budgets, and compares them to func3().
+     * @param path Path of the network file.
+     * @param queries Query lines in the input format of Ex1, without the engine number.
+     */
+    private static void assertMatchesVariableElimination(String path, List<String> queries){
+        BayesianNetwork network = new BayesianNetwork(path);
+        long[] budgets = {0, 1024, 64L << 20}; //Linear space, some caches and every cache.
+        for(String query : queries){
+            String[] names = Ex1.getQueryNames(query);
+            String[] values = Ex1.getQueryIndex(query);
+            double expected = network.answer(names, values, 3).getProbability();
+            for(long budget : budgets){
+                RecursiveConditioningEngine engine = new RecursiveConditioningEngine(network, budget);
+                assertEquals(expected, engine.answer(names, values).getProbability(), 1e-9, query + " with a budget of " + budget);
+            }
+            assertEquals(expected, network.answer(names, values, 5).getProbability(), 1e-9, query);
+        }
+    }
+
+
+    /**
+     * Queries of the alarm network, with and without evidence.
+     */
+    @Test
+    void alarmMatchesVariableElimination(){
+        assertMatchesVariableElimination(TestNetworks.alarm(),
+                List.of("P(B=T|J=T,M=T)", "P(A=F|E=T,J=F)", "P(J=T)", "P(E=T|B=F,J=T,M=F)"));
+    }
+
+
+    /**
+     * Random queries of a generated network with cycles and ternary variables.
+     */
+    @Test
+    void generatedNetworkMatchesVariableElimination(){
+        NetworkGenerator generator = new NetworkGenerator(20, 3, 2, 3, 6, 0, 37);
+        List<String> queries = generator.generateQueries(25, 4, 5);
+        queries.replaceAll(line -> line.substring(0, line.lastIndexOf(',')));
+        assertMatchesVariableElimination(TestNetworks.write(generator), queries);
+    }
+}
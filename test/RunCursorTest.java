@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests of RunCursor and of the blocks ParallelBlocks splits its runs into.
+ */
+class RunCursorTest {
+
+    /**
+     * Summing out the first variable of a factor leaves kept variables whose strides continue each other, which used to
+     * merge the entire table into a single run, and therefore into a single block.
+     */
+    @Test
+    void tableWithoutHiddenFirstVariableSplitsIntoSeveralBlocks(){
+        int keptVars = 20; //The factor has a binary hidden variable followed by 20 binary kept variables.
+        int[] outcomeCounts = new int[keptVars];
+        long[] sourceStrides = new long[keptVars];
+        for(int i = 0; i < keptVars; i++){
+            outcomeCounts[i] = 2;
+            sourceStrides[i] = 2L << i; //The hidden variable has stride 1.
+        }
+        long rows = 1L << keptVars;
+        long runLength = new RunCursor(outcomeCounts, sourceStrides).getRunLength();
+        assertEquals(RunCursor.MAX_RUN_LENGTH, runLength);
+
+        AtomicInteger blocks = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelBlocks.forEachBlock(pool, 0, rows, runLength, (fromRow, toRow) -> blocks.incrementAndGet());
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(blocks.get() > 1, "Expected several blocks, got " + blocks.get());
+    }
+
+
+    /**
+     * Every piece of a merged run starts at the cell the whole run would reach at that row, from any row the cursor seeks to.
+     */
+    @Test
+    void piecesOfMergedRunFollowTheSourceCells(){
+        int[] outcomeCounts = {3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 5}; //3^11 rows merged, then a variable outside the run.
+        long[] strides = new long[outcomeCounts.length];
+        long stride = 2;
+        for(int i = 0; i < outcomeCounts.length - 1; i++){
+            strides[i] = stride;
+            stride *= outcomeCounts[i];
+        }
+        strides[outcomeCounts.length - 1] = stride * 7; //Breaks the run.
+        long mergedRunLength = stride / 2;
+
+        RunCursor cursor = new RunCursor(outcomeCounts, strides);
+        long runLength = cursor.getRunLength();
+        assertTrue(runLength <= RunCursor.MAX_RUN_LENGTH);
+        assertEquals(0, mergedRunLength % runLength);
+
+        long rows = mergedRunLength * outcomeCounts[outcomeCounts.length - 1];
+        for(long row = 0; row < rows; row += runLength){
+            long expected = (row % mergedRunLength) * 2 + (row / mergedRunLength) * strides[outcomeCounts.length - 1];
+            assertEquals(expected, cursor.getCell(0), "Cell of row " + row);
+            RunCursor seeker = new RunCursor(outcomeCounts, strides);
+            seeker.seek(row);
+            assertEquals(expected, seeker.getCell(0), "Cell of row " + row + " after a seek");
+            cursor.next();
+        }
+    }
+}
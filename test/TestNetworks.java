@@ -0,0 +1,84 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+
+/**
+ * Networks shared by the tests, written to temporary files since BayesianNetwork parses files.
+ */
+final class TestNetworks {
+    //The burglary alarm network of the course, the same as benchmarks/resources/alarm_net.xml.
+    static final String ALARM_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<NETWORK>\n"
+            + "<VARIABLE><NAME>E</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<VARIABLE><NAME>B</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<VARIABLE><NAME>A</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<VARIABLE><NAME>J</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<VARIABLE><NAME>M</NAME><OUTCOME>T</OUTCOME><OUTCOME>F</OUTCOME></VARIABLE>\n"
+            + "<DEFINITION><FOR>E</FOR><TABLE>0.002 0.998</TABLE></DEFINITION>\n"
+            + "<DEFINITION><FOR>B</FOR><TABLE>0.001 0.999</TABLE></DEFINITION>\n"
+            + "<DEFINITION><FOR>A</FOR><GIVEN>E</GIVEN><GIVEN>B</GIVEN><TABLE>0.95 0.05 0.29 0.71 0.94 0.06 0.001 0.999</TABLE></DEFINITION>\n"
+            + "<DEFINITION><FOR>J</FOR><GIVEN>A</GIVEN><TABLE>0.9 0.1 0.05 0.95</TABLE></DEFINITION>\n"
+            + "<DEFINITION><FOR>M</FOR><GIVEN>A</GIVEN><TABLE>0.7 0.3 0.01 0.99</TABLE></DEFINITION>\n"
+            + "</NETWORK>\n";
+
+    private TestNetworks(){
+    }
+
+
+    /**
+     * Writes the alarm network to a temporary file.
+     * @return Path of the file.
+     */
+    static String alarm(){
+        return write(ALARM_XML);
+    }
+
+
+    /**
+     * Writes a network to a temporary file, which is deleted when the tests end.
+     * @param xml Content of the network file.
+     * @return Path of the file.
+     */
+    static String write(String xml){
+        try {
+            File file = File.createTempFile("network", ".xml");
+            file.deleteOnExit();
+            Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+            return file.getPath();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Generates a random network with NetworkGenerator into a temporary file, binary to ternary variables without zeros.
+     * @param nodes Number of variables.
+     * @param inDegree Most parents of a variable.
+     * @param seed Seed of the generator.
+     * @return Path of the file.
+     */
+    static String generate(int nodes, int inDegree, long seed){
+        return write(new NetworkGenerator(nodes, inDegree, 2, 3, Math.max(inDegree, 6), 0, seed));
+    }
+
+
+    /**
+     * Writes the network of a generator to a temporary file, which is deleted when the tests end.
+     * The generator can generate queries of the same network afterwards.
+     * @param generator Generator of the network.
+     * @return Path of the file.
+     */
+    static String write(NetworkGenerator generator){
+        try {
+            File file = File.createTempFile("generated", ".xml");
+            file.deleteOnExit();
+            generator.writeNetwork(file);
+            return file.getPath();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
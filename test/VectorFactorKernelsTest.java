@@ -0,0 +1,142 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Compares the vector kernels with the scalar kernels bit by bit, on runs of random cells with random strides,
+ * offsets and lengths. Needs the jdk.incubator.vector module, like the vector kernels themselves.
+ */
+class VectorFactorKernelsTest {
+    private static final int RUNS = 2000; //Random runs of every kernel.
+
+    private final FactorKernels scalar = new ScalarFactorKernels();
+
+    private final FactorKernels vector = new VectorFactorKernels();
+
+    private final Random random = new Random(7);
+
+
+    /**
+     * Returns a random stride: often 0 or 1, which are loaded without a gather, otherwise a small or a large gather stride.
+     * @return Stride of a run.
+     */
+    private int randomStride(){
+        switch (random.nextInt(4)){
+            case 0:
+                return 0;
+            case 1:
+                return 1;
+            case 2:
+                return 2 + random.nextInt(30);
+            default:
+                return 4000 + random.nextInt(300); //Around the end of the cached strides.
+        }
+    }
+
+
+    /**
+     * Returns an array of random cells, long enough for a run of the given length and stride.
+     * @param offset Cell where the run starts.
+     * @param stride Stride of the run.
+     * @param length Number of cells in the run.
+     * @param extra Cells needed after the run.
+     * @return Array of random values.
+     */
+    private double[] randomCells(int offset, int stride, int length, int extra){
+        double[] cells = new double[offset + stride * length + extra + 1];
+        for(int i = 0; i < cells.length; i++){
+            cells[i] = random.nextDouble();
+        }
+        return cells;
+    }
+
+
+    /**
+     * Asserts that two arrays hold exactly the same bits.
+     * @param expected Result of the scalar kernels.
+     * @param actual Result of the vector kernels.
+     * @param message Description of the run.
+     */
+    private static void assertBitwiseEquals(double[] expected, double[] actual, String message){
+        assertTrue(FactorKernels.bitwiseEquals(expected, actual), message);
+    }
+
+
+    /**
+     * Products of runs, in plain and in log space.
+     */
+    @Test
+    void productMatchesScalar(){
+        for(int run = 0; run < RUNS; run++){
+            int length = 1 + random.nextInt(100), aStride = randomStride(), bStride = randomStride();
+            int aOffset = random.nextInt(10), bOffset = random.nextInt(10);
+            double[] a = randomCells(aOffset, aStride, length, 0), b = randomCells(bOffset, bStride, length, 0);
+            boolean logSpace = random.nextBoolean();
+            double[] expected = new double[length], actual = new double[length];
+            scalar.product(a, aOffset, aStride, b, bOffset, bStride, expected, 0, length, logSpace);
+            vector.product(a, aOffset, aStride, b, bOffset, bStride, actual, 0, length, logSpace);
+            assertBitwiseEquals(expected, actual, "product of strides " + aStride + ", " + bStride + " and length " + length);
+        }
+    }
+
+
+    /**
+     * Sums of a hidden variable, both when it is the innermost variable and when it is far apart.
+     */
+    @Test
+    void sumOutMatchesScalar(){
+        for(int run = 0; run < RUNS; run++){
+            int length = 1 + random.nextInt(100), hiddenCount = 1 + random.nextInt(5), offset = random.nextInt(10);
+            int sourceStride, hiddenStride;
+            if(random.nextBoolean()){
+                hiddenStride = 1;
+                sourceStride = hiddenCount + random.nextInt(30);
+            }
+            else{
+                sourceStride = randomStride();
+                hiddenStride = sourceStride * length + 1 + random.nextInt(20);
+            }
+            double[] source = randomCells(offset, sourceStride, length, hiddenStride * hiddenCount);
+            double[] expected = new double[length], actual = new double[length];
+            scalar.sumOut(source, offset, sourceStride, hiddenStride, hiddenCount, expected, 0, length);
+            vector.sumOut(source, offset, sourceStride, hiddenStride, hiddenCount, actual, 0, length);
+            assertBitwiseEquals(expected, actual, "sum out of stride " + sourceStride + ", hidden stride " + hiddenStride);
+        }
+    }
+
+
+    /**
+     * Copies of runs, as evidence slices them.
+     */
+    @Test
+    void sliceMatchesScalar(){
+        for(int run = 0; run < RUNS; run++){
+            int length = 1 + random.nextInt(100), stride = randomStride(), offset = random.nextInt(10);
+            double[] source = randomCells(offset, stride, length, 0);
+            double[] expected = new double[length], actual = new double[length];
+            scalar.slice(source, offset, stride, expected, 0, length);
+            vector.slice(source, offset, stride, actual, 0, length);
+            assertBitwiseEquals(expected, actual, "slice of stride " + stride + " and length " + length);
+        }
+    }
+
+
+    /**
+     * Normalizations of runs, both the sum and the normalized cells.
+     */
+    @Test
+    void normalizeMatchesScalar(){
+        for(int run = 0; run < RUNS; run++){
+            int length = 1 + random.nextInt(100), offset = random.nextInt(10);
+            double[] expected = randomCells(offset, 1, length, 0), actual = expected.clone();
+            double expectedSum = scalar.normalize(expected, offset, length);
+            double actualSum = vector.normalize(actual, offset, length);
+            assertEquals(Double.doubleToLongBits(expectedSum), Double.doubleToLongBits(actualSum), "sum of length " + length);
+            assertBitwiseEquals(expected, actual, "normalize of length " + length);
+        }
+    }
+}